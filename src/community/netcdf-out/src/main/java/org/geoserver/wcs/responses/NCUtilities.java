@@ -34,6 +34,8 @@ import ucar.ma2.ArrayFloat;
 import ucar.ma2.ArrayInt;
 import ucar.ma2.ArrayShort;
 import ucar.ma2.DataType;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.jni.netcdf.Nc4Iosp;
 
 /**
  * A NetCDF Utilities class 
@@ -304,4 +306,39 @@ public class NCUtilities {
         return (classDataType.endsWith("Timestamp") || classDataType.endsWith("Date"));
     }
 
+    /**
+     * Returns the NetCDF format used for the output. NetCDF-4 files are chunked and deflate
+     * compressed, but require the NetCDF C library to be installed.
+     * 
+     * @param netcdf4 whether the NetCDF-4 format has been requested
+     * @throws IllegalStateException if NetCDF-4 is requested but the C library is missing
+     */
+    public static Version getOutputVersion(boolean netcdf4) {
+        if (!netcdf4) {
+            return Version.netcdf3;
+        }
+        if (!isNC4Available()) {
+            throw new IllegalStateException(
+                    "NetCDF-4 output requires the NetCDF C library, which could not be found");
+        }
+        return Version.netcdf4;
+    }
+
+    private static Boolean nc4Available;
+
+    /**
+     * Returns true if the NetCDF C library, required to write NetCDF-4 files, is available
+     */
+    public synchronized static boolean isNC4Available() {
+        if (nc4Available == null) {
+            try {
+                nc4Available = Nc4Iosp.isClibraryPresent();
+            } catch (Throwable t) {
+                // the JNA bindings could not be loaded
+                nc4Available = false;
+            }
+        }
+        return nc4Available;
+    }
+
 }
@@ -5,6 +5,8 @@
  */
 package org.geoserver.wcs.responses;
 
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -12,12 +14,15 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.geoserver.config.GeoServer;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.util.PropertyLookup;
 import org.geoserver.wcs2_0.response.GranuleStack;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.util.logging.Logging;
@@ -26,6 +31,14 @@ import ucar.ma2.InvalidRangeException;
 
 /**
  * {@link CoverageResponseDelegate} implementation for NetCDF multidimensional Grids
+ * <p>
+ * NetCDF files need random access while being written, so the output is written to a scratch
+ * file in the temporary directory and then streamed back. The scratch space used by all the
+ * requests running at the same time is limited by the {@code org.geoserver.wcs.netcdf.scratchQuota}
+ * property, in bytes (8GB by default, zero or negative to disable the limit). Requests whose
+ * uncompressed output size would exceed the remaining quota, or the usable space in the
+ * temporary directory, are rejected before anything is written.
+ * </p>
  * 
  * @author Daniele Romagnoli, GeoSolutions SAS
  */
@@ -34,25 +47,67 @@ public class NetCDFCoverageResponseDelegate extends BaseCoverageResponseDelegate
 
     private final static String MIME_TYPE = "application/x-netcdf";
 
+    private final static String NC4_FORMAT = "NetCDF4";
+
+    private final static String NC4_MIME_TYPE = "application/x-netcdf4";
+
     public static final Logger LOGGER = Logging.getLogger("org.geoserver.wcs.responses.NetCDFCoverageResponseDelegate");
 
-    @SuppressWarnings("serial")
+    static final String SCRATCH_QUOTA_KEY = "org.geoserver.wcs.netcdf.scratchQuota";
+
+    static final long DEFAULT_SCRATCH_QUOTA = 8L * 1024 * 1024 * 1024;
+
+    /**
+     * The scratch space reserved by the requests being encoded
+     */
+    static final AtomicLong SCRATCH_USAGE = new AtomicLong();
+
+    private final long scratchQuota;
+
     public NetCDFCoverageResponseDelegate(GeoServer geoserver) {
-        super(geoserver, Arrays.asList("NetCDF"/* ,"netcdf-GZIP" */), // output formats
+        this(geoserver, PropertyLookup.getLong(SCRATCH_QUOTA_KEY, DEFAULT_SCRATCH_QUOTA));
+    }
+
+    @SuppressWarnings("serial")
+    NetCDFCoverageResponseDelegate(GeoServer geoserver, long scratchQuota) {
+        super(geoserver, getSupportedFormats(), // output formats
                 new HashMap<String, String>() { // file extensions
                     {
                         put("NetCDF", "nc");
                         put("netcdf", "nc");
                         put("NETCDF", "nc");
                         put(MIME_TYPE, "nc");
+                        if (NCUtilities.isNC4Available()) {
+                            put(NC4_FORMAT, "nc");
+                            put(NC4_MIME_TYPE, "nc");
+                        }
                     }
                 }, new HashMap<String, String>() { // mime types
                     {
                         put("NetCDF", MIME_TYPE);
                         put("netcdf", MIME_TYPE);
                         put("NETCDF", MIME_TYPE);
+                        if (NCUtilities.isNC4Available()) {
+                            put(NC4_FORMAT, NC4_MIME_TYPE);
+                        }
                     }
                 });
+        this.scratchQuota = scratchQuota;
+    }
+
+    /**
+     * The chunked and compressed NetCDF-4 format is offered only when the NetCDF C library is
+     * available
+     */
+    private static List<String> getSupportedFormats() {
+        if (NCUtilities.isNC4Available()) {
+            return Arrays.asList("NetCDF", NC4_FORMAT);
+        }
+        return Arrays.asList("NetCDF"/* ,"netcdf-GZIP" */);
+    }
+
+    private boolean isNetCDF4(String outputFormat) {
+        return NC4_FORMAT.equalsIgnoreCase(outputFormat) || NC4_MIME_TYPE.equals(outputFormat);
     }
 
 //    private boolean isOutputCompressed(String outputFormat) {
@@ -80,9 +135,12 @@ public class NetCDFCoverageResponseDelegate extends BaseCoverageResponseDelegate
         // }
         File tempFile = null;
         NetCDFOutputManager manager = null;
+        long reserved = 0;
         try {
+            reserved = reserveScratchSpace(granuleStack);
             tempFile = File.createTempFile("tempNetCDF", ".nc");
-            manager = new NetCDFOutputManager(granuleStack, tempFile);
+            manager = new NetCDFOutputManager(granuleStack, tempFile,
+                    NCUtilities.getOutputVersion(isNetCDF4(outputFormat)));
             manager.write();
             streamBack(tempFile, output);
 
@@ -90,12 +148,56 @@ public class NetCDFCoverageResponseDelegate extends BaseCoverageResponseDelegate
             throw new IOException(e);
         } finally {
             sourceCoverage.dispose(true);
-            boolean deleted = FileUtils.deleteQuietly(tempFile);
-            if (!deleted) {
+            // close first, a failed write may leave the temp file open
+            if (manager != null) {
+                manager.close();
+            }
+            if (tempFile != null && !FileUtils.deleteQuietly(tempFile)) {
                 LOGGER.warning("Could not delete temp file: " + tempFile.getAbsolutePath());
             }
-            manager.close();
+            SCRATCH_USAGE.addAndGet(-reserved);
+        }
+    }
+
+    /**
+     * Reserves the scratch space needed to write the granules, failing if the quota or the
+     * temporary directory cannot accommodate them. The reservation is based on the uncompressed
+     * size, which is an upper bound when NetCDF-4 compression is used.
+     * 
+     * @return the reserved space, to be released once the scratch file is deleted
+     */
+    long reserveScratchSpace(GranuleStack granuleStack) {
+        long size = estimateSize(granuleStack);
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        if (tempDir.getUsableSpace() < size) {
+            throw new ServiceException("Not enough temporary space to encode a " + size
+                    + " bytes NetCDF output, try a smaller request");
+        }
+        long used = SCRATCH_USAGE.addAndGet(size);
+        if (scratchQuota > 0 && used > scratchQuota) {
+            SCRATCH_USAGE.addAndGet(-size);
+            throw new ServiceException("The " + size + " bytes NetCDF output exceeds the "
+                    + "available scratch space (quota is " + scratchQuota
+                    + " bytes), try a smaller request or retry later");
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the uncompressed size of the output data
+     */
+    static long estimateSize(GranuleStack granuleStack) {
+        long size = 0;
+        for (GridCoverage2D granule : granuleStack.getGranules()) {
+            RenderedImage image = granule.getRenderedImage();
+            SampleModel sm = image.getSampleModel();
+            long pixelBits = 0;
+            for (int i = 0; i < sm.getNumBands(); i++) {
+                pixelBits += sm.getSampleSize(i);
+            }
+            size += (long) image.getWidth() * image.getHeight() * pixelBits / 8;
         }
+        return size;
     }
 
     /**
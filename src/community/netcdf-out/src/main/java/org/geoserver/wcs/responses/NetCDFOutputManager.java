@@ -5,13 +5,16 @@
  */
 package org.geoserver.wcs.responses;
 
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -21,11 +24,10 @@ import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-
+import org.geoserver.platform.OWS20Exception;
 import org.geoserver.wcs.responses.NetCDFDimensionManager.DimensionValuesArray;
 import org.geoserver.wcs.responses.NetCDFDimensionManager.DimensionValuesSet;
+import org.geoserver.wcs2_0.exception.WCS20Exception;
 import org.geoserver.wcs2_0.response.DimensionBean;
 import org.geoserver.wcs2_0.response.GranuleStack;
 import org.geoserver.wcs2_0.response.DimensionBean.DimensionType;
@@ -82,14 +84,26 @@ public class NetCDFOutputManager {
     }
 
     /**
-     * {@link NetCDFOutputManager} constructor.
+     * {@link NetCDFOutputManager} constructor, writing a NetCDF-3 file.
      * @param granuleStack the granule stack to be written
      * @param file an output file
      * @throws IOException
      */
     public NetCDFOutputManager(final GranuleStack granuleStack, final File file) throws IOException {
+        this(granuleStack, file, Version.netcdf3);
+    }
+
+    /**
+     * {@link NetCDFOutputManager} constructor.
+     * @param granuleStack the granule stack to be written
+     * @param file an output file
+     * @param version the NetCDF format version, NetCDF-4 outputs are chunked and compressed
+     * @throws IOException
+     */
+    public NetCDFOutputManager(final GranuleStack granuleStack, final File file,
+            final Version version) throws IOException {
         this.granuleStack = granuleStack;
-        this.writer = NetcdfFileWriter.createNew(Version.netcdf3, file.getAbsolutePath());
+        this.writer = NetcdfFileWriter.createNew(version, file.getAbsolutePath());
         initialize();
     }
 
@@ -291,128 +305,130 @@ public class NetCDFOutputManager {
     }
 
     /**
-     * Set the variables values
+     * Set the variables values, one 2D slice at a time, so that only a single granule is
+     * held in memory regardless of the number of granules in the stack
      * @param writer
      * @throws IOException
      * @throws InvalidRangeException
      */
     private void writeDataValues() throws IOException, InvalidRangeException {
 
-        // Initialize dimensions sizes
         final int numDimensions = getNumDimensions();
-        final int[] dimSize = new int[numDimensions];
-        int iDim = 0;
-        for (NetCDFDimensionManager manager: dimensionMapping.values()) {
-            dimSize[iDim++] = getDimensionSize(manager.getName());
-        }
-
         final Variable var = writer.findVariable(sampleGranule.getName().toString());
         if (var == null) {
             throw new IllegalArgumentException("The requested variable doesn't exists: " + sampleGranule.getName());
         }
-        
-        // Get the data type for a sample image (All granules of the same coverage will use
-        final int imageDataType = sampleGranule.getRenderedImage().getSampleModel().getDataType();
-        final DataType netCDFDataType = NCUtilities.transcodeImageDataType(imageDataType);
-        final Array matrix = NCUtilities.getArray(dimSize, netCDFDataType);
+        final DataType netCDFDataType = var.getDataType();
+
+        // The slice covers a single value of each non spatial dimension
+        final int height = getDimensionSize(NCUtilities.LAT);
+        final int width = getDimensionSize(NCUtilities.LON);
+        final int[] sliceShape = new int[numDimensions];
+        Arrays.fill(sliceShape, 1);
+        sliceShape[numDimensions - 2] = height;
+        sliceShape[numDimensions - 1] = width;
+        final Array slice = NCUtilities.getArray(sliceShape, netCDFDataType);
+        final int[] origin = new int[numDimensions];
 
         // Loop over all granules
+        final Map<String, Map<Object, Integer>> dimensionIndexes = buildDimensionIndexes();
+        int written = 0;
         for (GridCoverage2D gridCoverage: granuleStack.getGranules()) {
             final RenderedImage ri = gridCoverage.getRenderedImage();
 
-            //
-            // Preparing tile properties for future scan
-            //
-            int width = ri.getWidth();
-            int height = ri.getHeight();
-            int minX = ri.getMinX();
-            int minY = ri.getMinY();
-            int maxX = minX + width - 1;
-            int maxY = minY + height - 1;
-            int tileWidth = Math.min(ri.getTileWidth(), width);
-            int tileHeight = Math.min(ri.getTileHeight(), height);
-
-            int minTileX = minX / tileWidth - (minX < 0 ? (-minX % tileWidth > 0 ? 1 : 0): 0);
-            int minTileY = minY / tileHeight - (minY < 0 ? (-minY % tileHeight > 0 ? 1 : 0): 0);
-            int maxTileX = maxX / tileWidth - (maxX < 0 ? (-maxX % tileWidth > 0 ? 1 : 0): 0);
-            int maxTileY = maxY / tileHeight - (maxY < 0 ? (-maxY % tileHeight > 0 ? 1 : 0): 0);
-
-            final Index matrixIndex = matrix.getIndex();
-            final int indexing[] = new int[numDimensions];
-
-            // Update the NetCDF array indexing to set values for a specific 2D slice 
-            updateIndexing(indexing, gridCoverage);
-
-            // ----------------
-            // Fill data matrix
-            // ----------------
-
-            // Loop over bands using a RandomIter 
-            final RandomIter data = RandomIterFactory.create(ri, null);
-            for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
-                for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
-                    for (int trow = 0; trow < tileHeight; trow++) {
-                        int j = (tileY * tileHeight) + trow;
-                        if ((j >= minY) && (j <= maxY)) {
-                            for (int tcol = 0; tcol < tileWidth; tcol++) {
-                                int col = (tileX * tileWidth) + tcol;
-                                if ((col >= minX) && (col <= maxX)) {
-                                    int k = col;
-                                    final int yPos = height - j + minY - 1;
-
-                                    // Simply setting lat and lon
-                                    indexing[numDimensions - 1] = k - minX;
-                                    indexing[numDimensions - 2] = yPos;
-                                    matrixIndex.set(indexing);
-
-                                    // Write data
-                                    switch (netCDFDataType) {
-                                    case BYTE:
-                                        byte sampleByte = (byte) data.getSampleFloat(k, j, 0);
-                                        matrix.setByte(matrixIndex, sampleByte);
-                                        break;
-                                    case SHORT:
-                                        short sampleShort = (short) data.getSampleFloat(k, j, 0);
-                                        matrix.setShort(matrixIndex, sampleShort);
-                                        break;
-                                    case INT:
-                                        int sampleInt = (int) data.getSampleFloat(k, j, 0);
-                                        matrix.setInt(matrixIndex, sampleInt);
-                                        break;
-                                    case FLOAT:
-                                        float sampleFloat = data.getSampleFloat(k, j, 0);
-                                        matrix.setFloat(matrixIndex, sampleFloat);
-                                        break;
-                                    case DOUBLE:
-                                        double sampleDouble = data.getSampleDouble(k, j, 0);
-                                        matrix.setDouble(matrixIndex, sampleDouble);
-                                        break;
-                                    }
-                                }
-                            }
+            // Update the NetCDF array origin to write a specific 2D slice 
+            updateIndexing(origin, gridCoverage, dimensionIndexes);
+            fillSlice(ri, slice, netCDFDataType);
+
+            // ------------------------------
+            // Write the slice to the variable
+            // ------------------------------
+            writer.write(var, origin, slice);
+            written++;
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Written slice " + written + " of " + granuleStack.getGranules().size());
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Copies the first band of the image into the slice array, flipping it vertically since
+     * NetCDF latitudes grow northwards. The image is read one tile row at a time
+     */
+    private void fillSlice(final RenderedImage ri, final Array slice,
+            final DataType netCDFDataType) {
+        final int width = ri.getWidth();
+        final int height = ri.getHeight();
+        final int minX = ri.getMinX();
+        final int minY = ri.getMinY();
+        final int stripHeight = Math.max(1, Math.min(ri.getTileHeight(), height));
+        double[] doubleRow = null;
+        float[] floatRow = null;
+        for (int stripY = minY; stripY < minY + height; stripY += stripHeight) {
+            final int rows = Math.min(stripHeight, minY + height - stripY);
+            final Raster strip = ri.getData(new Rectangle(minX, stripY, width, rows));
+            for (int j = stripY; j < stripY + rows; j++) {
+                // the slice is stored in row major order, with the last row of the image first
+                final int rowStart = (height - (j - minY) - 1) * width;
+                if (netCDFDataType == DataType.DOUBLE) {
+                    doubleRow = strip.getSamples(minX, j, width, 1, 0, doubleRow);
+                    for (int i = 0; i < width; i++) {
+                        slice.setDouble(rowStart + i, doubleRow[i]);
+                    }
+                } else {
+                    floatRow = strip.getSamples(minX, j, width, 1, 0, floatRow);
+                    for (int i = 0; i < width; i++) {
+                        final float sample = floatRow[i];
+                        switch (netCDFDataType) {
+                        case BYTE:
+                            slice.setByte(rowStart + i, (byte) sample);
+                            break;
+                        case SHORT:
+                            slice.setShort(rowStart + i, (short) sample);
+                            break;
+                        case INT:
+                            slice.setInt(rowStart + i, (int) sample);
+                            break;
+                        default:
+                            slice.setFloat(rowStart + i, sample);
+                            break;
                         }
                     }
                 }
             }
-            // Finalize the iterator 
-            data.done();
         }
+    }
 
-        // ------------------------------
-        // Write the data to the variable
-        // ------------------------------
-        writer.write(var, matrix);
-        writer.flush();
+    /**
+     * Builds a lookup from dimension value to its position in the NetCDF dimension, for each
+     * non spatial dimension
+     */
+    private Map<String, Map<Object, Integer>> buildDimensionIndexes() {
+        Map<String, Map<Object, Integer>> indexes = new HashMap<String, Map<Object, Integer>>();
+        for (NetCDFDimensionManager manager : dimensionMapping.values()) {
+            if (manager.getCoverageDimension() != null) {
+                Map<Object, Integer> index = new HashMap<Object, Integer>();
+                int position = 0;
+                for (Object value : (Set<Object>) manager.getDimensionValues().getValues()) {
+                    index.put(value, position++);
+                }
+                indexes.put(manager.getName(), index);
+            }
+        }
+        return indexes;
     }
 
     /**
      * Setup the proper NetCDF array indexing, taking current dimension values from the current coverage 
      * @param indexing
      * @param currentCoverage
+     * @param dimensionIndexes the position of each dimension value, by dimension name
+     * @throws WCS20Exception if the coverage has a dimension value not found in the output
      */
-    private void updateIndexing(final int[] indexing, final GridCoverage2D currentCoverage) {
+    private void updateIndexing(final int[] indexing, final GridCoverage2D currentCoverage,
+            final Map<String, Map<Object, Integer>> dimensionIndexes) {
         int i = 0;
-        int dimElement = 0;
         final Map properties = currentCoverage.getProperties();
         for (NetCDFDimensionManager manager : dimensionMapping.values()) {
             // Loop over dimensions
@@ -422,21 +438,15 @@ public class NetCDFOutputManager {
 
                 // Get the current value for that dimension for this coverage
                 final Object val = properties.get(dimensionName);
-
-                // Get all the values for that dimension, looking for the one 
-                // which matches the coverage's one
-                // TODO: Improve this search. Make it more smart/performant
-                final Set<Object> values = (Set<Object>) manager.getDimensionValues().getValues();
-                final Iterator<Object> it = values.iterator(); 
-                while (it.hasNext()) {
-                    Object value = it.next();
-                    if (value.equals(val)) {
-                        indexing[i++] = dimElement;
-                        dimElement = 0; 
-                        break;
-                    }
-                    dimElement++;
+                final Integer position = dimensionIndexes.get(dimensionName).get(val);
+                if (position == null) {
+                    // writing it anywhere would overwrite the slice of another granule
+                    throw new WCS20Exception("Granule " + currentCoverage.getName() + " has value "
+                            + val + " for dimension " + dimensionName
+                            + ", which is not part of the output dimension values",
+                            OWS20Exception.OWSExceptionCode.NoApplicableCode, dimensionName);
                 }
+                indexing[i++] = position;
             }
         }
     }
@@ -542,6 +552,7 @@ public class NetCDFOutputManager {
 
         // Close the writer
         writer.close();
+        writer = null;
 
     }
 
@@ -550,6 +561,15 @@ public class NetCDFOutputManager {
      */
     public void close() {
         // release resources
+        if (writer != null) {
+            // the write failed midway
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close the NetCDF writer", e);
+            }
+            writer = null;
+        }
         for (NetCDFDimensionManager manager: dimensionMapping.values()){
             manager.dispose();
         }
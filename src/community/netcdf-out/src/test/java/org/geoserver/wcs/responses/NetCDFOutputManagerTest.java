@@ -0,0 +1,202 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.media.jai.RasterFactory;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wcs2_0.exception.WCS20Exception;
+import org.geoserver.wcs2_0.response.DimensionBean;
+import org.geoserver.wcs2_0.response.DimensionBean.DimensionType;
+import org.geoserver.wcs2_0.response.GranuleStackImpl;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.util.logging.Logging;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ucar.ma2.Array;
+import ucar.ma2.Index;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+
+public class NetCDFOutputManagerTest {
+
+    static final Logger LOGGER = Logging.getLogger(NetCDFOutputManagerTest.class);
+
+    static final long HOUR = 3600 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File file;
+
+    @Before
+    public void setup() throws Exception {
+        file = folder.newFile("netcdf.nc");
+    }
+
+    @Test
+    public void testSliceBySliceWrite() throws Exception {
+        // granules are added in reverse time order, the output is sorted anyways
+        GranuleStackImpl stack = buildTimeStack(5, 20, 10, true);
+        NetCDFOutputManager manager = new NetCDFOutputManager(stack, file, Version.netcdf3);
+        try {
+            manager.write();
+        } finally {
+            manager.close();
+        }
+
+        NetcdfFile nc = NetcdfFile.open(file.getAbsolutePath());
+        try {
+            Variable time = nc.findVariable("time");
+            assertNotNull(time);
+            Array times = time.read();
+            assertEquals(5, times.getSize());
+            for (int t = 0; t < 5; t++) {
+                assertEquals(t * 3600d, times.getDouble(t), 0d);
+            }
+
+            Variable data = nc.findVariable("NO2");
+            assertNotNull(data);
+            Array values = data.read();
+            Index index = values.getIndex();
+            for (int t = 0; t < 5; t++) {
+                for (int y = 0; y < 10; y++) {
+                    for (int x = 0; x < 20; x++) {
+                        // NetCDF rows go south to north, image rows north to south
+                        float expected = sample(t, x, 10 - y - 1);
+                        assertEquals(expected, values.getFloat(index.set(t, y, x)), 0f);
+                    }
+                }
+            }
+        } finally {
+            nc.close();
+        }
+    }
+
+    @Test
+    public void testMissingDimensionValue() throws Exception {
+        GranuleStackImpl stack = buildTimeStack(2, 20, 10, false);
+        // a granule without a time value must not overwrite the first slice
+        GridCoverage2D first = stack.getGranules().get(0);
+        stack.addCoverage(new GridCoverageFactory().create("NO2", first.getRenderedImage(),
+                first.getEnvelope(), first.getSampleDimensions(), null,
+                new HashMap<String, Object>()));
+        NetCDFOutputManager manager = new NetCDFOutputManager(stack, file, Version.netcdf3);
+        try {
+            manager.write();
+            fail("Should have failed, the last granule has no time value");
+        } catch (WCS20Exception e) {
+            assertEquals("TIME", e.getLocator());
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testScratchQuota() throws Exception {
+        // 3 float slices of 20x10, 2400 bytes
+        GranuleStackImpl stack = buildTimeStack(3, 20, 10, false);
+        assertEquals(2400, NetCDFCoverageResponseDelegate.estimateSize(stack));
+
+        NetCDFCoverageResponseDelegate delegate = new NetCDFCoverageResponseDelegate(null, 4000);
+        long reserved = delegate.reserveScratchSpace(stack);
+        try {
+            // a second concurrent request does not fit
+            delegate.reserveScratchSpace(stack);
+            fail("Should have failed, the scratch quota is exceeded");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage().contains("quota is 4000 bytes"));
+        } finally {
+            NetCDFCoverageResponseDelegate.SCRATCH_USAGE.addAndGet(-reserved);
+        }
+        assertEquals(0, NetCDFCoverageResponseDelegate.SCRATCH_USAGE.get());
+
+        // no limit
+        delegate = new NetCDFCoverageResponseDelegate(null, 0);
+        reserved = delegate.reserveScratchSpace(stack);
+        NetCDFCoverageResponseDelegate.SCRATCH_USAGE.addAndGet(-reserved);
+        assertEquals(2400, reserved);
+    }
+
+    /**
+     * Measures the output throughput for a synthetic 1000 slices time series. Enable it with
+     * -Dnetcdf.benchmark=true
+     */
+    @Test
+    public void testBenchmarkTimeSeries() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("netcdf.benchmark"));
+        final int slices = 1000;
+        final int width = 512;
+        final int height = 256;
+        GranuleStackImpl stack = buildTimeStack(slices, width, height, false);
+        Version version = NCUtilities.getOutputVersion(NCUtilities.isNC4Available());
+
+        long start = System.currentTimeMillis();
+        NetCDFOutputManager manager = new NetCDFOutputManager(stack, file, version);
+        try {
+            manager.write();
+        } finally {
+            manager.close();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        double inputMB = (double) slices * width * height * 4 / (1024 * 1024);
+        LOGGER.info(String.format("Wrote %d slices (%.1f MB of samples) as %s in %d ms, "
+                + "%.1f MB/s, output size %.1f MB", slices, inputMB, version, elapsed, inputMB
+                * 1000 / elapsed, file.length() / (1024d * 1024d)));
+    }
+
+    static float sample(int t, int x, int y) {
+        return t * 10000 + y * 100 + x;
+    }
+
+    GranuleStackImpl buildTimeStack(int slices, int width, int height, boolean reverse) {
+        DimensionBean timeDimension = new DimensionBean("TIME", "ISO8601", "", "java.util.Date",
+                DimensionType.TIME, false);
+        ReferencedEnvelope envelope = new ReferencedEnvelope(0, width, 0, height,
+                DefaultGeographicCRS.WGS84);
+        GranuleStackImpl stack = new GranuleStackImpl("NO2", DefaultGeographicCRS.WGS84,
+                Collections.singletonList(timeDimension));
+        GridCoverageFactory factory = new GridCoverageFactory();
+        for (int i = 0; i < slices; i++) {
+            int t = reverse ? slices - i - 1 : i;
+            WritableRaster raster = RasterFactory.createBandedRaster(DataBuffer.TYPE_FLOAT,
+                    width, height, 1, null);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    raster.setSample(x, y, 0, sample(t, x, y));
+                }
+            }
+            GridCoverage2D coverage = factory.create("NO2", raster, envelope);
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put("TIME", new Date(t * HOUR));
+            stack.addCoverage(factory.create("NO2", coverage.getRenderedImage(),
+                    coverage.getEnvelope(), coverage.getSampleDimensions(), null, properties));
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,385 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Encodes features in the Mapbox Vector Tile format, version 2. The protocol buffer messages are
+ * written directly, the format is small enough that a generated parser is not needed.
+ * <p>
+ * Geometries are expected to be already in tile coordinates, that is, with the origin in the upper
+ * left corner of the tile and the y axis pointing down, ranging from 0 to the tile extent. The
+ * encoder quantizes them to integers, removes the repeated points that quantization can generate,
+ * and orients the polygon rings as the specification requires.
+ * </p>
+ */
+public class VectorTileEncoder {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int MOVE_TO = 1;
+
+    static final int LINE_TO = 2;
+
+    static final int CLOSE_PATH = 7;
+
+    static final int POINT = 1;
+
+    static final int LINESTRING = 2;
+
+    static final int POLYGON = 3;
+
+    static final int WIRE_VARINT = 0;
+
+    static final int WIRE_FIXED64 = 1;
+
+    static final int WIRE_LENGTH_DELIMITED = 2;
+
+    static final int WIRE_FIXED32 = 5;
+
+    static class Feature {
+        int type;
+
+        List<Integer> tags = new ArrayList<Integer>();
+
+        List<Integer> geometry;
+    }
+
+    static class Layer {
+        Map<String, Integer> keys = new LinkedHashMap<String, Integer>();
+
+        Map<Object, Integer> values = new LinkedHashMap<Object, Integer>();
+
+        List<Feature> features = new ArrayList<Feature>();
+
+        int key(String key) {
+            Integer idx = keys.get(key);
+            if (idx == null) {
+                idx = keys.size();
+                keys.put(key, idx);
+            }
+            return idx;
+        }
+
+        int value(Object value) {
+            Integer idx = values.get(value);
+            if (idx == null) {
+                idx = values.size();
+                values.put(value, idx);
+            }
+            return idx;
+        }
+    }
+
+    final int extent;
+
+    final Map<String, Layer> layers = new LinkedHashMap<String, Layer>();
+
+    /**
+     * Builds a new encoder
+     *
+     * @param extent the size of the tile in tile units, usually 4096
+     */
+    public VectorTileEncoder(int extent) {
+        this.extent = extent;
+    }
+
+    /**
+     * Adds a feature to the specified layer. Features whose geometry collapses once quantized are
+     * skipped.
+     *
+     * @param layerName the layer name
+     * @param attributes the feature attributes, null values are skipped
+     * @param geometry the geometry, in tile coordinates
+     * @return true if the feature has been added, false if it was skipped
+     */
+    public boolean addFeature(String layerName, Map<String, Object> attributes, Geometry geometry) {
+        if (geometry == null || geometry.isEmpty()) {
+            return false;
+        }
+        Feature feature = new Feature();
+        feature.type = geometryType(geometry);
+        if (feature.type == 0) {
+            return false;
+        }
+        feature.geometry = encodeGeometry(geometry);
+        if (feature.geometry.isEmpty()) {
+            return false;
+        }
+
+        Layer layer = layers.get(layerName);
+        if (layer == null) {
+            layer = new Layer();
+            layers.put(layerName, layer);
+        }
+        if (attributes != null) {
+            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                Object value = normalizeValue(entry.getValue());
+                if (value == null) {
+                    continue;
+                }
+                feature.tags.add(layer.key(entry.getKey()));
+                feature.tags.add(layer.value(value));
+            }
+        }
+        layer.features.add(feature);
+        return true;
+    }
+
+    /**
+     * Returns true if no feature has been added so far
+     */
+    public boolean isEmpty() {
+        return layers.isEmpty();
+    }
+
+    static Object normalizeValue(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean
+                || value instanceof Double || value instanceof Float) {
+            return value;
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).doubleValue();
+        } else {
+            return value.toString();
+        }
+    }
+
+    static int geometryType(Geometry geometry) {
+        if (geometry instanceof Point || geometry instanceof MultiPoint) {
+            return POINT;
+        } else if (geometry instanceof LineString || geometry instanceof MultiLineString) {
+            return LINESTRING;
+        } else if (geometry instanceof Polygon || geometry instanceof MultiPolygon) {
+            return POLYGON;
+        }
+        // heterogeneous collections cannot be represented
+        return 0;
+    }
+
+    /**
+     * Encodes the geometry as a sequence of commands and zig-zag delta encoded parameters
+     */
+    static List<Integer> encodeGeometry(Geometry geometry) {
+        List<Integer> commands = new ArrayList<Integer>();
+        int[] cursor = new int[2];
+        int type = geometryType(geometry);
+        if (type == POINT) {
+            List<int[]> points = new ArrayList<int[]>();
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                Coordinate c = geometry.getGeometryN(i).getCoordinate();
+                points.add(new int[] { (int) Math.round(c.x), (int) Math.round(c.y) });
+            }
+            commands.add(command(MOVE_TO, points.size()));
+            for (int[] point : points) {
+                addDelta(commands, cursor, point);
+            }
+        } else if (type == LINESTRING) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                List<int[]> points = quantize(geometry.getGeometryN(i).getCoordinates(), false);
+                if (points.size() >= 2) {
+                    addPath(commands, cursor, points, false);
+                }
+            }
+        } else if (type == POLYGON) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                Polygon polygon = (Polygon) geometry.getGeometryN(i);
+                List<int[]> shell = quantize(polygon.getExteriorRing().getCoordinates(), true);
+                if (shell.size() < 3) {
+                    continue;
+                }
+                orient(shell, true);
+                addPath(commands, cursor, shell, true);
+                for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                    List<int[]> hole = quantize(polygon.getInteriorRingN(j).getCoordinates(),
+                            true);
+                    if (hole.size() >= 3) {
+                        orient(hole, false);
+                        addPath(commands, cursor, hole, true);
+                    }
+                }
+            }
+        }
+        return commands;
+    }
+
+    static List<int[]> quantize(Coordinate[] coordinates, boolean ring) {
+        List<int[]> points = new ArrayList<int[]>(coordinates.length);
+        int[] last = null;
+        int count = ring ? coordinates.length - 1 : coordinates.length;
+        for (int i = 0; i < count; i++) {
+            int[] point = { (int) Math.round(coordinates[i].x),
+                    (int) Math.round(coordinates[i].y) };
+            if (last == null || last[0] != point[0] || last[1] != point[1]) {
+                points.add(point);
+                last = point;
+            }
+        }
+        // the ring closes on its own, drop the last point if it's a repetition of the first
+        if (ring && points.size() > 1) {
+            int[] first = points.get(0);
+            if (first[0] == last[0] && first[1] == last[1]) {
+                points.remove(points.size() - 1);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Makes exterior rings have a positive area, and interior ones a negative area, with the area
+     * computed in tile coordinates using the surveyor's formula
+     */
+    static void orient(List<int[]> ring, boolean exterior) {
+        long area = 0;
+        for (int i = 0; i < ring.size(); i++) {
+            int[] a = ring.get(i);
+            int[] b = ring.get((i + 1) % ring.size());
+            area += (long) a[0] * b[1] - (long) b[0] * a[1];
+        }
+        if ((exterior && area < 0) || (!exterior && area > 0)) {
+            Collections.reverse(ring);
+        }
+    }
+
+    static void addPath(List<Integer> commands, int[] cursor, List<int[]> points, boolean close) {
+        commands.add(command(MOVE_TO, 1));
+        addDelta(commands, cursor, points.get(0));
+        commands.add(command(LINE_TO, points.size() - 1));
+        for (int i = 1; i < points.size(); i++) {
+            addDelta(commands, cursor, points.get(i));
+        }
+        if (close) {
+            commands.add(command(CLOSE_PATH, 1));
+        }
+    }
+
+    static void addDelta(List<Integer> commands, int[] cursor, int[] point) {
+        commands.add(zigZag(point[0] - cursor[0]));
+        commands.add(zigZag(point[1] - cursor[1]));
+        cursor[0] = point[0];
+        cursor[1] = point[1];
+    }
+
+    static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    /**
+     * Encodes the tile
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream tile = new ByteArrayOutputStream();
+        for (Map.Entry<String, Layer> entry : layers.entrySet()) {
+            writeMessage(tile, 3, encodeLayer(entry.getKey(), entry.getValue()));
+        }
+        return tile.toByteArray();
+    }
+
+    byte[] encodeLayer(String name, Layer layer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTag(out, 15, WIRE_VARINT);
+        writeVarint(out, 2);
+        writeMessage(out, 1, name.getBytes(UTF8));
+        for (Feature feature : layer.features) {
+            writeMessage(out, 2, encodeFeature(feature));
+        }
+        for (String key : layer.keys.keySet()) {
+            writeMessage(out, 3, key.getBytes(UTF8));
+        }
+        for (Object value : layer.values.keySet()) {
+            writeMessage(out, 4, encodeValue(value));
+        }
+        writeTag(out, 5, WIRE_VARINT);
+        writeVarint(out, extent);
+        return out.toByteArray();
+    }
+
+    byte[] encodeFeature(Feature feature) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!feature.tags.isEmpty()) {
+            writeMessage(out, 2, packed(feature.tags));
+        }
+        writeTag(out, 3, WIRE_VARINT);
+        writeVarint(out, feature.type);
+        writeMessage(out, 4, packed(feature.geometry));
+        return out.toByteArray();
+    }
+
+    byte[] encodeValue(Object value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (value instanceof String) {
+            writeMessage(out, 1, ((String) value).getBytes(UTF8));
+        } else if (value instanceof Float) {
+            writeTag(out, 2, WIRE_FIXED32);
+            writeFixed(out, Float.floatToIntBits((Float) value), 4);
+        } else if (value instanceof Double) {
+            writeTag(out, 3, WIRE_FIXED64);
+            writeFixed(out, Double.doubleToLongBits((Double) value), 8);
+        } else if (value instanceof Long) {
+            long l = (Long) value;
+            writeTag(out, 6, WIRE_VARINT);
+            writeVarint(out, (l << 1) ^ (l >> 63));
+        } else if (value instanceof Boolean) {
+            writeTag(out, 7, WIRE_VARINT);
+            writeVarint(out, ((Boolean) value) ? 1 : 0);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] packed(List<Integer> values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(values.size() * 2);
+        for (Integer value : values) {
+            writeVarint(out, value & 0xFFFFFFFFL);
+        }
+        return out.toByteArray();
+    }
+
+    static void writeMessage(ByteArrayOutputStream out, int field, byte[] contents) {
+        writeTag(out, field, WIRE_LENGTH_DELIMITED);
+        writeVarint(out, contents.length);
+        out.write(contents, 0, contents.length);
+    }
+
+    static void writeTag(ByteArrayOutputStream out, int field, int wireType) {
+        writeVarint(out, (field << 3) | wireType);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static void writeFixed(ByteArrayOutputStream out, long value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            out.write((int) (value >>> (8 * i)) & 0xFF);
+        }
+    }
+}
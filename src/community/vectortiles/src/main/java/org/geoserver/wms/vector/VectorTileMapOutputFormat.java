@@ -0,0 +1,318 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetMapOutputFormat;
+import org.geoserver.wms.MapProducerCapabilities;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.RawMap;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.GeometryClipper;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.referencing.CRS;
+import org.geotools.renderer.lite.RendererUtilities;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleAttributeExtractor;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+import org.opengis.feature.Property;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.google.common.collect.ImmutableSet;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
+
+/**
+ * Produces Mapbox Vector Tiles out of the vector layers of a GetMap request.
+ * <p>
+ * Each feature is transformed in tile coordinates, clipped to the tile area enlarged by a buffer,
+ * simplified and quantized to the tile grid. As in the renderer, only the features matched by a
+ * style rule active at the map scale are included, and only with the attributes used by those
+ * rules, along with the geometry. Raster layers are skipped.
+ * </p>
+ * <p>
+ * The buffer, in pixels, is taken from the request {@code buffer} parameter, defaulting to
+ * {@link #DEFAULT_BUFFER}.
+ * </p>
+ */
+public class VectorTileMapOutputFormat implements GetMapOutputFormat {
+
+    static final Logger LOGGER = Logging.getLogger(VectorTileMapOutputFormat.class);
+
+    public static final String MIME_TYPE = "application/x-protobuf;type=mapbox-vector";
+
+    static final Set<String> OUTPUT_FORMATS = ImmutableSet.of(MIME_TYPE, "mapbox-vector", "pbf");
+
+    /**
+     * The size of the tile, in tile units
+     */
+    public static final int EXTENT = 4096;
+
+    /**
+     * The buffer around the tile, in pixels, used when the request does not specify one
+     */
+    public static final int DEFAULT_BUFFER = 16;
+
+    /**
+     * The simplification tolerance, in tile units. Lower than one so that the simplification does
+     * not remove more than the quantization would
+     */
+    static final double SIMPLIFICATION_TOLERANCE = 0.8;
+
+    /**
+     * Tiled, no multi value, no palette, transparent
+     */
+    static final MapProducerCapabilities CAPABILITIES = new MapProducerCapabilities(true, false,
+            false, true, null);
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    /**
+     * The tolerance used when comparing the scale denominator with the rule scale ranges
+     */
+    static final double TOLERANCE = 1e-6;
+
+    @Override
+    public Set<String> getOutputFormatNames() {
+        return OUTPUT_FORMATS;
+    }
+
+    @Override
+    public String getMimeType() {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public MapProducerCapabilities getCapabilities(String format) {
+        return CAPABILITIES;
+    }
+
+    @Override
+    public WebMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
+        final ReferencedEnvelope area = mapContent.getRenderingArea();
+        final int width = mapContent.getMapWidth();
+        final int height = mapContent.getMapHeight();
+        int buffer = mapContent.getBuffer() > 0 ? mapContent.getBuffer() : DEFAULT_BUFFER;
+
+        // from world to tile coordinates, with the y axis pointing down
+        double sx = EXTENT / area.getWidth();
+        double sy = EXTENT / area.getHeight();
+        AffineTransformation toTile = new AffineTransformation(sx, 0, -area.getMinX() * sx, 0,
+                -sy, area.getMaxY() * sy);
+        double bufferX = buffer * EXTENT / (double) width;
+        double bufferY = buffer * EXTENT / (double) height;
+        Envelope clipArea = new Envelope(-bufferX, EXTENT + bufferX, -bufferY, EXTENT + bufferY);
+
+        // the area to query, in the map CRS
+        ReferencedEnvelope queryArea = new ReferencedEnvelope(area);
+        queryArea.expandBy(buffer * area.getWidth() / width, buffer * area.getHeight() / height);
+
+        // same scale the renderer would use to select the active rules
+        final double scaleDenominator = mapContent.getRequest() == null ? RendererUtilities
+                .calculateOGCScale(area, width, null) : mapContent.getScaleDenominator(true);
+
+        VectorTileEncoder encoder = new VectorTileEncoder(EXTENT);
+        for (Layer layer : mapContent.layers()) {
+            if (!(layer instanceof FeatureLayer)) {
+                LOGGER.fine("Skipping non vector layer " + layer.getTitle());
+                continue;
+            }
+            try {
+                encodeLayer((FeatureLayer) layer, scaleDenominator, queryArea, toTile, clipArea,
+                        encoder);
+            } catch (Exception e) {
+                throw new ServiceException("Failed to encode layer " + layer.getTitle()
+                        + " in vector tile", e);
+            }
+        }
+
+        return new RawMap(mapContent, encoder.encode(), MIME_TYPE);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    void encodeLayer(FeatureLayer layer, double scaleDenominator, ReferencedEnvelope queryArea,
+            AffineTransformation toTile, Envelope clipArea, VectorTileEncoder encoder)
+            throws Exception {
+        // as in the renderer, only the features matched by a rule active at this scale are
+        // included
+        Filter styleFilter = Filter.INCLUDE;
+        List<Rule> rules = null;
+        if (layer.getStyle() != null) {
+            rules = getActiveRules(layer.getStyle(), scaleDenominator);
+            if (rules.isEmpty()) {
+                LOGGER.fine("No active rules for layer " + layer.getTitle() + " at scale "
+                        + scaleDenominator + ", skipping it");
+                return;
+            }
+            styleFilter = getRulesFilter(rules);
+        }
+
+        FeatureSource source = layer.getFeatureSource();
+        FeatureType schema = source.getSchema();
+        GeometryDescriptor gd = schema.getGeometryDescriptor();
+        if (gd == null) {
+            return;
+        }
+        String layerName = schema.getName().getLocalPart();
+        String geometryName = gd.getLocalName();
+
+        // query only the tile area and the styled features, with the attributes needed by the
+        // active rules
+        Query query = new Query(layer.getQuery());
+        CoordinateReferenceSystem nativeCRS = gd.getCoordinateReferenceSystem();
+        CoordinateReferenceSystem mapCRS = queryArea.getCoordinateReferenceSystem();
+        ReferencedEnvelope nativeArea = queryArea;
+        if (nativeCRS != null && mapCRS != null && !CRS.equalsIgnoreMetadata(nativeCRS, mapCRS)) {
+            nativeArea = queryArea.transform(nativeCRS, true);
+            query.setCoordinateSystemReproject(mapCRS);
+        }
+        List<Filter> filters = new ArrayList<Filter>();
+        if (query.getFilter() != null && query.getFilter() != Filter.INCLUDE) {
+            filters.add(query.getFilter());
+        }
+        filters.add(FF.bbox(FF.property(geometryName), nativeArea));
+        if (styleFilter != Filter.INCLUDE) {
+            filters.add(styleFilter);
+        }
+        query.setFilter(filters.size() == 1 ? filters.get(0) : FF.and(filters));
+        List<String> attributes = getStyleAttributes(rules, schema, geometryName);
+        List<String> propertyNames = new ArrayList<String>(attributes);
+        propertyNames.add(geometryName);
+        query.setPropertyNames(propertyNames);
+
+        GeometryClipper clipper = new GeometryClipper(clipArea);
+        FeatureCollection features = source.getFeatures(query);
+        FeatureIterator it = features.features();
+        try {
+            while (it.hasNext()) {
+                Feature feature = it.next();
+                Property geometryProperty = feature.getProperty(geometryName);
+                Geometry geometry = geometryProperty == null ? null : (Geometry) geometryProperty
+                        .getValue();
+                geometry = toTileGeometry(geometry, toTile, clipArea, clipper);
+                if (geometry == null) {
+                    continue;
+                }
+                Map<String, Object> values = new LinkedHashMap<String, Object>();
+                for (String attribute : attributes) {
+                    Property p = feature.getProperty(attribute);
+                    if (p != null) {
+                        values.put(attribute, p.getValue());
+                    }
+                }
+                encoder.addFeature(layerName, values, geometry);
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Transforms the geometry in tile coordinates, clips it to the buffered tile area and
+     * simplifies it. Returns null if nothing is left.
+     */
+    static Geometry toTileGeometry(Geometry geometry, AffineTransformation toTile,
+            Envelope clipArea, GeometryClipper clipper) {
+        if (geometry == null || geometry.isEmpty()) {
+            return null;
+        }
+        Geometry result = toTile.transform(geometry);
+        if (!clipArea.contains(result.getEnvelopeInternal())) {
+            result = clipper.clip(result, true);
+            if (result == null || result.isEmpty()) {
+                return null;
+            }
+        }
+        if (result.getDimension() > 0) {
+            result = DouglasPeuckerSimplifier.simplify(result, SIMPLIFICATION_TOLERANCE);
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Selects the rules active at the specified scale
+     */
+    static List<Rule> getActiveRules(Style style, double scaleDenominator) {
+        List<Rule> result = new ArrayList<Rule>();
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule rule : fts.rules()) {
+                if ((rule.getMinScaleDenominator() - TOLERANCE <= scaleDenominator)
+                        && (rule.getMaxScaleDenominator() + TOLERANCE > scaleDenominator)) {
+                    result.add(rule);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the filter matching the features painted by at least one of the rules, that is,
+     * the OR of the rule filters, or {@link Filter#INCLUDE} if any rule has no filter or is an
+     * else rule
+     */
+    static Filter getRulesFilter(List<Rule> rules) {
+        List<Filter> filters = new ArrayList<Filter>();
+        for (Rule rule : rules) {
+            Filter filter = rule.getFilter();
+            if (rule.isElseFilter() || filter == null || filter == Filter.INCLUDE) {
+                return Filter.INCLUDE;
+            }
+            filters.add(filter);
+        }
+        return filters.size() == 1 ? filters.get(0) : FF.or(filters);
+    }
+
+    /**
+     * Returns the non geometric attributes used by the rules that are found in the schema
+     */
+    static List<String> getStyleAttributes(List<Rule> rules, FeatureType schema,
+            String geometryName) {
+        Set<String> names = new TreeSet<String>();
+        if (rules != null) {
+            StyleAttributeExtractor extractor = new StyleAttributeExtractor();
+            for (Rule rule : rules) {
+                rule.accept(extractor);
+            }
+            names.addAll(Arrays.asList(extractor.getAttributeNames()));
+        }
+        List<String> result = new ArrayList<String>();
+        for (String name : names) {
+            if (!name.equals(geometryName) && schema.getDescriptor(name) != null) {
+                result.add(name);
+            }
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Vector tile attributes for " + schema.getName() + ": " + result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,66 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.data.test.MockData;
+import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.layer.GeoServerTileLayer;
+import org.geoserver.wms.WMSTestSupport;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+import org.junit.After;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+/**
+ * Checks vector tiles are cached by the tile layers, going through the non meta tiled path of
+ * {@link GeoServerTileLayer}
+ */
+public class VectorTileCachingTest extends WMSTestSupport {
+
+    @After
+    public void disableIntegration() {
+        GWC.get().getConfig().setDirectWMSIntegrationEnabled(false);
+    }
+
+    @Test
+    public void testCachedTile() throws Exception {
+        GWC gwc = GWC.get();
+        gwc.getConfig().setDirectWMSIntegrationEnabled(true);
+        String layerId = getLayerId(MockData.BASIC_POLYGONS);
+        GeoServerTileLayer tileLayer = (GeoServerTileLayer) gwc.getTileLayerByName(layerId);
+        tileLayer.getInfo().getMimeFormats().add(VectorTileMapOutputFormat.MIME_TYPE);
+        gwc.save(tileLayer);
+
+        GridSubset gridSubset = tileLayer.getGridSubset("EPSG:4326");
+        long[] coverage = gridSubset.getCoverage(0);
+        BoundingBox bounds = gridSubset.boundsFromIndex(new long[] { coverage[0], coverage[1],
+                coverage[4] });
+        String path = "wms?service=WMS&version=1.1.1&request=GetMap&layers=" + layerId
+                + "&styles=&srs=EPSG:4326&bbox=" + bounds + "&width="
+                + gridSubset.getGridSet().getTileWidth() + "&height="
+                + gridSubset.getGridSet().getTileHeight()
+                + "&format=application/x-protobuf%3Btype%3Dmapbox-vector&tiled=true";
+
+        MockHttpServletResponse miss = getAsServletResponse(path);
+        assertEquals(200, miss.getStatusCode());
+        assertEquals(VectorTileMapOutputFormat.MIME_TYPE, miss.getContentType());
+        assertEquals("MISS", miss.getHeader("geowebcache-cache-result"));
+        byte[] tile = getBinary(miss);
+        assertTrue(tile.length > 0);
+
+        // the tile has been stored as is, without meta tiling
+        MockHttpServletResponse hit = getAsServletResponse(path);
+        assertEquals(200, hit.getStatusCode());
+        assertEquals(VectorTileMapOutputFormat.MIME_TYPE, hit.getContentType());
+        assertEquals("HIT", hit.getHeader("geowebcache-cache-result"));
+        assertArrayEquals(tile, getBinary(hit));
+    }
+}
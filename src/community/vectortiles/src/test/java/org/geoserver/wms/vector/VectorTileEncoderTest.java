@@ -0,0 +1,116 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Checks the geometry encoding against the examples in the vector tile specification
+ */
+public class VectorTileEncoderTest {
+
+    WKTReader reader = new WKTReader();
+
+    @Test
+    public void testZigZag() {
+        assertEquals(0, VectorTileEncoder.zigZag(0));
+        assertEquals(1, VectorTileEncoder.zigZag(-1));
+        assertEquals(2, VectorTileEncoder.zigZag(1));
+        assertEquals(3, VectorTileEncoder.zigZag(-2));
+        assertEquals(4094, VectorTileEncoder.zigZag(2047));
+    }
+
+    @Test
+    public void testPoint() throws Exception {
+        assertEquals(Arrays.asList(9, 50, 34), encode("POINT(25 17)"));
+    }
+
+    @Test
+    public void testMultiPoint() throws Exception {
+        assertEquals(Arrays.asList(17, 10, 14, 3, 9), encode("MULTIPOINT((5 7), (3 2))"));
+    }
+
+    @Test
+    public void testLineString() throws Exception {
+        assertEquals(Arrays.asList(9, 4, 4, 18, 0, 16, 16, 0),
+                encode("LINESTRING(2 2, 2 10, 10 10)"));
+    }
+
+    @Test
+    public void testPolygon() throws Exception {
+        assertEquals(Arrays.asList(9, 6, 12, 18, 10, 12, 24, 44, 15),
+                encode("POLYGON((3 6, 8 12, 20 34, 3 6))"));
+    }
+
+    @Test
+    public void testOrientation() throws Exception {
+        List<int[]> ring = new ArrayList<int[]>();
+        ring.add(new int[] { 3, 6 });
+        ring.add(new int[] { 20, 34 });
+        ring.add(new int[] { 8, 12 });
+        VectorTileEncoder.orient(ring, true);
+        assertEquals(8, ring.get(0)[0]);
+        assertEquals(20, ring.get(1)[0]);
+        assertEquals(3, ring.get(2)[0]);
+
+        // holes go the other way
+        VectorTileEncoder.orient(ring, false);
+        assertEquals(3, ring.get(0)[0]);
+    }
+
+    @Test
+    public void testCollapsedGeometry() throws Exception {
+        VectorTileEncoder encoder = new VectorTileEncoder(4096);
+        // a polygon smaller than a tile unit has no area left once quantized
+        Geometry tiny = reader.read("POLYGON((1 1, 1.1 1, 1.1 1.1, 1 1))");
+        assertFalse(encoder.addFeature("layer", null, tiny));
+        assertTrue(encoder.isEmpty());
+    }
+
+    @Test
+    public void testEncodeAttributes() throws Exception {
+        VectorTileEncoder encoder = new VectorTileEncoder(4096);
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        attributes.put("name", "first");
+        attributes.put("value", 10);
+        attributes.put("missing", null);
+        assertTrue(encoder.addFeature("layer", attributes, reader.read("POINT(1 1)")));
+        attributes.put("name", "second");
+        assertTrue(encoder.addFeature("layer", attributes, reader.read("POINT(2 2)")));
+
+        VectorTileEncoder.Layer layer = encoder.layers.get("layer");
+        assertEquals(2, layer.features.size());
+        // keys and values are shared among features
+        assertEquals(2, layer.keys.size());
+        assertEquals(3, layer.values.size());
+        assertEquals(Arrays.asList(0, 0, 1, 1), layer.features.get(0).tags);
+        assertEquals(Arrays.asList(0, 2, 1, 1), layer.features.get(1).tags);
+        assertTrue(encoder.encode().length > 0);
+    }
+
+    @Test
+    public void testEmpty() {
+        VectorTileEncoder encoder = new VectorTileEncoder(4096);
+        assertTrue(encoder.isEmpty());
+        assertEquals(0, encoder.encode().length);
+    }
+
+    List<Integer> encode(String wkt) throws Exception {
+        return VectorTileEncoder.encodeGeometry(reader.read(wkt));
+    }
+}
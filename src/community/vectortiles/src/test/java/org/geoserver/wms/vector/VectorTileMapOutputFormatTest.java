@@ -0,0 +1,179 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.geoserver.data.test.MockData;
+import org.geoserver.wms.WMSTestSupport;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.GeometryClipper;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.geotools.util.logging.Logging;
+import org.junit.Assume;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class VectorTileMapOutputFormatTest extends WMSTestSupport {
+
+    static final Logger LOGGER = Logging.getLogger(VectorTileMapOutputFormatTest.class);
+
+    @Test
+    public void testGetMap() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse(getMapPath("pbf",
+                "-2,-1,2,6"));
+        assertEquals(VectorTileMapOutputFormat.MIME_TYPE, response.getContentType());
+        assertTrue(getBinary(response).length > 0);
+    }
+
+    @Test
+    public void testGetMapMimeType() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse(getMapPath(
+                "application/x-protobuf%3Btype%3Dmapbox-vector", "-2,-1,2,6"));
+        assertEquals(VectorTileMapOutputFormat.MIME_TYPE, response.getContentType());
+        assertTrue(getBinary(response).length > 0);
+    }
+
+    @Test
+    public void testGetMapEmptyArea() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse(getMapPath("pbf",
+                "100,60,110,70"));
+        assertEquals(VectorTileMapOutputFormat.MIME_TYPE, response.getContentType());
+        assertEquals(0, getBinary(response).length);
+    }
+
+    @Test
+    public void testClipAndSimplify() throws Exception {
+        // tile coordinates are the same as world ones here
+        AffineTransformation toTile = new AffineTransformation();
+        Envelope clipArea = new Envelope(-16, 4112, -16, 4112);
+        WKTReader reader = new WKTReader();
+
+        // crosses the buffered tile border, gets clipped
+        Geometry line = reader.read("LINESTRING(-100 10, 100 10)");
+        Geometry clipped = VectorTileMapOutputFormat.toTileGeometry(line, toTile, clipArea,
+                new GeometryClipper(clipArea));
+        assertEquals(new Envelope(-16, 100, 10, 10), clipped.getEnvelopeInternal());
+
+        // the intermediate vertex is below the tolerance, and is removed
+        Geometry wiggly = reader.read("LINESTRING(0 0, 50 0.5, 100 0)");
+        Geometry simplified = VectorTileMapOutputFormat.toTileGeometry(wiggly, toTile,
+                clipArea, new GeometryClipper(clipArea));
+        assertEquals(2, simplified.getNumPoints());
+
+        // fully outside
+        Geometry outside = reader.read("POINT(5000 5000)");
+        assertNull(VectorTileMapOutputFormat.toTileGeometry(outside, toTile, clipArea,
+                new GeometryClipper(clipArea)));
+    }
+
+    @Test
+    public void testActiveRules() throws Exception {
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        StyleBuilder sb = new StyleBuilder();
+        Filter a = ff.equals(ff.property("ID"), ff.literal("a"));
+        Filter b = ff.equals(ff.property("ID"), ff.literal("b"));
+        Rule small = sb.createRule(sb.createPolygonSymbolizer());
+        small.setFilter(a);
+        small.setMaxScaleDenominator(1000);
+        Rule large = sb.createRule(sb.createPolygonSymbolizer());
+        large.setFilter(b);
+        large.setMinScaleDenominator(1000);
+        Rule any = sb.createRule(sb.createPolygonSymbolizer());
+        any.setFilter(b);
+        Style style = sb.createStyle();
+        style.featureTypeStyles().add(sb.createFeatureTypeStyle(null, new Rule[] { small, large }));
+
+        List<Rule> rules = VectorTileMapOutputFormat.getActiveRules(style, 500);
+        assertEquals(1, rules.size());
+        assertSame(small, rules.get(0));
+        assertSame(a, VectorTileMapOutputFormat.getRulesFilter(rules));
+        assertEquals(Collections.singletonList(large),
+                VectorTileMapOutputFormat.getActiveRules(style, 5000));
+
+        // the filters are OR-ed, unless one of the rules matches everything
+        assertEquals(ff.or(a, b),
+                VectorTileMapOutputFormat.getRulesFilter(Arrays.asList(small, any)));
+        any.setFilter(null);
+        assertEquals(Filter.INCLUDE,
+                VectorTileMapOutputFormat.getRulesFilter(Arrays.asList(small, any)));
+        any.setFilter(b);
+        any.setElseFilter(true);
+        assertEquals(Filter.INCLUDE,
+                VectorTileMapOutputFormat.getRulesFilter(Arrays.asList(small, any)));
+    }
+
+    /**
+     * Compares the time needed to produce vector tiles and PNG tiles of the same area. Enable it
+     * with -Dvectortiles.benchmark=true
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("vectortiles.benchmark"));
+        final int tiles = 16;
+        final int loops = 20;
+        // warm up
+        runTiles("pbf", tiles);
+        runTiles("image/png", tiles);
+
+        long start = System.currentTimeMillis();
+        long pbfSize = 0;
+        for (int i = 0; i < loops; i++) {
+            pbfSize += runTiles("pbf", tiles);
+        }
+        long pbfTime = Math.max(1, System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        long pngSize = 0;
+        for (int i = 0; i < loops; i++) {
+            pngSize += runTiles("image/png", tiles);
+        }
+        long pngTime = Math.max(1, System.currentTimeMillis() - start);
+
+        int count = tiles * tiles * loops;
+        LOGGER.info(String.format("Vector tiles: %d tiles in %d ms, %.1f tiles/s, %d bytes; "
+                + "PNG tiles: %d tiles in %d ms, %.1f tiles/s, %d bytes", count, pbfTime, count
+                * 1000d / pbfTime, pbfSize, count, pngTime, count * 1000d / pngTime, pngSize));
+    }
+
+    long runTiles(String format, int tiles) throws Exception {
+        long size = 0;
+        double tileWidth = 4d / tiles;
+        double tileHeight = 7d / tiles;
+        for (int x = 0; x < tiles; x++) {
+            for (int y = 0; y < tiles; y++) {
+                double minx = -2 + x * tileWidth;
+                double miny = -1 + y * tileHeight;
+                String bbox = minx + "," + miny + "," + (minx + tileWidth) + ","
+                        + (miny + tileHeight);
+                size += getBinary(getAsServletResponse(getMapPath(format, bbox))).length;
+            }
+        }
+        return size;
+    }
+
+    String getMapPath(String format, String bbox) {
+        return "wms?service=WMS&version=1.1.1&request=GetMap&layers="
+                + getLayerId(MockData.BASIC_POLYGONS) + "&styles=&srs=EPSG:4326&bbox=" + bbox
+                + "&width=256&height=256&format=" + format;
+    }
+}
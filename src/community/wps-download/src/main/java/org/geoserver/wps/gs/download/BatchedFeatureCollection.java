@@ -0,0 +1,230 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs.download;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.geoserver.util.PropertyLookup;
+import org.geoserver.wps.executor.ComputationPool;
+import org.geoserver.wps.ProcessDismissedException;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.process.ProcessException;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.util.ProgressListener;
+
+/**
+ * A feature collection applying a chain of feature transformations (reprojection, clipping, ...)
+ * to batches of source features in parallel, while still returning them in the original order.
+ * <p>
+ * The source features are read in the calling thread, as feature readers are not thread safe,
+ * grouped in batches and handed over to the shared {@link ComputationPool}. At most a window
+ * of batches is processed ahead of the consumer, so that a slow writer applies back-pressure on
+ * the reading and processing rather than having the whole collection pile up in memory.
+ * </p>
+ * <p>
+ * All the methods but {@link #features()} are delegated to the sequential transformation chain.
+ * The batch size is controlled by the {@link #BATCH_SIZE_KEY} property.
+ * </p>
+ */
+class BatchedFeatureCollection extends DecoratingSimpleFeatureCollection {
+
+    /**
+     * Property setting the number of features in each batch
+     */
+    public static final String BATCH_SIZE_KEY = "org.geoserver.wps.download.vectorBatchSize";
+
+    static final int BATCH_SIZE = Math.max(1, PropertyLookup.getInt(BATCH_SIZE_KEY, 1000));
+
+    /**
+     * The chain of transformations applied to the features
+     */
+    interface BatchProcessor {
+
+        /**
+         * Returns a collection transforming the specified one. Will be invoked concurrently by
+         * different threads, on different collections.
+         */
+        SimpleFeatureCollection process(SimpleFeatureCollection features);
+    }
+
+    final SimpleFeatureCollection source;
+
+    final BatchProcessor processor;
+
+    final ProgressListener listener;
+
+    final int expectedCount;
+
+    final ForkJoinPool pool;
+
+    final int batchSize;
+
+    final int window;
+
+    /**
+     * Builds a new collection
+     *
+     * @param source the features to be transformed
+     * @param processor the transformations to be applied
+     * @param listener the listener to be informed of the progress, and checked for cancellation,
+     *        can be null
+     * @param expectedCount the number of source features, used for progress reporting, or a
+     *        negative number if unknown
+     */
+    BatchedFeatureCollection(SimpleFeatureCollection source, BatchProcessor processor,
+            ProgressListener listener, int expectedCount) {
+        this(source, processor, listener, expectedCount, ComputationPool.getPool(), BATCH_SIZE,
+                ComputationPool.PARALLELISM * 2);
+    }
+
+    BatchedFeatureCollection(SimpleFeatureCollection source, BatchProcessor processor,
+            ProgressListener listener, int expectedCount, ForkJoinPool pool, int batchSize,
+            int window) {
+        super(processor.process(source));
+        this.source = source;
+        this.processor = processor;
+        this.listener = listener;
+        this.expectedCount = expectedCount;
+        this.pool = pool;
+        this.batchSize = Math.max(1, batchSize);
+        this.window = Math.max(1, window);
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return new BatchedFeatureIterator(source.features());
+    }
+
+    /**
+     * A group of source features, and the future holding their transformed version
+     */
+    static final class Batch {
+
+        final int size;
+
+        final Future<List<SimpleFeature>> result;
+
+        Batch(int size, Future<List<SimpleFeature>> result) {
+            this.size = size;
+            this.result = result;
+        }
+    }
+
+    class BatchedFeatureIterator implements SimpleFeatureIterator {
+
+        final SimpleFeatureIterator delegate;
+
+        final SimpleFeatureType sourceSchema = source.getSchema();
+
+        final LinkedList<Batch> pending = new LinkedList<Batch>();
+
+        Iterator<SimpleFeature> current;
+
+        int processed;
+
+        BatchedFeatureIterator(SimpleFeatureIterator delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                fill();
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                Batch batch = pending.removeFirst();
+                current = getResult(batch).iterator();
+                processed += batch.size;
+                if (listener != null && expectedCount > 0) {
+                    listener.progress(100f * Math.min(processed, expectedCount) / expectedCount);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reads the source and schedules batches until the window is full
+         */
+        void fill() {
+            while (pending.size() < window && delegate.hasNext()) {
+                if (listener != null && listener.isCanceled()) {
+                    throw new ProcessDismissedException(listener);
+                }
+                final List<SimpleFeature> features = new ArrayList<SimpleFeature>(batchSize);
+                while (features.size() < batchSize && delegate.hasNext()) {
+                    features.add(delegate.next());
+                }
+                Future<List<SimpleFeature>> future = pool
+                        .submit(new Callable<List<SimpleFeature>>() {
+
+                            @Override
+                            public List<SimpleFeature> call() throws Exception {
+                                return process(features);
+                            }
+                        });
+                pending.add(new Batch(features.size(), future));
+            }
+        }
+
+        List<SimpleFeature> process(List<SimpleFeature> features) {
+            SimpleFeatureCollection batch = processor.process(new ListFeatureCollection(
+                    sourceSchema, features));
+            List<SimpleFeature> result = new ArrayList<SimpleFeature>(features.size());
+            SimpleFeatureIterator it = batch.features();
+            try {
+                while (it.hasNext()) {
+                    result.add(it.next());
+                }
+            } finally {
+                it.close();
+            }
+            return result;
+        }
+
+        List<SimpleFeature> getResult(Batch batch) {
+            try {
+                return batch.result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("Interrupted while processing the features", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ProcessException("Failed to process the features", e.getCause());
+            }
+        }
+
+        @Override
+        public SimpleFeature next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() {
+            for (Batch batch : pending) {
+                batch.result.cancel(false);
+            }
+            pending.clear();
+            delegate.close();
+        }
+    }
+}
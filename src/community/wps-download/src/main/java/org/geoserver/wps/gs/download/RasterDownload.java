@@ -18,6 +18,7 @@ import javax.imageio.stream.ImageOutputStream;
 
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.data.util.CoverageUtils;
+import org.geoserver.wps.gs.ParallelTiledImage;
 import org.geoserver.wps.ppio.ComplexPPIO;
 import org.geoserver.wps.ppio.ProcessParameterIO;
 import org.geoserver.wps.resource.GridCoverageResource;
@@ -242,7 +243,7 @@ class RasterDownload {
             //
             // STEP 3 - Writing
             //
-            return writeRaster(mimeType, coverageInfo, clippedGridCoverage);
+            return writeRaster(mimeType, coverageInfo, clippedGridCoverage, progressListener);
         } finally {
             if (originalGridCoverage != null) {
                 resourceManager.addResource(new GridCoverageResource(originalGridCoverage));
@@ -262,12 +263,13 @@ class RasterDownload {
      * @param mimeType result mimetype
      * @param coverageInfo resource associated to the input coverage
      * @param gridCoverage gridcoverage to write
+     * @param progressListener listener informed of the tiles being written, and checked for cancellation
      * @return a {@link File} that points to the GridCoverage we wrote.
      * 
      * @throws Exception
      */
-    private File writeRaster(String mimeType, CoverageInfo coverageInfo, GridCoverage2D gridCoverage)
-            throws Exception {
+    private File writeRaster(String mimeType, CoverageInfo coverageInfo,
+            GridCoverage2D gridCoverage, ProgressListener progressListener) throws Exception {
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.log(Level.FINE, "Writing raster");
         }
@@ -321,7 +323,9 @@ class RasterDownload {
             } else {
                 os = fileImageOutputStreamExtImpl;
             }
-            // Encoding the GridCoverage
+            // Encoding the GridCoverage, computing the tiles of the lazy read/warp/crop chain
+            // in parallel while the encoder writes them out in order
+            gridCoverage = ParallelTiledImage.wrap(gridCoverage, progressListener);
             complexPPIO.encode(gridCoverage, new OutputStreamAdapter(os));
             os.flush();
         } finally {
@@ -15,10 +15,13 @@ import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.wps.executor.ComputationPool;
+import org.geoserver.wps.gs.download.BatchedFeatureCollection.BatchProcessor;
 import org.geoserver.wps.ppio.ComplexPPIO;
 import org.geoserver.wps.ppio.ProcessParameterIO;
 import org.geoserver.wps.resource.WPSResourceManager;
 import org.geotools.data.Parameter;
+import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.store.ReprojectingFeatureCollection;
@@ -155,9 +158,11 @@ class VectorDownload {
         // STEP 2 - Reproject feature collection
         //
         // do we need to reproject?
-        SimpleFeatureCollection reprojectedFeatures;
+        CoordinateReferenceSystem reprojectionCRS = null;
         if (targetCRS != null && !CRS.equalsIgnoreMetadata(nativeCRS, targetCRS)) {
-            roiManager.useTargetCRS(targetCRS);
+            if (hasROI) {
+                roiManager.useTargetCRS(targetCRS);
+            }
             // testing reprojection...
             final MathTransform targetTX = CRS.findMathTransform(nativeCRS, targetCRS, true);
             if (!targetTX.isIdentity()) {
@@ -165,13 +170,11 @@ class VectorDownload {
                 if (LOGGER.isLoggable(Level.FINE)) {
                     LOGGER.log(Level.FINE, "Reprojecting features");
                 }
-                reprojectedFeatures = new ReprojectingFeatureCollection(originalFeatures, targetCRS);
+                reprojectionCRS = targetCRS;
             } else {
-                reprojectedFeatures = originalFeatures;
-                DownloadUtilities.checkIsEmptyFeatureCollection(reprojectedFeatures);
+                DownloadUtilities.checkIsEmptyFeatureCollection(originalFeatures);
             }
         } else {
-            reprojectedFeatures = originalFeatures;
             if (hasROI) {
                 roiManager.useTargetCRS(nativeCRS);
             }
@@ -180,19 +183,31 @@ class VectorDownload {
         //
         // STEP 3 - Clip in targetCRS
         //
-        SimpleFeatureCollection clippedFeatures;
+        Geometry clipGeometry = null;
         if (clip && roi != null) {
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.log(Level.FINE, "Clipping features");
             }
-            final ClipProcess clipProcess = new ClipProcess();// TODO avoid unnecessary creation
-            clippedFeatures = clipProcess.execute(reprojectedFeatures,
-                    roiManager.getSafeRoiInTargetCRS(), true);
+            clipGeometry = roiManager.getSafeRoiInTargetCRS();
+        }
+
+        SimpleFeatureCollection clippedFeatures = originalFeatures;
+        if (reprojectionCRS != null || clipGeometry != null) {
+            BatchProcessor processor = new ReprojectAndClip(reprojectionCRS, clipGeometry);
+            if (ComputationPool.isParallelEnabled()) {
+                // reproject and clip batches of features in parallel while writing
+                int count = featureSource.getCount(new Query(featureSource.getSchema()
+                        .getTypeName(), ra));
+                clippedFeatures = new BatchedFeatureCollection(originalFeatures, processor,
+                        progressListener, count);
+            } else {
+                clippedFeatures = processor.process(originalFeatures);
+            }
 
             // checks
-            DownloadUtilities.checkIsEmptyFeatureCollection(clippedFeatures);
-        } else {
-            clippedFeatures = reprojectedFeatures;
+            if (clipGeometry != null) {
+                DownloadUtilities.checkIsEmptyFeatureCollection(clippedFeatures);
+            }
         }
 
         //
@@ -203,6 +218,40 @@ class VectorDownload {
 
     }
 
+    /**
+     * Reprojects and clips the features, either one of the steps being optional
+     */
+    static class ReprojectAndClip implements BatchProcessor {
+
+        private final CoordinateReferenceSystem targetCRS;
+
+        private final Geometry clipGeometry;
+
+        private final ClipProcess clipProcess = new ClipProcess();
+
+        /**
+         * @param targetCRS the target CRS, or null if no reprojection is needed
+         * @param clipGeometry the clipping geometry, in the target CRS, or null if no clipping is
+         *        needed
+         */
+        ReprojectAndClip(CoordinateReferenceSystem targetCRS, Geometry clipGeometry) {
+            this.targetCRS = targetCRS;
+            this.clipGeometry = clipGeometry;
+        }
+
+        @Override
+        public SimpleFeatureCollection process(SimpleFeatureCollection features) {
+            SimpleFeatureCollection result = features;
+            if (targetCRS != null) {
+                result = new ReprojectingFeatureCollection(result, targetCRS);
+            }
+            if (clipGeometry != null) {
+                result = clipProcess.execute(result, clipGeometry, true);
+            }
+            return result;
+        }
+    }
+
     /**
      * Write vector output with the provided PPIO. It returns the {@link File} it writes to.
      * 
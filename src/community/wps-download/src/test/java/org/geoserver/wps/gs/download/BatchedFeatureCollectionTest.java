@@ -0,0 +1,119 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.geoserver.wps.ProcessDismissedException;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.util.DefaultProgressListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+public class BatchedFeatureCollectionTest {
+
+    ForkJoinPool pool;
+
+    ListFeatureCollection points;
+
+    Geometry clip;
+
+    @Before
+    public void setup() {
+        pool = new ForkJoinPool(4);
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("points");
+        tb.add("geom", Point.class, DefaultGeographicCRS.WGS84);
+        tb.add("index", Integer.class);
+        SimpleFeatureType schema = tb.buildFeatureType();
+
+        GeometryFactory gf = new GeometryFactory();
+        points = new ListFeatureCollection(schema);
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(schema);
+        for (int i = 0; i < 100; i++) {
+            fb.add(gf.createPoint(new Coordinate(i, i)));
+            fb.add(i);
+            points.add(fb.buildFeature("points." + i));
+        }
+        // retains the points from 10 to 89
+        clip = gf.toGeometry(new Envelope(9.5, 89.5, 9.5, 89.5));
+    }
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testOrderPreserved() {
+        DefaultProgressListener listener = new DefaultProgressListener();
+        SimpleFeatureCollection clipped = new BatchedFeatureCollection(points,
+                new VectorDownload.ReprojectAndClip(null, clip), listener, points.size(), pool,
+                7, 3);
+        // the schema is the one of the transformed collection
+        assertEquals(new VectorDownload.ReprojectAndClip(null, clip).process(points).getSchema(),
+                clipped.getSchema());
+
+        SimpleFeatureIterator it = clipped.features();
+        try {
+            int expected = 10;
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                assertEquals(expected, feature.getAttribute("index"));
+                assertEquals("points." + expected, feature.getID());
+                expected++;
+            }
+            assertEquals(90, expected);
+        } finally {
+            it.close();
+        }
+        assertEquals(100f, listener.getProgress(), 0f);
+    }
+
+    @Test
+    public void testCancel() {
+        DefaultProgressListener listener = new DefaultProgressListener();
+        SimpleFeatureCollection clipped = new BatchedFeatureCollection(points,
+                new VectorDownload.ReprojectAndClip(null, clip), listener, points.size(), pool,
+                7, 3);
+
+        SimpleFeatureIterator it = clipped.features();
+        try {
+            // read a few batches, then cancel
+            for (int i = 0; i < 20; i++) {
+                it.next();
+            }
+            listener.setCanceled(true);
+            while (it.hasNext()) {
+                it.next();
+            }
+            fail("The iteration should have been stopped");
+        } catch (ProcessDismissedException e) {
+            // fine
+            assertFalse(listener.getProgress() >= 100f);
+        } finally {
+            it.close();
+        }
+    }
+}
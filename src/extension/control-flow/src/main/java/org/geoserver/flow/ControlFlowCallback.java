@@ -10,6 +10,9 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.flow.cost.CompositeCostEstimator;
+import org.geoserver.flow.cost.CostStatistics;
+import org.geoserver.flow.cost.RequestCostEstimator;
 import org.geoserver.ows.AbstractDispatcherCallback;
 import org.geoserver.ows.HttpErrorCodeException;
 import org.geoserver.ows.Request;
@@ -43,6 +46,10 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
 
         long timeout;
 
+        long estimatedCost = -1;
+
+        long actualCost = -1;
+
         public CallbackContext(List<FlowController> controllers, long timeout) {
             this.controllers = controllers;
             this.timeout = timeout;
@@ -60,6 +67,10 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
 
     AtomicLong runningRequests = new AtomicLong();
 
+    RequestCostEstimator costEstimator = new CompositeCostEstimator();
+
+    CostStatistics costStatistics = new CostStatistics();
+
     /**
      * Returns the current number of blocked/queued requests.
      */
@@ -74,6 +85,26 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
         return runningRequests.get();
     }
 
+    /**
+     * Returns the estimated and actual request costs collected so far
+     */
+    public CostStatistics getCostStatistics() {
+        return costStatistics;
+    }
+
+    @Override
+    public Object operationExecuted(Request request, Operation operation, Object result) {
+        CallbackContext context = REQUEST_CONTROLLERS.get();
+        if (SENTINEL.isOutermostRequest() && context != null && context.estimatedCost >= 0) {
+            try {
+                context.actualCost = costEstimator.actualCost(request, result);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to compute the actual request cost", e);
+            }
+        }
+        return result;
+    }
+
     public void finished(Request request) {
         if (SENTINEL.isOutermostRequest() && REQUEST_CONTROLLERS.get() != null) {
             runningRequests.decrementAndGet();
@@ -88,6 +119,7 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
                                 + " failed to mark the request as complete", e);
                     }
                 }
+                recordCosts(request, context);
 
             }
             // clean up the thread local
@@ -131,6 +163,7 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
                 } else {
                     long timeout = provider.getTimeout(requestWithOperation);
                     CallbackContext context = new CallbackContext(controllers, timeout);
+                    context.estimatedCost = estimateCost(requestWithOperation);
                     REQUEST_CONTROLLERS.set(context);
                     long maxTime = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
                     for (FlowController flowController : controllers) {
@@ -159,6 +192,34 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
         return operation;
     }
 
+    long estimateCost(Request request) {
+        if (request == null) {
+            return -1;
+        }
+        try {
+            return costEstimator.estimateCost(request);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to estimate the request cost", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Records the estimated and actual costs, allowing the administrator to tune the cost budgets
+     */
+    void recordCosts(Request request, CallbackContext context) {
+        if (request == null || context.estimatedCost < 0) {
+            return;
+        }
+        costStatistics.record(request.getService(), request.getRequest(),
+                context.estimatedCost, context.actualCost);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(request.getService() + " " + request.getRequest()
+                    + " estimated cost: " + context.estimatedCost + ", actual cost: "
+                    + (context.actualCost >= 0 ? String.valueOf(context.actualCost) : "unknown"));
+        }
+    }
+
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         // look for a ControlFlowConfigurator in the application context, if none is found, use the
         // default one
@@ -166,6 +227,18 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
         if (provider == null) {
             provider = new DefaultFlowControllerProvider(applicationContext);
         }
+        // share the estimator with the cost flow controllers, so that each request is estimated
+        // only once
+        costEstimator = GeoServerExtensions.bean(CompositeCostEstimator.class, applicationContext);
+        if (costEstimator == null) {
+            costEstimator = new CompositeCostEstimator();
+        }
+        // use the statistics published in JMX, if available
+        CostStatistics statistics = GeoServerExtensions.bean(CostStatistics.class,
+                applicationContext);
+        if (statistics != null) {
+            costStatistics = statistics;
+        }
     }
 
 }
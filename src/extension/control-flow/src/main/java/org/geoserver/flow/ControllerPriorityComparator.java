@@ -16,7 +16,10 @@ import java.util.Comparator;
 public class ControllerPriorityComparator implements Comparator<FlowController> {
 
     public int compare(FlowController o1, FlowController o2) {
-        return o1.getPriority() - o2.getPriority();
+        // don't use subtraction, rate controllers use priorities close to Integer.MIN_VALUE
+        int p1 = o1.getPriority();
+        int p2 = o2.getPriority();
+        return p1 < p2 ? -1 : (p1 == p2 ? 0 : 1);
     }
 
 }
@@ -17,6 +17,7 @@ import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
 import org.geoserver.flow.controller.CookieKeyGenerator;
+import org.geoserver.flow.controller.CostFlowController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.IpKeyGenerator;
@@ -25,6 +26,7 @@ import org.geoserver.flow.controller.OWSRequestMatcher;
 import org.geoserver.flow.controller.RateFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserConcurrentFlowController;
+import org.geoserver.flow.cost.CompositeCostEstimator;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.resource.Resource;
@@ -115,7 +117,8 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
                 if("ip.blacklist".equals(key) && "ip.whitelist".equals(key)) {
                     continue;
                 } else {
-                    if (!key.startsWith("user.ows") && !key.startsWith("ip.ows")) {
+                    if (!key.startsWith("user.ows") && !key.startsWith("ip.ows")
+                            && !key.startsWith("cost.")) {
                         if (tokenizer.countTokens() == 1) {
                             queueSize = Integer.parseInt(value);
                         } else {
@@ -158,6 +161,8 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
                     }.build(keys, value);
                 }
+            } else if ("cost".equals(keys[0])) {
+                controller = buildCostController(key, keys, value);
             } else if ("ip".equals(keys[0])) {
                 if (keys.length == 1) {
                     controller = new IpFlowController(queueSize);
@@ -187,6 +192,33 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
         return newControllers;
     }
 
+    /**
+     * Builds a cost based flow controller out of a cost.ows[.service[.request[.outputFormat]]]=budget
+     * rule
+     */
+    FlowController buildCostController(String key, String[] keys, String value) {
+        if (keys.length < 2 || !"ows".equals(keys[1])) {
+            return null;
+        }
+        long budget;
+        try {
+            budget = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.severe("Cost rules should be assigned a cost budget, instead " + key
+                    + " is associated to " + value);
+            return null;
+        }
+        if (budget <= 0) {
+            LOGGER.severe("Cost budgets should be positive, found " + value);
+            return null;
+        }
+        String service = keys.length >= 3 ? keys[2] : null;
+        String request = keys.length >= 4 ? keys[3] : null;
+        String format = keys.length >= 5 ? keys[4] : null;
+        OWSRequestMatcher requestMatcher = new OWSRequestMatcher(service, request, format);
+        return new CostFlowController(requestMatcher, budget, CompositeCostEstimator.get());
+    }
+
     public boolean isStale() {
         return configFile.isStale();
     }
@@ -0,0 +1,180 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.flow.cost.RequestCostEstimator;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A flow controller admitting matching requests against a weighted budget: each request consumes
+ * its estimated cost (as computed by a {@link RequestCostEstimator}) until completion, and new
+ * requests are blocked as long as the sum of the running request costs would exceed the budget.
+ * <p>
+ * Requests are admitted in arrival order, so that an expensive request cannot be starved by a
+ * stream of cheap ones. A request costing more than the whole budget is admitted alone. Requests
+ * the estimator cannot handle are not charged.
+ */
+public class CostFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    Predicate<Request> matcher;
+
+    long budget;
+
+    RequestCostEstimator estimator;
+
+    /**
+     * The cost of the requests currently running
+     */
+    long used;
+
+    /**
+     * Requests waiting to be admitted, in arrival order
+     */
+    LinkedList<Request> waiting = new LinkedList<Request>();
+
+    /**
+     * The costs charged to the requests currently running
+     */
+    Map<Request, Long> admitted = new ConcurrentHashMap<Request, Long>();
+
+    ReentrantLock lock = new ReentrantLock();
+
+    Condition costReleased = lock.newCondition();
+
+    public CostFlowController(Predicate<Request> matcher, long budget,
+            RequestCostEstimator estimator) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The cost budget must be positive");
+        }
+        this.matcher = matcher;
+        this.budget = budget;
+        this.estimator = estimator;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matcher.apply(request)) {
+            return true;
+        }
+        long cost = estimator.estimateCost(request);
+        if (cost <= 0) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " could not estimate the cost of " + request
+                        + ", letting it through");
+            }
+            return true;
+        }
+        // a request more expensive than the whole budget would wait forever, let it run alone
+        cost = Math.min(cost, budget);
+
+        long maxTime = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
+        lock.lock();
+        try {
+            waiting.add(request);
+            while (!request.equals(waiting.getFirst()) || used + cost > budget) {
+                if (timeout > 0) {
+                    long maxWait = maxTime - System.currentTimeMillis();
+                    if (maxWait <= 0) {
+                        waiting.remove(request);
+                        // the next request in line might fit now
+                        costReleased.signalAll();
+                        return false;
+                    }
+                    costReleased.await(maxWait, TimeUnit.MILLISECONDS);
+                } else {
+                    costReleased.await();
+                }
+            }
+            waiting.removeFirst();
+            used += cost;
+            admitted.put(request, cost);
+            // the next request in line might fit as well
+            costReleased.signalAll();
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " admitted request with cost " + cost + ", used budget "
+                        + used);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Unexpected interruption while waiting for cost budget");
+            waiting.remove(request);
+            costReleased.signalAll();
+            // the request was not charged, it cannot be let through
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    public void requestComplete(Request request) {
+        Long cost = admitted.remove(request);
+        if (cost != null) {
+            lock.lock();
+            try {
+                used -= cost;
+                costReleased.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Cost controllers go after the rate controllers, but before the queue based ones: waiting for
+     * budget while holding a queue slot would reduce the throughput of cheap requests
+     */
+    public int getPriority() {
+        return 0;
+    }
+
+    /**
+     * Returns the total budget
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the budget currently used by running requests
+     */
+    public long getUsedBudget() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Predicate<Request> getMatcher() {
+        return matcher;
+    }
+
+    public RequestCostEstimator getEstimator() {
+        return estimator;
+    }
+
+    @Override
+    public String toString() {
+        return "CostFlowController(" + matcher + "," + budget + ")";
+    }
+
+}
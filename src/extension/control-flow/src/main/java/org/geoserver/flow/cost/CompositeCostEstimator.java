@@ -0,0 +1,110 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.cost;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+
+/**
+ * Delegates to the first {@link RequestCostEstimator} able to handle the request. If no list of
+ * estimators is provided, the ones available in the application context are used.
+ * <p>
+ * The estimated cost is stored as an attribute of the HTTP request, so that the callback and the
+ * flow controllers looking at the same request share a single estimate. A single instance is
+ * registered in the application context, see {@link #get()}.
+ * </p>
+ */
+public class CompositeCostEstimator implements RequestCostEstimator {
+
+    /**
+     * The HTTP request attribute holding the estimated cost
+     */
+    static final String COST_ATTRIBUTE = CompositeCostEstimator.class.getName() + ".cost";
+
+    /**
+     * Returns the estimator registered in the application context, or a new one if none is
+     * available (e.g., during tests)
+     */
+    public static CompositeCostEstimator get() {
+        CompositeCostEstimator estimator = GeoServerExtensions
+                .bean(CompositeCostEstimator.class);
+        if (estimator == null) {
+            estimator = new CompositeCostEstimator();
+        }
+        return estimator;
+    }
+
+    List<RequestCostEstimator> estimators;
+
+    /**
+     * Builds an estimator delegating to all the estimators in the application context
+     */
+    public CompositeCostEstimator() {
+        this(null);
+    }
+
+    /**
+     * Builds an estimator delegating to the specified list of estimators
+     */
+    public CompositeCostEstimator(List<RequestCostEstimator> estimators) {
+        this.estimators = estimators;
+    }
+
+    List<RequestCostEstimator> getEstimators() {
+        if (estimators != null) {
+            return estimators;
+        }
+        // the lookup is cached by GeoServerExtensions, skip the composites to avoid recursion
+        List<RequestCostEstimator> result = new ArrayList<RequestCostEstimator>();
+        for (RequestCostEstimator estimator : GeoServerExtensions
+                .extensions(RequestCostEstimator.class)) {
+            if (!(estimator instanceof CompositeCostEstimator)) {
+                result.add(estimator);
+            }
+        }
+        return result;
+    }
+
+    public long estimateCost(Request request) {
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        if (httpRequest != null) {
+            Object cost = httpRequest.getAttribute(COST_ATTRIBUTE);
+            if (cost instanceof Long) {
+                return (Long) cost;
+            }
+        }
+        long cost = computeCost(request);
+        if (httpRequest != null) {
+            httpRequest.setAttribute(COST_ATTRIBUTE, cost);
+        }
+        return cost;
+    }
+
+    long computeCost(Request request) {
+        for (RequestCostEstimator estimator : getEstimators()) {
+            long cost = estimator.estimateCost(request);
+            if (cost >= 0) {
+                return cost;
+            }
+        }
+        return -1;
+    }
+
+    public long actualCost(Request request, Object result) {
+        for (RequestCostEstimator estimator : getEstimators()) {
+            long cost = estimator.actualCost(request, result);
+            if (cost >= 0) {
+                return cost;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,145 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.cost;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects estimated and actual request costs, grouped by service and request, so that
+ * administrators can compare them and tune the cost budgets. The statistics are published in JMX
+ * as {@code org.geoserver:type=ControlFlow,name=CostStatistics}
+ */
+public class CostStatistics implements CostStatisticsMBean {
+
+    /**
+     * Cost totals for a single service/request combination
+     */
+    public static class Entry {
+        AtomicLong requests = new AtomicLong();
+
+        AtomicLong estimatedTotal = new AtomicLong();
+
+        AtomicLong maxEstimated = new AtomicLong();
+
+        AtomicLong actualRequests = new AtomicLong();
+
+        AtomicLong actualTotal = new AtomicLong();
+
+        AtomicLong actualEstimatedTotal = new AtomicLong();
+
+        void add(long estimated, long actual) {
+            requests.incrementAndGet();
+            estimatedTotal.addAndGet(estimated);
+            long max = maxEstimated.get();
+            while (estimated > max && !maxEstimated.compareAndSet(max, estimated)) {
+                max = maxEstimated.get();
+            }
+            if (actual >= 0) {
+                actualRequests.incrementAndGet();
+                actualTotal.addAndGet(actual);
+                actualEstimatedTotal.addAndGet(estimated);
+            }
+        }
+
+        /**
+         * Number of requests that got a cost estimate
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Average estimated cost
+         */
+        public double getAverageEstimatedCost() {
+            long count = requests.get();
+            return count > 0 ? estimatedTotal.get() / (double) count : 0;
+        }
+
+        /**
+         * Max estimated cost
+         */
+        public long getMaxEstimatedCost() {
+            return maxEstimated.get();
+        }
+
+        /**
+         * Average actual cost, computed only on the requests whose actual cost was known
+         */
+        public double getAverageActualCost() {
+            long count = actualRequests.get();
+            return count > 0 ? actualTotal.get() / (double) count : 0;
+        }
+
+        /**
+         * Ratio between the actual and estimated costs, for the requests whose actual cost was
+         * known. Values above one mean the estimates are too optimistic
+         */
+        public double getActualToEstimatedRatio() {
+            long estimated = actualEstimatedTotal.get();
+            return estimated > 0 ? actualTotal.get() / (double) estimated : Double.NaN;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequests() + ", avgEstimated=" + getAverageEstimatedCost()
+                    + ", maxEstimated=" + getMaxEstimatedCost() + ", avgActual="
+                    + getAverageActualCost() + ", actual/estimated="
+                    + getActualToEstimatedRatio();
+        }
+    }
+
+    Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Records the costs of a request
+     * 
+     * @param service The request service
+     * @param request The request name
+     * @param estimated The estimated cost
+     * @param actual The actual cost, or a negative number if unknown
+     */
+    public void record(String service, String request, long estimated, long actual) {
+        String key = String.valueOf(service).toUpperCase() + "." + request;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            synchronized (this) {
+                entry = entries.get(key);
+                if (entry == null) {
+                    entry = new Entry();
+                    entries.put(key, entry);
+                }
+            }
+        }
+        entry.add(estimated, actual);
+    }
+
+    /**
+     * Returns the statistics collected so far, keyed by "SERVICE.Request"
+     */
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(new TreeMap<String, Entry>(entries));
+    }
+
+    @Override
+    public String[] getSummary() {
+        Map<String, Entry> entries = getEntries();
+        String[] summary = new String[entries.size()];
+        int i = 0;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            summary[i++] = entry.getKey() + ": " + entry.getValue();
+        }
+        return summary;
+    }
+
+    @Override
+    public void reset() {
+        entries.clear();
+    }
+}
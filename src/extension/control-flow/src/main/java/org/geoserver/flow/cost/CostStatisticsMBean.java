@@ -0,0 +1,21 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.cost;
+
+/**
+ * JMX view of the {@link CostStatistics}
+ */
+public interface CostStatisticsMBean {
+
+    /**
+     * Returns one line per service/request combination, with the estimated and actual costs
+     */
+    String[] getSummary();
+
+    /**
+     * Resets the collected statistics
+     */
+    void reset();
+}
@@ -0,0 +1,188 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.cost;
+
+import java.awt.image.SampleModel;
+
+import org.geoserver.ows.Request;
+import org.geoserver.util.BoundedCache;
+import org.geoserver.util.PropertyLookup;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+
+/**
+ * Estimates the cost of a WCS GetCoverage as the amount of bytes to be generated in output.
+ * <p>
+ * When the request specifies the output size (WCS 1.0 WIDTH and HEIGHT) the estimate is the
+ * number of pixels times the bytes per pixel of the coverage, otherwise the output size observed
+ * for the same coverage in past requests is used. The actual cost is computed from the output
+ * coverage the same way the WCS output limits are computed, and used to refine the above figures.
+ * <p>
+ * The statistics are kept for at most {@code org.geoserver.flow.coverageStatsSize} coverages
+ * (1000 by default), the least recently used ones are evicted first.
+ * </p>
+ */
+public class GetCoverageCostEstimator extends KvpCostEstimator {
+
+    /**
+     * The bytes per pixel assumed for coverages we have not seen yet (4 bands, 8 bits each)
+     */
+    static final int DEFAULT_BYTES_PER_PIXEL = 4;
+
+    /**
+     * Averaged size information collected for a single coverage
+     */
+    static final class CoverageStats {
+        volatile double bytesPerPixel;
+
+        volatile double averageSize;
+
+        CoverageStats(double bytesPerPixel, double size) {
+            this.bytesPerPixel = bytesPerPixel;
+            this.averageSize = size;
+        }
+
+        void update(double bytesPerPixel, long size) {
+            // exponential moving average, recent requests weight more
+            this.bytesPerPixel = bytesPerPixel;
+            this.averageSize = averageSize * (1 - SMOOTHING) + size * SMOOTHING;
+        }
+    }
+
+    /**
+     * Keeps the statistics of a bounded number of coverages
+     */
+    static final class CoverageStatsCache extends BoundedCache<String, CoverageStats> {
+
+        CoverageStatsCache(long maxCoverages) {
+            super(maxCoverages);
+        }
+
+        @Override
+        protected int weigh(String key, CoverageStats value) {
+            return 1;
+        }
+
+        CoverageStats get(String coverageId) {
+            return cache != null ? cache.getIfPresent(coverageId) : null;
+        }
+
+        void put(String coverageId, CoverageStats stats) {
+            if (cache != null) {
+                cache.put(coverageId, stats);
+            }
+        }
+    }
+
+    static final double SMOOTHING = 0.2;
+
+    static final String STATS_SIZE_KEY = "org.geoserver.flow.coverageStatsSize";
+
+    CoverageStatsCache coverageStats = new CoverageStatsCache(PropertyLookup.getLong(
+            STATS_SIZE_KEY, 1000));
+
+    long defaultCost = 16 * 1024 * 1024;
+
+    public GetCoverageCostEstimator() {
+        super("WCS", "GetCoverage");
+    }
+
+    @Override
+    protected long estimate(Request request) {
+        String coverageId = getCoverageId(request);
+        CoverageStats stats = coverageId != null ? coverageStats.get(coverageId) : null;
+
+        long width = getPositiveLong(request, "WIDTH");
+        long height = getPositiveLong(request, "HEIGHT");
+        if (width > 0 && height > 0) {
+            double bytesPerPixel = stats != null ? stats.bytesPerPixel : DEFAULT_BYTES_PER_PIXEL;
+            return (long) Math.ceil(width * height * bytesPerPixel);
+        } else if (stats != null) {
+            return (long) stats.averageSize;
+        } else {
+            return defaultCost;
+        }
+    }
+
+    @Override
+    protected long actual(Request request, Object result) {
+        // WCS 1.0 and 1.1 return an array of coverages, WCS 2.0 a single one
+        Object[] coverages;
+        if (result instanceof GridCoverage2D) {
+            coverages = new Object[] { result };
+        } else if (result instanceof Object[]) {
+            coverages = (Object[]) result;
+        } else {
+            return -1;
+        }
+
+        long pixels = 0;
+        long size = 0;
+        long pixelBits = 0;
+        boolean found = false;
+        for (Object o : coverages) {
+            if (!(o instanceof GridCoverage2D)) {
+                continue;
+            }
+            GridCoverage2D coverage = (GridCoverage2D) o;
+            GridEnvelope2D range = coverage.getGridGeometry().getGridRange2D();
+            long coveragePixels = 1;
+            for (int i = 0; i < range.getDimension(); i++) {
+                coveragePixels *= range.getSpan(i);
+            }
+            SampleModel sm = coverage.getRenderedImage().getSampleModel();
+            pixelBits = 0;
+            for (int i = 0; i < sm.getNumBands(); i++) {
+                pixelBits += sm.getSampleSize(i);
+            }
+            pixels += coveragePixels;
+            size += coveragePixels * pixelBits / 8;
+            found = true;
+        }
+        if (!found) {
+            return -1;
+        }
+
+        String coverageId = getCoverageId(request);
+        if (coverageId != null && pixels > 0) {
+            double bytesPerPixel = size / (double) pixels;
+            CoverageStats stats = coverageStats.get(coverageId);
+            if (stats == null) {
+                coverageStats.put(coverageId, new CoverageStats(bytesPerPixel, size));
+            } else {
+                stats.update(bytesPerPixel, size);
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the coverage identifier, for any of the WCS protocol versions
+     */
+    String getCoverageId(Request request) {
+        String id = getRawValue(request, "COVERAGEID");
+        if (id == null) {
+            id = getRawValue(request, "IDENTIFIER");
+        }
+        if (id == null) {
+            id = getRawValue(request, "COVERAGE");
+        }
+        return id;
+    }
+
+    /**
+     * The cost assigned to requests that do not specify an output size against coverages that
+     * have not been requested before
+     */
+    public long getDefaultCost() {
+        return defaultCost;
+    }
+
+    public void setDefaultCost(long defaultCost) {
+        this.defaultCost = defaultCost;
+    }
+
+}
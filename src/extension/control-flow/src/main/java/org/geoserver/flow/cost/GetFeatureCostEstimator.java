@@ -0,0 +1,45 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.cost;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Estimates the cost of a WFS GetFeature as the number of features requested, using the COUNT
+ * (WFS 2.0) or MAXFEATURES (WFS 1.x) parameters, falling back on a configurable default when the
+ * client did not limit the output.
+ */
+public class GetFeatureCostEstimator extends KvpCostEstimator {
+
+    long defaultFeatureCount = 1000;
+
+    public GetFeatureCostEstimator() {
+        super("WFS", "GetFeature");
+    }
+
+    @Override
+    protected long estimate(Request request) {
+        long count = getPositiveLong(request, "COUNT");
+        if (count < 0) {
+            count = getPositiveLong(request, "MAXFEATURES");
+        }
+        if (count < 0) {
+            return defaultFeatureCount;
+        }
+        return count;
+    }
+
+    /**
+     * The cost assigned to requests that do not specify a feature count limit
+     */
+    public long getDefaultFeatureCount() {
+        return defaultFeatureCount;
+    }
+
+    public void setDefaultFeatureCount(long defaultFeatureCount) {
+        this.defaultFeatureCount = defaultFeatureCount;
+    }
+
+}
@@ -0,0 +1,52 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.cost;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Estimates the cost of a WMS GetMap as the number of output pixels times the number of layers
+ * that need to be painted. The actual cost is assumed to be the same as the estimated one.
+ */
+public class GetMapCostEstimator extends KvpCostEstimator {
+
+    public GetMapCostEstimator() {
+        super("WMS", "GetMap");
+    }
+
+    @Override
+    protected long estimate(Request request) {
+        long width = getPositiveLong(request, "WIDTH");
+        long height = getPositiveLong(request, "HEIGHT");
+        if (width < 0 || height < 0) {
+            return -1;
+        }
+        return width * height * countLayers(request);
+    }
+
+    @Override
+    protected long actual(Request request, Object result) {
+        return estimate(request);
+    }
+
+    /**
+     * Counts the layers in the LAYERS parameter, assuming at least one will be painted (e.g.,
+     * requests using a SLD and no LAYERS parameter)
+     */
+    int countLayers(Request request) {
+        String layers = getRawValue(request, "LAYERS");
+        if (layers == null) {
+            return 1;
+        }
+        int count = 0;
+        for (String layer : layers.split(",")) {
+            if (layer.trim().length() > 0) {
+                count++;
+            }
+        }
+        return Math.max(1, count);
+    }
+
+}
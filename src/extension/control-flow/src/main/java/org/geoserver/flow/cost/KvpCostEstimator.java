@@ -0,0 +1,87 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.cost;
+
+import java.util.Map;
+
+import org.geoserver.flow.controller.OWSRequestMatcher;
+import org.geoserver.ows.Request;
+
+/**
+ * Base class for estimators working off the raw KVP parameters of a specific service request
+ */
+public abstract class KvpCostEstimator implements RequestCostEstimator {
+
+    OWSRequestMatcher matcher;
+
+    protected KvpCostEstimator(String service, String request) {
+        this.matcher = new OWSRequestMatcher(service, request);
+    }
+
+    public long estimateCost(Request request) {
+        if (request == null || !matcher.apply(request)) {
+            return -1;
+        }
+        return estimate(request);
+    }
+
+    public long actualCost(Request request, Object result) {
+        if (request == null || result == null || !matcher.apply(request)) {
+            return -1;
+        }
+        return actual(request, result);
+    }
+
+    /**
+     * Estimates the cost of a request matching the service and request of this estimator
+     */
+    protected abstract long estimate(Request request);
+
+    /**
+     * Computes the actual cost of a request matching the service and request of this estimator.
+     * By default returns -1, meaning the actual cost is unknown
+     */
+    protected long actual(Request request, Object result) {
+        return -1;
+    }
+
+    /**
+     * Returns the raw KVP value for the specified key, or null if missing
+     */
+    protected String getRawValue(Request request, String key) {
+        Map rawKvp = request.getRawKvp();
+        if (rawKvp == null) {
+            return null;
+        }
+        Object value = rawKvp.get(key);
+        if (value instanceof String[]) {
+            String[] values = (String[]) value;
+            value = values.length > 0 ? values[0] : null;
+        }
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * Returns the raw KVP value for the specified key as a positive long, or -1 if missing or not
+     * a valid number
+     */
+    protected long getPositiveLong(Request request, String key) {
+        String value = getRawValue(request, key);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            long result = Long.parseLong(value.trim());
+            return result > 0 ? result : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + matcher + ")";
+    }
+}
@@ -0,0 +1,38 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.cost;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Estimates how expensive an OWS request is going to be, so that cost aware flow controllers can
+ * admit requests against a weighted budget instead of counting each one of them as a single slot.
+ * <p>
+ * Costs are expressed in estimator specific units (pixels, bytes, features), flow controllers
+ * should hence be configured against a set of requests handled by the same estimator.
+ * Implementations are looked up as Spring beans.
+ */
+public interface RequestCostEstimator {
+
+    /**
+     * Estimates the cost of the request before it gets executed
+     *
+     * @param request The request, with the operation already set
+     * @return The estimated cost, or a negative number if the request is not handled by this
+     *         estimator
+     */
+    long estimateCost(Request request);
+
+    /**
+     * Computes the actual cost of the request once the operation has been executed. The value is
+     * recorded for tuning purposes, and can be used by the estimator to improve its future
+     * estimates
+     *
+     * @param request The request
+     * @param result The operation result
+     * @return The actual cost, or a negative number if it cannot be computed
+     */
+    long actualCost(Request request, Object result);
+}
@@ -15,6 +15,7 @@ import java.util.Properties;
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.CostFlowController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.IpRequestMatcher;
@@ -108,6 +109,35 @@ public class DefaultControlFlowConfigurationTest {
         assertEquals(100, gc.getPriority());
     }
 
+    @Test
+    public void testCostParsing() throws Exception {
+        Properties p = new Properties();
+        p.put("ows.global", "100");
+        p.put("cost.ows.wms.getmap", "50000000");
+        p.put("cost.ows.wcs", "5000000000");
+        p.put("cost.ows.wfs.getfeature", "abc");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        Collections.sort(controllers, new ControllerPriorityComparator());
+
+        // the invalid rule is skipped
+        assertEquals(3, controllers.size());
+        assertTrue(controllers.get(0) instanceof CostFlowController);
+        assertTrue(controllers.get(1) instanceof CostFlowController);
+        assertTrue(controllers.get(2) instanceof GlobalFlowController);
+        for (FlowController controller : controllers.subList(0, 2)) {
+            CostFlowController cfc = (CostFlowController) controller;
+            if ("wms.getmap".equals(cfc.getMatcher().toString())) {
+                assertEquals(50000000l, cfc.getBudget());
+            } else {
+                assertEquals("wcs", cfc.getMatcher().toString());
+                assertEquals(5000000000l, cfc.getBudget());
+            }
+        }
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
@@ -0,0 +1,170 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.flow.cost.RequestCostEstimator;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+public class CostFlowControllerTest extends AbstractFlowControllerTest {
+    private static final long MAX_WAIT = 1000;
+
+    /**
+     * Returns the costs associated to the requests in a map
+     */
+    static class FixedCostEstimator implements RequestCostEstimator {
+        Map<Request, Long> costs = new HashMap<Request, Long>();
+
+        Request request(long cost) {
+            Request request = new Request();
+            costs.put(request, cost);
+            return request;
+        }
+
+        public long estimateCost(Request request) {
+            Long cost = costs.get(request);
+            return cost != null ? cost : -1;
+        }
+
+        public long actualCost(Request request, Object result) {
+            return -1;
+        }
+    }
+
+    void waitProcessing(FlowControllerTestingThread t, long maxWait) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (t.state != ThreadState.PROCESSING) {
+            if (System.currentTimeMillis() > (start + maxWait))
+                fail("Waited for the thread to be processing more than maxWait: " + maxWait);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testWeightedAdmission() throws Exception {
+        FixedCostEstimator estimator = new FixedCostEstimator();
+        CostFlowController controller = new CostFlowController(new OWSRequestMatcher(), 100,
+                estimator);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(estimator.request(60),
+                0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(estimator.request(60),
+                0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(estimator.request(30),
+                0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+
+            // t2 does not fit, t3 would but has to wait its turn
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(ThreadState.STARTED, t3.state);
+            assertEquals(60, controller.getUsedBudget());
+
+            // releasing t1 lets both t2 and t3 in
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitProcessing(t2, MAX_WAIT);
+            waitProcessing(t3, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.PROCESSING, t2.state);
+            assertEquals(ThreadState.PROCESSING, t3.state);
+            assertEquals(90, controller.getUsedBudget());
+
+            t2.interrupt();
+            t3.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            waitTerminated(t3, MAX_WAIT);
+            assertEquals(0, controller.getUsedBudget());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testOverBudgetRunsAlone() throws Exception {
+        FixedCostEstimator estimator = new FixedCostEstimator();
+        CostFlowController controller = new CostFlowController(new OWSRequestMatcher(), 100,
+                estimator);
+
+        Request request = estimator.request(1000);
+        assertTrue(controller.requestIncoming(request, 0));
+        assertEquals(100, controller.getUsedBudget());
+        // a request without an estimate is not charged
+        assertTrue(controller.requestIncoming(new Request(), 100));
+        // anything else has to wait
+        assertFalse(controller.requestIncoming(estimator.request(1), 100));
+        controller.requestComplete(request);
+        assertEquals(0, controller.getUsedBudget());
+    }
+
+    @Test
+    public void testInterrupted() throws Exception {
+        FixedCostEstimator estimator = new FixedCostEstimator();
+        final CostFlowController controller = new CostFlowController(new OWSRequestMatcher(),
+                100, estimator);
+        Request running = estimator.request(100);
+        assertTrue(controller.requestIncoming(running, 0));
+
+        final Request waiting = estimator.request(50);
+        final boolean[] result = new boolean[] { true };
+        Thread t = new Thread() {
+            public void run() {
+                result[0] = controller.requestIncoming(waiting, 0);
+            };
+        };
+        t.start();
+        while (t.getState() != Thread.State.WAITING && t.isAlive()) {
+            Thread.sleep(10);
+        }
+        t.interrupt();
+        t.join(MAX_WAIT);
+        // the interrupted request is not let through, and not charged
+        assertFalse(result[0]);
+        assertEquals(100, controller.getUsedBudget());
+        controller.requestComplete(running);
+        assertEquals(0, controller.getUsedBudget());
+    }
+
+    @Test
+    public void testTimeout() {
+        FixedCostEstimator estimator = new FixedCostEstimator();
+        CostFlowController controller = new CostFlowController(new OWSRequestMatcher(), 100,
+                estimator);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(estimator.request(80),
+                100, 400, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(estimator.request(80),
+                100, 400, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+
+            waitTerminated(t1, MAX_WAIT);
+            waitTerminated(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(0, controller.getUsedBudget());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.cost;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.geoserver.ows.Request;
+import org.geoserver.ows.util.KvpMap;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+import org.opengis.coverage.grid.GridCoverage;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+public class CostEstimatorsTest {
+
+    Request buildRequest(String service, String request, String... kvp) {
+        Request result = new Request();
+        result.setService(service);
+        result.setRequest(request);
+        Map<String, Object> rawKvp = new KvpMap();
+        for (int i = 0; i < kvp.length; i += 2) {
+            rawKvp.put(kvp[i], kvp[i + 1]);
+        }
+        result.setRawKvp(rawKvp);
+        return result;
+    }
+
+    @Test
+    public void testGetMap() {
+        GetMapCostEstimator estimator = new GetMapCostEstimator();
+        Request request = buildRequest("WMS", "GetMap", "WIDTH", "256", "HEIGHT", "256",
+                "LAYERS", "a,b,c");
+        assertEquals(256 * 256 * 3, estimator.estimateCost(request));
+        assertEquals(256 * 256 * 3, estimator.actualCost(request, new Object()));
+
+        // not a GetMap
+        assertEquals(-1, estimator.estimateCost(buildRequest("WMS", "GetCapabilities")));
+        // no size
+        assertEquals(-1, estimator.estimateCost(buildRequest("WMS", "GetMap", "LAYERS", "a")));
+    }
+
+    @Test
+    public void testGetFeature() {
+        GetFeatureCostEstimator estimator = new GetFeatureCostEstimator();
+        assertEquals(50, estimator.estimateCost(buildRequest("WFS", "GetFeature", "COUNT", "50")));
+        assertEquals(20, estimator.estimateCost(buildRequest("WFS", "GetFeature", "MAXFEATURES",
+                "20")));
+        estimator.setDefaultFeatureCount(500);
+        assertEquals(500, estimator.estimateCost(buildRequest("WFS", "GetFeature")));
+    }
+
+    @Test
+    public void testGetCoverage() {
+        GetCoverageCostEstimator estimator = new GetCoverageCostEstimator();
+        estimator.setDefaultCost(1000);
+        Request request = buildRequest("WCS", "GetCoverage", "COVERAGEID", "sf__dem");
+        assertEquals(1000, estimator.estimateCost(request));
+
+        // a 100x100 single byte coverage
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY);
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", image,
+                new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84));
+        assertEquals(10000, estimator.actualCost(request, coverage));
+        // the next estimate is based on the past output
+        assertEquals(10000, estimator.estimateCost(request));
+        // and with an explicit size, on the coverage bytes per pixel
+        Request sized = buildRequest("WCS", "GetCoverage", "COVERAGEID", "sf__dem", "WIDTH",
+                "10", "HEIGHT", "20");
+        assertEquals(200, estimator.estimateCost(sized));
+    }
+
+    @Test
+    public void testGetCoverageArray() {
+        GetCoverageCostEstimator estimator = new GetCoverageCostEstimator();
+        Request request = buildRequest("WCS", "GetCoverage", "IDENTIFIER", "sf__dem");
+
+        // WCS 1.0 and 1.1 return an array of coverages
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY);
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", image,
+                new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84));
+        assertEquals(20000, estimator.actualCost(request, new GridCoverage[] { coverage,
+                coverage }));
+        assertEquals(20000, estimator.estimateCost(request));
+        assertEquals(-1, estimator.actualCost(request, new GridCoverage[0]));
+    }
+
+    @Test
+    public void testGetCoverageStatsBounded() {
+        GetCoverageCostEstimator estimator = new GetCoverageCostEstimator();
+        estimator.coverageStats = new GetCoverageCostEstimator.CoverageStatsCache(1);
+        estimator.setDefaultCost(1000);
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY);
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", image,
+                new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84));
+        Request dem = buildRequest("WCS", "GetCoverage", "COVERAGEID", "sf__dem");
+        Request mosaic = buildRequest("WCS", "GetCoverage", "COVERAGEID", "sf__mosaic");
+        estimator.actualCost(dem, coverage);
+        estimator.actualCost(mosaic, coverage);
+
+        // only the most recent coverage is kept
+        assertEquals(1000, estimator.estimateCost(dem));
+        assertEquals(10000, estimator.estimateCost(mosaic));
+    }
+
+    @Test
+    public void testComposite() {
+        CompositeCostEstimator estimator = new CompositeCostEstimator(
+                Arrays.<RequestCostEstimator> asList(new GetMapCostEstimator(),
+                        new GetFeatureCostEstimator()));
+        assertEquals(100, estimator.estimateCost(buildRequest("WMS", "GetMap", "WIDTH", "10",
+                "HEIGHT", "10")));
+        assertEquals(10, estimator.estimateCost(buildRequest("WFS", "GetFeature", "COUNT", "10")));
+        assertEquals(-1, estimator.estimateCost(buildRequest("WCS", "GetCoverage")));
+    }
+
+    @Test
+    public void testEstimateOnce() {
+        final int[] calls = new int[1];
+        RequestCostEstimator counting = new GetMapCostEstimator() {
+            @Override
+            public long estimateCost(Request request) {
+                calls[0]++;
+                return super.estimateCost(request);
+            }
+        };
+        CompositeCostEstimator estimator = new CompositeCostEstimator(
+                Arrays.<RequestCostEstimator> asList(counting));
+        Request request = buildRequest("WMS", "GetMap", "WIDTH", "10", "HEIGHT", "10");
+        request.setHttpRequest(new MockHttpServletRequest());
+        assertEquals(100, estimator.estimateCost(request));
+        // a copy of the request shares the same HTTP request, and thus the same estimate
+        assertEquals(100, estimator.estimateCost(new Request(request)));
+        assertEquals(1, calls[0]);
+    }
+
+    @Test
+    public void testStatistics() {
+        CostStatistics statistics = new CostStatistics();
+        statistics.record("wms", "GetMap", 100, 50);
+        statistics.record("WMS", "GetMap", 300, -1);
+        CostStatistics.Entry entry = statistics.getEntries().get("WMS.GetMap");
+        assertEquals(2, entry.getRequests());
+        assertEquals(200, entry.getAverageEstimatedCost(), 0d);
+        assertEquals(300, entry.getMaxEstimatedCost());
+        assertEquals(50, entry.getAverageActualCost(), 0d);
+        assertEquals(0.5, entry.getActualToEstimatedRatio(), 0d);
+
+        String[] summary = statistics.getSummary();
+        assertEquals(1, summary.length);
+        assertTrue(summary[0].startsWith("WMS.GetMap: requests=2"));
+        statistics.reset();
+        assertEquals(0, statistics.getSummary().length);
+    }
+}
@@ -18,9 +18,14 @@ import org.geoserver.config.GeoServer;
 public class Excel2007OutputFormat extends ExcelOutputFormat {
     private static Logger log = Logger.getLogger(Excel2007OutputFormat.class);
 
+    /**
+     * Default number of sheets a feature type can be split into, a bit more than ten million rows
+     */
+    static final int DEFAULT_MAX_SHEETS = 10;
+
     /**
      * Constructor setting the format type as "excel2007" in addition to file extension, mime type,
-     * and row and column limits
+     * and row, column and sheet limits
      * 
      * @param gs
      */
@@ -28,6 +33,8 @@ public class Excel2007OutputFormat extends ExcelOutputFormat {
         super(gs, "excel2007");
         rowLimit = (int) Math.pow(2, 20); // 1,048,576
         colLimit = (int) Math.pow(2, 14); // 16,384
+        // rows are streamed to disk, the limit only bounds the temporary files and the output size
+        maxSheets = getMaxSheets(DEFAULT_MAX_SHEETS);
         fileExtension = "xlsx";
         mimeType = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
     }
@@ -39,4 +46,12 @@ public class Excel2007OutputFormat extends ExcelOutputFormat {
     protected Workbook getNewWorkbook() {
         return new SXSSFWorkbook(1);
     }
+
+    /**
+     * Removes the temporary files backing the streamed sheets
+     */
+    @Override
+    protected void dispose(Workbook wb) {
+        ((SXSSFWorkbook) wb).dispose();
+    }
 }
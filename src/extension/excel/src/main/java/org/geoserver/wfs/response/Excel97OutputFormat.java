@@ -20,7 +20,7 @@ public class Excel97OutputFormat extends ExcelOutputFormat {
 
     /**
      * Constructor setting the format type as "excel" in addition to file extension, mime type, and
-     * row and column limits
+     * row, column and sheet limits
      * 
      * @param gs
      */
@@ -28,6 +28,8 @@ public class Excel97OutputFormat extends ExcelOutputFormat {
         super(gs, "excel");
         rowLimit = (int) Math.pow(2, 16); // 65,536
         colLimit = (int) Math.pow(2, 8); // 256
+        // the whole workbook is kept in memory, don't split unless explicitly configured
+        maxSheets = getMaxSheets(1);
         fileExtension = "xls";
         mimeType = "application/msexcel";
     }
@@ -21,6 +21,7 @@ import org.apache.poi.ss.usermodel.Workbook;
 import org.geoserver.config.GeoServer;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.util.PropertyLookup;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
@@ -43,10 +44,24 @@ public abstract class ExcelOutputFormat extends WFSGetFeatureOutputFormat {
 
     protected static String TRUNCATE_WARNING = "DATA TRUNCATED";
 
+    /**
+     * Property setting the maximum number of sheets a single feature type can be split
+     * into when it has more rows than a sheet can hold, overrides the format default
+     */
+    public static final String MAX_SHEETS_KEY = "org.geoserver.wfs.excel.maxSheets";
+
+    static final int SHEET_NAME_LIMIT = 31;
+
     protected int rowLimit;
 
     protected int colLimit;
 
+    /**
+     * The maximum number of sheets a feature type is split into, the rows past the last sheet
+     * are not written out
+     */
+    protected int maxSheets;
+
     protected String fileExtension;
 
     protected String mimeType;
@@ -55,8 +70,23 @@ public abstract class ExcelOutputFormat extends WFSGetFeatureOutputFormat {
         super(gs, formatName);
     }
 
+    /**
+     * Returns the maximum number of sheets per feature type, as configured by the
+     * {@link #MAX_SHEETS_KEY} property, or the specified default
+     */
+    protected static int getMaxSheets(int defaultValue) {
+        return Math.max(1, PropertyLookup.getInt(MAX_SHEETS_KEY, defaultValue));
+    }
+
     protected abstract Workbook getNewWorkbook();
 
+    /**
+     * Releases the resources held by the workbook once it has been written out, or its writing
+     * failed. Does nothing by default
+     */
+    protected void dispose(Workbook wb) {
+    }
+
     /**
      * @return mime type;
      */
@@ -87,92 +117,132 @@ public abstract class ExcelOutputFormat extends WFSGetFeatureOutputFormat {
     
         // Create the workbook
         Workbook wb = getNewWorkbook();
-        CreationHelper helper = wb.getCreationHelper();
-        ExcelCellStyles styles = new ExcelCellStyles(wb);
-
-        for (Iterator it = featureCollection.getFeature().iterator(); it.hasNext();) {
-            SimpleFeatureCollection fc = (SimpleFeatureCollection) it.next();
-
-            // create the sheet for this feature collection
-            Sheet sheet = wb.createSheet(fc.getSchema().getTypeName());
-
-            // write out the header
-            Row header = sheet.createRow(0);
-
-            SimpleFeatureType ft = fc.getSchema();
-            Cell cell;
+        try {
+            CreationHelper helper = wb.getCreationHelper();
+            ExcelCellStyles styles = new ExcelCellStyles(wb);
+
+            for (Iterator it = featureCollection.getFeature().iterator(); it.hasNext();) {
+                SimpleFeatureCollection fc = (SimpleFeatureCollection) it.next();
+                SimpleFeatureType ft = fc.getSchema();
+
+                // create the sheet for this feature collection
+                int sheets = 1;
+                Sheet sheet = createSheet(wb, ft, getSheetName(wb, ft, sheets), styles);
+                Cell cell;
+
+                // write out the features
+                SimpleFeatureIterator i = fc.features();
+                int r = 0; // row index
+                int written = 0;
+                try {
+                    Row row;
+                    while (i.hasNext()) {
+                        r++; // start at 1, since header is at 0
+
+                        if (sheets < maxSheets && r == rowLimit) {
+                            // there are more features than rows available in this sheet,
+                            // continue in a new one
+                            sheets++;
+                            sheet = createSheet(wb, ft, getSheetName(wb, ft, sheets), styles);
+                            r = 1;
+                        } else if (sheets == maxSheets && r == (rowLimit - 1)) {
+                            // there are more features than rows available in this
+                            // Excel format. write out a warning line and break
+                            cell = sheet.createRow(r).createCell(0);
+                            RichTextString rowWarning = helper.createRichTextString(TRUNCATE_WARNING
+                                    + ": ROWS " + (written + 1) + " - " + fc.size() + " NOT SHOWN");
+                            cell.setCellValue(rowWarning);
+                            cell.setCellStyle(styles.getWarningStyle());
+                            break;
+                        }
 
-            cell = header.createCell(0);
-            cell.setCellValue(helper.createRichTextString("FID"));
-            for (int i = 0; i < ft.getAttributeCount() && i < colLimit; i++) {
-                AttributeDescriptor ad = ft.getDescriptor(i);
-                cell = header.createCell(i + 1);
-                cell.setCellValue(helper.createRichTextString(ad.getLocalName()));
-                cell.setCellStyle(styles.getHeaderStyle());
-            }
+                        row = sheet.createRow(r);
+                        cell = row.createCell(0);
+                        SimpleFeature f = i.next();
+                        written++;
+                        cell.setCellValue(f.getID());
+                        for (int j = 0; j < f.getAttributeCount() && j < colLimit; j++) {
+                            Object att = f.getAttribute(j);
+                            if (att != null) {
+                                cell = row.createCell(j + 1);
+                                if (att instanceof Number) {
+                                    cell.setCellValue(((Number) att).doubleValue());
+                                } else if (att instanceof Date) {
+                                    cell.setCellValue((Date) att);
+                                    cell.setCellStyle(styles.getDateStyle());
+                                } else if (att instanceof Calendar) {
+                                    cell.setCellValue((Calendar) att);
+                                    cell.setCellStyle(styles.getDateStyle());
+                                } else if (att instanceof Boolean) {
+                                    cell.setCellValue((Boolean) att);
+                                } else {
+                                    // ok, it seems we have no better way than dump it as a string
+                                    String stringVal = att.toString();
+
+                                    // if string length > excel cell limit, truncate it and warn the
+                                    // user, otherwise excel workbook will be corrupted
+                                    if (stringVal.length() > CELL_CHAR_LIMIT) {
+                                        stringVal = TRUNCATE_WARNING
+                                                + " "
+                                                + stringVal.substring(0, CELL_CHAR_LIMIT
+                                                        - TRUNCATE_WARNING.length() - 1);
+                                        cell.setCellStyle(styles.getWarningStyle());
+                                    }
+                                    cell.setCellValue(stringVal);
 
-            // write out the features
-            SimpleFeatureIterator i = fc.features();
-            int r = 0; // row index
-            try {
-                Row row;
-                while (i.hasNext()) {
-                    r++; // start at 1, since header is at 0
-
-                    row = sheet.createRow(r);
-                    cell = row.createCell(0);
-
-                    if (r == (rowLimit - 1) && i.hasNext()) {
-                        // there are more features than rows available in this
-                        // Excel format. write out a warning line and break
-                        RichTextString rowWarning = helper.createRichTextString(TRUNCATE_WARNING
-                                + ": ROWS " + r + " - " + fc.size() + " NOT SHOWN");
-                        cell.setCellValue(rowWarning);
-                        cell.setCellStyle(styles.getWarningStyle());
-                        break;
-                    }
-
-                    SimpleFeature f = i.next();
-                    cell.setCellValue(helper.createRichTextString(f.getID()));
-                    for (int j = 0; j < f.getAttributeCount() && j < colLimit; j++) {
-                        Object att = f.getAttribute(j);
-                        if (att != null) {
-                            cell = row.createCell(j + 1);
-                            if (att instanceof Number) {
-                                cell.setCellValue(((Number) att).doubleValue());
-                            } else if (att instanceof Date) {
-                                cell.setCellValue((Date) att);
-                                cell.setCellStyle(styles.getDateStyle());
-                            } else if (att instanceof Calendar) {
-                                cell.setCellValue((Calendar) att);
-                                cell.setCellStyle(styles.getDateStyle());
-                            } else if (att instanceof Boolean) {
-                                cell.setCellValue((Boolean) att);
-                            } else {
-                                // ok, it seems we have no better way than dump it as a string
-                                String stringVal = att.toString();
-
-                                // if string length > excel cell limit, truncate it and warn the
-                                // user, otherwise excel workbook will be corrupted
-                                if (stringVal.length() > CELL_CHAR_LIMIT) {
-                                    stringVal = TRUNCATE_WARNING
-                                            + " "
-                                            + stringVal.substring(0, CELL_CHAR_LIMIT
-                                                    - TRUNCATE_WARNING.length() - 1);
-                                    cell.setCellStyle(styles.getWarningStyle());
                                 }
-                                cell.setCellValue(helper.createRichTextString(stringVal));
-
                             }
                         }
                     }
+                } finally {
+                    i.close();
                 }
-            } finally {
-                i.close();
             }
+
+            // write to output
+            wb.write(output);
+        } finally {
+            dispose(wb);
         }
+    }
 
-        // write to output
-        wb.write(output);
+    /**
+     * Creates a new sheet and writes out the header row
+     */
+    Sheet createSheet(Workbook wb, SimpleFeatureType ft, String name, ExcelCellStyles styles) {
+        Sheet sheet = wb.createSheet(name);
+        Row header = sheet.createRow(0);
+
+        Cell cell = header.createCell(0);
+        cell.setCellValue("FID");
+        for (int i = 0; i < ft.getAttributeCount() && i < colLimit; i++) {
+            AttributeDescriptor ad = ft.getDescriptor(i);
+            cell = header.createCell(i + 1);
+            cell.setCellValue(ad.getLocalName());
+            cell.setCellStyle(styles.getHeaderStyle());
+        }
+
+        return sheet;
+    }
+
+    /**
+     * Returns the name of the n-th sheet of a feature type, making sure it does not exceed the
+     * sheet name length limit, and that it's not used by another sheet of the workbook, as
+     * sheet names are unique regardless of their case
+     */
+    String getSheetName(Workbook wb, SimpleFeatureType ft, int sheet) {
+        String suffix = sheet == 1 ? "" : "_" + sheet;
+        String name = getSheetName(ft.getTypeName(), suffix);
+        for (int i = 2; wb.getSheetIndex(name) >= 0; i++) {
+            name = getSheetName(ft.getTypeName(), suffix + " (" + i + ")");
+        }
+        return name;
+    }
+
+    String getSheetName(String typeName, String suffix) {
+        if (typeName.length() + suffix.length() > SHEET_NAME_LIMIT) {
+            typeName = typeName.substring(0, SHEET_NAME_LIMIT - suffix.length());
+        }
+        return typeName + suffix;
     }
 }
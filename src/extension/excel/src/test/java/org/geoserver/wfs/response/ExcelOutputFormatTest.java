@@ -149,4 +149,74 @@ public class ExcelOutputFormatTest extends WFSTestSupport {
         fs = getFeatureSource(MockData.GENERICENTITY);
         assertEquals(fs.getCount(Query.ALL) + 1, sheet.getPhysicalNumberOfRows());    	
     }
+
+    @Test
+    public void testExcel2007SplitSheets() throws Exception {
+        Excel2007OutputFormat format = applicationContext.getBean(Excel2007OutputFormat.class);
+        int rowLimit = format.rowLimit;
+        try {
+            // three features per sheet, the last row is reserved for the truncation warning
+            // only on the last allowed sheet
+            format.rowLimit = 4;
+            MockHttpServletResponse resp = getAsServletResponse("wfs?request=GetFeature&version=1.0.0&typeName=sf:PrimitiveGeoFeature&outputFormat=excel2007");
+            Workbook wb = new XSSFWorkbook(getBinaryInputStream(resp));
+
+            FeatureSource fs = getFeatureSource(MockData.PRIMITIVEGEOFEATURE);
+            int count = fs.getCount(Query.ALL);
+            int sheets = (count + 2) / 3;
+            assertEquals(sheets, wb.getNumberOfSheets());
+            int rows = 0;
+            for (int i = 0; i < sheets; i++) {
+                Sheet sheet = wb.getSheet(i == 0 ? "PrimitiveGeoFeature" : "PrimitiveGeoFeature_"
+                        + (i + 1));
+                assertNotNull(sheet);
+                assertEquals("FID", sheet.getRow(0).getCell(0).getRichStringCellValue()
+                        .toString());
+                rows += sheet.getPhysicalNumberOfRows() - 1;
+            }
+            assertEquals(count, rows);
+        } finally {
+            format.rowLimit = rowLimit;
+        }
+    }
+
+    @Test
+    public void testExcel97Truncated() throws Exception {
+        Excel97OutputFormat format = applicationContext.getBean(Excel97OutputFormat.class);
+        int rowLimit = format.rowLimit;
+        try {
+            format.rowLimit = 4;
+            MockHttpServletResponse resp = getAsServletResponse("wfs?request=GetFeature&version=1.0.0&typeName=sf:PrimitiveGeoFeature&outputFormat=excel");
+            Workbook wb = new HSSFWorkbook(getBinaryInputStream(resp));
+
+            // no splitting by default, the rows past the limit are reported as missing
+            assertEquals(1, wb.getNumberOfSheets());
+            Sheet sheet = wb.getSheet("PrimitiveGeoFeature");
+            assertEquals(4, sheet.getPhysicalNumberOfRows());
+            String warning = sheet.getRow(3).getCell(0).getRichStringCellValue().toString();
+            assertTrue(warning.startsWith(ExcelOutputFormat.TRUNCATE_WARNING + ": ROWS 3"));
+        } finally {
+            format.rowLimit = rowLimit;
+        }
+    }
+
+    @Test
+    public void testUniqueSheetNames() throws Exception {
+        Excel97OutputFormat format = applicationContext.getBean(Excel97OutputFormat.class);
+        SimpleFeatureType ft = (SimpleFeatureType) getFeatureSource(MockData.PRIMITIVEGEOFEATURE)
+                .getSchema();
+        Workbook wb = new HSSFWorkbook();
+        wb.createSheet("primitivegeofeature");
+        wb.createSheet("PrimitiveGeoFeature_2");
+
+        // names are compared regardless of case
+        assertEquals("PrimitiveGeoFeature (2)", format.getSheetName(wb, ft, 1));
+        assertEquals("PrimitiveGeoFeature_2 (2)", format.getSheetName(wb, ft, 2));
+        assertEquals("PrimitiveGeoFeature_3", format.getSheetName(wb, ft, 3));
+
+        // long names are truncated keeping the suffixes
+        String longName = "AVeryLongFeatureTypeNameIndeedIndeed";
+        assertEquals(31, format.getSheetName(longName, "_2 (2)").length());
+        assertTrue(format.getSheetName(longName, "_2 (2)").endsWith("_2 (2)"));
+    }
 }
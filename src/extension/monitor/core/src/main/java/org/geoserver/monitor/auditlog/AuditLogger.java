@@ -9,8 +9,13 @@ import static org.apache.commons.io.filefilter.FileFilterUtils.*;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -19,11 +24,17 @@ import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.TimeZone;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.geoserver.monitor.MemoryMonitorDAO;
 import org.geoserver.monitor.MonitorConfig;
 import org.geoserver.monitor.RequestData;
@@ -41,6 +52,17 @@ import freemarker.template.Template;
 /**
  * Writes all requests to a log file. The log file can be configured in the MonitorConfig, as well
  * as a Freemarker template to drive its contents
+ * <p>
+ * The requests are handed over to the writing thread by a lock-free ring buffer, and written out
+ * in batches. When the buffer is full the request threads either wait for room to be made, or drop
+ * the request, depending on the configured overflow policy. The number of requests written and
+ * dropped is tracked, see {@link #getWrittenCount()} and {@link #getDroppedCount()}.
+ * </p>
+ * <p>
+ * The log files are rolled every day, and after a configurable number of requests or bytes, the
+ * rolled files can optionally be compressed, in a separate thread so that the writing is not held
+ * up.
+ * </p>
  * 
  * @author Andrea Aime - GeoSolutions
  */
@@ -54,6 +76,32 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
     public final static int DEFAULT_ROLLING_LIMIT = 10000;
 
+    public final static int DEFAULT_QUEUE_SIZE = 10000;
+
+    /**
+     * The maximum number of requests rendered and written out in one go
+     */
+    final static int BATCH_SIZE = 1000;
+
+    /**
+     * The overflow policy waiting for room in the queue
+     */
+    public final static String POLICY_BLOCK = "block";
+
+    /**
+     * The overflow policy dropping the requests that do not fit in the queue
+     */
+    public final static String POLICY_DROP = "drop";
+
+    AtomicLong written = new AtomicLong();
+
+    AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Compresses the rolled files, created on demand
+     */
+    ExecutorService compressor;
+
     Configuration templateConfig;
 
     MonitorConfig config;
@@ -62,6 +110,14 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
     int rollLimit;
 
+    long rollSize;
+
+    boolean compress;
+
+    int queueSize;
+
+    boolean dropOnOverflow;
+
     String path;
 
     String defaultPath;
@@ -84,6 +140,11 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
         if (getProperty("enabled", Boolean.class, false)) {
             // prepare the config
             rollLimit = getProperty("roll_limit", Integer.class, DEFAULT_ROLLING_LIMIT);
+            rollSize = getProperty("roll_size", Long.class, 0l);
+            compress = getProperty("compress", Boolean.class, false);
+            queueSize = getProperty("queue_size", Integer.class, DEFAULT_QUEUE_SIZE);
+            dropOnOverflow = POLICY_DROP.equalsIgnoreCase(getProperty("overflow_policy",
+                    String.class, POLICY_BLOCK));
             path = System.getProperty("GEOSERVER_AUDIT_PATH");
             if(path == null || "".equals(path.trim())) {
                 path = config.getProperty(AUDIT, "path", String.class);
@@ -107,7 +168,8 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
             path = config.getProperty(AUDIT, "path", String.class);
 
             // setup the dumper
-            this.dumper = new RequestDumper(loggingDir, rollLimit, headerTemplate, contentTemplate, footerTemplate);
+            this.dumper = new RequestDumper(loggingDir, rollLimit, rollSize, compress, queueSize,
+                    headerTemplate, contentTemplate, footerTemplate);
         }
     }
 
@@ -153,6 +215,11 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
                     dumper = null;
                 } else {
                     int newLimit = getProperty("roll_limit", Integer.class, DEFAULT_ROLLING_LIMIT);
+                    long newRollSize = getProperty("roll_size", Long.class, 0l);
+                    boolean newCompress = getProperty("compress", Boolean.class, false);
+                    int newQueueSize = getProperty("queue_size", Integer.class, DEFAULT_QUEUE_SIZE);
+                    dropOnOverflow = POLICY_DROP.equalsIgnoreCase(getProperty("overflow_policy",
+                            String.class, POLICY_BLOCK));
                     String newPath = getProperty("path", String.class, null);
                     String newHeaderTemplate = getProperty("ftl.header", String.class, null);
                     String newContentTemplate = getProperty("ftl.content", String.class, null);
@@ -161,7 +228,9 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
                     // and the strings we get do not change unless the property file has been
                     // reloaded. We also rework if the dumper died for some reason (e.g., improper
                     // config, invalid templates)
-                    if (newLimit != rollLimit || newPath != path
+                    if (newLimit != rollLimit || newRollSize != rollSize
+                            || newCompress != compress || newQueueSize != queueSize
+                            || newPath != path
                             || newHeaderTemplate != headerTemplate
                             || newContentTemplate != contentTemplate 
                             || newFooterTemplate != footerTemplate 
@@ -177,10 +246,19 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
             // if we have a dumper, add in the logging queue
             if (dumper != null) {
                 if (!dumper.queue.offer(rd)) {
-                    LOGGER.log(Level.WARNING,
-                            "Auditing subsystem overload, the logging queue is full, stopping the world on it");
-                    dumper.queue.put(rd);
+                    if (dropOnOverflow) {
+                        long count = dropped.incrementAndGet();
+                        if (LOGGER.isLoggable(Level.FINE)) {
+                            LOGGER.log(Level.FINE, "Auditing subsystem overload, the logging queue "
+                                    + "is full, dropped " + count + " requests so far");
+                        }
+                    } else {
+                        LOGGER.log(Level.WARNING,
+                                "Auditing subsystem overload, the logging queue is full, stopping the world on it");
+                        dumper.put(rd);
+                    }
                 }
+                dumper.wakeUp();
             }
         } catch (Exception e) {
             throw new RuntimeException("Unepected error occurred while trying to "
@@ -188,11 +266,57 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
         }
     }
 
+    /**
+     * The number of requests written to the audit log
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * The number of requests that could not be written out because the audit queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
     @Override
     public void onApplicationEvent(ApplicationEvent event) {
         if (event instanceof ContextClosedEvent) {
             closeDumper(dumper);
+            synchronized (this) {
+                if (compressor != null) {
+                    // lets the pending compressions complete
+                    compressor.shutdown();
+                    try {
+                        if (!compressor.awaitTermination(60, TimeUnit.SECONDS)) {
+                            LOGGER.warning("Timed out waiting for the audit log compression, "
+                                    + "the uncompressed files are left in place");
+                        }
+                    } catch (InterruptedException e) {
+                        LOGGER.log(Level.WARNING, "Interrupted while waiting for the audit log "
+                                + "compression", e);
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    synchronized ExecutorService getCompressor() {
+        if (compressor == null || compressor.isShutdown()) {
+            compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "AuditLogCompressor");
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
+        return compressor;
     }
 
     private void closeDumper(RequestDumper dumper) {
@@ -213,11 +337,16 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
         private long fileRollCounter = 0;
 
         /**
-         * We use a {@link BlockingQueue} to decouple to incoming flux of {@link RequestData} to
+         * We use a {@link RingBuffer} to decouple to incoming flux of {@link RequestData} to
          * audit with the thread that writes to disk.
          * 
          */
-        BlockingQueue<RequestData> queue = new ArrayBlockingQueue<RequestData>(10000);
+        final RingBuffer<RequestData> queue;
+
+        /**
+         * True when the thread is waiting for requests to be queued
+         */
+        volatile boolean waiting;
 
         /** The {@link File} where we audit to. */
         private File logFile;
@@ -228,6 +357,10 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
         private int lineRollingLimit;
 
+        private long sizeRollingLimit;
+
+        private boolean compress;
+
         private String headerTemplate;
 
         private String contentTemplate;
@@ -239,13 +372,17 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
          * time. It will run only some few nanoseconds each time a new {@link RequestData} is
          * enqueded.
          */
-        private RequestDumper(final File path, final int lineRollingLimit, String headerTemplate,
-                String contentTemplate, String footerTemplate) {
+        private RequestDumper(final File path, final int lineRollingLimit,
+                final long sizeRollingLimit, boolean compress, int queueSize,
+                String headerTemplate, String contentTemplate, String footerTemplate) {
             super("RequestDumper");
 
             // save path to use
             this.path = path;
             this.lineRollingLimit = lineRollingLimit;
+            this.sizeRollingLimit = sizeRollingLimit;
+            this.compress = compress;
+            this.queue = new RingBuffer<RequestData>(queueSize);
             this.headerTemplate = headerTemplate == null ? "header.ftl" : headerTemplate;
             this.contentTemplate = contentTemplate == null ? "content.ftl" : contentTemplate;
             this.footerTemplate = contentTemplate == null ? "footer.ftl" : footerTemplate;
@@ -262,13 +399,14 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
             BufferedWriter writer = null;
             try {
+                List<RequestData> rds = new ArrayList<RequestData>(BATCH_SIZE);
+                StringWriter batch = new StringWriter();
                 while (true) {
                     // grab as many items from the queue as possible
-                    List<RequestData> rds = new ArrayList<RequestData>();
-                    if (queue.size() > 0) {
-                        queue.drainTo(rds);
-                    } else {
-                        rds.add(queue.take());
+                    rds.clear();
+                    if (queue.drainTo(rds, BATCH_SIZE) == 0) {
+                        waitForRequests();
+                        continue;
                     }
 
                     // roll the writer if necessary
@@ -277,14 +415,24 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
                     // get the template
                     Template template = templateConfig.getTemplate(contentTemplate);
 
-                    // write out each of the request data
+                    // render the whole batch, and write it out in one shot
+                    batch.getBuffer().setLength(0);
+                    boolean exit = false;
+                    int count = 0;
                     for (RequestData rd : rds) {
                         if (rd == END_MARKER) {
-                            return;
+                            exit = true;
+                            break;
                         }
 
-                        template.process(rd, writer);
-                        this.lineCounter++;
+                        template.process(rd, batch);
+                        count++;
+                    }
+                    writer.write(batch.getBuffer().toString());
+                    this.lineCounter += count;
+                    written.addAndGet(count);
+                    if (exit) {
+                        return;
                     }
 
                     // flush the writer so that the file is up to date, otherwise a request
@@ -308,6 +456,49 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
         }
 
+        /**
+         * Waits for requests to be queued, or for a while, in case a request slipped in
+         * while going to sleep
+         */
+        void waitForRequests() {
+            waiting = true;
+            try {
+                if (queue.size() == 0) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                }
+            } finally {
+                waiting = false;
+            }
+            if (Thread.interrupted()) {
+                throw new IllegalStateException("Interrupted while waiting for requests");
+            }
+        }
+
+        /**
+         * Wakes up the thread if it's waiting for requests
+         */
+        void wakeUp() {
+            if (waiting) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        /**
+         * Adds the request to the queue, waiting for room to be available if necessary
+         */
+        void put(RequestData rd) throws InterruptedException {
+            while (!queue.offer(rd)) {
+                if (!isAlive()) {
+                    throw new IllegalStateException("The request dumper is not running");
+                }
+                wakeUp();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
         /**
          * Performs log-rolling if necessary
          * 
@@ -321,9 +512,20 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
             // check if we have to close the file and reopen it for rolling
             if (this.lineCounter >= lineRollingLimit
+                    || (sizeRollingLimit > 0 && logFile != null && logFile.length() >= sizeRollingLimit)
                     || (day > 0 && day != current.get(GregorianCalendar.DAY_OF_YEAR))
                     || (logFile != null && !logFile.exists())) {
                 closeWriter(writer);
+                if (compress && writer != null && logFile.exists()) {
+                    final File rolled = logFile;
+                    getCompressor().execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            compress(rolled);
+                        }
+                    });
+                }
 
                 // play with counters
                 this.fileRollCounter++;
@@ -344,15 +546,16 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
                 // look for similar files to pick up numbering
                 if (fileRollCounter == 0) {
                     final String[] files = path.list(makeFileOnly(andFileFilter(
-                            prefixFileFilter("geoserver_audit_"), suffixFileFilter(".log"))));
+                            prefixFileFilter("geoserver_audit_"),
+                            orFileFilter(suffixFileFilter(".log"), suffixFileFilter(".log.gz")))));
                     if (files != null && files.length > 0) {
                         Arrays.sort(files, new Comparator<String>() {
 
                             @Override
                             public int compare(String o1, String o2) {
                                 // extract dates and compare
-                                final String[] o1s = o1.substring(0, o1.length() - 4).split("_");
-                                final String[] o2s = o2.substring(0, o2.length() - 4).split("_");
+                                final String[] o1s = getBaseName(o1).split("_");
+                                final String[] o2s = getBaseName(o2).split("_");
                                 int dateCompare;
                                 try {
                                     dateCompare = dateFormat.parse(o1s[2]).compareTo(
@@ -371,10 +574,9 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
                         });
                         // get the max counter
-                        final String target = files[files.length - 1];
+                        final String target = getBaseName(files[files.length - 1]);
                         int start = target.lastIndexOf("_") + 1;
-                        int end = target.lastIndexOf(".");
-                        fileRollCounter = Integer.parseInt(target.substring(start, end));
+                        fileRollCounter = Integer.parseInt(target.substring(start));
                         // move to the next one
                         fileRollCounter++;
                     }
@@ -400,6 +602,44 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
             return writer;
         }
 
+        /**
+         * Returns the file name without the .log or .log.gz extension
+         */
+        String getBaseName(String fileName) {
+            return fileName.substring(0, fileName.lastIndexOf(".log"));
+        }
+
+        /**
+         * Compresses a rolled file, removing the original. The compressed file gets its final name
+         * only once complete, so that an interrupted compression never leaves a partial .log.gz
+         * behind
+         */
+        void compress(File file) {
+            File compressed = new File(file.getParentFile(), file.getName() + ".gz.tmp");
+            InputStream is = null;
+            OutputStream os = null;
+            try {
+                is = new FileInputStream(file);
+                os = new GZIPOutputStream(new FileOutputStream(compressed));
+                IOUtils.copy(is, os);
+                os.close();
+                is.close();
+                File target = new File(file.getParentFile(), file.getName() + ".gz");
+                if (!compressed.renameTo(target)) {
+                    throw new IOException("Failed to rename " + compressed + " to " + target);
+                }
+                if (!file.delete()) {
+                    LOGGER.log(Level.WARNING, "Failed to remove the compressed audit file " + file);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to compress the audit file " + file, e);
+                IOUtils.closeQuietly(os);
+                compressed.delete();
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+
         private void closeWriter(BufferedWriter writer) {
             try {
                 if (writer != null) {
@@ -431,7 +671,8 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
             if (queue != null && isAlive()) {
                 // try to stop it gracefully
                 try {
-                    queue.put(END_MARKER);
+                    put(END_MARKER);
+                    wakeUp();
                     this.join(1000);
                 } catch (InterruptedException e) {
                     // eat me
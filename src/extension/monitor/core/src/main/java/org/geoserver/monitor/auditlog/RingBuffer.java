@@ -0,0 +1,104 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.auditlog;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue with many producers and a single consumer. Producers never block,
+ * {@link #offer(Object)} simply returns false when the buffer is full, leaving to the caller the
+ * choice of dropping the item or retrying.
+ * <p>
+ * Producers claim a slot by advancing the tail, and then fill it. The consumer takes the filled
+ * slots in order, stopping at the first one that has been claimed but not filled yet.
+ * </p>
+ */
+class RingBuffer<T> {
+
+    final AtomicReferenceArray<T> slots;
+
+    final int capacity;
+
+    final int mask;
+
+    /**
+     * The next position to be claimed by a producer
+     */
+    final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The next position to be read by the consumer, written only by the consumer
+     */
+    volatile long head;
+
+    /**
+     * Builds a buffer with the specified capacity, rounded up to the next power of two
+     */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<T>(size);
+    }
+
+    /**
+     * Adds the item to the buffer, if there is room for it
+     *
+     * @return true if the item was added, false if the buffer was full
+     */
+    boolean offer(T item) {
+        if (item == null) {
+            throw new NullPointerException("The ring buffer does not accept null items");
+        }
+        while (true) {
+            long position = tail.get();
+            if (position - head >= capacity) {
+                return false;
+            }
+            if (tail.compareAndSet(position, position + 1)) {
+                slots.lazySet((int) (position & mask), item);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves up to maxItems items from the buffer into the target list. To be called only by the
+     * consumer thread.
+     *
+     * @return the number of items moved
+     */
+    int drainTo(List<T> target, int maxItems) {
+        long position = head;
+        int count = 0;
+        while (count < maxItems) {
+            int index = (int) (position & mask);
+            T item = slots.get(index);
+            if (item == null) {
+                // empty, or claimed but not filled yet
+                break;
+            }
+            slots.lazySet(index, null);
+            target.add(item);
+            position++;
+            count++;
+        }
+        head = position;
+        return count;
+    }
+
+    /**
+     * Returns the number of items in the buffer, including the ones being added
+     */
+    int size() {
+        return (int) (tail.get() - head);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+}
@@ -234,7 +234,7 @@ public class RequestResource extends ReflectiveResource {
         }
     }
     
-    Date parseDate(String s) {
+    static Date parseDate(String s) {
         try {
             return DATE_FORMAT.parse(s);
         } 
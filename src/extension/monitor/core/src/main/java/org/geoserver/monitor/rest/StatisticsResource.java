@@ -0,0 +1,113 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.geoserver.monitor.rollup.RequestRollup;
+import org.geoserver.monitor.rollup.RequestRollup.Dimension;
+import org.geoserver.monitor.rollup.RequestRollup.Granularity;
+import org.geoserver.monitor.rollup.RollupStatistics;
+import org.geoserver.rest.ReflectiveResource;
+import org.geoserver.rest.RestletException;
+import org.geoserver.rest.format.DataFormat;
+import org.restlet.data.Form;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Returns the pre-aggregated request statistics kept by {@link RequestRollup}.
+ * <p>
+ * The granularity (minute, hour, day) is part of the path, the following query parameters are
+ * supported:
+ * <ul>
+ * <li><code>dimension</code>: one of total, service, operation, layer, client, defaults to total</li>
+ * <li><code>value</code>: a dimension value, if specified a time series of the value statistics is
+ * returned instead of the statistics of all the dimension values</li>
+ * <li><code>from</code>, <code>to</code>: the time range, using the same format as the requests
+ * resource</li>
+ * </ul>
+ * </p>
+ */
+public class StatisticsResource extends ReflectiveResource {
+
+    RequestRollup rollup;
+
+    public StatisticsResource(RequestRollup rollup) {
+        this.rollup = rollup;
+    }
+
+    @Override
+    public boolean allowGet() {
+        return true;
+    }
+
+    @Override
+    protected List<DataFormat> createSupportedFormats(Request request, Response response) {
+        List<DataFormat> formats = new ArrayList<DataFormat>();
+        formats.add(createXMLFormat(request, response));
+        formats.add(createJSONFormat(request, response));
+        return formats;
+    }
+
+    @Override
+    protected void configureXStream(XStream xstream) {
+        xstream.alias("statistics", RollupStatistics.class);
+    }
+
+    @Override
+    protected Object handleObjectGet() throws Exception {
+        Granularity granularity = parseEnum(Granularity.class, "granularity",
+                getAttribute("granularity"));
+
+        Form form = null;
+        if (getRequest().getResourceRef() != null) {
+            form = getRequest().getResourceRef().getQueryAsForm();
+        } else {
+            form = new Form();
+        }
+        Dimension dimension = Dimension.TOTAL;
+        String dimensionSpec = form.getFirstValue("dimension");
+        if (dimensionSpec != null) {
+            dimension = parseEnum(Dimension.class, "dimension", dimensionSpec);
+        }
+        Date from = parseDate("from", form.getFirstValue("from"));
+        Date to = parseDate("to", form.getFirstValue("to"));
+
+        String value = form.getFirstValue("value");
+        if (value != null) {
+            return rollup.series(granularity, dimension, value, from, to);
+        } else {
+            return rollup.query(granularity, dimension, from, to);
+        }
+    }
+
+    <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (Exception e) {
+            throw new RestletException("Invalid " + name + " " + value,
+                    Status.CLIENT_ERROR_BAD_REQUEST, e);
+        }
+    }
+
+    Date parseDate(String name, String value) {
+        if (value == null) {
+            return null;
+        }
+        Date date = RequestResource.parseDate(value);
+        if (date == null) {
+            throw new RestletException("Invalid " + name + " date " + value,
+                    Status.CLIENT_ERROR_BAD_REQUEST);
+        }
+        return date;
+    }
+
+}
@@ -0,0 +1,65 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rollup;
+
+import java.util.Date;
+
+/**
+ * The running totals of the requests falling in a time bucket for a given dimension value. Updates
+ * and reads are synchronized, as requests are added from the monitor post processing threads while
+ * the REST layer reads them.
+ */
+class Aggregate {
+
+    long count;
+
+    long errors;
+
+    long bytes;
+
+    long totalTime;
+
+    LatencySketch latency = new LatencySketch();
+
+    synchronized void add(long time, long responseLength, boolean error) {
+        count++;
+        if (error) {
+            errors++;
+        }
+        if (responseLength > 0) {
+            bytes += responseLength;
+        }
+        totalTime += time;
+        latency.add(time);
+    }
+
+    synchronized void mergeInto(Aggregate target) {
+        target.count += count;
+        target.errors += errors;
+        target.bytes += bytes;
+        target.totalTime += totalTime;
+        target.latency.merge(latency);
+    }
+
+    /**
+     * Turns the aggregate into a summary, the aggregate is supposed not to be shared at this point
+     */
+    RollupStatistics toStatistics(String value, Date from, Date to) {
+        RollupStatistics stats = new RollupStatistics();
+        stats.value = value;
+        stats.from = from;
+        stats.to = to;
+        stats.count = count;
+        stats.errors = errors;
+        stats.bytes = bytes;
+        stats.averageTime = count == 0 ? 0 : totalTime / count;
+        stats.minTime = latency.getMin();
+        stats.maxTime = latency.getMax();
+        stats.medianTime = latency.quantile(0.5);
+        stats.p90Time = latency.quantile(0.9);
+        stats.p99Time = latency.quantile(0.99);
+        return stats;
+    }
+}
@@ -0,0 +1,135 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rollup;
+
+import java.util.Arrays;
+
+/**
+ * A compact, mergeable summary of a latency distribution, allowing to estimate its percentiles
+ * with a bounded relative error.
+ * <p>
+ * Values are counted in logarithmically sized bins, the bin <code>i</code> holding the values in
+ * <code>(gamma^(i-1), gamma^i]</code>, so that any value estimated from its bin is off by at most
+ * {@link #RELATIVE_ACCURACY}. Two sketches can be merged by summing their bins, which is what
+ * makes it possible to roll up minutes into hours and days, or several layers into a total.
+ * </p>
+ * <p>
+ * The class is not thread safe, callers are supposed to synchronize access.
+ * </p>
+ */
+public class LatencySketch {
+
+    /**
+     * The relative error of the estimated percentiles
+     */
+    public static final double RELATIVE_ACCURACY = 0.02;
+
+    static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+    static final double LOG_GAMMA = Math.log(GAMMA);
+
+    /**
+     * The counts of values falling in each bin, grown as needed
+     */
+    int[] bins = new int[0];
+
+    /**
+     * The count of values lower or equal than one millisecond
+     */
+    long zeroCount;
+
+    long count;
+
+    long min = Long.MAX_VALUE;
+
+    long max = Long.MIN_VALUE;
+
+    /**
+     * Adds a latency, expressed in milliseconds
+     */
+    public void add(long millis) {
+        count++;
+        min = Math.min(min, millis);
+        max = Math.max(max, millis);
+        if (millis <= 1) {
+            zeroCount++;
+        } else {
+            int index = (int) Math.ceil(Math.log(millis) / LOG_GAMMA);
+            if (index >= bins.length) {
+                bins = Arrays.copyOf(bins, index + 1);
+            }
+            bins[index]++;
+        }
+    }
+
+    /**
+     * Adds all the values of another sketch into this one
+     */
+    public void merge(LatencySketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (other.bins.length > bins.length) {
+            bins = Arrays.copyOf(bins, other.bins.length);
+        }
+        for (int i = 0; i < other.bins.length; i++) {
+            bins[i] += other.bins[i];
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Estimates the value at the specified quantile, between 0 and 1
+     *
+     * @return the estimated latency in milliseconds, or 0 if the sketch is empty
+     */
+    public long quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1, was " + q);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) (q * (count - 1));
+        if (rank == 0) {
+            return min;
+        } else if (rank == count - 1) {
+            return max;
+        } else if (rank < zeroCount) {
+            return Math.max(min, 0);
+        }
+        long seen = zeroCount;
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen > rank) {
+                // the bin mid point in relative terms, keeping the error symmetric
+                long estimate = Math.round(2 * Math.pow(GAMMA, i) / (GAMMA + 1));
+                return Math.max(min, Math.min(max, estimate));
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The minimum value added, or 0 if the sketch is empty
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * The maximum value added, or 0 if the sketch is empty
+     */
+    public long getMax() {
+        return count == 0 ? 0 : max;
+    }
+}
@@ -0,0 +1,389 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rollup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Status;
+import org.geoserver.monitor.RequestDataListener;
+
+/**
+ * Keeps per minute, hour and day aggregates of the requests, updated incrementally as requests
+ * complete, so that statistics can be computed without scanning the request history.
+ * <p>
+ * Each time bucket holds, for the service, operation, layer and client dimensions, the request
+ * count, error count, bytes produced, and a {@link LatencySketch} of the response times. Queries
+ * merge the buckets falling in the requested range, their cost depends only on the retention and
+ * on the number of distinct values per dimension, not on the number of requests.
+ * </p>
+ * <p>
+ * The memory used is kept under control by two limits, configurable in the monitor configuration:
+ * <ul>
+ * <li><code>rollup.minutes</code>, <code>rollup.hours</code>, <code>rollup.days</code>: the
+ * number of buckets kept for each granularity, older ones get evicted</li>
+ * <li><code>rollup.max_values</code>: the maximum number of distinct values tracked per dimension
+ * in each bucket, requests past that are accounted under {@link #OTHER}</li>
+ * <li><code>rollup.max_clients</code>: the same limit for the client dimension, lower by default
+ * as client addresses are much more numerous than services, operations or layers</li>
+ * </ul>
+ * The rollup can be turned off by setting <code>rollup.enabled</code> to false. Buckets are aligned
+ * to UTC.
+ * </p>
+ */
+public class RequestRollup implements RequestDataListener {
+
+    static final String ROLLUP = "rollup";
+
+    /**
+     * The value collecting the requests past the max number of values tracked in a bucket
+     */
+    public static final String OTHER = "other";
+
+    /**
+     * The single value of the {@link Dimension#TOTAL} dimension
+     */
+    public static final String TOTAL = "total";
+
+    public static final int DEFAULT_MAX_VALUES = 1000;
+
+    public static final int DEFAULT_MAX_CLIENTS = 100;
+
+    public enum Granularity {
+        MINUTE(TimeUnit.MINUTES.toMillis(1), 60), HOUR(TimeUnit.HOURS.toMillis(1), 48), DAY(
+                TimeUnit.DAYS.toMillis(1), 30);
+
+        final long millis;
+
+        final int defaultRetention;
+
+        private Granularity(long millis, int defaultRetention) {
+            this.millis = millis;
+            this.defaultRetention = defaultRetention;
+        }
+
+        long floor(long time) {
+            long offset = time % millis;
+            return offset >= 0 ? time - offset : time - offset - millis;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        String getRetentionKey() {
+            return name().toLowerCase() + "s";
+        }
+    }
+
+    public enum Dimension {
+        TOTAL, SERVICE, OPERATION, LAYER, CLIENT
+    }
+
+    /**
+     * The aggregates for each dimension value in a time bucket
+     */
+    static class Bucket {
+        final Map<Dimension, ConcurrentHashMap<String, Aggregate>> dimensions;
+
+        Bucket() {
+            dimensions = new EnumMap<Dimension, ConcurrentHashMap<String, Aggregate>>(
+                    Dimension.class);
+            for (Dimension dimension : Dimension.values()) {
+                dimensions.put(dimension, new ConcurrentHashMap<String, Aggregate>());
+            }
+        }
+    }
+
+    final Map<Granularity, ConcurrentSkipListMap<Long, Bucket>> buckets;
+
+    final Map<Granularity, Integer> retention;
+
+    final int maxValues;
+
+    final int maxClients;
+
+    final boolean enabled;
+
+    public RequestRollup(MonitorConfig config) {
+        this(getRetention(config), getProperty(config, "max_values", Integer.class,
+                DEFAULT_MAX_VALUES), getProperty(config, "max_clients", Integer.class,
+                DEFAULT_MAX_CLIENTS), getProperty(config, "enabled", Boolean.class, true));
+    }
+
+    RequestRollup(Map<Granularity, Integer> retention, int maxValues, int maxClients,
+            boolean enabled) {
+        this.retention = retention;
+        this.maxValues = maxValues;
+        this.maxClients = maxClients;
+        this.enabled = enabled;
+        this.buckets = new EnumMap<Granularity, ConcurrentSkipListMap<Long, Bucket>>(
+                Granularity.class);
+        for (Granularity granularity : Granularity.values()) {
+            buckets.put(granularity, new ConcurrentSkipListMap<Long, Bucket>());
+        }
+    }
+
+    static Map<Granularity, Integer> getRetention(MonitorConfig config) {
+        Map<Granularity, Integer> retention = new EnumMap<Granularity, Integer>(Granularity.class);
+        for (Granularity granularity : Granularity.values()) {
+            int buckets = getProperty(config, granularity.getRetentionKey(), Integer.class,
+                    granularity.defaultRetention);
+            retention.put(granularity, Math.max(1, buckets));
+        }
+        return retention;
+    }
+
+    static <T> T getProperty(MonitorConfig config, String name, Class<T> target, T defaultValue) {
+        T value = config.getProperty(ROLLUP, name, target);
+        if (value == null) {
+            return defaultValue;
+        } else {
+            return value;
+        }
+    }
+
+    @Override
+    public void requestStarted(RequestData rd) {
+        // nothing to do
+    }
+
+    @Override
+    public void requestUpdated(RequestData rd) {
+        // nothing to do
+    }
+
+    @Override
+    public void requestCompleted(RequestData rd) {
+        // nothing to do, wait for the layer names to be normalized
+    }
+
+    @Override
+    public void requestPostProcessed(RequestData rd) {
+        if (rd == null || !enabled) {
+            return;
+        }
+        add(rd);
+    }
+
+    void add(RequestData rd) {
+        long time = getRequestTime(rd);
+        long elapsed = rd.getTotalTime();
+        long bytes = rd.getResponseLength();
+        boolean error = rd.getStatus() == Status.FAILED || rd.getError() != null;
+        for (Granularity granularity : Granularity.values()) {
+            Bucket bucket = getBucket(granularity, time);
+            if (bucket == null) {
+                // too old to be tracked
+                continue;
+            }
+
+            getAggregate(bucket, Dimension.TOTAL, TOTAL).add(elapsed, bytes, error);
+            String service = rd.getService();
+            if (service != null) {
+                getAggregate(bucket, Dimension.SERVICE, service).add(elapsed, bytes, error);
+            }
+            String operation = rd.getOperation();
+            if (operation != null) {
+                String value = service != null ? service + "." + operation : operation;
+                getAggregate(bucket, Dimension.OPERATION, value).add(elapsed, bytes, error);
+            }
+            List<String> layers = rd.getResources();
+            if (layers != null) {
+                for (String layer : layers) {
+                    if (layer != null) {
+                        getAggregate(bucket, Dimension.LAYER, layer).add(elapsed, bytes, error);
+                    }
+                }
+            }
+            String client = rd.getRemoteAddr();
+            if (client != null) {
+                getAggregate(bucket, Dimension.CLIENT, client).add(elapsed, bytes, error);
+            }
+        }
+    }
+
+    long getRequestTime(RequestData rd) {
+        if (rd.getEndTime() != null) {
+            return rd.getEndTime().getTime();
+        } else if (rd.getStartTime() != null) {
+            return rd.getStartTime().getTime() + rd.getTotalTime();
+        } else {
+            return System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Returns the bucket containing the specified time, creating it if needed and evicting the ones
+     * past the retention. Returns null if the time falls before the retained buckets.
+     */
+    Bucket getBucket(Granularity granularity, long time) {
+        ConcurrentSkipListMap<Long, Bucket> map = buckets.get(granularity);
+        long start = granularity.floor(time);
+        Bucket bucket = map.get(start);
+        if (bucket == null) {
+            long oldest = getOldestRetained(granularity, map);
+            if (start < oldest) {
+                return null;
+            }
+            Bucket created = new Bucket();
+            bucket = map.putIfAbsent(start, created);
+            if (bucket == null) {
+                bucket = created;
+                // a new bucket, evict the ones that fell out of the retention
+                map.headMap(getOldestRetained(granularity, map)).clear();
+            }
+        }
+        return bucket;
+    }
+
+    long getOldestRetained(Granularity granularity, ConcurrentSkipListMap<Long, Bucket> map) {
+        if (map.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+        return map.lastKey() - (retention.get(granularity) - 1) * granularity.millis;
+    }
+
+    Aggregate getAggregate(Bucket bucket, Dimension dimension, String value) {
+        ConcurrentHashMap<String, Aggregate> values = bucket.dimensions.get(dimension);
+        Aggregate aggregate = values.get(value);
+        if (aggregate == null) {
+            int max = dimension == Dimension.CLIENT ? maxClients : maxValues;
+            if (values.size() >= max) {
+                value = OTHER;
+            }
+            Aggregate created = new Aggregate();
+            aggregate = values.putIfAbsent(value, created);
+            if (aggregate == null) {
+                aggregate = created;
+            }
+        }
+        return aggregate;
+    }
+
+    /**
+     * Returns the statistics for each value of the specified dimension, over the buckets of the
+     * given granularity intersecting the time range, sorted by decreasing request count
+     *
+     * @param granularity The bucket granularity
+     * @param dimension The dimension to aggregate on
+     * @param from The start of the time range, inclusive, or null to start from the oldest bucket
+     * @param to The end of the time range, exclusive, or null to end at the newest bucket
+     */
+    public List<RollupStatistics> query(Granularity granularity, Dimension dimension, Date from,
+            Date to) {
+        NavigableMap<Long, Bucket> range = getRange(granularity, from, to);
+        Map<String, Aggregate> merged = new HashMap<String, Aggregate>();
+        for (Bucket bucket : range.values()) {
+            for (Map.Entry<String, Aggregate> entry : bucket.dimensions.get(dimension).entrySet()) {
+                Aggregate target = merged.get(entry.getKey());
+                if (target == null) {
+                    target = new Aggregate();
+                    merged.put(entry.getKey(), target);
+                }
+                entry.getValue().mergeInto(target);
+            }
+        }
+
+        Date rangeStart = getRangeStart(granularity, range, from);
+        Date rangeEnd = getRangeEnd(granularity, range, to);
+        List<RollupStatistics> result = new ArrayList<RollupStatistics>();
+        for (Map.Entry<String, Aggregate> entry : merged.entrySet()) {
+            result.add(entry.getValue().toStatistics(entry.getKey(), rangeStart, rangeEnd));
+        }
+        Collections.sort(result, new Comparator<RollupStatistics>() {
+
+            @Override
+            public int compare(RollupStatistics s1, RollupStatistics s2) {
+                int result = Long.compare(s2.count, s1.count);
+                if (result == 0) {
+                    result = s1.value.compareTo(s2.value);
+                }
+                return result;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the statistics of a single dimension value for each bucket of the given granularity
+     * intersecting the time range, in time order. Buckets without requests for the value are
+     * skipped.
+     *
+     * @param granularity The bucket granularity
+     * @param dimension The dimension the value belongs to
+     * @param value The dimension value
+     * @param from The start of the time range, inclusive, or null to start from the oldest bucket
+     * @param to The end of the time range, exclusive, or null to end at the newest bucket
+     */
+    public List<RollupStatistics> series(Granularity granularity, Dimension dimension,
+            String value, Date from, Date to) {
+        List<RollupStatistics> result = new ArrayList<RollupStatistics>();
+        for (Map.Entry<Long, Bucket> entry : getRange(granularity, from, to).entrySet()) {
+            Aggregate aggregate = entry.getValue().dimensions.get(dimension).get(value);
+            if (aggregate != null) {
+                Aggregate copy = new Aggregate();
+                aggregate.mergeInto(copy);
+                long start = entry.getKey();
+                result.add(copy.toStatistics(value, new Date(start), new Date(start
+                        + granularity.millis)));
+            }
+        }
+        return result;
+    }
+
+    NavigableMap<Long, Bucket> getRange(Granularity granularity, Date from, Date to) {
+        NavigableMap<Long, Bucket> range = buckets.get(granularity);
+        if (from != null) {
+            range = range.tailMap(granularity.floor(from.getTime()), true);
+        }
+        if (to != null) {
+            range = range.headMap(to.getTime(), false);
+        }
+        return range;
+    }
+
+    Date getRangeStart(Granularity granularity, NavigableMap<Long, Bucket> range, Date from) {
+        if (from != null) {
+            return new Date(granularity.floor(from.getTime()));
+        } else if (!range.isEmpty()) {
+            return new Date(range.firstKey());
+        } else {
+            return null;
+        }
+    }
+
+    Date getRangeEnd(Granularity granularity, NavigableMap<Long, Bucket> range, Date to) {
+        if (to != null) {
+            return to;
+        } else if (!range.isEmpty()) {
+            return new Date(range.lastKey() + granularity.millis);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Drops all the collected statistics
+     */
+    public void clear() {
+        for (ConcurrentSkipListMap<Long, Bucket> map : buckets.values()) {
+            map.clear();
+        }
+    }
+
+}
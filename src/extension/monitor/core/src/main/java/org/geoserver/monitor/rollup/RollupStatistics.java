@@ -0,0 +1,103 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rollup;
+
+import java.util.Date;
+
+/**
+ * The summary of the requests matching a dimension value over a time range, as returned by
+ * {@link RequestRollup#query(RequestRollup.Granularity, RequestRollup.Dimension, Date, Date)}.
+ * Times are expressed in milliseconds.
+ */
+public class RollupStatistics {
+
+    String value;
+
+    Date from;
+
+    Date to;
+
+    long count;
+
+    long errors;
+
+    long bytes;
+
+    long averageTime;
+
+    long minTime;
+
+    long maxTime;
+
+    long medianTime;
+
+    long p90Time;
+
+    long p99Time;
+
+    /**
+     * The dimension value, e.g., the service or layer name
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Start of the time range covered, inclusive
+     */
+    public Date getFrom() {
+        return from;
+    }
+
+    /**
+     * End of the time range covered, exclusive
+     */
+    public Date getTo() {
+        return to;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getAverageTime() {
+        return averageTime;
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public long getMedianTime() {
+        return medianTime;
+    }
+
+    public long getP90Time() {
+        return p90Time;
+    }
+
+    public long getP99Time() {
+        return p99Time;
+    }
+
+    @Override
+    public String toString() {
+        return "RollupStatistics [value=" + value + ", count=" + count + ", errors=" + errors
+                + ", bytes=" + bytes + ", averageTime=" + averageTime + ", p90Time=" + p90Time
+                + "]";
+    }
+}
@@ -0,0 +1,193 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.auditlog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.support.GenericApplicationContext;
+
+public class AuditLoggerTest {
+
+    static CountDownLatch entered;
+
+    static CountDownLatch release;
+
+    File directory;
+
+    File logs;
+
+    AuditLogger logger;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("audit").toFile();
+        logs = new File(directory, "logs");
+        writeTemplate("header.ftl", "");
+        writeTemplate("content.ftl", "request\n");
+        writeTemplate("footer.ftl", "");
+    }
+
+    @After
+    public void cleanup() {
+        if (logger != null) {
+            close(logger);
+        }
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testRollSize() throws Exception {
+        logger = buildLogger("audit.roll_size", "20");
+        log(logger, 6);
+        close(logger);
+
+        // each line is 8 bytes long, the file is rolled once it reaches 20 bytes
+        String[] files = listLogs();
+        assertEquals(2, files.length);
+        assertTrue(files[0].endsWith("_0.log"));
+        assertTrue(files[1].endsWith("_1.log"));
+        assertEquals(3, readLines(files[0]).size());
+        assertEquals(3, readLines(files[1]).size());
+    }
+
+    @Test
+    public void testCompress() throws Exception {
+        logger = buildLogger("audit.roll_size", "20", "audit.compress", "true");
+        log(logger, 6);
+        // closing waits for the pending compressions
+        close(logger);
+        assertTrue(logger.compressor.isTerminated());
+
+        // only the rolled file is compressed, no temporary file is left around
+        String[] files = listLogs();
+        assertEquals(2, files.length);
+        assertTrue(files[0].endsWith("_0.log.gz"));
+        assertTrue(files[1].endsWith("_1.log"));
+        assertEquals(3, readLines(files[0]).size());
+
+        // the numbering takes into account the compressed files
+        assertTrue(new File(logs, files[1]).delete());
+        logger = buildLogger("audit.roll_size", "20", "audit.compress", "true");
+        log(logger, 1);
+        close(logger);
+        files = listLogs();
+        assertEquals(2, files.length);
+        assertTrue(files[1].endsWith("_1.log"));
+        assertEquals(1, readLines(files[1]).size());
+    }
+
+    @Test
+    public void testDropPolicy() throws Exception {
+        writeTemplate("content.ftl", "${blocker}\n");
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        logger = buildLogger("audit.queue_size", "2", "audit.overflow_policy", "drop");
+
+        // block the writer on the first request
+        logger.requestPostProcessed(new BlockingRequestData());
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        // two fit in the queue, the others are dropped without waiting
+        for (int i = 0; i < 5; i++) {
+            logger.requestPostProcessed(new BlockingRequestData());
+        }
+        assertEquals(3, logger.getDroppedCount());
+
+        release.countDown();
+        close(logger);
+        assertEquals(3, logger.getWrittenCount());
+        String[] files = listLogs();
+        assertEquals(1, files.length);
+        assertEquals(3, readLines(files[0]).size());
+    }
+
+    AuditLogger buildLogger(String... properties) throws IOException {
+        MonitorConfig config = new MonitorConfig();
+        Properties props = config.getProperties();
+        props.put("audit.enabled", "true");
+        props.put("audit.path", logs.getAbsolutePath());
+        for (int i = 0; i < properties.length; i += 2) {
+            props.put(properties[i], properties[i + 1]);
+        }
+        return new AuditLogger(config, new GeoServerResourceLoader(directory));
+    }
+
+    /**
+     * Logs the requests one by one, waiting for each to be written out
+     */
+    void log(AuditLogger logger, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            long expected = logger.getWrittenCount() + 1;
+            logger.requestPostProcessed(new RequestData());
+            long timeout = System.currentTimeMillis() + 10000;
+            while (logger.getWrittenCount() < expected) {
+                assertTrue("Request not written in time", System.currentTimeMillis() < timeout);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    void close(AuditLogger logger) {
+        logger.onApplicationEvent(new ContextClosedEvent(new GenericApplicationContext()));
+    }
+
+    void writeTemplate(String name, String contents) throws IOException {
+        FileUtils.writeStringToFile(new File(directory, "monitoring/" + name), contents);
+    }
+
+    String[] listLogs() {
+        String[] files = logs.list();
+        Arrays.sort(files);
+        return files;
+    }
+
+    List<String> readLines(String name) throws IOException {
+        InputStream is = new FileInputStream(new File(logs, name));
+        try {
+            if (name.endsWith(".gz")) {
+                is = new GZIPInputStream(is);
+            }
+            return IOUtils.readLines(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Holds the writer thread until released
+     */
+    public static class BlockingRequestData extends RequestData {
+
+        private static final long serialVersionUID = 1L;
+
+        public String getBlocker() throws InterruptedException {
+            entered.countDown();
+            release.await();
+            return "request";
+        }
+    }
+}
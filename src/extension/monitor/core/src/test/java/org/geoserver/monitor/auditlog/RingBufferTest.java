@@ -0,0 +1,92 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.auditlog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+
+    @Test
+    public void testBounded() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+        // rounded up to a power of two
+        assertEquals(4, buffer.getCapacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        List<Integer> items = new ArrayList<Integer>();
+        assertEquals(2, buffer.drainTo(items, 2));
+        assertEquals(2, buffer.size());
+        assertTrue(buffer.offer(4));
+        assertTrue(buffer.offer(5));
+        assertEquals(4, buffer.drainTo(items, 10));
+        for (int i = 0; i < 6; i++) {
+            assertEquals(Integer.valueOf(i), items.get(i));
+        }
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(64);
+        final int producers = 4;
+        final int perProducer = 10000;
+        final CountDownLatch done = new CountDownLatch(producers);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            for (int p = 0; p < producers; p++) {
+                final int base = p * perProducer;
+                executor.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < perProducer; i++) {
+                            while (!buffer.offer(base + i)) {
+                                Thread.yield();
+                            }
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+
+            // consume everything, checking each producer items come out in order
+            int[] last = new int[producers];
+            for (int p = 0; p < producers; p++) {
+                last[p] = p * perProducer - 1;
+            }
+            List<Integer> items = new ArrayList<Integer>();
+            int consumed = 0;
+            while (consumed < producers * perProducer) {
+                items.clear();
+                buffer.drainTo(items, 16);
+                for (Integer item : items) {
+                    int producer = item / perProducer;
+                    assertEquals(last[producer] + 1, item.intValue());
+                    last[producer] = item;
+                }
+                consumed += items.size();
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(0, buffer.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
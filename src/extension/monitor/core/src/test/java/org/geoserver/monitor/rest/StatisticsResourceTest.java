@@ -0,0 +1,238 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Status;
+import org.geoserver.monitor.rollup.RequestRollup;
+import org.geoserver.monitor.rollup.RollupStatistics;
+import org.geoserver.rest.BeanResourceFinder;
+import org.geoserver.rest.RESTMapping;
+import org.geoserver.rest.RestletException;
+import org.geoserver.rest.format.DataFormat;
+import org.geoserver.rest.format.ReflectiveJSONFormat;
+import org.geoserver.rest.format.ReflectiveXMLFormat;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.data.Reference;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.io.UrlResource;
+import org.w3c.dom.Document;
+
+public class StatisticsResourceTest {
+
+    /**
+     * 2010-07-23T16:00:00Z
+     */
+    static final long BASE = 1279900800000L;
+
+    static final long MINUTE = RequestRollup.Granularity.MINUTE.getMillis();
+
+    RequestRollup rollup;
+
+    StatisticsResource resource;
+
+    @Before
+    public void setUp() {
+        rollup = new RequestRollup(new MonitorConfig());
+        rollup.requestPostProcessed(request(BASE + 10, "WMS", "GetMap", 100));
+        rollup.requestPostProcessed(request(BASE + MINUTE + 10, "WMS", "GetMap", 200));
+        RequestData failed = request(BASE + MINUTE + 20, "WFS", "GetFeature", 300);
+        failed.setStatus(Status.FAILED);
+        rollup.requestPostProcessed(failed);
+        resource = new StatisticsResource(rollup);
+    }
+
+    RequestData request(long end, String service, String operation, long time) {
+        RequestData rd = new RequestData();
+        rd.setStartTime(new Date(end - time));
+        rd.setEndTime(new Date(end));
+        rd.setTotalTime(time);
+        rd.setService(service);
+        rd.setOperation(operation);
+        rd.setRemoteAddr("10.0.0.1");
+        rd.setStatus(Status.FINISHED);
+        return rd;
+    }
+
+    @Test
+    public void testRoutes() throws Exception {
+        DefaultListableBeanFactory factory = new DefaultListableBeanFactory();
+        new XmlBeanDefinitionReader(factory).loadBeanDefinitions(new UrlResource(getClass()
+                .getResource("/applicationContext.xml")));
+
+        Map routes = factory.getBean("monitorRestMappings", RESTMapping.class).getRoutes();
+        assertEquals("statisticsResourceFinder", routes.get("/monitor/statistics/{granularity}"));
+        assertEquals("statisticsResourceFinder",
+                routes.get("/monitor/statistics/{granularity}.{format}"));
+        assertEquals(BeanResourceFinder.class.getName(),
+                factory.getBeanDefinition("statisticsResourceFinder").getBeanClassName());
+        assertEquals(StatisticsResource.class.getName(),
+                factory.getBeanDefinition("statisticsResource").getBeanClassName());
+    }
+
+    @Test
+    public void testGetTotal() throws Exception {
+        List<RollupStatistics> stats = get("minute");
+        assertEquals(1, stats.size());
+        assertEquals(RequestRollup.TOTAL, stats.get(0).getValue());
+        assertEquals(3, stats.get(0).getCount());
+        assertEquals(1, stats.get(0).getErrors());
+        assertEquals(new Date(BASE), stats.get(0).getFrom());
+        assertEquals(new Date(BASE + 2 * MINUTE), stats.get(0).getTo());
+    }
+
+    @Test
+    public void testGetDimension() throws Exception {
+        // values are case insensitive
+        List<RollupStatistics> stats = get("Hour", "dimension", "service");
+        assertEquals(2, stats.size());
+        assertEquals("WMS", stats.get(0).getValue());
+        assertEquals(2, stats.get(0).getCount());
+        assertEquals("WFS", stats.get(1).getValue());
+        assertEquals(1, stats.get(1).getErrors());
+    }
+
+    @Test
+    public void testGetSeries() throws Exception {
+        List<RollupStatistics> stats = get("minute", "dimension", "operation", "value",
+                "WMS.GetMap");
+        assertEquals(2, stats.size());
+        assertEquals(new Date(BASE), stats.get(0).getFrom());
+        assertEquals(100, stats.get(0).getMaxTime());
+        assertEquals(new Date(BASE + MINUTE), stats.get(1).getFrom());
+        assertEquals(200, stats.get(1).getMaxTime());
+    }
+
+    @Test
+    public void testGetTimeRange() throws Exception {
+        List<RollupStatistics> stats = get("minute", "dimension", "service", "from",
+                "2010-07-23T16:01:00%2B0000", "to", "2010-07-23T16:02:00%2B0000");
+        assertEquals(2, stats.size());
+        assertEquals(1, stats.get(0).getCount());
+        assertEquals(1, stats.get(1).getCount());
+        assertEquals(new Date(BASE + MINUTE), stats.get(0).getFrom());
+        assertEquals(new Date(BASE + 2 * MINUTE), stats.get(0).getTo());
+    }
+
+    @Test
+    public void testInvalidGranularity() throws Exception {
+        assertBadRequest("week");
+    }
+
+    @Test
+    public void testInvalidDimension() throws Exception {
+        assertBadRequest("minute", "dimension", "user");
+    }
+
+    @Test
+    public void testInvalidDate() throws Exception {
+        assertBadRequest("minute", "from", "yesterday");
+        assertBadRequest("minute", "to", "tomorrow");
+    }
+
+    @Test
+    public void testEncodeXML() throws Exception {
+        Request req = new Request();
+        String xml = encode(getFormat(req, ReflectiveXMLFormat.class), get("hour", "dimension",
+                "service"));
+
+        Document dom = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes()));
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        assertEquals("2", xpath.evaluate("count(/list/statistics)", dom));
+        assertEquals("WMS", xpath.evaluate("/list/statistics[1]/value", dom));
+        assertEquals("2", xpath.evaluate("/list/statistics[1]/count", dom));
+        assertEquals("WFS", xpath.evaluate("/list/statistics[2]/value", dom));
+        assertEquals("1", xpath.evaluate("/list/statistics[2]/errors", dom));
+    }
+
+    @Test
+    public void testEncodeJSON() throws Exception {
+        Request req = new Request();
+        String json = encode(getFormat(req, ReflectiveJSONFormat.class), get("hour",
+                "dimension", "service"));
+
+        JSONArray stats = JSONObject.fromObject(json).getJSONObject("list")
+                .getJSONArray("statistics");
+        assertEquals(2, stats.size());
+        assertEquals("WMS", stats.getJSONObject(0).getString("value"));
+        assertEquals("2", stats.getJSONObject(0).getString("count"));
+        assertEquals("WFS", stats.getJSONObject(1).getString("value"));
+        assertEquals("1", stats.getJSONObject(1).getString("errors"));
+    }
+
+    @SuppressWarnings("unchecked")
+    List<RollupStatistics> get(String granularity, String... kvp) throws Exception {
+        Request req = new Request();
+        req.getAttributes().put("granularity", granularity);
+        if (kvp.length > 0) {
+            setKVP(req, kvp);
+        }
+        resource.init(null, req, new Response(req));
+        return (List<RollupStatistics>) resource.handleObjectGet();
+    }
+
+    void assertBadRequest(String granularity, String... kvp) throws Exception {
+        try {
+            get(granularity, kvp);
+            fail("Expected a bad request");
+        } catch (RestletException e) {
+            assertEquals(org.restlet.data.Status.CLIENT_ERROR_BAD_REQUEST, e.getStatus());
+        }
+    }
+
+    DataFormat getFormat(Request req, Class<? extends DataFormat> type) {
+        for (DataFormat format : resource.createSupportedFormats(req, new Response(req))) {
+            if (type.isInstance(format)) {
+                return format;
+            }
+        }
+        fail("Format " + type.getSimpleName() + " not supported");
+        return null;
+    }
+
+    String encode(DataFormat format, Object object) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.toRepresentation(object).write(out);
+        String encoded = new String(out.toByteArray());
+        assertTrue(encoded.contains("statistics"));
+        return encoded;
+    }
+
+    void setKVP(Request req, String... kvp) {
+        Reference ref = new Reference();
+
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < kvp.length; i += 2) {
+            sb.append(kvp[i]).append("=").append(kvp[i + 1]).append("&");
+        }
+        sb.setLength(sb.length() - 1);
+        ref.setQuery(sb.toString());
+
+        req.setResourceRef(ref);
+    }
+}
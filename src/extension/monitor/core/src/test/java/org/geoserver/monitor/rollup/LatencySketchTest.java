@@ -0,0 +1,61 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rollup;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencySketchTest {
+
+    @Test
+    public void testEmpty() {
+        LatencySketch sketch = new LatencySketch();
+        assertEquals(0, sketch.getCount());
+        assertEquals(0, sketch.quantile(0.5));
+        assertEquals(0, sketch.getMin());
+        assertEquals(0, sketch.getMax());
+    }
+
+    @Test
+    public void testQuantiles() {
+        LatencySketch sketch = new LatencySketch();
+        for (int i = 1; i <= 10000; i++) {
+            sketch.add(i);
+        }
+        assertEquals(10000, sketch.getCount());
+        assertEquals(1, sketch.getMin());
+        assertEquals(10000, sketch.getMax());
+        assertWithinAccuracy(5000, sketch.quantile(0.5));
+        assertWithinAccuracy(9000, sketch.quantile(0.9));
+        assertWithinAccuracy(9900, sketch.quantile(0.99));
+        assertEquals(1, sketch.quantile(0));
+        assertEquals(10000, sketch.quantile(1));
+    }
+
+    @Test
+    public void testMerge() {
+        LatencySketch low = new LatencySketch();
+        LatencySketch high = new LatencySketch();
+        LatencySketch all = new LatencySketch();
+        for (int i = 0; i < 1000; i++) {
+            low.add(i);
+            high.add(i + 1000);
+            all.add(i);
+            all.add(i + 1000);
+        }
+        low.merge(high);
+        assertEquals(all.getCount(), low.getCount());
+        assertEquals(0, low.getMin());
+        assertEquals(1999, low.getMax());
+        for (double q : new double[] { 0.1, 0.5, 0.9, 0.99 }) {
+            assertEquals(all.quantile(q), low.quantile(q));
+        }
+    }
+
+    void assertWithinAccuracy(long expected, long actual) {
+        assertEquals(expected, actual, expected * LatencySketch.RELATIVE_ACCURACY + 1);
+    }
+}
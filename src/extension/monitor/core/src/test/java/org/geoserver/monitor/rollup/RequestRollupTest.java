@@ -0,0 +1,208 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rollup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Status;
+import org.geoserver.monitor.rollup.RequestRollup.Dimension;
+import org.geoserver.monitor.rollup.RequestRollup.Granularity;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestRollupTest {
+
+    static final long MINUTE = Granularity.MINUTE.getMillis();
+
+    static final long HOUR = Granularity.HOUR.getMillis();
+
+    RequestRollup rollup;
+
+    @Before
+    public void setUp() {
+        Map<Granularity, Integer> retention = new EnumMap<Granularity, Integer>(Granularity.class);
+        retention.put(Granularity.MINUTE, 5);
+        retention.put(Granularity.HOUR, 3);
+        retention.put(Granularity.DAY, 2);
+        rollup = new RequestRollup(retention, 3, 3, true);
+    }
+
+    RequestData request(long end, String service, String operation, long time, long bytes,
+            String client, String... layers) {
+        RequestData rd = new RequestData();
+        rd.setStartTime(new Date(end - time));
+        rd.setEndTime(new Date(end));
+        rd.setTotalTime(time);
+        rd.setService(service);
+        rd.setOperation(operation);
+        rd.setResponseLength(bytes);
+        rd.setRemoteAddr(client);
+        rd.setResources(Arrays.asList(layers));
+        rd.setStatus(Status.FINISHED);
+        return rd;
+    }
+
+    @Test
+    public void testAggregateByDimension() {
+        rollup.requestPostProcessed(request(10, "WMS", "GetMap", 100, 1000, "10.0.0.1",
+                "topp:states"));
+        rollup.requestPostProcessed(request(20, "WMS", "GetMap", 200, 2000, "10.0.0.2",
+                "topp:states", "sf:roads"));
+        RequestData failed = request(30, "WFS", "GetFeature", 300, 0, "10.0.0.1", "sf:roads");
+        failed.setStatus(Status.FAILED);
+        rollup.requestPostProcessed(failed);
+
+        List<RollupStatistics> total = rollup.query(Granularity.MINUTE, Dimension.TOTAL, null,
+                null);
+        assertEquals(1, total.size());
+        RollupStatistics stats = total.get(0);
+        assertEquals(RequestRollup.TOTAL, stats.getValue());
+        assertEquals(3, stats.getCount());
+        assertEquals(1, stats.getErrors());
+        assertEquals(3000, stats.getBytes());
+        assertEquals(200, stats.getAverageTime());
+        assertEquals(100, stats.getMinTime());
+        assertEquals(300, stats.getMaxTime());
+        assertEquals(new Date(0), stats.getFrom());
+        assertEquals(new Date(MINUTE), stats.getTo());
+
+        List<RollupStatistics> services = rollup.query(Granularity.MINUTE, Dimension.SERVICE,
+                null, null);
+        assertEquals(2, services.size());
+        // sorted by count
+        assertStatistics(services.get(0), "WMS", 2, 0);
+        assertStatistics(services.get(1), "WFS", 1, 1);
+
+        List<RollupStatistics> operations = rollup.query(Granularity.HOUR, Dimension.OPERATION,
+                null, null);
+        assertStatistics(operations.get(0), "WMS.GetMap", 2, 0);
+        assertStatistics(operations.get(1), "WFS.GetFeature", 1, 1);
+
+        List<RollupStatistics> layers = rollup.query(Granularity.DAY, Dimension.LAYER, null,
+                null);
+        assertEquals(2, layers.size());
+        assertStatistics(layers.get(0), "sf:roads", 2, 1);
+        assertStatistics(layers.get(1), "topp:states", 2, 0);
+
+        List<RollupStatistics> clients = rollup.query(Granularity.MINUTE, Dimension.CLIENT, null,
+                null);
+        assertStatistics(clients.get(0), "10.0.0.1", 2, 1);
+        assertStatistics(clients.get(1), "10.0.0.2", 1, 0);
+    }
+
+    @Test
+    public void testTimeRangeAndSeries() {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j <= i; j++) {
+                rollup.requestPostProcessed(request(i * MINUTE + j, "WMS", "GetMap", 10, 100,
+                        "10.0.0.1"));
+            }
+        }
+        assertEquals(10, rollup.query(Granularity.MINUTE, Dimension.SERVICE, null, null).get(0)
+                .getCount());
+        // the range start is aligned to the bucket, the end is exclusive
+        List<RollupStatistics> range = rollup.query(Granularity.MINUTE, Dimension.SERVICE,
+                new Date(MINUTE + 10), new Date(3 * MINUTE));
+        assertEquals(5, range.get(0).getCount());
+        assertEquals(new Date(MINUTE), range.get(0).getFrom());
+        // the hour rollup sees the same data
+        assertEquals(10, rollup.query(Granularity.HOUR, Dimension.SERVICE, null, null).get(0)
+                .getCount());
+
+        List<RollupStatistics> series = rollup.series(Granularity.MINUTE, Dimension.SERVICE,
+                "WMS", null, null);
+        assertEquals(4, series.size());
+        for (int i = 0; i < 4; i++) {
+            RollupStatistics stats = series.get(i);
+            assertEquals(i + 1, stats.getCount());
+            assertEquals(new Date(i * MINUTE), stats.getFrom());
+            assertEquals(new Date((i + 1) * MINUTE), stats.getTo());
+        }
+    }
+
+    @Test
+    public void testRetention() {
+        for (int i = 0; i < 10; i++) {
+            rollup.requestPostProcessed(request(i * MINUTE, "WMS", "GetMap", 10, 100, null));
+        }
+        List<RollupStatistics> series = rollup.series(Granularity.MINUTE, Dimension.TOTAL,
+                RequestRollup.TOTAL, null, null);
+        // only the last 5 minutes are kept
+        assertEquals(5, series.size());
+        assertEquals(new Date(5 * MINUTE), series.get(0).getFrom());
+        // the hours have everything
+        assertEquals(10, rollup.query(Granularity.HOUR, Dimension.TOTAL, null, null).get(0)
+                .getCount());
+
+        // requests older than the retention are not accounted in the minutes
+        rollup.requestPostProcessed(request(MINUTE, "WMS", "GetMap", 10, 100, null));
+        assertEquals(5, rollup.query(Granularity.MINUTE, Dimension.TOTAL, null, null).get(0)
+                .getCount());
+        assertEquals(11, rollup.query(Granularity.HOUR, Dimension.TOTAL, null, null).get(0)
+                .getCount());
+
+        // moving forward several hours drops the old hours as well
+        rollup.requestPostProcessed(request(5 * HOUR, "WMS", "GetMap", 10, 100, null));
+        series = rollup.series(Granularity.HOUR, Dimension.TOTAL, RequestRollup.TOTAL, null, null);
+        assertEquals(1, series.size());
+        assertEquals(1, series.get(0).getCount());
+    }
+
+    @Test
+    public void testMaxValues() {
+        for (int i = 0; i < 5; i++) {
+            rollup.requestPostProcessed(request(10, "WMS", "GetMap", 10, 100, "10.0.0." + i));
+        }
+        List<RollupStatistics> clients = rollup.query(Granularity.MINUTE, Dimension.CLIENT, null,
+                null);
+        // max 3 values, the others are folded into "other"
+        assertEquals(4, clients.size());
+        assertStatistics(clients.get(0), RequestRollup.OTHER, 2, 0);
+    }
+
+    @Test
+    public void testMaxClients() {
+        Map<Granularity, Integer> retention = new EnumMap<Granularity, Integer>(Granularity.class);
+        for (Granularity granularity : Granularity.values()) {
+            retention.put(granularity, 1);
+        }
+        rollup = new RequestRollup(retention, 10, 2, true);
+        for (int i = 0; i < 5; i++) {
+            rollup.requestPostProcessed(request(10, "WMS", "GetMap", 10, 100, "10.0.0." + i,
+                    "layer" + i));
+        }
+        // the clients have their own, lower limit
+        List<RollupStatistics> clients = rollup.query(Granularity.DAY, Dimension.CLIENT, null,
+                null);
+        assertEquals(3, clients.size());
+        assertStatistics(clients.get(0), RequestRollup.OTHER, 3, 0);
+        assertEquals(5, rollup.query(Granularity.DAY, Dimension.LAYER, null, null).size());
+    }
+
+    @Test
+    public void testDisabled() {
+        Map<Granularity, Integer> retention = new EnumMap<Granularity, Integer>(Granularity.class);
+        for (Granularity granularity : Granularity.values()) {
+            retention.put(granularity, 1);
+        }
+        rollup = new RequestRollup(retention, 10, 10, false);
+        rollup.requestPostProcessed(request(10, "WMS", "GetMap", 10, 100, null));
+        assertTrue(rollup.query(Granularity.MINUTE, Dimension.TOTAL, null, null).isEmpty());
+    }
+
+    void assertStatistics(RollupStatistics stats, String value, long count, long errors) {
+        assertEquals(value, stats.getValue());
+        assertEquals(count, stats.getCount());
+        assertEquals(errors, stats.getErrors());
+    }
+}
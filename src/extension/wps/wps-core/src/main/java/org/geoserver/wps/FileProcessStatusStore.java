@@ -0,0 +1,667 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.geoserver.wps.executor.ExecutionStatus;
+import org.geoserver.wps.executor.ProcessState;
+import org.geotools.data.Query;
+import org.geotools.filter.FilterAttributeExtractor;
+import org.geotools.process.ProcessException;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.temporal.After;
+import org.opengis.filter.temporal.BinaryTemporalOperator;
+import org.opengis.filter.temporal.Before;
+
+/**
+ * A {@link ProcessStatusStore} persisting the statuses on disk, so that the status of asynchronous
+ * executions survives restarts, and indexing them to answer list and removal queries without
+ * scanning all the statuses.
+ * <p>
+ * The statuses are kept in memory and every phase change is appended to a log file, which is
+ * replayed on startup. Progress updates that do not change the phase are kept in memory only, as
+ * the executions still queued or running on startup cannot be resumed anyway, and are marked as
+ * failed. The log is periodically rewritten by {@link #compact()} so that it contains only the
+ * live statuses, the {@link WPSStorageCleaner} takes care of calling it.
+ * </p>
+ * <p>
+ * The store is used when the {@link #PERSISTENT_KEY} property is set to true, and keeps its files
+ * in the <code>wps/status</code> directory of the data directory.
+ * </p>
+ * <p>
+ * The statuses are indexed by phase, user name, process name and completion time. The top level
+ * conditions of a filter referring to one of these properties are used to locate the candidate
+ * statuses, the full filter is then evaluated only against the candidates.
+ * </p>
+ */
+public class FileProcessStatusStore implements ProcessStatusStore {
+
+    static final Logger LOGGER = Logging.getLogger(FileProcessStatusStore.class);
+
+    /**
+     * Property enabling this store, in place of the in memory one, when no other store is
+     * configured
+     */
+    public static final String PERSISTENT_KEY = "org.geoserver.wps.persistentStatus";
+
+    /**
+     * Name of the log file in the store directory
+     */
+    static final String LOG_FILE = "status.log";
+
+    static final byte SAVE = 1;
+
+    static final byte REMOVE = 2;
+
+    /**
+     * The log is compacted only when it contains at least this many dead records
+     */
+    static final int MIN_COMPACTION_RECORDS = 1000;
+
+    static final String COMPLETION_TIME = "completionTime";
+
+    final File directory;
+
+    final File logFile;
+
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    final Map<String, ExecutionStatus> statuses = new HashMap<String, ExecutionStatus>();
+
+    /**
+     * Indexes on properties with few distinct values, from property name, to value, to execution
+     * ids
+     */
+    final Map<String, Map<Object, Set<String>>> indexes = new HashMap<String, Map<Object, Set<String>>>();
+
+    /**
+     * The completion time index, the executions that did not complete yet are not in it
+     */
+    final TreeMap<Date, Set<String>> completionIndex = new TreeMap<Date, Set<String>>();
+
+    /**
+     * The executions that did not complete yet
+     */
+    final Set<String> uncompleted = new HashSet<String>();
+
+    DataOutputStream log;
+
+    /**
+     * The number of records in the log file
+     */
+    int records;
+
+    public FileProcessStatusStore(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create the status store directory " + directory);
+        }
+        this.logFile = new File(directory, LOG_FILE);
+        indexes.put("phase", new HashMap<Object, Set<String>>());
+        indexes.put("userName", new HashMap<Object, Set<String>>());
+        indexes.put("processName", new HashMap<Object, Set<String>>());
+
+        load();
+        log = openLog();
+        failInterrupted();
+    }
+
+    /**
+     * Replays the log. A last record left incomplete by an interrupted write is truncated away.
+     * Records that cannot be deserialized, for example because their classes changed, are
+     * skipped. If the log cannot be read past some point the rest of it is dropped. In both cases
+     * a copy of the original log is kept aside.
+     */
+    void load() throws IOException {
+        if (!logFile.exists()) {
+            return;
+        }
+
+        long valid = 0;
+        int skipped = 0;
+        boolean corrupted = false;
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(
+                new FileInputStream(logFile)));
+        DataInputStream is = new DataInputStream(counter);
+        try {
+            while (counter.getByteCount() < logFile.length()) {
+                byte type = is.readByte();
+                if (type == SAVE) {
+                    int length = is.readInt();
+                    if (length < 0) {
+                        throw new StreamCorruptedException("Invalid record length " + length);
+                    }
+                    byte[] bytes = new byte[length];
+                    is.readFully(bytes);
+                    try {
+                        put(deserialize(bytes));
+                    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                        LOGGER.log(Level.WARNING, "Skipping an unreadable status record", e);
+                        skipped++;
+                    }
+                } else if (type == REMOVE) {
+                    delete(is.readUTF());
+                } else {
+                    throw new StreamCorruptedException("Unexpected record type " + type);
+                }
+                valid = counter.getByteCount();
+                records++;
+            }
+        } catch (EOFException e) {
+            // the last record was not completely written
+            LOGGER.warning("The last status log record is incomplete, removing it");
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "The status log cannot be read past byte " + valid
+                    + ", the following records are dropped", e);
+            corrupted = true;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        if (corrupted || skipped > 0) {
+            File backup = new File(directory, LOG_FILE + "." + System.currentTimeMillis()
+                    + ".bak");
+            Files.copy(logFile.toPath(), backup.toPath());
+            LOGGER.warning("A copy of the original status log has been saved as " + backup);
+        }
+        if (valid < logFile.length()) {
+            RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+            try {
+                raf.setLength(valid);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Marks as failed the executions that were still queued, running or being dismissed when the
+     * log was last written, as they cannot be resumed after a restart
+     */
+    void failInterrupted() throws IOException {
+        List<ExecutionStatus> interrupted = new ArrayList<ExecutionStatus>();
+        for (ExecutionStatus status : statuses.values()) {
+            if (!status.getPhase().isExecutionCompleted()) {
+                interrupted.add(status);
+            }
+        }
+        if (interrupted.isEmpty()) {
+            return;
+        }
+
+        LOGGER.info("Marking as failed " + interrupted.size()
+                + " executions interrupted by the last shutdown");
+        for (ExecutionStatus status : interrupted) {
+            ExecutionStatus failed = new ExecutionStatus(status);
+            failed.setException(new ProcessException("The execution was interrupted by a "
+                    + "server shutdown while " + status.getPhase().name().toLowerCase()));
+            // also sets the completion time, so that the status expires like the other ones
+            failed.setPhase(ProcessState.FAILED);
+            logSave(failed);
+            put(failed);
+        }
+        log.flush();
+    }
+
+    DataOutputStream openLog() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+    }
+
+    @Override
+    public void save(ExecutionStatus status) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Saving status " + status);
+        }
+
+        ExecutionStatus newStatus = new ExecutionStatus(status);
+        lock.writeLock().lock();
+        try {
+            ExecutionStatus oldStatus = statuses.get(status.getExecutionId());
+            ProcessState currPhase = status.getPhase();
+            if (oldStatus != null) {
+                ProcessState previousPhase = oldStatus.getPhase();
+                if (!currPhase.isValidSuccessor(previousPhase)) {
+                    throw new WPSException("Cannot switch process status from " + previousPhase
+                            + " to " + currPhase);
+                }
+            }
+
+            // progress updates and heartbeats of uncompleted executions are not worth a disk
+            // write, the execution will be marked as failed on restart anyways
+            if (oldStatus == null || oldStatus.getPhase() != currPhase
+                    || currPhase.isExecutionCompleted()) {
+                logSave(newStatus);
+                log.flush();
+            }
+
+            put(newStatus);
+        } catch (IOException e) {
+            throw new WPSException("Failed to save the status of execution "
+                    + status.getExecutionId(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ExecutionStatus get(String executionId) {
+        lock.readLock().lock();
+        try {
+            ExecutionStatus status = statuses.get(executionId);
+            // return a copy, changes to the status must go through save to be indexed
+            return status == null ? null : new ExecutionStatus(status);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ExecutionStatus remove(String executionId) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Removing status for execution id: " + executionId);
+        }
+
+        lock.writeLock().lock();
+        try {
+            ExecutionStatus status = statuses.get(executionId);
+            if (status != null) {
+                logRemoval(executionId);
+                delete(executionId);
+            }
+            return status;
+        } catch (IOException e) {
+            throw new WPSException("Failed to remove the status of execution " + executionId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int remove(Filter filter) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Removing statuses matching " + filter);
+        }
+
+        lock.writeLock().lock();
+        try {
+            List<ExecutionStatus> matches = filter(filter);
+            for (ExecutionStatus status : matches) {
+                logRemoval(status.getExecutionId());
+                delete(status.getExecutionId());
+            }
+            return matches.size();
+        } catch (IOException e) {
+            throw new WPSException("Failed to remove the statuses matching " + filter, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ExecutionStatus> list(Query query) {
+        List<ExecutionStatus> result = new ArrayList<ExecutionStatus>();
+        lock.readLock().lock();
+        try {
+            for (ExecutionStatus status : filter(query.getFilter())) {
+                result.add(new ExecutionStatus(status));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return MemoryProcessStatusStore.sortAndPage(result, query);
+    }
+
+    /**
+     * Rewrites the log so that it contains only the live statuses, if the removed and
+     * overwritten ones make up for most of it
+     *
+     * @return true if the log has been rewritten
+     */
+    public boolean compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            int dead = records - statuses.size();
+            if (dead < MIN_COMPACTION_RECORDS || dead < statuses.size()) {
+                return false;
+            }
+
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Compacting the status log, removing " + dead
+                        + " records");
+            }
+            File compacted = new File(directory, LOG_FILE + ".compact");
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(compacted)));
+            try {
+                for (ExecutionStatus status : statuses.values()) {
+                    byte[] bytes = serialize(status);
+                    os.writeByte(SAVE);
+                    os.writeInt(bytes.length);
+                    os.write(bytes);
+                }
+            } finally {
+                os.close();
+            }
+
+            log.close();
+            try {
+                Files.move(compacted.toPath(), logFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                records = statuses.size();
+            } finally {
+                log = openLog();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the log file. The store cannot be used anymore after this call.
+     */
+    public void dispose() {
+        lock.writeLock().lock();
+        try {
+            IOUtils.closeQuietly(log);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void logSave(ExecutionStatus status) throws IOException {
+        byte[] bytes = serialize(status);
+        log.writeByte(SAVE);
+        log.writeInt(bytes.length);
+        log.write(bytes);
+        records++;
+    }
+
+    void logRemoval(String executionId) throws IOException {
+        log.writeByte(REMOVE);
+        log.writeUTF(executionId);
+        log.flush();
+        records++;
+    }
+
+    /**
+     * Adds or replaces a status, updating the indexes. Callers must hold the write lock.
+     */
+    void put(ExecutionStatus status) {
+        delete(status.getExecutionId());
+        String id = status.getExecutionId();
+        statuses.put(id, status);
+        for (Map.Entry<String, Map<Object, Set<String>>> entry : indexes.entrySet()) {
+            Object value = getIndexedValue(entry.getKey(), status);
+            Set<String> ids = entry.getValue().get(value);
+            if (ids == null) {
+                ids = new HashSet<String>();
+                entry.getValue().put(value, ids);
+            }
+            ids.add(id);
+        }
+        Date completion = status.getCompletionTime();
+        if (completion != null) {
+            Set<String> ids = completionIndex.get(completion);
+            if (ids == null) {
+                ids = new HashSet<String>();
+                completionIndex.put(completion, ids);
+            }
+            ids.add(id);
+        } else {
+            uncompleted.add(id);
+        }
+    }
+
+    /**
+     * Removes a status, updating the indexes. Callers must hold the write lock.
+     */
+    void delete(String executionId) {
+        ExecutionStatus status = statuses.remove(executionId);
+        if (status == null) {
+            return;
+        }
+        for (Map.Entry<String, Map<Object, Set<String>>> entry : indexes.entrySet()) {
+            Object value = getIndexedValue(entry.getKey(), status);
+            Set<String> ids = entry.getValue().get(value);
+            if (ids != null) {
+                ids.remove(executionId);
+                if (ids.isEmpty()) {
+                    entry.getValue().remove(value);
+                }
+            }
+        }
+        Date completion = status.getCompletionTime();
+        if (completion != null) {
+            Set<String> ids = completionIndex.get(completion);
+            if (ids != null) {
+                ids.remove(executionId);
+                if (ids.isEmpty()) {
+                    completionIndex.remove(completion);
+                }
+            }
+        } else {
+            uncompleted.remove(executionId);
+        }
+    }
+
+    Object getIndexedValue(String property, ExecutionStatus status) {
+        if ("phase".equals(property)) {
+            return status.getPhase();
+        } else if ("userName".equals(property)) {
+            return status.getUserName();
+        } else {
+            return status.getProcessName();
+        }
+    }
+
+    /**
+     * Returns the statuses matching the filter, using the indexes to locate the candidates.
+     * Callers must hold the read or write lock.
+     */
+    List<ExecutionStatus> filter(Filter filter) {
+        Collection<String> candidates = getCandidates(filter);
+        List<ExecutionStatus> result = new ArrayList<ExecutionStatus>();
+        if (candidates == null) {
+            for (ExecutionStatus status : statuses.values()) {
+                if (filter.evaluate(status)) {
+                    result.add(status);
+                }
+            }
+        } else {
+            for (String id : candidates) {
+                ExecutionStatus status = statuses.get(id);
+                if (filter.evaluate(status)) {
+                    result.add(status);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the ids of the statuses that might match the filter, or null if the indexes cannot
+     * narrow down the search
+     */
+    Collection<String> getCandidates(Filter filter) {
+        List<Filter> conditions = new ArrayList<Filter>();
+        flatten(filter, conditions);
+
+        Collection<String> best = null;
+        for (Filter condition : conditions) {
+            FilterAttributeExtractor extractor = new FilterAttributeExtractor();
+            condition.accept(extractor, null);
+            Set<String> properties = extractor.getAttributeNameSet();
+            if (properties.size() != 1) {
+                continue;
+            }
+
+            String property = properties.iterator().next();
+            Collection<String> ids = null;
+            if (indexes.containsKey(property)) {
+                ids = getCandidates(indexes.get(property), condition);
+            } else if (COMPLETION_TIME.equals(property)) {
+                ids = getCompletionCandidates(condition);
+            }
+            if (ids != null && (best == null || ids.size() < best.size())) {
+                best = ids;
+            }
+        }
+
+        return best;
+    }
+
+    void flatten(Filter filter, List<Filter> conditions) {
+        if (filter instanceof And) {
+            for (Filter child : ((And) filter).getChildren()) {
+                flatten(child, conditions);
+            }
+        } else {
+            conditions.add(filter);
+        }
+    }
+
+    /**
+     * Collects the ids of the index entries matching the condition. The condition depends only on
+     * the indexed property, so it's enough to evaluate it against one status of each entry.
+     */
+    Collection<String> getCandidates(Map<Object, Set<String>> index, Filter condition) {
+        List<String> result = new ArrayList<String>();
+        for (Set<String> ids : index.values()) {
+            ExecutionStatus sample = statuses.get(ids.iterator().next());
+            if (condition.evaluate(sample)) {
+                result.addAll(ids);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Collects the ids of the executions whose completion time might match the condition, for
+     * comparisons against a literal time. Returns null for other conditions.
+     */
+    Collection<String> getCompletionCandidates(Filter condition) {
+        Expression e1, e2;
+        if (condition instanceof PropertyIsLessThan
+                || condition instanceof PropertyIsLessThanOrEqualTo
+                || condition instanceof PropertyIsGreaterThan
+                || condition instanceof PropertyIsGreaterThanOrEqualTo) {
+            e1 = ((BinaryComparisonOperator) condition).getExpression1();
+            e2 = ((BinaryComparisonOperator) condition).getExpression2();
+        } else if (condition instanceof Before || condition instanceof After) {
+            e1 = ((BinaryTemporalOperator) condition).getExpression1();
+            e2 = ((BinaryTemporalOperator) condition).getExpression2();
+        } else {
+            return null;
+        }
+        Object value = e2 instanceof Literal ? ((Literal) e2).getValue()
+                : e1 instanceof Literal ? ((Literal) e1).getValue() : null;
+        Date pivot = Converters.convert(value, Date.class);
+        if (pivot == null) {
+            return null;
+        }
+
+        List<String> result = new ArrayList<String>();
+        if (!completionIndex.isEmpty()) {
+            // the condition is monotonic in the completion time, check which side of the pivot
+            // matches by looking at the extremes, the full filter sorts out the ties on the pivot
+            boolean first = matches(completionIndex.firstEntry().getValue(), condition);
+            boolean last = matches(completionIndex.lastEntry().getValue(), condition);
+            if (first && last) {
+                return null;
+            } else if (first) {
+                for (Set<String> ids : completionIndex.headMap(pivot, true).values()) {
+                    result.addAll(ids);
+                }
+            } else if (last) {
+                for (Set<String> ids : completionIndex.tailMap(pivot, true).values()) {
+                    result.addAll(ids);
+                }
+            }
+        }
+        // a comparison with a missing completion time is not expected to match, but check anyways
+        if (!uncompleted.isEmpty() && matches(uncompleted, condition)) {
+            result.addAll(uncompleted);
+        }
+        return result;
+    }
+
+    private boolean matches(Set<String> ids, Filter condition) {
+        return condition.evaluate(statuses.get(ids.iterator().next()));
+    }
+
+    byte[] serialize(ExecutionStatus status) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(status);
+        } catch (IOException e) {
+            // the exception might not be serializable, keep just its message
+            ExecutionStatus copy = new ExecutionStatus(status);
+            copy.setException(new ProcessException(status.getException() == null ? null : status
+                    .getException().getMessage()));
+            copy.setPhase(status.getPhase());
+            bos = new ByteArrayOutputStream();
+            oos = new ObjectOutputStream(bos);
+            oos.writeObject(copy);
+        }
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    ExecutionStatus deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (ExecutionStatus) ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+}
@@ -92,6 +92,13 @@ public class MemoryProcessStatusStore implements ProcessStatusStore {
             }
         }
 
+        return sortAndPage(result, query);
+    }
+
+    /**
+     * Sorts and pages the statuses according to the query
+     */
+    static List<ExecutionStatus> sortAndPage(List<ExecutionStatus> result, Query query) {
         // sort
         SortBy[] sorts = query.getSortBy();
         if (sorts != null) {
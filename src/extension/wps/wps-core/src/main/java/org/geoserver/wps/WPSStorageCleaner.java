@@ -41,6 +41,12 @@ public class WPSStorageCleaner extends TimerTask {
     @Override
     public void run() {
         try {
+            // get rid of the removed statuses in the persistent store
+            ProcessStatusStore store = statusTracker.getStore();
+            if (store instanceof FileProcessStatusStore) {
+                ((FileProcessStatusStore) store).compact();
+            }
+
             if (resourceManager.getArtifactsStore() == null || expirationDelay == 0) {
                 return;
             }
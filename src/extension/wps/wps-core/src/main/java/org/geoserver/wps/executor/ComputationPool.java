@@ -0,0 +1,69 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.geoserver.util.PropertyLookup;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+
+/**
+ * Holds the fork-join pool shared by the processes and encoders that split their work in parallel
+ * tasks, such as the parallel tile computation of raster outputs.
+ * <p>
+ * The pool is created on first use, with the parallelism set by the {@link #PARALLELISM_KEY}
+ * property, which defaults to the number of available processors. A value of one or less
+ * disables the parallel computation. The pool is shut down when the application context is
+ * closed.
+ * </p>
+ */
+public class ComputationPool implements ApplicationListener<ContextClosedEvent> {
+
+    /**
+     * Property setting the number of threads used for the parallel computations
+     */
+    public static final String PARALLELISM_KEY = "org.geoserver.wps.parallelism";
+
+    /**
+     * The configured parallelism
+     */
+    public static final int PARALLELISM = PropertyLookup.getInt(PARALLELISM_KEY, Runtime
+            .getRuntime().availableProcessors());
+
+    static ForkJoinPool POOL;
+
+    /**
+     * Returns true if the parallel computations are enabled
+     */
+    public static boolean isParallelEnabled() {
+        return PARALLELISM > 1;
+    }
+
+    /**
+     * Returns the shared pool, creating it if necessary
+     */
+    public static synchronized ForkJoinPool getPool() {
+        if (POOL == null) {
+            POOL = new ForkJoinPool(Math.max(1, PARALLELISM));
+        }
+        return POOL;
+    }
+
+    /**
+     * Shuts down the shared pool, a new one will be created on the next use
+     */
+    public static synchronized void shutdown() {
+        if (POOL != null) {
+            POOL.shutdownNow();
+            POOL = null;
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(ContextClosedEvent event) {
+        shutdown();
+    }
+}
@@ -4,6 +4,10 @@
  */
 package org.geoserver.wps.executor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import net.opengis.wfs.GetFeatureType;
 import net.opengis.wps10.InputReferenceType;
 import net.opengis.wps10.InputType;
@@ -12,11 +16,19 @@ import net.opengis.wps10.MethodType;
 import org.geoserver.wfs.WebFeatureService;
 import org.geoserver.wfs.kvp.GetFeatureKvpRequestReader;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geoserver.wfs.request.GetFeatureRequest;
+import org.geoserver.wfs.request.Query;
 import org.geoserver.wps.ppio.ComplexPPIO;
 import org.geoserver.wps.ppio.ProcessParameterIO;
+import org.geoserver.wps.ppio.WFSPPIO;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.FeatureCollection;
 import org.opengis.util.ProgressListener;
 import org.springframework.context.ApplicationContext;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Handles an internal reference to a local FeatureType by a WFS request
  * 
@@ -24,6 +36,12 @@ import org.springframework.context.ApplicationContext;
  */
 public class InternalWFSInputProvider extends AbstractInputProvider {
 
+    /**
+     * The queries that generated the collections handed over to the processes, weakly keyed by
+     * collection identity
+     */
+    static final Cache<Object, Object> QUERY_KEYS = CacheBuilder.newBuilder().weakKeys().build();
+
     private ApplicationContext context;
 
     public InternalWFSInputProvider(InputType input, ProcessParameterIO ppio,
@@ -46,10 +64,50 @@ public class InternalWFSInputProvider extends AbstractInputProvider {
         }
 
         FeatureCollectionResponse featureCollectionType = wfs.getFeature(gft);
+        List<FeatureCollection> collections = featureCollectionType.getFeature();
+        if (collections.size() == 1 && collections.get(0) instanceof SimpleFeatureCollection
+                && ppio.getType().isAssignableFrom(SimpleFeatureCollection.class)) {
+            // hand over the collection as is, regardless of the format the input declared,
+            // it will be streamed out of the store while the process consumes it
+            SimpleFeatureCollection fc = WFSPPIO
+                    .prepareCollection((SimpleFeatureCollection) collections.get(0));
+            SimpleFeatureCollection result = CancellingFeatureCollectionBuilder.wrap(fc,
+                    listener);
+            QUERY_KEYS.put(result, buildQueryKey(gft));
+            return result;
+        }
+
         // this will also deal with axis order issues
         return ((ComplexPPIO) ppio).decode(featureCollectionType.getAdaptee());
     }
 
+    /**
+     * Returns a key describing the WFS query that produced the collection, if the collection was
+     * handed over to the process by an internal WFS reference, or null otherwise. Collections
+     * with equal keys contain the same features, as long as the data is not modified in between.
+     */
+    public static Object getQueryKey(FeatureCollection collection) {
+        return collection == null ? null : QUERY_KEYS.getIfPresent(collection);
+    }
+
+    static Object buildQueryKey(GetFeatureType gft) {
+        GetFeatureRequest request = GetFeatureRequest.adapt(gft);
+        List<Object> key = new ArrayList<Object>();
+        for (Query query : request.getQueries()) {
+            key.add(Arrays.asList(copy(query.getTypeNames()), query.getFilter(),
+                    copy(query.getSortBy()), copy(query.getPropertyNames()), query.getSrsName(),
+                    query.getFeatureVersion()));
+        }
+        key.add(request.getMaxFeatures());
+        key.add(request.getStartIndex());
+        key.add(copy(request.getViewParams()));
+        return key;
+    }
+
+    static <T> List<T> copy(List<T> list) {
+        return list == null ? null : new ArrayList<T>(list);
+    }
+
     @Override
     public int longStepCount() {
         return 0;
@@ -4,17 +4,23 @@
  */
 package org.geoserver.wps.executor;
 
+import java.util.List;
 import java.util.Map;
 
+import net.opengis.wps10.DocumentOutputDefinitionType;
 import net.opengis.wps10.ExecuteType;
 import net.opengis.wps10.InputReferenceType;
 import net.opengis.wps10.InputType;
 import net.opengis.wps10.MethodType;
+import net.opengis.wps10.ResponseFormType;
 
 import org.geoserver.wps.WPSException;
 import org.geoserver.wps.kvp.ExecuteKvpRequestReader;
 import org.geoserver.wps.ppio.ProcessParameterIO;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.util.ProgressListener;
 import org.springframework.context.ApplicationContext;
 
@@ -31,6 +37,8 @@ public class InternalWPSInputProvider extends AbstractInputProvider {
 
     private int longSteps;
 
+    private String outputName;
+
     public InternalWPSInputProvider(InputType input, ProcessParameterIO ppio,
             WPSExecutionManager executor, ApplicationContext context) throws Exception {
         super(input, ppio);
@@ -48,12 +56,43 @@ public class InternalWPSInputProvider extends AbstractInputProvider {
         executeRequest = new ExecuteRequest(request);
         LazyInputMap inputs = executeRequest.getProcessInputs(executor);
         this.longSteps = inputs.longStepCount() + 1;
+        this.outputName = getRequestedOutput(request);
+    }
+
+    /**
+     * Returns the name of the output the chained request is asking for, or null if not specified
+     */
+    String getRequestedOutput(ExecuteType request) {
+        ResponseFormType form = request.getResponseForm();
+        if (form == null) {
+            return null;
+        }
+        if (form.getRawDataOutput() != null && form.getRawDataOutput().getIdentifier() != null) {
+            return form.getRawDataOutput().getIdentifier().getValue();
+        }
+        List<DocumentOutputDefinitionType> outputs = executeRequest.getRequestedOutputs();
+        if (outputs != null && outputs.size() > 0 && outputs.get(0).getIdentifier() != null) {
+            return outputs.get(0).getIdentifier().getValue();
+        }
+        return null;
     }
 
     @Override
     protected Object getValueInternal(ProgressListener listener) throws Exception {
         Map<String, Object> results = executor.submitChained(executeRequest, listener);
-        Object obj = results.values().iterator().next();
+        // the output objects are handed over as they are, no encoding/decoding takes place
+        Object obj;
+        if (outputName != null && results.containsKey(outputName)) {
+            obj = results.get(outputName);
+        } else {
+            obj = results.values().iterator().next();
+        }
+        if (obj instanceof FeatureCollection && !ppio.getType().isInstance(obj)
+                && ppio.getType().isAssignableFrom(SimpleFeatureCollection.class)
+                && ((FeatureCollection) obj).getSchema() instanceof SimpleFeatureType) {
+            // a generic collection of simple features, just adapt it
+            obj = DataUtilities.simple((FeatureCollection) obj);
+        }
         if (obj != null && !ppio.getType().isInstance(obj)) {
             throw new WPSException(
                     "The process output is incompatible with the input target type, was expecting "
@@ -0,0 +1,468 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import net.opengis.ows11.BoundingBoxType;
+import net.opengis.ows11.CodeType;
+import net.opengis.ows11.Ows11Factory;
+import net.opengis.wps10.ComplexDataType;
+import net.opengis.wps10.DataType;
+import net.opengis.wps10.ExecuteResponseType;
+import net.opengis.wps10.ExecuteType;
+import net.opengis.wps10.InputReferenceType;
+import net.opengis.wps10.InputType;
+import net.opengis.wps10.LiteralDataType;
+import net.opengis.wps10.MethodType;
+import net.opengis.wps10.OutputDataType;
+import net.opengis.wps10.OutputDefinitionType;
+import net.opengis.wps10.ProcessBriefType;
+import net.opengis.wps10.ProcessOutputsType1;
+import net.opengis.wps10.Wps10Factory;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.geoserver.config.GeoServer;
+import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resource.Type;
+import org.geoserver.util.BoundedCache;
+import org.geoserver.util.PropertyLookup;
+import org.geoserver.wps.ProcessGroupInfo;
+import org.geoserver.wps.ProcessInfo;
+import org.geoserver.wps.RawDataEncoderDelegate;
+import org.geoserver.wps.WPSException;
+import org.geoserver.wps.WPSInfo;
+import org.geoserver.wps.process.AbstractRawData;
+import org.geoserver.wps.resource.ProcessArtifactsStore.ArtifactType;
+import org.geoserver.wps.resource.WPSResourceManager;
+import org.geoserver.wps.response.ExecuteProcessResponse;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.Name;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Memoizes the raw outputs of deterministic processes, so that repeated synchronous executions
+ * with the same inputs are answered without running the process again.
+ * <p>
+ * The cache key is a hash of the process name, the literal and bounding box inputs, the internal
+ * GET references, the requested raw output, the GeoServer update sequence, so that any
+ * configuration change invalidates the previous results, and the authenticated user name and
+ * roles, as the data security might make the results depend on the user. Requests with inline
+ * complex inputs, POST or remote references, asynchronous requests and response documents are
+ * never cached. Changes to the data that do not go through the configuration (e.g., WFS
+ * transactions) are not detected, the cache should be enabled only for processes working against
+ * data that does not change, or whose results are allowed to be slightly out of date.
+ * </p>
+ * <p>
+ * The encoded outputs are stored in the {@link ArtifactType#Output} area of the process artifacts
+ * store, under the {@link #CACHE_ID} pseudo execution, and are thus subject to the same expiration
+ * as the other process artifacts. Each output is written to a temporary resource first, and then
+ * renamed, so that concurrent executions never read a partially written output.
+ * </p>
+ * <p>
+ * The cache is enabled on a process by process basis, by setting the {@link #ENABLED_KEY} boolean
+ * in the process metadata, or by listing the process names in the {@link #PROCESSES_KEY}
+ * property. The maximum disk space used, in megabytes, is set by the {@link #CACHE_SIZE_KEY}
+ * property, the cache is disabled by default.
+ * </p>
+ */
+public class ProcessResultCache extends BoundedCache<String, ProcessResultCache.CachedResult> {
+
+    static final Logger LOGGER = Logging.getLogger(ProcessResultCache.class);
+
+    /**
+     * Property setting the maximum cache size, in megabytes
+     */
+    public static final String CACHE_SIZE_KEY = "org.geoserver.wps.resultCacheSize";
+
+    /**
+     * Property listing the processes whose results can be cached, comma separated
+     */
+    public static final String PROCESSES_KEY = "org.geoserver.wps.resultCacheProcesses";
+
+    /**
+     * Process metadata key enabling the result cache for a process
+     */
+    public static final String ENABLED_KEY = "resultCache";
+
+    /**
+     * The pseudo execution id the cached outputs are stored under
+     */
+    public static final String CACHE_ID = "result-cache";
+
+    /**
+     * A cached process output
+     */
+    static final class CachedResult {
+        final String identifier;
+
+        final String mimeType;
+
+        final long size;
+
+        final boolean literal;
+
+        CachedResult(String identifier, String mimeType, long size, boolean literal) {
+            this.identifier = identifier;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.literal = literal;
+        }
+    }
+
+    GeoServer geoServer;
+
+    WPSResourceManager resourceManager;
+
+    Set<String> processes = new HashSet<String>();
+
+    AtomicLong stores = new AtomicLong();
+
+    public ProcessResultCache(GeoServer geoServer, WPSResourceManager resourceManager) {
+        this(geoServer, resourceManager, PropertyLookup.getLong(CACHE_SIZE_KEY, 0) * 1024 * 1024,
+                PropertyLookup.getString(PROCESSES_KEY, null));
+    }
+
+    ProcessResultCache(GeoServer geoServer, WPSResourceManager resourceManager, long maxSize,
+            String processes) {
+        super(maxSize);
+        this.geoServer = geoServer;
+        this.resourceManager = resourceManager;
+        if (processes != null) {
+            for (String name : processes.split("\\s*,\\s*")) {
+                if (name.trim().length() > 0) {
+                    this.processes.add(name.trim());
+                }
+            }
+        }
+    }
+
+    @Override
+    protected int weigh(String key, CachedResult value) {
+        return (int) Math.min(Integer.MAX_VALUE, value.size + key.length());
+    }
+
+    @Override
+    protected void onRemoval(RemovalNotification<String, CachedResult> notification) {
+        if (notification.getCause() != RemovalCause.REPLACED) {
+            getResource(notification.getKey()).delete();
+        }
+    }
+
+    /**
+     * Returns the cache key for the request, or null if the request results cannot be cached
+     */
+    public String getKey(ExecuteRequest request) {
+        if (cache == null || request.isAsynchronous()) {
+            return null;
+        }
+        ExecuteType execute = request.getRequest();
+        if (execute.getResponseForm() == null
+                || execute.getResponseForm().getRawDataOutput() == null) {
+            return null;
+        }
+        Name processName = request.getProcessName();
+        if (!isCacheEnabled(processName)) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(processName.getURI());
+        sb.append("\n").append(geoServer.getGlobal().getUpdateSequence());
+        // the data security might make the results depend on the user
+        sb.append("\n").append(getUserKey(SecurityContextHolder.getContext().getAuthentication()));
+        OutputDefinitionType output = execute.getResponseForm().getRawDataOutput();
+        sb.append("\n").append(output.getIdentifier().getValue()).append("|")
+                .append(output.getMimeType()).append("|").append(output.getEncoding())
+                .append("|").append(output.getSchema()).append("|").append(output.getUom());
+
+        // the inputs, sorted by name, the order of multiple values for a single input matters
+        List<InputType> inputs = new ArrayList<InputType>();
+        if (execute.getDataInputs() != null) {
+            for (Object input : execute.getDataInputs().getInput()) {
+                inputs.add((InputType) input);
+            }
+        }
+        Collections.sort(inputs, new Comparator<InputType>() {
+
+            @Override
+            public int compare(InputType o1, InputType o2) {
+                return o1.getIdentifier().getValue().compareTo(o2.getIdentifier().getValue());
+            }
+        });
+        for (InputType input : inputs) {
+            String value = getInputKey(input);
+            if (value == null) {
+                return null;
+            }
+            sb.append("\n").append(input.getIdentifier().getValue()).append("=").append(value);
+        }
+
+        return DigestUtils.sha1Hex(sb.toString());
+    }
+
+    /**
+     * Returns the user name and sorted roles of the authenticated user, or an empty string if
+     * there is none, for caches whose contents depend on the data the user can access
+     */
+    public static String getUserKey(Authentication user) {
+        if (user == null) {
+            return "";
+        }
+        List<String> roles = new ArrayList<String>();
+        if (user.getAuthorities() != null) {
+            for (GrantedAuthority authority : user.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+        }
+        Collections.sort(roles);
+        return user.getName() + "|" + roles;
+    }
+
+    /**
+     * Returns a canonical representation of the input, or null if the input is not cacheable
+     */
+    String getInputKey(InputType input) {
+        if (input.getReference() != null) {
+            InputReferenceType ref = input.getReference();
+            String href = ref.getHref();
+            if (href == null || !href.startsWith("http://geoserver/")
+                    || ref.getMethod() == MethodType.POST_LITERAL || ref.getBody() != null
+                    || ref.getBodyReference() != null) {
+                return null;
+            }
+            return "ref:" + href + "|" + ref.getMimeType();
+        }
+
+        DataType data = input.getData();
+        if (data == null) {
+            return null;
+        } else if (data.getLiteralData() != null) {
+            LiteralDataType literal = data.getLiteralData();
+            return "literal:" + literal.getValue() + "|" + literal.getDataType() + "|"
+                    + literal.getUom();
+        } else if (data.getBoundingBoxData() != null) {
+            BoundingBoxType bbox = data.getBoundingBoxData();
+            return "bbox:" + bbox.getCrs() + "|" + bbox.getLowerCorner() + "|"
+                    + bbox.getUpperCorner();
+        } else {
+            // inline complex data, not worth hashing
+            return null;
+        }
+    }
+
+    boolean isCacheEnabled(Name processName) {
+        String name = processName.getURI();
+        if (processes.contains(name)) {
+            return true;
+        }
+        WPSInfo wps = geoServer.getService(WPSInfo.class);
+        if (wps == null || wps.getProcessGroups() == null) {
+            return false;
+        }
+        for (ProcessGroupInfo group : wps.getProcessGroups()) {
+            if (group.getFilteredProcesses() == null) {
+                continue;
+            }
+            for (ProcessInfo pi : group.getFilteredProcesses()) {
+                if (processName.equals(pi.getName())) {
+                    Boolean enabled = pi.getMetadata() == null ? null : pi.getMetadata().get(
+                            ENABLED_KEY, Boolean.class);
+                    return Boolean.TRUE.equals(enabled);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a response built out of the cached output, or null if no cached output is found
+     */
+    public ExecuteResponseType get(String key, ExecuteRequest request) {
+        requests.incrementAndGet();
+        CachedResult result = cache.getIfPresent(key);
+        if (result == null) {
+            return null;
+        }
+        ExecuteResponseType response = buildResponse(key, result, request);
+        if (response != null) {
+            hits.incrementAndGet();
+        }
+        return response;
+    }
+
+    ExecuteResponseType buildResponse(String key, CachedResult result, ExecuteRequest request) {
+        final Resource resource = getResource(key);
+        if (resource.getType() != Type.RESOURCE) {
+            // removed by the storage cleaner
+            cache.invalidate(key);
+            return null;
+        }
+
+        Wps10Factory f = Wps10Factory.eINSTANCE;
+        ExecuteResponseType response = f.createExecuteResponseType();
+        response.setLang("en");
+        ExecuteType execute = request.getRequest();
+        if (execute.getBaseUrl() != null) {
+            response.setServiceInstance(ResponseUtils.appendQueryString(ResponseUtils.buildURL(
+                    execute.getBaseUrl(), "ows", null, URLType.SERVICE), ""));
+        }
+        ProcessBriefType process = f.createProcessBriefType();
+        process.setIdentifier(code(execute.getIdentifier().getValue()));
+        response.setProcess(process);
+        response.setStatus(f.createStatusType());
+        response.getStatus().setCreationTime(
+                Converters.convert(new Date(), XMLGregorianCalendar.class));
+        response.getStatus().setProcessSucceeded("Process succeeded.");
+
+        ProcessOutputsType1 outputs = f.createProcessOutputsType1();
+        response.setProcessOutputs(outputs);
+        OutputDataType output = f.createOutputDataType();
+        output.setIdentifier(code(result.identifier));
+        DataType data = f.createDataType();
+        output.setData(data);
+        if (result.literal) {
+            // literals are small, and encoded differently
+            LiteralDataType literal = f.createLiteralDataType();
+            InputStream is = resource.in();
+            try {
+                literal.setValue(IOUtils.toString(is, "UTF-8"));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to read back the cached literal, ignoring it", e);
+                cache.invalidate(key);
+                return null;
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+            data.setLiteralData(literal);
+        } else {
+            ComplexDataType complex = f.createComplexDataType();
+            data.setComplexData(complex);
+            complex.setMimeType(result.mimeType);
+            complex.getData().add(new RawDataEncoderDelegate(new AbstractRawData(result.mimeType) {
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return resource.in();
+                }
+
+                @Override
+                public String getFileExtension() {
+                    return DEFAULT_EXTENSION;
+                }
+            }));
+        }
+        outputs.getOutput().add(output);
+
+        return response;
+    }
+
+    /**
+     * Stores the output of a successful execution in the cache, and returns a response that will
+     * stream it back from the stored copy. If the execution did not succeed, or produced an output
+     * that cannot be cached, the original response is returned.
+     */
+    public ExecuteResponseType put(String key, ExecuteRequest request,
+            ExecuteResponseType response) {
+        if (response == null || response.getStatus() == null
+                || response.getStatus().getProcessSucceeded() == null
+                || response.getProcessOutputs() == null
+                || response.getProcessOutputs().getOutput().isEmpty()) {
+            return response;
+        }
+        OutputDataType output = (OutputDataType) response.getProcessOutputs().getOutput().get(0);
+        if (output.getData() == null || output.getData().getBoundingBoxData() != null) {
+            // references are already stored, bounding boxes are cheap
+            return response;
+        }
+
+        // write in a private resource, concurrent executions might be reading the cached one
+        Resource resource = getResource(key);
+        Resource temp = getResource(key + "-" + UUID.randomUUID() + ".tmp");
+        CountingOutputStream os = null;
+        boolean written = false;
+        try {
+            os = new CountingOutputStream(temp.out());
+            ExecuteProcessResponse.writeRaw(output, os);
+            os.close();
+            written = temp.renameTo(resource);
+        } catch (Exception e) {
+            throw new WPSException("An error occurred while encoding "
+                    + "the results of the process", e);
+        } finally {
+            IOUtils.closeQuietly(os);
+            if (!written) {
+                temp.delete();
+            }
+        }
+        if (!written) {
+            // another execution stored the same output meanwhile, and it could not be replaced
+            if (resource.getType() != Type.RESOURCE) {
+                throw new WPSException("Failed to store the results of the process");
+            }
+            LOGGER.fine("Could not replace the cached output " + key + ", reusing it");
+        }
+
+        String mimeType = ExecuteProcessResponse.getRawMimeType(output);
+        boolean literal = output.getData().getLiteralData() != null;
+        CachedResult result = new CachedResult(output.getIdentifier().getValue(), mimeType,
+                os.getByteCount(), literal);
+        cache.put(key, result);
+        stores.incrementAndGet();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Cached " + os.getByteCount() + " bytes of output for process "
+                    + request.getProcessName().getURI());
+        }
+
+        // the output has been consumed, stream it back from the stored copy
+        ExecuteResponseType cached = buildResponse(key, result, request);
+        if (cached == null) {
+            throw new WPSException("Failed to read back the results of the process");
+        }
+        return cached;
+    }
+
+    Resource getResource(String key) {
+        return resourceManager.getArtifactsStore().getArtifact(CACHE_ID, ArtifactType.Output,
+                key);
+    }
+
+    CodeType code(String value) {
+        CodeType code = Ows11Factory.eINSTANCE.createCodeType();
+        code.setValue(value);
+        return code;
+    }
+
+    /**
+     * The number of outputs stored in the cache
+     */
+    public long getStores() {
+        return stores.get();
+    }
+}
@@ -4,11 +4,16 @@
  */
 package org.geoserver.wps.executor;
 
+import java.io.IOException;
 import java.util.Date;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geoserver.platform.ExtensionPriority;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.util.PropertyLookup;
+import org.geoserver.wps.FileProcessStatusStore;
 import org.geoserver.wps.MemoryProcessStatusStore;
 import org.geoserver.wps.ProcessEvent;
 import org.geoserver.wps.ProcessListener;
@@ -23,6 +28,9 @@ import org.opengis.filter.Not;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
 
 /**
  * A listener that tracks the evolution of process execution and stores it in a
@@ -31,7 +39,7 @@ import org.springframework.context.ApplicationContextAware;
  * @author Andrea Aime - GeoSolutions
  */
 public class ProcessStatusTracker implements ApplicationContextAware, ProcessListener,
-        ExtensionPriority {
+        ExtensionPriority, ApplicationListener<ApplicationEvent> {
 
     static final FilterFactory FF = CommonFactoryFinder.getFilterFactory();
 
@@ -43,6 +51,17 @@ public class ProcessStatusTracker implements ApplicationContextAware, ProcessLis
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         ProcessStatusStore store = GeoServerExtensions.bean(ProcessStatusStore.class,
                 applicationContext);
+        if (store == null
+                && PropertyLookup.getBoolean(FileProcessStatusStore.PERSISTENT_KEY, false)) {
+            try {
+                GeoServerResourceLoader loader = GeoServerExtensions.bean(
+                        GeoServerResourceLoader.class, applicationContext);
+                store = new FileProcessStatusStore(loader.findOrCreateDirectory("wps", "status"));
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to setup the persistent process status store, "
+                        + "falling back on the in memory one", e);
+            }
+        }
         if (store == null) {
             store = new MemoryProcessStatusStore();
         }
@@ -50,6 +69,14 @@ public class ProcessStatusTracker implements ApplicationContextAware, ProcessLis
         this.store = store;
     }
 
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextClosedEvent && store instanceof FileProcessStatusStore) {
+            // release the status log
+            ((FileProcessStatusStore) store).dispose();
+        }
+    }
+
     @Override
     public void submitted(ProcessEvent event) throws WPSException {
         if(store == null) {
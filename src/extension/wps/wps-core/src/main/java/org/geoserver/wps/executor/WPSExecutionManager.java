@@ -119,6 +119,11 @@ public class WPSExecutionManager implements ApplicationContextAware,
      */
     private GeoServer geoServer;
 
+    /**
+     * The cache of process results, may be null
+     */
+    private ProcessResultCache resultCache;
+
     public WPSExecutionManager(GeoServer geoServer, WPSResourceManager resourceManager,
             ProcessStatusTracker statusTracker) {
         this.resourceManager = resourceManager;
@@ -166,6 +171,18 @@ public class WPSExecutionManager implements ApplicationContextAware,
     public ExecuteResponseType submit(final ExecuteRequest request, boolean synchronous)
             throws ProcessException {
 
+        // see if we already have the results
+        String cacheKey = null;
+        if (synchronous && resultCache != null) {
+            cacheKey = resultCache.getKey(request);
+            if (cacheKey != null) {
+                ExecuteResponseType cached = resultCache.get(cacheKey, request);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+
         Name processName = request.getProcessName();
         ProcessManager processManager = getProcessManager(processName);
         String executionId = resourceManager.getExecutionId(synchronous);
@@ -180,6 +197,9 @@ public class WPSExecutionManager implements ApplicationContextAware,
         ExecuteResponseType response;
         if (synchronous) {
             response = executor.call();
+            if (cacheKey != null) {
+                response = resultCache.put(cacheKey, request, response);
+            }
         } else {
             LOGGER.log(Level.INFO, "Submitting new asynch process " + processName.getURI()
                     + " with execution id " + executionId);
@@ -232,6 +252,19 @@ public class WPSExecutionManager implements ApplicationContextAware,
                 + processName);
     }
 
+    /**
+     * Sets the cache used to memoize the results of synchronous executions
+     * 
+     * @param resultCache
+     */
+    public void setResultCache(ProcessResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public ProcessResultCache getResultCache() {
+        return resultCache;
+    }
+
     /**
      * Returns the HTTP connection timeout for remote resource fetching
      * 
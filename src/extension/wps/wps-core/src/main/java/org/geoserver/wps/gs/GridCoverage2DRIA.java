@@ -11,6 +11,8 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.util.Map;
 import java.util.Vector;
@@ -97,7 +99,14 @@ public class GridCoverage2DRIA extends GeometricOpImage {
 
     private int maxY;
 
-    private RandomIter iter;
+    /**
+     * The source data the iterators are built on, either the source image or its extended
+     * version. Iterators over images cache the current tile, so each tile computation needs its
+     * own in order to allow for parallel tile computation
+     */
+    private Object iterSource;
+
+    private Rectangle iterBounds;
 
     private int lpad;
 
@@ -229,13 +238,15 @@ public class GridCoverage2DRIA extends GeometricOpImage {
                     srcImage.getMinY() - tpad, 
                     srcImage.getWidth() + lpad + rpad, 
                     srcImage.getHeight() + tpad + bpad);
-            iter = RandomIterFactory.create(srcImage.getExtendedData(bounds, extender), bounds);
+            iterSource = srcImage.getExtendedData(bounds, extender);
+            iterBounds = bounds;
         } else {
             minX = srcImage.getMinX();
             maxX = srcImage.getMaxX()-1;
             minY = srcImage.getMinY();
             maxY = srcImage.getMaxY()-1;
-            iter = RandomIterFactory.create(srcImage, srcImage.getBounds());
+            iterSource = srcImage;
+            iterBounds = srcImage.getBounds();
         }
         
     }
@@ -570,26 +581,30 @@ public class GridCoverage2DRIA extends GeometricOpImage {
         RasterFormatTag[] formatTags = getFormatTags();
 
         RasterAccessor d = new RasterAccessor(dest, destRect, formatTags[1], getColorModel());
-
-        switch (d.getDataType()) {
-        case DataBuffer.TYPE_BYTE:
-            computeRectByte(sources[0], d);
-            break;
-        case DataBuffer.TYPE_USHORT:
-            computeRectUShort(sources[0], d);
-            break;
-        case DataBuffer.TYPE_SHORT:
-            computeRectShort(sources[0], d);
-            break;
-        case DataBuffer.TYPE_INT:
-            computeRectInt(sources[0], d);
-            break;
-        case DataBuffer.TYPE_FLOAT:
-            computeRectFloat(sources[0], d);
-            break;
-        case DataBuffer.TYPE_DOUBLE:
-            computeRectDouble(sources[0], d);
-            break;
+        RandomIter iter = createIterator();
+        try {
+            switch (d.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                computeRectByte(sources[0], d, iter);
+                break;
+            case DataBuffer.TYPE_USHORT:
+                computeRectUShort(sources[0], d, iter);
+                break;
+            case DataBuffer.TYPE_SHORT:
+                computeRectShort(sources[0], d, iter);
+                break;
+            case DataBuffer.TYPE_INT:
+                computeRectInt(sources[0], d, iter);
+                break;
+            case DataBuffer.TYPE_FLOAT:
+                computeRectFloat(sources[0], d, iter);
+                break;
+            case DataBuffer.TYPE_DOUBLE:
+                computeRectDouble(sources[0], d, iter);
+                break;
+            }
+        } finally {
+            iter.done();
         }
 
         if (d.isDataCopy()) {
@@ -598,7 +613,15 @@ public class GridCoverage2DRIA extends GeometricOpImage {
         }
     }
 
-    private void computeRectByte(PlanarImage src, RasterAccessor dst) {
+    private RandomIter createIterator() {
+        if (iterSource instanceof Raster) {
+            return RandomIterFactory.create((Raster) iterSource, iterBounds);
+        } else {
+            return RandomIterFactory.create((RenderedImage) iterSource, iterBounds);
+        }
+    }
+
+    private void computeRectByte(PlanarImage src, RasterAccessor dst, RandomIter iter) {
         int dstWidth = dst.getWidth();
         int dstHeight = dst.getHeight();
         int dstBands = dst.getNumBands();
@@ -749,7 +772,7 @@ public class GridCoverage2DRIA extends GeometricOpImage {
         }
     }
 
-    private void computeRectUShort(PlanarImage src, RasterAccessor dst) {
+    private void computeRectUShort(PlanarImage src, RasterAccessor dst, RandomIter iter) {
         int dstWidth = dst.getWidth();
         int dstHeight = dst.getHeight();
         int dstBands = dst.getNumBands();
@@ -837,7 +860,7 @@ public class GridCoverage2DRIA extends GeometricOpImage {
         }
     }
 
-    private void computeRectShort(PlanarImage src, RasterAccessor dst) {
+    private void computeRectShort(PlanarImage src, RasterAccessor dst, RandomIter iter) {
 
         int dstWidth = dst.getWidth();
         int dstHeight = dst.getHeight();
@@ -925,7 +948,7 @@ public class GridCoverage2DRIA extends GeometricOpImage {
         }
     }
 
-    private void computeRectInt(PlanarImage src, RasterAccessor dst) {
+    private void computeRectInt(PlanarImage src, RasterAccessor dst, RandomIter iter) {
 
         int dstWidth = dst.getWidth();
         int dstHeight = dst.getHeight();
@@ -1013,7 +1036,7 @@ public class GridCoverage2DRIA extends GeometricOpImage {
         }
     }
 
-    private void computeRectFloat(PlanarImage src, RasterAccessor dst) {
+    private void computeRectFloat(PlanarImage src, RasterAccessor dst, RandomIter iter) {
 
         // -- prepare for cycling on the destination tile
         int dstWidth = dst.getWidth();
@@ -1095,7 +1118,7 @@ public class GridCoverage2DRIA extends GeometricOpImage {
         }
     }
 
-    private void computeRectDouble(PlanarImage src, RasterAccessor dst) {
+    private void computeRectDouble(PlanarImage src, RasterAccessor dst, RandomIter iter) {
 
         int dstWidth = dst.getWidth();
         int dstHeight = dst.getHeight();
@@ -1237,10 +1260,8 @@ public class GridCoverage2DRIA extends GeometricOpImage {
     public synchronized void dispose() {
         super.dispose();
         
-        // dispose iterator
-        if(iter!=null){
-            iter.done();
-        }
+        // release the source data
+        iterSource = null;
         
         // remove from cache
         // TODO improve cache management
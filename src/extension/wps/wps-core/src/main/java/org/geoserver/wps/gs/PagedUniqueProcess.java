@@ -7,9 +7,12 @@ package org.geoserver.wps.gs;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
+import org.geoserver.wps.gs.UniqueValuesCache.UniqueValues;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.visitor.UniqueVisitor;
@@ -19,8 +22,10 @@ import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
 import org.geotools.process.factory.DescribeResult;
 import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.FilterFactory;
+import org.opengis.filter.expression.Expression;
 
 /**
  * A WPS process to retrieve unique field values from a layer on Geoserver
@@ -38,7 +43,17 @@ public class PagedUniqueProcess implements GeoServerProcess {
     private static final Logger LOGGER = Logging
             .getLogger(PagedUniqueProcess.class);
     
-    private final FilterFactory FF = CommonFactoryFinder.getFilterFactory2();
+    private static final FilterFactory FF = CommonFactoryFinder.getFilterFactory2();
+
+    private UniqueValuesCache cache;
+
+    public PagedUniqueProcess() {
+        this(null);
+    }
+
+    public PagedUniqueProcess(UniqueValuesCache cache) {
+        this.cache = cache;
+    }
     
     
     public static final class Results {
@@ -91,52 +106,112 @@ public class PagedUniqueProcess implements GeoServerProcess {
                 + " - field: " + fieldName);
     
         
-        UniqueVisitor visitor = new UniqueVisitor(FF.property(fieldName)) {
-            @Override
-            public boolean hasLimits() {
-                // force usage of visitor limits, also for size extraction "query"
-                return true;
-            }
-            
-        };
-        
-        Integer listSize = 0;
-        List<String> list = new ArrayList<String>();
-    
         try {
-            // counts total elements
+            Object key = cache == null ? null : cache.getKey(features, fieldName);
+            UniqueValues cached = key == null ? null : cache.get(key);
+            if (cached != null && cached.values != null) {
+                return new Results(featureTypeName, fieldName, cached.size, page(cached.values,
+                        startIndex, maxFeatures));
+            }
+
+            // try to have the store extract the page directly
+            PageVisitor visitor = new PageVisitor(fieldName);
+            if (startIndex != null) {
+                visitor.setStartIndex(startIndex);
+            }
+            if (maxFeatures != null) {
+                visitor.setMaxFeatures(maxFeatures);
+            }
+            visitor.setPreserveOrder(true);
             features.accepts(visitor, null);
-            if(visitor.getResult() == null || visitor.getResult().toList() == null) {
-                listSize = 0;
-                list = new ArrayList<String>(0);
-            } else {
-                listSize = visitor.getResult().toList().size();
-                if(maxFeatures == null || maxFeatures > listSize) {
-                    maxFeatures = listSize;
-                }
-                // Reset visitor and set pagination
-                visitor.reset();
-                if(startIndex != null) {
-                    visitor.setStartIndex(startIndex);
-                }
-                if(maxFeatures != null) {
-                    visitor.setMaxFeatures(maxFeatures);
+
+            if (visitor.scanned != null) {
+                // the store could not do it, we had to go through all the features anyways, so
+                // we have all the values at hand
+                List<Object> values = new ArrayList<Object>(visitor.scanned);
+                if (key != null) {
+                    cache.put(key, new UniqueValues(values));
                 }
-                visitor.setPreserveOrder(true);
-            
-                features.accepts(visitor, null);
-                if(visitor.getResult() == null || visitor.getResult().toList() == null) {
-                    list = new ArrayList<String>(0);
-                } else {
-                    list = visitor.getResult().toList();
+                return new Results(featureTypeName, fieldName, values.size(), page(values,
+                        startIndex, maxFeatures));
+            }
+
+            List<?> list = toList(visitor);
+            int size;
+            if (cached != null) {
+                size = cached.size;
+            } else {
+                // counts total elements
+                PageVisitor counter = new PageVisitor(fieldName);
+                features.accepts(counter, null);
+                size = counter.scanned != null ? counter.scanned.size() : toList(counter).size();
+                if (key != null) {
+                    cache.put(key, new UniqueValues(size));
                 }
-            
             }
-            return new Results(featureTypeName, fieldName, listSize, list);
+            return new Results(featureTypeName, fieldName, size, list);
         } catch (Exception e) {
             throw new ProcessException("Error extracting unique values", e);
         }
             
     }
 
-}
\ No newline at end of file
+    List<?> toList(UniqueVisitor visitor) {
+        if (visitor.getResult() == null || visitor.getResult().toList() == null) {
+            return new ArrayList<Object>(0);
+        } else {
+            return visitor.getResult().toList();
+        }
+    }
+
+    /**
+     * Extracts the requested page out of the full list of values
+     */
+    List<?> page(List<?> values, Integer startIndex, Integer maxFeatures) {
+        int start = startIndex == null ? 0 : Math.min(startIndex, values.size());
+        int end = values.size();
+        if (maxFeatures != null && maxFeatures < end - start) {
+            end = start + maxFeatures;
+        }
+        return new ArrayList<Object>(values.subList(start, end));
+    }
+
+    /**
+     * A unique visitor that declares limits, so that optimized stores will extract the requested
+     * page, and tracks the values on its own when the features are visited one by one, to tell
+     * whether the store did the work or not
+     */
+    static class PageVisitor extends UniqueVisitor {
+
+        Expression expression;
+
+        Set<Object> scanned;
+
+        public PageVisitor(String fieldName) {
+            this(FF.property(fieldName));
+        }
+
+        PageVisitor(Expression expression) {
+            super(expression);
+            this.expression = expression;
+        }
+
+        @Override
+        public boolean hasLimits() {
+            // force usage of visitor limits, also for size extraction "query"
+            return true;
+        }
+
+        @Override
+        public void visit(Feature feature) {
+            if (scanned == null) {
+                scanned = new LinkedHashSet<Object>();
+            }
+            Object value = expression.evaluate(feature);
+            if (value != null) {
+                scanned.add(value);
+            }
+        }
+    }
+
+}
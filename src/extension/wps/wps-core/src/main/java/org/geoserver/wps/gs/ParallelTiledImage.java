@@ -0,0 +1,349 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.media.jai.RenderedImageAdapter;
+
+import org.geoserver.wps.ProcessDismissedException;
+import org.geoserver.wps.executor.ComputationPool;
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.opengis.util.ProgressListener;
+
+/**
+ * A {@link RenderedImage} wrapper that computes the tiles of its source in parallel, ahead of the
+ * consumer, to speed up writing out the results of raster processes, whose output tiles are
+ * otherwise computed one at a time as the writer pulls them.
+ * <p>
+ * The tiles are expected to be read in row-major order: when a tile is requested the following
+ * ones are scheduled for computation on the shared {@link ComputationPool}. At most a window of
+ * tiles is computed ahead of the current position and tiles left behind are released, so that a
+ * slow writer applies back-pressure on the computation rather than having the whole image pile
+ * up in memory. Tiles requested out of order are simply computed in the calling thread.
+ * </p>
+ * <p>
+ * The parallel computation is disabled if the pool parallelism is one or less.
+ * </p>
+ * <p>
+ * When a {@link ProgressListener} is provided, progress is reported as the consumer gets hold of
+ * the tiles, and the computation is stopped with a {@link ProcessDismissedException} as soon as
+ * the listener is cancelled.
+ * </p>
+ */
+public class ParallelTiledImage implements RenderedImage {
+
+    /**
+     * Wraps the coverage image so that its tiles are computed in parallel, if the image is made
+     * of multiple tiles and has still to be computed. Returns the coverage as is otherwise.
+     */
+    public static GridCoverage2D wrap(GridCoverage2D coverage) {
+        return wrap(coverage, null);
+    }
+
+    /**
+     * Same as {@link #wrap(GridCoverage2D)}, reporting the tiles consumption to the specified
+     * listener, if not null
+     */
+    public static GridCoverage2D wrap(GridCoverage2D coverage, ProgressListener listener) {
+        RenderedImage image = coverage.getRenderedImage();
+        if (!isParallelizable(image)) {
+            return coverage;
+        }
+
+        RenderedImage parallel = new ParallelTiledImage(image, ComputationPool.getPool(),
+                ComputationPool.PARALLELISM * 2, listener);
+        GridCoverageFactory factory = new GridCoverageFactory();
+        GridSampleDimension[] bands = coverage.getSampleDimensions();
+        Map properties = coverage.getProperties();
+        return factory.create(coverage.getName(), parallel, coverage.getGridGeometry(), bands,
+                new GridCoverage2D[] { coverage }, properties);
+    }
+
+    /**
+     * Wraps the image so that its tiles are computed in parallel, if the image is made of
+     * multiple tiles and has still to be computed. Returns the image as is otherwise.
+     */
+    public static RenderedImage wrap(RenderedImage image) {
+        if (!isParallelizable(image)) {
+            return image;
+        }
+        return new ParallelTiledImage(image, ComputationPool.getPool(),
+                ComputationPool.PARALLELISM * 2);
+    }
+
+    static boolean isParallelizable(RenderedImage image) {
+        // coverages and encoders wrap the images they are given
+        while (image instanceof RenderedImageAdapter) {
+            image = ((RenderedImageAdapter) image).getWrappedImage();
+        }
+        return ComputationPool.isParallelEnabled() && !(image instanceof BufferedImage)
+                && !(image instanceof ParallelTiledImage)
+                && image.getNumXTiles() * image.getNumYTiles() > 1;
+    }
+
+    final RenderedImage source;
+
+    final ForkJoinPool pool;
+
+    final int window;
+
+    final int tileCount;
+
+    final ProgressListener listener;
+
+    final Map<Integer, Future<Raster>> tiles = new ConcurrentHashMap<Integer, Future<Raster>>();
+
+    /**
+     * The index of the next tile to be scheduled
+     */
+    int scheduled;
+
+    /**
+     * The number of tiles consumed so far, as far as progress reporting is concerned
+     */
+    int consumed;
+
+    ParallelTiledImage(RenderedImage source, ForkJoinPool pool, int window) {
+        this(source, pool, window, null);
+    }
+
+    ParallelTiledImage(RenderedImage source, ForkJoinPool pool, int window,
+            ProgressListener listener) {
+        this.source = source;
+        this.pool = pool;
+        this.window = Math.max(1, window);
+        this.tileCount = source.getNumXTiles() * source.getNumYTiles();
+        this.listener = listener;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        int index = (tileY - source.getMinTileY()) * source.getNumXTiles()
+                + (tileX - source.getMinTileX());
+        Future<Raster> future;
+        synchronized (this) {
+            if (listener != null) {
+                if (listener.isCanceled()) {
+                    throw new ProcessDismissedException(listener);
+                }
+                // writers can go back to the start of a row of tiles, only report forward moves
+                if (index >= consumed && index < tileCount) {
+                    consumed = index + 1;
+                    listener.progress(100f * consumed / tileCount);
+                }
+            }
+            schedule(index);
+            future = tiles.get(index);
+        }
+
+        if (future == null) {
+            // out of the window, compute it directly
+            return source.getTile(tileX, tileY);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for tile " + tileX + ","
+                    + tileY, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Failed to compute tile " + tileX + "," + tileY,
+                    e.getCause());
+        }
+    }
+
+    /**
+     * Moves the window forward so that it starts at the specified tile index
+     */
+    void schedule(int index) {
+        if (index < 0 || index >= tileCount) {
+            return;
+        }
+
+        // release the tiles we left behind, keeping a few in case the consumer is reading
+        // tiles in strips, thus going back to the start of the row
+        for (Iterator<Map.Entry<Integer, Future<Raster>>> it = tiles.entrySet().iterator(); it
+                .hasNext();) {
+            Map.Entry<Integer, Future<Raster>> entry = it.next();
+            if (entry.getKey() < index - window) {
+                entry.getValue().cancel(false);
+                it.remove();
+            }
+        }
+
+        // schedule up to a window of tiles ahead
+        if (scheduled < index) {
+            scheduled = index;
+        }
+        int last = Math.min(index + window, tileCount);
+        for (; scheduled < last; scheduled++) {
+            final int tileX = source.getMinTileX() + scheduled % source.getNumXTiles();
+            final int tileY = source.getMinTileY() + scheduled / source.getNumXTiles();
+            tiles.put(scheduled, pool.submit(new Callable<Raster>() {
+
+                @Override
+                public Raster call() throws Exception {
+                    return source.getTile(tileX, tileY);
+                }
+            }));
+        }
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(getBounds());
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        SampleModel sm = source.getSampleModel().createCompatibleSampleModel(rect.width,
+                rect.height);
+        WritableRaster raster = Raster.createWritableRaster(sm, new Point(rect.x, rect.y));
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            return (WritableRaster) getData();
+        }
+        Rectangle rect = raster.getBounds().intersection(getBounds());
+        if (rect.isEmpty()) {
+            return raster;
+        }
+        int minTileX = XToTileX(rect.x);
+        int maxTileX = XToTileX(rect.x + rect.width - 1);
+        int minTileY = YToTileY(rect.y);
+        int maxTileY = YToTileY(rect.y + rect.height - 1);
+        for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+            for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                // copies the overlapping area only
+                raster.setRect(getTile(tileX, tileY));
+            }
+        }
+        return raster;
+    }
+
+    int XToTileX(int x) {
+        return (int) Math.floor((x - getTileGridXOffset()) / (double) getTileWidth());
+    }
+
+    int YToTileY(int y) {
+        return (int) Math.floor((y - getTileGridYOffset()) / (double) getTileHeight());
+    }
+
+    Rectangle getBounds() {
+        return new Rectangle(getMinX(), getMinY(), getWidth(), getHeight());
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        Vector<RenderedImage> sources = new Vector<RenderedImage>();
+        sources.add(source);
+        return sources;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return source.getProperty(name);
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return source.getPropertyNames();
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return source.getColorModel();
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return source.getSampleModel();
+    }
+
+    @Override
+    public int getWidth() {
+        return source.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return source.getHeight();
+    }
+
+    @Override
+    public int getMinX() {
+        return source.getMinX();
+    }
+
+    @Override
+    public int getMinY() {
+        return source.getMinY();
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return source.getNumXTiles();
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return source.getNumYTiles();
+    }
+
+    @Override
+    public int getMinTileX() {
+        return source.getMinTileX();
+    }
+
+    @Override
+    public int getMinTileY() {
+        return source.getMinTileY();
+    }
+
+    @Override
+    public int getTileWidth() {
+        return source.getTileWidth();
+    }
+
+    @Override
+    public int getTileHeight() {
+        return source.getTileHeight();
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return source.getTileGridXOffset();
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return source.getTileGridYOffset();
+    }
+
+}
@@ -69,7 +69,8 @@ public class StoreCoverage implements GSProcess {
         final GeneralParameterValue[] wps = params.values().toArray(
                 new GeneralParameterValue[1]);
         try {
-            writer.write(coverage, wps);
+            // compute the tiles in parallel while the writer encodes them
+            writer.write(ParallelTiledImage.wrap(coverage), wps);
         } finally {
             try {
                 writer.dispose();
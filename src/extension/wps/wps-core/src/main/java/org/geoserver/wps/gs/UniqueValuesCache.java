@@ -0,0 +1,132 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.util.BoundedCache;
+import org.geoserver.util.PropertyLookup;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wps.executor.InternalWFSInputProvider;
+import org.geoserver.wps.executor.ProcessResultCache;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Keeps the distinct values computed by the {@link PagedUniqueProcess}, so that paging through
+ * the values of a large column does not repeat the whole computation for each page.
+ * <p>
+ * For stores that cannot compute the distinct values natively the whole, ordered, list of values
+ * is kept and pages are extracted from it. For stores that can, only the total number of distinct
+ * values is kept, while each page is still extracted by the store.
+ * </p>
+ * <p>
+ * Only collections coming from internal WFS references can be cached, as the query that
+ * generated them is known. Values are not shared among users, as the data security might limit
+ * the features each one can see. Entries are dropped when the configuration changes, when a WFS
+ * transaction occurs, and after a configurable time to live, to account for changes made to the
+ * data outside of GeoServer. The cache is configured with the following properties:
+ * <ul>
+ * <li>{@link #CACHE_SIZE_KEY}: the maximum number of values kept in the cache, {@link #DEFAULT_SIZE}
+ * by default, zero disables the cache</li>
+ * <li>{@link #TTL_KEY}: the time to live of the entries, in seconds, {@link #DEFAULT_TTL} by
+ * default, zero disables the expiration</li>
+ * </ul>
+ * </p>
+ */
+public class UniqueValuesCache extends BoundedCache<Object, UniqueValuesCache.UniqueValues>
+        implements TransactionListener {
+
+    /**
+     * Property setting the maximum number of cached values
+     */
+    public static final String CACHE_SIZE_KEY = "org.geoserver.wps.uniqueCacheSize";
+
+    /**
+     * Property setting the entries time to live, in seconds
+     */
+    public static final String TTL_KEY = "org.geoserver.wps.uniqueCacheTTL";
+
+    public static final long DEFAULT_SIZE = 1000000;
+
+    public static final long DEFAULT_TTL = 600;
+
+    /**
+     * The distinct values of a collection. The values are missing if the store can compute them
+     * natively.
+     */
+    static final class UniqueValues {
+
+        final List<?> values;
+
+        final int size;
+
+        UniqueValues(List<?> values) {
+            this.values = values;
+            this.size = values.size();
+        }
+
+        UniqueValues(int size) {
+            this.values = null;
+            this.size = size;
+        }
+    }
+
+    GeoServer geoServer;
+
+    public UniqueValuesCache(GeoServer geoServer) {
+        this(geoServer, PropertyLookup.getLong(CACHE_SIZE_KEY, DEFAULT_SIZE), PropertyLookup
+                .getLong(TTL_KEY, DEFAULT_TTL));
+    }
+
+    UniqueValuesCache(GeoServer geoServer, long maxValues, long timeToLiveSeconds) {
+        super(maxValues, timeToLiveSeconds);
+        this.geoServer = geoServer;
+    }
+
+    @Override
+    protected int weigh(Object key, UniqueValues value) {
+        return value.values == null ? 1 : value.values.size() + 1;
+    }
+
+    /**
+     * Returns the key under which the distinct values of the specified collection attribute can
+     * be cached, or null if the collection cannot be cached
+     */
+    public Object getKey(SimpleFeatureCollection features, String fieldName) {
+        if (cache == null) {
+            return null;
+        }
+        Object queryKey = InternalWFSInputProvider.getQueryKey(features);
+        if (queryKey == null) {
+            return null;
+        }
+        String user = ProcessResultCache.getUserKey(SecurityContextHolder.getContext()
+                .getAuthentication());
+        return Arrays.asList(queryKey, fieldName, geoServer.getGlobal().getUpdateSequence(), user);
+    }
+
+    /**
+     * Returns the cached distinct values, or null if not found
+     */
+    UniqueValues get(Object key) {
+        return getIfPresent(key);
+    }
+
+    void put(Object key, UniqueValues values) {
+        cache.put(key, values);
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        // the keys contain the full queries, working out which ones are affected is not worth
+        // the effort, transactions are expected to be rare compared to the paging requests
+        clear();
+    }
+}
@@ -18,6 +18,7 @@ import javax.media.jai.JAI;
 
 import org.apache.commons.io.IOUtils;
 import org.geoserver.wps.WPSException;
+import org.geoserver.wps.gs.ParallelTiledImage;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridCoverageWriter;
@@ -126,6 +127,9 @@ public class GeoTiffPPIO extends BinaryPPIO {
             }
         }
 
+        // compute the tiles in parallel while the writer encodes them
+        coverage = ParallelTiledImage.wrap(coverage);
+
         // tiling
         final RenderedImage renderedImage = coverage.getRenderedImage();
         final int tileWidth=renderedImage.getTileWidth();
@@ -68,6 +68,19 @@ public class WFSPPIO extends XMLPPIO {
         // cast and handle the axis flipping
         FeatureCollectionType fct = (FeatureCollectionType) input;
         SimpleFeatureCollection fc = (SimpleFeatureCollection) fct.getFeature().get( 0 );
+        return prepareCollection(fc);
+    }
+
+    /**
+     * Handles the axis order and cleans up the GML specific attributes of a feature collection
+     * coming out of a WFS request, without loading it in memory
+     * 
+     * @param fc
+     * @return
+     * @throws Exception
+     */
+    public static SimpleFeatureCollection prepareCollection(SimpleFeatureCollection fc)
+            throws Exception {
         // Axis flipping issue, we should determine if the collection needs flipping 
         if(fc.getSchema().getGeometryDescriptor() != null) {
             CoordinateReferenceSystem crs = getCollectionCRS(fc);
@@ -104,7 +117,7 @@ public class WFSPPIO extends XMLPPIO {
      * @param fc
      * @return
      */
-    private SimpleFeatureCollection eliminateFeatureBounds(SimpleFeatureCollection fc) {
+    private static SimpleFeatureCollection eliminateFeatureBounds(SimpleFeatureCollection fc) {
         final SimpleFeatureType original = fc.getSchema();
         List<String> names = new ArrayList<String>();
         boolean alternateGeometry = true;
@@ -137,7 +150,7 @@ public class WFSPPIO extends XMLPPIO {
      * @return
      * @throws Exception
      */
-    CoordinateReferenceSystem getCollectionCRS(SimpleFeatureCollection fc) throws Exception {
+    static CoordinateReferenceSystem getCollectionCRS(SimpleFeatureCollection fc) throws Exception {
         // this is unlikely to work for remote or embedded collections, but it's also easy to check
         if(fc.getSchema().getCoordinateReferenceSystem() != null) {
             return fc.getSchema().getCoordinateReferenceSystem();
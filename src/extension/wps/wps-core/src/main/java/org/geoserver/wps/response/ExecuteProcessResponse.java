@@ -7,7 +7,9 @@ package org.geoserver.wps.response;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
 
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
@@ -41,6 +43,8 @@ import org.geotools.xml.Encoder;
  */
 public class ExecuteProcessResponse extends Response {
 
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
     XmlObjectEncodingResponse standardResponse;
 
     public ExecuteProcessResponse(Class binding, String elementName, Class xmlConfiguration) {
@@ -62,22 +66,32 @@ public class ExecuteProcessResponse extends Response {
                 return "text/xml";
             }
             OutputDataType result = (OutputDataType) response.getProcessOutputs().getOutput().get(0);
-            LiteralDataType literal = result.getData().getLiteralData();
-            ComplexDataType complex = result.getData().getComplexData();
-            if(literal != null) {
-                // literals are encoded as plain strings
-                return "text/plain";
-            } else if(complex != null) {
-                // Execute should have properly setup the mime type
-                return complex.getMimeType();
-            } else {
-                // bbox
-                return "text/xml";
-            }
+            return getRawMimeType(result);
         }
 
     }
 
+    /**
+     * Returns the mime type of an output encoded in raw form
+     * 
+     * @param result
+     * @return
+     */
+    public static String getRawMimeType(OutputDataType result) {
+        LiteralDataType literal = result.getData().getLiteralData();
+        ComplexDataType complex = result.getData().getComplexData();
+        if(literal != null) {
+            // literals are encoded as plain strings
+            return "text/plain";
+        } else if(complex != null) {
+            // Execute should have properly setup the mime type
+            return complex.getMimeType();
+        } else {
+            // bbox
+            return "text/xml";
+        }
+    }
+
     private boolean isStandardDocumentResponse(Operation operation) {
         if(operation.getParameters()[0] instanceof ExecuteType) {
             ExecuteType execute = (ExecuteType) operation.getParameters()[0];
@@ -160,19 +174,30 @@ public class ExecuteProcessResponse extends Response {
             // raw response, let's see what the output is
             OutputDataType result = (OutputDataType) response
                     .getProcessOutputs().getOutput().get(0);
-            LiteralDataType literal = result.getData().getLiteralData();
-            BoundingBoxType bbox = result.getData().getBoundingBoxData();
-            if (literal != null) {
-                writeLiteral(output, literal);
-            } else if(bbox != null) {
-                writeBBox(output, bbox);
-            } else {
-                writeComplex(output, result);
-            }
+            writeRaw(result, output);
+        }
+    }
+
+    /**
+     * Writes out an output in raw form
+     * 
+     * @param result
+     * @param output
+     * @throws IOException
+     */
+    public static void writeRaw(OutputDataType result, OutputStream output) throws IOException {
+        LiteralDataType literal = result.getData().getLiteralData();
+        BoundingBoxType bbox = result.getData().getBoundingBoxData();
+        if (literal != null) {
+            writeLiteral(output, literal);
+        } else if(bbox != null) {
+            writeBBox(output, bbox);
+        } else {
+            writeComplex(output, result);
         }
     }
 
-    private void writeBBox(OutputStream os, BoundingBoxType bbox) throws IOException {
+    private static void writeBBox(OutputStream os, BoundingBoxType bbox) throws IOException {
         Encoder encoder = new Encoder(new OWSConfiguration());
         encoder.encode(bbox, OWS.BoundingBox, os);
     }
@@ -185,7 +210,7 @@ public class ExecuteProcessResponse extends Response {
      * @param result
      * @throws IOException
      */
-    void writeComplex(OutputStream output, OutputDataType result)
+    static void writeComplex(OutputStream output, OutputDataType result)
             throws IOException {
         Object rawResult = result.getData().getComplexData().getData().get(0);
         if (rawResult instanceof RawDataEncoderDelegate) {
@@ -226,12 +251,12 @@ public class ExecuteProcessResponse extends Response {
     }
 
     /**
-     * Write out literal results by converting them to strings
+     * Write out literal results by converting them to strings, encoded in UTF-8
      * @param output
      * @param literal
      */
-    void writeLiteral(OutputStream output, LiteralDataType literal) {
-        PrintWriter writer = new PrintWriter(output);
+    static void writeLiteral(OutputStream output, LiteralDataType literal) {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, UTF8));
         writer.write(literal.getValue());
         writer.flush();
     }
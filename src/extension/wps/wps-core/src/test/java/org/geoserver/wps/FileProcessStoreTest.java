@@ -0,0 +1,230 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.wps.executor.ExecutionStatus;
+import org.geoserver.wps.executor.ProcessState;
+import org.geotools.data.Query;
+import org.geotools.feature.NameImpl;
+import org.geotools.filter.text.ecql.ECQL;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the file based implementation of {@link ProcessStatusStore}
+ */
+public class FileProcessStoreTest extends AbstractProcessStoreTest {
+
+    File directory;
+
+    @Override
+    protected ProcessStatusStore buildStore() {
+        try {
+            directory = Files.createTempDirectory("wps-status").toFile();
+            return new FileProcessStatusStore(directory);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @After
+    public void cleanup() {
+        ((FileProcessStatusStore) store).dispose();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        store.remove(s1.getExecutionId());
+        s4.setPhase(ProcessState.SUCCEEDED);
+        store.save(s4);
+        ((FileProcessStatusStore) store).dispose();
+
+        store = new FileProcessStatusStore(directory);
+        assertNull(store.get(s1.getExecutionId()));
+        assertEquals(s2, store.get(s2.getExecutionId()));
+        assertEquals(s4, store.get(s4.getExecutionId()));
+        assertEquals(3, store.list(Query.ALL).size());
+        checkFiltered(store, new Query(null, ECQL.toFilter("phase = 'SUCCEEDED'")), s4);
+    }
+
+    @Test
+    public void testInterruptedExecutions() throws Exception {
+        // progress updates are not logged
+        ExecutionStatus s3Updated = new ExecutionStatus(s3);
+        s3Updated.setProgress(80f);
+        store.save(s3Updated);
+        assertEquals(80f, store.get(s3.getExecutionId()).getProgress(), 0f);
+        store = reopen();
+
+        // the execution running at shutdown failed on restart
+        ExecutionStatus failed = store.get(s3.getExecutionId());
+        assertEquals(ProcessState.FAILED, failed.getPhase());
+        assertNotNull(failed.getCompletionTime());
+        assertNotNull(failed.getException());
+        assertEquals(50f, failed.getProgress(), 0f);
+        assertEquals(ProcessState.FAILED, store.get(s1.getExecutionId()).getPhase());
+        checkFiltered(store, new Query(null, ECQL.toFilter("phase = 'RUNNING'")));
+
+        // and the failure has been persisted
+        store = reopen();
+        assertEquals(failed, store.get(s3.getExecutionId()));
+    }
+
+    @Test
+    public void testTruncatedLog() throws Exception {
+        ((FileProcessStatusStore) store).dispose();
+        // simulate a crash in the middle of the last write
+        File log = new File(directory, FileProcessStatusStore.LOG_FILE);
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        try {
+            raf.setLength(raf.length() - 10);
+        } finally {
+            raf.close();
+        }
+
+        store = new FileProcessStatusStore(directory);
+        assertEquals(3, store.list(Query.ALL).size());
+        assertNull(store.get(s4.getExecutionId()));
+        // a torn tail is expected after a crash, no backup is made
+        assertEquals(0, getBackups().length);
+        // the store is still usable
+        store.save(s4);
+        store = reopen();
+        assertEquals(4, store.list(Query.ALL).size());
+    }
+
+    @Test
+    public void testUnreadableRecord() throws Exception {
+        ((FileProcessStatusStore) store).dispose();
+        // a record that cannot be deserialized, followed by a valid one
+        File log = new File(directory, FileProcessStatusStore.LOG_FILE);
+        DataOutputStream os = new DataOutputStream(new FileOutputStream(log, true));
+        try {
+            os.writeByte(FileProcessStatusStore.SAVE);
+            os.writeInt(4);
+            os.write(new byte[] { 1, 2, 3, 4 });
+            os.writeByte(FileProcessStatusStore.REMOVE);
+            os.writeUTF(s2.getExecutionId());
+        } finally {
+            os.close();
+        }
+        long length = log.length();
+
+        // the bad record is skipped, the following ones are still applied
+        store = new FileProcessStatusStore(directory);
+        assertEquals(3, store.list(Query.ALL).size());
+        assertNull(store.get(s2.getExecutionId()));
+        // nothing is lost
+        assertTrue(log.length() >= length);
+        File[] backups = getBackups();
+        assertEquals(1, backups.length);
+        assertEquals(length, backups[0].length());
+    }
+
+    @Test
+    public void testCorruptedLog() throws Exception {
+        ((FileProcessStatusStore) store).dispose();
+        File log = new File(directory, FileProcessStatusStore.LOG_FILE);
+        DataOutputStream os = new DataOutputStream(new FileOutputStream(log, true));
+        try {
+            os.writeByte(42);
+            os.writeUTF("garbage");
+        } finally {
+            os.close();
+        }
+        long length = log.length();
+
+        // the log is cut at the last readable record, a copy of the original is kept
+        store = new FileProcessStatusStore(directory);
+        assertEquals(4, store.list(Query.ALL).size());
+        File[] backups = getBackups();
+        assertEquals(1, backups.length);
+        assertEquals(length, backups[0].length());
+
+        // the log is readable again
+        store = reopen();
+        assertEquals(4, store.list(Query.ALL).size());
+        assertEquals(1, getBackups().length);
+    }
+
+    File[] getBackups() {
+        return directory.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".bak");
+            }
+        });
+    }
+
+    @Test
+    public void testIndexCandidates() throws Exception {
+        FileProcessStatusStore fs = (FileProcessStatusStore) store;
+        Collection<String> candidates = fs.getCandidates(ECQL.toFilter("phase = 'RUNNING'"));
+        assertEquals(2, candidates.size());
+        candidates = fs.getCandidates(ECQL.toFilter("processName = 'test1' AND progress > 30"));
+        assertEquals(1, candidates.size());
+        // no index on progress
+        assertNull(fs.getCandidates(ECQL.toFilter("progress > 30")));
+
+        // completion time ranges
+        s3.setPhase(ProcessState.SUCCEEDED);
+        s3.setCompletionTime(new Date(1000));
+        store.save(s3);
+        s4.setPhase(ProcessState.SUCCEEDED);
+        s4.setCompletionTime(new Date(5000));
+        store.save(s4);
+        candidates = fs.getCandidates(FF.before(FF.property("completionTime"),
+                FF.literal(new Date(2000))));
+        assertEquals(1, candidates.size());
+        assertTrue(candidates.contains(s3.getExecutionId()));
+        checkFiltered(store, new Query(null, FF.after(FF.property("completionTime"),
+                FF.literal(new Date(2000)))), s4);
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        FileProcessStatusStore fs = (FileProcessStatusStore) store;
+        assertFalse(fs.compact());
+
+        for (int i = 0; i < FileProcessStatusStore.MIN_COMPACTION_RECORDS; i++) {
+            ExecutionStatus status = new ExecutionStatus(new NameImpl("test"), "exec" + i, true);
+            store.save(status);
+            store.remove(status.getExecutionId());
+        }
+        File log = new File(directory, FileProcessStatusStore.LOG_FILE);
+        long length = log.length();
+        assertTrue(fs.compact());
+        assertTrue(log.length() < length);
+
+        store = reopen();
+        assertEquals(4, store.list(Query.ALL).size());
+        assertEquals(s3.getTask(), store.get(s3.getExecutionId()).getTask());
+    }
+
+    private FileProcessStatusStore reopen() throws IOException {
+        ((FileProcessStatusStore) store).dispose();
+        return new FileProcessStatusStore(directory);
+    }
+
+}
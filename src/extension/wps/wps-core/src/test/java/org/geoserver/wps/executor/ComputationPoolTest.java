@@ -0,0 +1,33 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.support.GenericApplicationContext;
+
+public class ComputationPoolTest {
+
+    @Test
+    public void testShutdownOnContextClose() throws Exception {
+        ForkJoinPool pool = ComputationPool.getPool();
+        assertSame(pool, ComputationPool.getPool());
+
+        new ComputationPool().onApplicationEvent(new ContextClosedEvent(
+                new GenericApplicationContext()));
+        assertTrue(pool.isShutdown());
+
+        // a new context gets a new pool
+        ForkJoinPool other = ComputationPool.getPool();
+        assertNotSame(pool, other);
+        assertTrue(!other.isShutdown());
+    }
+}
@@ -0,0 +1,97 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.geoserver.ows.util.ResponseUtils.urlEncode;
+
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.wps.WPSTestSupport;
+import org.geoserver.wps.resource.WPSResourceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class ProcessResultCacheTest extends WPSTestSupport {
+
+    static final String COUNT_STREAMS = "wps?service=WPS&version=1.0.0&request=Execute"
+            + "&Identifier=gs:Count&DataInputs="
+            + urlEncode("features=@href=http://geoserver/wfs?service=WFS&request=GetFeature"
+                    + "&typename=cite:Streams") + "&RawDataOutput=result";
+
+    ProcessResultCache cache;
+
+    @Before
+    public void setupCache() {
+        WPSResourceManager resources = applicationContext.getBean(WPSResourceManager.class);
+        cache = new ProcessResultCache(getGeoServer(), resources, 1024 * 1024, "gs:Count");
+        applicationContext.getBean(WPSExecutionManager.class).setResultCache(cache);
+    }
+
+    @After
+    public void resetCache() {
+        cache.clear();
+        WPSExecutionManager manager = applicationContext.getBean(WPSExecutionManager.class);
+        manager.setResultCache(applicationContext.getBean(ProcessResultCache.class));
+    }
+
+    @Test
+    public void testMemoization() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse(COUNT_STREAMS);
+        assertEquals("text/plain", response.getContentType());
+        assertEquals("2", response.getOutputStreamContent());
+        assertEquals(1, cache.getRequests());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getStores());
+        assertEquals(1, cache.size());
+
+        // same request, served from the cache, with the same output
+        response = getAsServletResponse(COUNT_STREAMS);
+        assertEquals("text/plain", response.getContentType());
+        assertEquals("2", response.getOutputStreamContent());
+        assertEquals(2, cache.getRequests());
+        assertEquals(1, cache.getHits());
+        assertEquals(0.5, cache.getHitRate(), 0d);
+
+        // results are not shared among users, the data security might make them differ
+        login("admin", "geoserver", "ROLE_ADMINISTRATOR");
+        try {
+            response = getAsServletResponse(COUNT_STREAMS);
+            assertEquals("2", response.getOutputStreamContent());
+            assertEquals(1, cache.getHits());
+            assertEquals(2, cache.getStores());
+        } finally {
+            logout();
+        }
+
+        // a configuration change invalidates the results
+        GeoServerInfo global = getGeoServer().getGlobal();
+        global.setUpdateSequence(global.getUpdateSequence() + 1);
+        getGeoServer().save(global);
+        response = getAsServletResponse(COUNT_STREAMS);
+        assertEquals("2", response.getOutputStreamContent());
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getStores());
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        // process not enabled
+        String request = "wps?service=WPS&version=1.0.0&request=Execute&Identifier=JTS:buffer"
+                + "&DataInputs=" + urlEncode("geom=POINT(0 0)@mimetype=application/wkt;distance=1")
+                + "&RawDataOutput=" + urlEncode("result=@mimetype=application/wkt");
+        getAsServletResponse(request);
+        assertEquals(0, cache.getRequests());
+
+        // inline complex input
+        ProcessResultCache enabled = new ProcessResultCache(getGeoServer(),
+                applicationContext.getBean(WPSResourceManager.class), 1024 * 1024, "JTS:buffer");
+        applicationContext.getBean(WPSExecutionManager.class).setResultCache(enabled);
+        getAsServletResponse(request);
+        assertEquals(0, enabled.getRequests());
+    }
+}
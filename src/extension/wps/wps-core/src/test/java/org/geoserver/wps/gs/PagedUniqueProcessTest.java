@@ -9,6 +9,8 @@ import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.namespace.QName;
@@ -22,7 +24,9 @@ import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.wps.WPSTestSupport;
 import org.geoserver.wps.gs.PagedUniqueProcess.Results;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.visitor.UniqueVisitor;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -170,6 +174,61 @@ public class PagedUniqueProcessTest extends WPSTestSupport {
     }
     
     
+    @Test
+    public void testScanningStoreVisitedOnce() throws Exception {
+        PagedUniqueProcess process = new PagedUniqueProcess();
+        SimpleFeatureCollection features = Mockito.mock(SimpleFeatureCollection.class);
+        final SimpleFeatureType featureType = DataUtilities.createType("test", FIELD_NAME
+                + ":String");
+        Mockito.when(features.getSchema()).thenReturn(featureType);
+        // mock a store that cannot optimize the visitor
+        Mockito.doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                UniqueVisitor visitor = (UniqueVisitor) invocation.getArguments()[0];
+                for (String value : new String[] { "a", "b", "a", "c", "d" }) {
+                    visitor.visit(SimpleFeatureBuilder.build(featureType,
+                            new Object[] { value }, null));
+                }
+                return null;
+            }
+        }).when(features).accepts(Mockito.any(UniqueVisitor.class),
+                Mockito.any(ProgressListener.class));
+        Results results = process.execute(features, FIELD_NAME, 1, 2);
+        assertEquals(4, results.getSize());
+        assertEquals(Arrays.asList("b", "c"), results.getValues());
+        // both the size and the page come out of a single scan
+        Mockito.verify(features, Mockito.times(1)).accepts(Mockito.any(UniqueVisitor.class),
+                Mockito.any(ProgressListener.class));
+    }
+
+    @Test
+    public void testCachedPaging() throws Exception {
+        UniqueValuesCache cache = applicationContext.getBean(UniqueValuesCache.class);
+        cache.clear();
+        long hits = cache.getHits();
+
+        JSONObject first = (JSONObject) JSONSerializer.toJSON(string(post(root(),
+                buildInputXml(FIELD_NAME, null, 0, 2, null))));
+        assertEquals(TOTAL_DISTINCT, first.getInt("size"));
+        assertEquals(1, cache.size());
+
+        // the second page is extracted from the cached values
+        JSONObject second = (JSONObject) JSONSerializer.toJSON(string(post(root(),
+                buildInputXml(FIELD_NAME, null, 2, 2, null))));
+        assertEquals(TOTAL_DISTINCT, second.getInt("size"));
+        assertEquals(hits + 1, cache.getHits());
+        Set<Object> values = new HashSet<Object>(first.getJSONArray("values"));
+        values.addAll(second.getJSONArray("values"));
+        assertEquals(TOTAL_DISTINCT, values.size());
+
+        // a different query is not mixed up with the cached one
+        JSONObject filtered = (JSONObject) JSONSerializer.toJSON(string(post(root(),
+                buildInputXml(FIELD_NAME, "*a*", 0, 2, null))));
+        assertEquals(3, filtered.getInt("size"));
+        assertEquals(2, cache.size());
+    }
+
     /*
      * MaxFeature overflow is not an error: return all result from startIndex to end
      */
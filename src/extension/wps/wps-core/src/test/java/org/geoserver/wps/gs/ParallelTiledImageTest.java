@@ -0,0 +1,98 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelTiledImageTest {
+
+    ForkJoinPool pool;
+
+    TiledImage source;
+
+    @Before
+    public void setup() {
+        pool = new ForkJoinPool(4);
+        // 7x7 tiles, the last row and column partially filled
+        SampleModel sm = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_BYTE, 16, 16, 1);
+        source = new TiledImage(0, 0, 100, 100, 0, 0, sm, PlanarImage.createColorModel(sm));
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 100; x++) {
+                source.setSample(x, y, 0, (x + y) % 256);
+            }
+        }
+    }
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSequentialRead() {
+        ParallelTiledImage image = new ParallelTiledImage(source, pool, 3);
+        for (int tileY = 0; tileY < image.getNumYTiles(); tileY++) {
+            for (int tileX = 0; tileX < image.getNumXTiles(); tileX++) {
+                assertSameData(source.getTile(tileX, tileY), image.getTile(tileX, tileY));
+                // the window bounds the tiles kept around
+                assertTrue(image.tiles.size() <= 7);
+            }
+        }
+    }
+
+    @Test
+    public void testOutOfOrderRead() {
+        ParallelTiledImage image = new ParallelTiledImage(source, pool, 2);
+        assertSameData(source.getTile(6, 6), image.getTile(6, 6));
+        assertSameData(source.getTile(0, 0), image.getTile(0, 0));
+        assertSameData(source.getTile(3, 2), image.getTile(3, 2));
+    }
+
+    @Test
+    public void testGetData() {
+        ParallelTiledImage image = new ParallelTiledImage(source, pool, 2);
+        // a strip crossing tile boundaries, as image writers would read it
+        Rectangle strip = new Rectangle(0, 10, 100, 20);
+        assertSameData(source.getData(strip), image.getData(strip));
+        assertSameData(source.getData(), image.getData());
+    }
+
+    @Test
+    public void testWrappedImagesNotParallelized() {
+        ParallelTiledImage image = new ParallelTiledImage(source, pool, 2);
+        assertFalse(ParallelTiledImage.isParallelizable(image));
+        // the adapters built by coverages and encoders are looked through
+        assertFalse(ParallelTiledImage.isParallelizable(PlanarImage.wrapRenderedImage(image)));
+        assertFalse(ParallelTiledImage.isParallelizable(PlanarImage
+                .wrapRenderedImage(new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY))));
+    }
+
+    void assertSameData(Raster expected, Raster actual) {
+        assertEquals(expected.getBounds(), actual.getBounds());
+        Rectangle bounds = expected.getBounds();
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                assertEquals(expected.getSample(x, y, 0), actual.getSample(x, y, 0));
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.logging.Level;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -43,6 +44,7 @@ import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
+import org.geoserver.wfs.xml.SAXOutputFormat;
 import org.geoserver.wfs.xslt.config.TransformInfo;
 import org.geoserver.wfs.xslt.config.TransformRepository;
 import org.geotools.feature.FeatureCollection;
@@ -167,17 +169,6 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
             Operation operation) throws IOException, ServiceException {
         // get the transformation we need
         TransformInfo info = locateTransformation(featureCollection, operation);
-        Transformer transformer = repository.getTransformer(info);
-        // force Xalan to indent the output
-        if(transformer.getOutputProperties() != null && "yes".equals(transformer.getOutputProperties().getProperty("indent"))) {
-            try {
-                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-            } catch(IllegalArgumentException e) {
-                LOGGER.log(Level.FINE, "Could not set indent amount", e);
-                // in case it's not Xalan
-            }
-        }
-        
 
         // prepare the fake operation we're providing to the source output format
         final Operation sourceOperation = buildSourceOperation(operation, info);
@@ -191,6 +182,26 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
 
         }
 
+        if (sourceResponse instanceof SAXOutputFormat
+                && ((SAXOutputFormat) sourceResponse).canWriteSAX(featureCollection)
+                && repository.isSAXSupported()) {
+            // have the source output format feed the transformation directly
+            TransformerHandler handler = repository.getTransformerHandler(info);
+            configureIndentation(handler.getTransformer());
+            handler.setResult(new StreamResult(output));
+            try {
+                ((SAXOutputFormat) sourceResponse).write(featureCollection, handler,
+                        sourceOperation);
+            } catch (Exception e) {
+                throw new WFSException("Failed to run the XSLT transformation", e);
+            }
+            return;
+        }
+
+        // fall back on encoding the source format and parsing it back
+        Transformer transformer = repository.getTransformer(info);
+        configureIndentation(transformer);
+
         // prepare the stream connections, so that we can do the transformation on the fly
         PipedInputStream pis = new PipedInputStream();
         final PipedOutputStream pos = new PipedOutputStream(pis);
@@ -236,6 +247,18 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
 
     }
 
+    private void configureIndentation(Transformer transformer) {
+        // force Xalan to indent the output
+        if(transformer.getOutputProperties() != null && "yes".equals(transformer.getOutputProperties().getProperty("indent"))) {
+            try {
+                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+            } catch(IllegalArgumentException e) {
+                LOGGER.log(Level.FINE, "Could not set indent amount", e);
+                // in case it's not Xalan
+            }
+        }
+    }
+
     private Operation buildSourceOperation(Operation operation, TransformInfo info) {
         try {
             EObject originalParam = (EObject) operation.getParameters()[0];
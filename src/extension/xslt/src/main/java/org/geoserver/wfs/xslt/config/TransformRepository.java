@@ -23,6 +23,8 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.io.IOUtils;
@@ -125,6 +127,11 @@ public class TransformRepository {
         }
     };
 
+    /**
+     * Builds the SAX handlers out of the cached templates
+     */
+    SAXTransformerFactory saxFactory;
+
     public TransformRepository(GeoServerDataDirectory dataDir, Catalog catalog) {
         this.dataDir = dataDir;
         initXStream(catalog);
@@ -283,6 +290,51 @@ public class TransformRepository {
         }
     }
     
+    /**
+     * Returns a SAX handler applying the XSLT transformation of a specific {@link TransformInfo}
+     * to the events it receives. The caller is expected to set the result on it before use
+     * 
+     * @param info
+     * @return
+     */
+    public TransformerHandler getTransformerHandler(TransformInfo info) throws IOException {
+        File txFile = getTransformFile(info);
+
+        Templates templates = transformCache.getItem(txFile);
+        if (templates == null) {
+            throw new IOException("No XLST found at " + txFile.getAbsolutePath());
+        }
+        SAXTransformerFactory factory = getSAXTransformerFactory();
+        if (factory == null) {
+            throw new IOException("The XSLT engine does not support SAX based transformations");
+        }
+        try {
+            // factories are not guaranteed to be thread safe
+            synchronized (factory) {
+                return factory.newTransformerHandler(templates);
+            }
+        } catch (TransformerConfigurationException e) {
+            throw new WFSException("Failed to load XSLT transformation " + info.getXslt(), e);
+        }
+    }
+
+    /**
+     * Returns true if the XSLT engine can apply the transformations to SAX events
+     */
+    public boolean isSAXSupported() {
+        return getSAXTransformerFactory() != null;
+    }
+
+    synchronized SAXTransformerFactory getSAXTransformerFactory() {
+        if (saxFactory == null) {
+            TransformerFactory tf = TransformerFactory.newInstance();
+            if (tf.getFeature(SAXTransformerFactory.FEATURE)) {
+                saxFactory = (SAXTransformerFactory) tf;
+            }
+        }
+        return saxFactory;
+    }
+
     /**
      * Returns the stylesheet of a transformation. It is the duty of the caller to close the input stream after reading it.
      * @return
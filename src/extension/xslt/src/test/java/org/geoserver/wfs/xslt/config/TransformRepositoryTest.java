@@ -15,8 +15,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.io.FileUtils;
@@ -31,6 +33,8 @@ import org.geoserver.config.GeoServerDataDirectory;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
 
 public class TransformRepositoryTest {
 
@@ -336,6 +340,38 @@ public class TransformRepositoryTest {
         XMLAssert.assertXpathEvaluatesTo("1", "count(/html/body/table/tr[td='-74.0104611,40.70758763'])", dom);
     }
     
+    @Test
+    public void testTransformSAX() throws Exception {
+        TransformInfo info = new TransformInfo();
+        info.setName("test");
+        info.setSourceFormat("application/xml");
+        info.setOutputFormat("text/plain");
+        info.setFileExtension("txt");
+        info.setXslt("test-tx.xslt");
+
+        repo.putTransformInfo(info);
+        repo.putTransformSheet(info, getClass().getResourceAsStream("test.xslt"));
+
+        assertTrue(repo.isSAXSupported());
+        TransformerHandler handler = repo.getTransformerHandler(info);
+        DOMResult result = new DOMResult();
+        handler.setResult(result);
+        // feed the events straight from the parser
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+        InputStream is = getClass().getResourceAsStream("sample.xml");
+        try {
+            reader.parse(new InputSource(is));
+        } finally {
+            is.close();
+        }
+        Document dom = (Document) result.getNode();
+        XMLAssert.assertXpathEvaluatesTo("12", "count(/html/body/table/tr/td)", dom);
+        XMLAssert.assertXpathEvaluatesTo("1", "count(/html/body/table/tr[td='museum'])", dom);
+    }
+
     private Set<String> getConfigurationNames(List<TransformInfo> configs) {
         Set<String> result = new HashSet<String>();
         for (TransformInfo ti : configs) {
@@ -49,6 +49,7 @@ import org.geoserver.gwc.layer.CatalogStyleChangeListener;
 import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl;
+import org.geoserver.gwc.layer.VectorTileMime;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.GeoServerExtensions;
@@ -360,7 +361,7 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         }
     }
 
-    private BoundingBox getIntersectingBounds(String layerName, GridSubset layerGrid,
+    BoundingBox getIntersectingBounds(String layerName, GridSubset layerGrid,
             ReferencedEnvelope bounds) {
         final GridSet gridSet = layerGrid.getGridSet();
         final String gridSetId = gridSet.getName();
@@ -417,6 +418,21 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
      */
     public void truncate(final String layerName, final String styleName, final String gridSetName,
             final BoundingBox bounds, final String format) {
+        truncate(layerName, styleName, gridSetName, bounds, format, Integer.MIN_VALUE,
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #truncate(String, String, String, BoundingBox, String)}, but limited to the
+     * specified zoom levels
+     * 
+     * @param zoomStart
+     *            first zoom level to truncate, clamped to the gridsubset zoom levels
+     * @param zoomStop
+     *            last zoom level to truncate, clamped to the gridsubset zoom levels
+     */
+    public void truncate(final String layerName, final String styleName, final String gridSetName,
+            final BoundingBox bounds, final String format, final int zoomStart, final int zoomStop) {
 
         checkNotNull(layerName, "layerName can't be null");
 
@@ -441,7 +457,7 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
             mimeTypes = layer.getMimeTypes();
         } else {
             try {
-                mimeTypes = Collections.singletonList(MimeType.createFromFormat(format));
+                mimeTypes = Collections.singletonList(VectorTileMime.createFromFormat(format));
             } catch (MimeException e) {
                 throw new RuntimeException();
             }
@@ -468,19 +484,24 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
                 }
                 for (MimeType mime : mimeTypes) {
                     String formatName = mime.getFormat();
-                    truncate(layer, bounds, gridSubset, formatName, parameters);
+                    truncate(layer, bounds, gridSubset, formatName, parameters, zoomStart,
+                            zoomStop);
                 }
             }
         }
     }
 
     private void truncate(final TileLayer layer, final BoundingBox bounds,
-            final GridSubset gridSubset, String formatName, Map<String, String> parameters) {
+            final GridSubset gridSubset, String formatName, Map<String, String> parameters,
+            int minZoom, int maxZoom) {
         final int threadCount = 1;
         int zoomStart;
         int zoomStop;
-        zoomStart = gridSubset.getZoomStart();
-        zoomStop = gridSubset.getZoomStop();
+        zoomStart = Math.max(minZoom, gridSubset.getZoomStart());
+        zoomStop = Math.min(maxZoom, gridSubset.getZoomStop());
+        if (zoomStart > zoomStop) {
+            return;
+        }
         final TYPE taskType = TRUNCATE;
         SeedRequest req = new SeedRequest(layer.getName(), bounds, gridSubset.getName(),
                 threadCount, zoomStart, zoomStop, formatName, taskType, parameters);
@@ -665,7 +686,7 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
 
         final MimeType mimeType;
         try {
-            mimeType = MimeType.createFromFormat(request.getFormat());
+            mimeType = VectorTileMime.createFromFormat(request.getFormat());
             List<MimeType> tileLayerFormats = tileLayer.getMimeTypes();
             if (!tileLayerFormats.contains(mimeType)) {
                 requestMistmatchTarget.append("no tile cache for requested format");
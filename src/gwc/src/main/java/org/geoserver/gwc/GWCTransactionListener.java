@@ -58,13 +58,30 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     final private GWC gwc;
 
+    final private TruncationQueue truncationQueue;
+
     static final String GWC_TRANSACTION_INFO_PLACEHOLDER = "GWC_TRANSACTION_INFO_PLACEHOLDER";
 
     /**
+     * Builds a listener truncating the affected areas synchronously, at the end of each
+     * transaction
+     * 
      * @param gwc
      */
     public GWCTransactionListener(final GWC gwc) {
+        this(gwc, null);
+    }
+
+    /**
+     * Builds a listener handing over the affected areas to the given queue, which will coalesce
+     * them with the ones of other transactions and truncate them in batches
+     * 
+     * @param gwc
+     * @param truncationQueue the queue, or {@code null} to truncate synchronously
+     */
+    public GWCTransactionListener(final GWC gwc, final TruncationQueue truncationQueue) {
         this.gwc = gwc;
+        this.truncationQueue = truncationQueue;
     }
 
     /**
@@ -113,6 +130,15 @@ public class GWCTransactionListener implements TransactionPlugin {
         if (byLayerDirtyRegions.isEmpty()) {
             return;
         }
+        if (truncationQueue != null) {
+            // the queue snaps each region to the tile grid, no need to merge them here
+            for (String tileLayerName : byLayerDirtyRegions.keySet()) {
+                for (ReferencedEnvelope dirtyRegion : byLayerDirtyRegions.get(tileLayerName)) {
+                    truncationQueue.add(tileLayerName, dirtyRegion);
+                }
+            }
+            return;
+        }
         for (String tileLayerName : byLayerDirtyRegions.keySet()) {
             List<ReferencedEnvelope> dirtyList = byLayerDirtyRegions.get(tileLayerName);
             ReferencedEnvelope dirtyRegion;
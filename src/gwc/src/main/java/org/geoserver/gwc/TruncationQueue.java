@@ -0,0 +1,411 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.util.PropertyLookup;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.layer.TileLayer;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Collects the areas made dirty by transactions and truncates them in batches, in the background.
+ * <p>
+ * The dirty areas are snapped to the tile grid of each gridset at a coarse "dirty level" and
+ * accumulated in a set of dirty tiles per layer and gridset, so that many small edits in the same
+ * area collapse into a single tile. Once the {@link #GWC_TRUNCATION_WINDOW window} since the first
+ * pending change elapses, the dirty tiles are merged into rectangles and a truncate request is
+ * issued for each of them, covering the zoom levels up to the dirty level, where the snapped
+ * rectangles do not add any tile to the ones touched by the changes. The levels below the dirty
+ * level are truncated using the exact dirty areas instead (dropping the ones contained in other
+ * dirty areas), so that a small edit does not wipe out a whole dirty tile at the higher zoom
+ * levels.
+ * </p>
+ * <p>
+ * The queue depth and the truncation counters are published in JMX as
+ * {@code org.geoserver:type=GWC,name=TruncationQueue}. Pending changes are truncated
+ * synchronously when the queue is disposed.
+ * </p>
+ * <p>
+ * The window, in milliseconds, and the dirty level can be configured with the
+ * {@link #GWC_TRUNCATION_WINDOW} and {@link #GWC_TRUNCATION_LEVEL} system properties (or
+ * environment variables, or servlet context parameters). A window of zero or less makes the
+ * truncation happen synchronously, as changes are added.
+ * </p>
+ */
+public class TruncationQueue implements TruncationQueueMBean, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(TruncationQueue.class);
+
+    /**
+     * The time, in milliseconds, dirty areas are accumulated before being truncated
+     */
+    public static final String GWC_TRUNCATION_WINDOW = "GWC_TRUNCATION_WINDOW";
+
+    /**
+     * The zoom level at which dirty areas are snapped to tiles
+     */
+    public static final String GWC_TRUNCATION_LEVEL = "GWC_TRUNCATION_LEVEL";
+
+    static final long DEFAULT_WINDOW = 1000;
+
+    static final int DEFAULT_LEVEL = 10;
+
+    /**
+     * If a single dirty area covers more than this many tiles at the dirty level it is truncated
+     * by bounds, at all zoom levels, instead of being added to the tile set
+     */
+    static final int MAX_TILES_PER_AREA = 4096;
+
+    /**
+     * Maximum number of exact dirty areas tracked per layer and gridset, past it the dirty tiles
+     * are truncated at all zoom levels
+     */
+    static final int MAX_EXACT_AREAS = 256;
+
+    /**
+     * The dirty tiles of a layer gridset, at a given zoom level
+     */
+    static class DirtyTiles {
+        final int z;
+
+        /**
+         * Tile indexes, encoded as y << 32 | x so that the natural order is row by row
+         */
+        final TreeSet<Long> tiles = new TreeSet<Long>();
+
+        /**
+         * Areas too large to be tracked as tiles
+         */
+        final List<BoundingBox> areas = new ArrayList<BoundingBox>();
+
+        /**
+         * The exact dirty areas tracked as tiles, used to truncate the levels below the dirty
+         * level
+         */
+        final List<BoundingBox> exact = new ArrayList<BoundingBox>();
+
+        /**
+         * Set when there are too many exact areas to track
+         */
+        boolean exactOverflow;
+
+        DirtyTiles(int z) {
+            this.z = z;
+        }
+
+        int size() {
+            return tiles.size() + areas.size();
+        }
+
+        /**
+         * Adds an exact dirty area, unless it's already contained in another one
+         */
+        void addExact(BoundingBox area) {
+            if (exactOverflow) {
+                return;
+            }
+            for (Iterator<BoundingBox> it = exact.iterator(); it.hasNext();) {
+                BoundingBox other = it.next();
+                if (other.contains(area)) {
+                    return;
+                } else if (area.contains(other)) {
+                    it.remove();
+                }
+            }
+            exact.add(area);
+            if (exact.size() > MAX_EXACT_AREAS) {
+                exactOverflow = true;
+                exact.clear();
+            }
+        }
+    }
+
+    final GWC gwc;
+
+    final long window;
+
+    final int dirtyLevel;
+
+    /**
+     * Layer name -> gridset id -> dirty tiles
+     */
+    Map<String, Map<String, DirtyTiles>> pending = new HashMap<String, Map<String, DirtyTiles>>();
+
+    boolean flushScheduled;
+
+    /**
+     * Set when the queue is disposed, from then on changes are truncated synchronously
+     */
+    boolean closed;
+
+    ScheduledExecutorService executor;
+
+    final AtomicLong truncatedTiles = new AtomicLong();
+
+    final AtomicLong truncateRequests = new AtomicLong();
+
+    final AtomicLong batches = new AtomicLong();
+
+    public TruncationQueue(GWC gwc) {
+        this(gwc, PropertyLookup.getLong(GWC_TRUNCATION_WINDOW, DEFAULT_WINDOW), PropertyLookup
+                .getInt(GWC_TRUNCATION_LEVEL, DEFAULT_LEVEL));
+    }
+
+    public TruncationQueue(GWC gwc, long window, int dirtyLevel) {
+        this.gwc = checkNotNull(gwc);
+        this.window = window;
+        this.dirtyLevel = dirtyLevel;
+        if (window > 0) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GWC truncation queue");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    /**
+     * Marks the specified area of the tile layer as dirty
+     */
+    public void add(String layerName, ReferencedEnvelope bounds) {
+        final TileLayer layer;
+        try {
+            layer = gwc.getTileLayerByName(layerName);
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.FINE, "Tile layer " + layerName + " not found, skipping truncation",
+                    e);
+            return;
+        }
+
+        boolean synchronous;
+        synchronized (this) {
+            Map<String, DirtyTiles> layerTiles = pending.get(layerName);
+            if (layerTiles == null) {
+                layerTiles = new HashMap<String, DirtyTiles>();
+                pending.put(layerName, layerTiles);
+            }
+            for (String gridSetId : layer.getGridSubsets()) {
+                GridSubset gridSubset = layer.getGridSubset(gridSetId);
+                BoundingBox dirty = gwc.getIntersectingBounds(layerName, gridSubset, bounds);
+                if (dirty == null) {
+                    continue;
+                }
+                DirtyTiles tiles = layerTiles.get(gridSetId);
+                if (tiles == null) {
+                    int z = Math.max(gridSubset.getZoomStart(),
+                            Math.min(gridSubset.getZoomStop(), dirtyLevel));
+                    tiles = new DirtyTiles(z);
+                    layerTiles.put(gridSetId, tiles);
+                }
+                addDirty(gridSubset, tiles, dirty);
+            }
+            if (layerTiles.isEmpty()) {
+                pending.remove(layerName);
+            }
+            synchronous = window <= 0 || closed;
+            if (synchronous || pending.isEmpty() || flushScheduled) {
+                // either we flush right away, or nothing to do, or a flush is already scheduled
+            } else {
+                flushScheduled = true;
+                executor.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, window, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (synchronous) {
+            flush();
+        }
+    }
+
+    void addDirty(GridSubset gridSubset, DirtyTiles tiles, BoundingBox dirty) {
+        long[] range = gridSubset.getCoverageIntersection(tiles.z, dirty);
+        long count = (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+        if (count > MAX_TILES_PER_AREA) {
+            tiles.areas.add(dirty);
+            return;
+        }
+        for (long y = range[1]; y <= range[3]; y++) {
+            for (long x = range[0]; x <= range[2]; x++) {
+                tiles.tiles.add(encode(x, y));
+            }
+        }
+        tiles.addExact(dirty);
+    }
+
+    static long encode(long x, long y) {
+        return (y << 32) | x;
+    }
+
+    /**
+     * Truncates all the pending dirty areas
+     */
+    public void flush() {
+        final Map<String, Map<String, DirtyTiles>> toFlush;
+        synchronized (this) {
+            toFlush = pending;
+            pending = new HashMap<String, Map<String, DirtyTiles>>();
+            flushScheduled = false;
+        }
+        if (toFlush.isEmpty()) {
+            return;
+        }
+        batches.incrementAndGet();
+
+        for (Map.Entry<String, Map<String, DirtyTiles>> layerEntry : toFlush.entrySet()) {
+            String layerName = layerEntry.getKey();
+            final TileLayer layer;
+            try {
+                layer = gwc.getTileLayerByName(layerName);
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.FINE, "Tile layer " + layerName
+                        + " has been removed, skipping truncation", e);
+                continue;
+            }
+            for (Map.Entry<String, DirtyTiles> gridEntry : layerEntry.getValue().entrySet()) {
+                String gridSetId = gridEntry.getKey();
+                GridSubset gridSubset = layer.getGridSubset(gridSetId);
+                if (gridSubset == null) {
+                    continue;
+                }
+                DirtyTiles tiles = gridEntry.getValue();
+                int zoomStart = gridSubset.getZoomStart();
+                int zoomStop = gridSubset.getZoomStop();
+                // large areas, at all levels
+                for (BoundingBox area : tiles.areas) {
+                    truncate(layerName, gridSetId, area, zoomStart, zoomStop);
+                }
+                // the dirty tiles, up to the dirty level unless the exact areas overflowed
+                int tilesStop = tiles.exactOverflow ? zoomStop : tiles.z;
+                for (long[] rect : toRectangles(tiles.tiles)) {
+                    BoundingBox area = gridSubset.boundsFromRectangle(new long[] { rect[0],
+                            rect[1], rect[2], rect[3], tiles.z });
+                    truncate(layerName, gridSetId, area, zoomStart, tilesStop);
+                }
+                // the exact dirty areas, below the dirty level
+                if (tilesStop < zoomStop) {
+                    for (BoundingBox area : tiles.exact) {
+                        truncate(layerName, gridSetId, area, tiles.z + 1, zoomStop);
+                    }
+                }
+                truncatedTiles.addAndGet(tiles.tiles.size());
+            }
+        }
+    }
+
+    void truncate(String layerName, String gridSetId, BoundingBox area, int zoomStart,
+            int zoomStop) {
+        try {
+            gwc.truncate(layerName, null, gridSetId, area, null, zoomStart, zoomStop);
+            truncateRequests.incrementAndGet();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Error truncating tile layer " + layerName + " on gridset "
+                    + gridSetId + " for bounds " + area + ", levels " + zoomStart + " to "
+                    + zoomStop, e);
+        }
+    }
+
+    /**
+     * Merges the tiles into rectangles, first by joining adjacent tiles in the same row, then
+     * joining runs with the same horizontal extent in adjacent rows. Returns rectangles as
+     * {minx, miny, maxx, maxy}
+     */
+    static List<long[]> toRectangles(TreeSet<Long> tiles) {
+        // build the row runs, the tiles are sorted by row and column
+        List<long[]> runs = new ArrayList<long[]>();
+        long[] current = null;
+        for (Long tile : tiles) {
+            long x = tile & 0xFFFFFFFFL;
+            long y = tile >>> 32;
+            if (current != null && current[1] == y && current[2] == x - 1) {
+                current[2] = x;
+            } else {
+                current = new long[] { x, y, x, y };
+                runs.add(current);
+            }
+        }
+
+        // stack runs vertically when they have the same horizontal extent
+        Map<Long, long[]> open = new HashMap<Long, long[]>();
+        List<long[]> result = new ArrayList<long[]>();
+        for (long[] run : runs) {
+            Long key = encode(run[2], run[0]);
+            long[] rect = open.get(key);
+            if (rect != null && rect[3] == run[1] - 1) {
+                rect[3] = run[1];
+            } else {
+                rect = run;
+                open.put(key, rect);
+                result.add(rect);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int getQueueDepth() {
+        int depth = 0;
+        for (Map<String, DirtyTiles> layerTiles : pending.values()) {
+            for (DirtyTiles tiles : layerTiles.values()) {
+                depth += tiles.size();
+            }
+        }
+        return depth;
+    }
+
+    @Override
+    public long getTruncatedTiles() {
+        return truncatedTiles.get();
+    }
+
+    @Override
+    public long getTruncateRequests() {
+        return truncateRequests.get();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.get();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        synchronized (this) {
+            closed = true;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        // do not lose the pending changes, the tiles would stay stale forever
+        flush();
+    }
+}
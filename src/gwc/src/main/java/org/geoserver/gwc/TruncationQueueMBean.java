@@ -0,0 +1,31 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+/**
+ * JMX view of the {@link TruncationQueue} activity
+ */
+public interface TruncationQueueMBean {
+
+    /**
+     * Returns the number of dirty tiles and areas waiting to be truncated
+     */
+    int getQueueDepth();
+
+    /**
+     * Returns the total number of dirty tiles, at the dirty level, truncated so far
+     */
+    long getTruncatedTiles();
+
+    /**
+     * Returns the total number of truncate requests issued to GWC so far
+     */
+    long getTruncateRequests();
+
+    /**
+     * Returns the number of batches flushed so far
+     */
+    long getBatches();
+}
@@ -0,0 +1,249 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.util.PropertyLookup;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.layer.MetaTile;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileObject;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Encodes and stores the tiles of a meta tile in the background, so that {@link GeoServerTileLayer}
+ * can return the requested tile as soon as it's encoded, without waiting for the other tiles of the
+ * meta tile to be written to the blob store.
+ * <p>
+ * While a meta tile is being written its encoded tiles are kept in memory, and are served from
+ * there to the requests hitting them, so that the meta tile is not rendered twice. The writer uses
+ * a bounded queue, when full the meta tiles are written by the requesting thread, as if write
+ * behind was disabled.
+ * </p>
+ * <p>
+ * The write behind is disabled by default, it can be enabled by setting the
+ * {@link #GWC_METATILE_WRITE_BEHIND} system property (or environment variable, or servlet context
+ * parameter) to true, while {@link #GWC_METATILE_WRITE_QUEUE} controls the maximum number of meta
+ * tiles waiting to be written.
+ * </p>
+ */
+public class AsyncMetaTileWriter implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(AsyncMetaTileWriter.class);
+
+    public static final String GWC_METATILE_WRITE_BEHIND = "GWC_METATILE_WRITE_BEHIND";
+
+    public static final String GWC_METATILE_WRITE_QUEUE = "GWC_METATILE_WRITE_QUEUE";
+
+    static final int DEFAULT_QUEUE_SIZE = 100;
+
+    /**
+     * How long a request waits for a tile of a meta tile being written, before giving up and
+     * rendering it on its own
+     */
+    static final long PENDING_WAIT = 30000;
+
+    /**
+     * The tiles of a meta tile being written
+     */
+    public static class PendingMetaTile {
+
+        final Map<String, byte[]> tiles = new ConcurrentHashMap<String, byte[]>();
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        void put(long[] index, byte[] contents) {
+            tiles.put(key(index), contents);
+        }
+
+        /**
+         * Returns the encoded tile, waiting for the meta tile to be written if necessary, or null
+         * if the tile could not be encoded
+         */
+        public byte[] getTile(long[] index, long timeoutMillis) throws InterruptedException {
+            String key = key(index);
+            byte[] contents = tiles.get(key);
+            if (contents == null) {
+                done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+                contents = tiles.get(key);
+            }
+            return contents;
+        }
+
+        static String key(long[] index) {
+            return index[0] + "_" + index[1] + "_" + index[2];
+        }
+    }
+
+    final boolean enabled;
+
+    final Map<String, PendingMetaTile> pending = new ConcurrentHashMap<String, PendingMetaTile>();
+
+    ThreadPoolExecutor executor;
+
+    public AsyncMetaTileWriter() {
+        this(PropertyLookup.getBoolean(GWC_METATILE_WRITE_BEHIND, false), PropertyLookup.getInt(
+                GWC_METATILE_WRITE_QUEUE, DEFAULT_QUEUE_SIZE));
+    }
+
+    public AsyncMetaTileWriter(boolean enabled, int queueSize) {
+        this.enabled = enabled;
+        if (enabled) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "GWC meta tile writer "
+                                    + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the meta tile being written under the given key, if any
+     */
+    public PendingMetaTile getPending(String metaTileKey) {
+        return pending.get(metaTileKey);
+    }
+
+    /**
+     * Returns the number of meta tiles being written or waiting to be written
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Encodes the requested tile, setting it as the blob of the tile prototype, and then schedules
+     * the encoding and storage of all the other tiles of the meta tile. The meta tile will be
+     * disposed once written, the caller should not dispose it.
+     *
+     * @param metaTileKey the key identifying the meta tile, used to serve its tiles while they
+     *        are being written
+     * @param metaTile the rendered meta tile
+     * @param tileProto the requested tile
+     * @param layer the layer the tile belongs to
+     * @param store whether the tiles should be stored or not
+     * @param requestTime the time the meta tile was requested
+     */
+    public void write(final String metaTileKey, final MetaTile metaTile,
+            final ConveyorTile tileProto, final TileLayer layer, final boolean store,
+            final long requestTime) throws IOException {
+        final long[][] gridPositions = metaTile.getTilesGridPositions();
+        final long[] gridLoc = tileProto.getTileIndex();
+        final PendingMetaTile pendingTile = new PendingMetaTile();
+
+        // encode the requested tile right away, the client is waiting for it
+        for (int i = 0; i < gridPositions.length; i++) {
+            if (Arrays.equals(gridLoc, gridPositions[i])) {
+                ByteArrayResource resource = new ByteArrayResource();
+                if (!metaTile.writeTileToStream(i, resource)) {
+                    LOGGER.severe("metaTile.writeTileToStream returned false, no tiles saved");
+                }
+                tileProto.setBlob(resource);
+                pendingTile.put(gridPositions[i], resource.getContents());
+                break;
+            }
+        }
+
+        if (!store) {
+            metaTile.dispose();
+            return;
+        }
+
+        // register before returning, so that the requests for the other tiles find it
+        pending.put(metaTileKey, pendingTile);
+        final GridSubset gridSubset = layer.getGridSubset(tileProto.getGridSetId());
+        final StorageBroker storageBroker = tileProto.getStorageBroker();
+        final String layerName = layer.getName();
+        final String gridSetId = tileProto.getGridSetId();
+        final String format = tileProto.getMimeType().getFormat();
+        final Map<String, String> parameters = tileProto.getParameters();
+        final boolean transientOnly = tileProto.isMetaTileCacheOnly();
+        Runnable writer = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < gridPositions.length; i++) {
+                        final long[] gridPos = gridPositions[i];
+                        if (!gridSubset.covers(gridPos)) {
+                            continue;
+                        }
+                        byte[] contents = pendingTile.tiles.get(PendingMetaTile.key(gridPos));
+                        ByteArrayResource resource;
+                        if (contents != null) {
+                            resource = new ByteArrayResource(contents);
+                        } else {
+                            resource = new ByteArrayResource();
+                            if (!metaTile.writeTileToStream(i, resource)) {
+                                LOGGER.severe("metaTile.writeTileToStream returned false, no tiles saved");
+                                continue;
+                            }
+                            pendingTile.put(gridPos, resource.getContents());
+                        }
+
+                        long[] idx = { gridPos[0], gridPos[1], gridPos[2] };
+                        TileObject tile = TileObject.createCompleteTileObject(layerName, idx,
+                                gridSetId, format, parameters, resource);
+                        tile.setCreated(requestTime);
+                        if (transientOnly) {
+                            storageBroker.putTransient(tile);
+                        } else {
+                            storageBroker.put(tile);
+                        }
+                    }
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to write meta tile " + metaTileKey, e);
+                } finally {
+                    metaTile.dispose();
+                    // stored tiles are now found in the blob store
+                    pending.remove(metaTileKey);
+                    pendingTile.done.countDown();
+                }
+            }
+        };
+        if (executor.isShutdown()) {
+            writer.run();
+        } else {
+            executor.execute(writer);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(PENDING_WAIT, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -10,6 +10,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Throwables.propagate;
 import static org.geoserver.gwc.GWC.tileLayerName;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,6 +41,7 @@ import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.RawMap;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
@@ -57,6 +59,7 @@ import org.geowebcache.grid.GridSetBroker;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.grid.OutsideCoverageException;
 import org.geowebcache.grid.SRS;
+import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
 import org.geowebcache.layer.ExpirationRule;
 import org.geowebcache.layer.LayerListenerList;
@@ -72,6 +75,8 @@ import org.geowebcache.locks.LockProvider.Lock;
 import org.geowebcache.mime.FormatModifier;
 import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
 import org.geowebcache.util.GWCVars;
 import org.geowebcache.util.ServletUtils;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -545,25 +550,49 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         }
 
         final GeoServerMetaTile metaTile = createMetaTile(tile, metaX, metaY);
+        final String lockKey = buildLockKey(tile, metaTile);
+        final AsyncMetaTileWriter writer = tryCache ? getAsyncWriter() : null;
+        if (writer != null && tryPendingFetch(tile, writer, lockKey)) {
+            metaTile.dispose();
+            return finalizeTile(tile);
+        }
         Lock lock = null;
+        boolean handedOver = false;
         try {
             /** ****************** Acquire lock ******************* */
-            lock = GWC.get().getLockProvider().getLock(buildLockKey(tile, metaTile));
+            lock = GWC.get().getLockProvider().getLock(lockKey);
             // got the lock on the meta tile, try again
             if (tryCache && tryCacheFetch(tile)) {
                 LOGGER.finest("--> " + Thread.currentThread().getName() + " returns cache hit for "
                         + Arrays.toString(metaTile.getMetaGridPos()));
+            } else if (writer != null && tryPendingFetch(tile, writer, lockKey)) {
+                LOGGER.finest("--> " + Thread.currentThread().getName()
+                        + " returns tile being written for "
+                        + Arrays.toString(metaTile.getMetaGridPos()));
             } else {
                 LOGGER.finer("--> " + Thread.currentThread().getName()
                         + " submitting getMap request for meta grid location "
                         + Arrays.toString(metaTile.getMetaGridPos()) + " on " + metaTile);
-                RenderedImageMap map;
+                WebMap map;
                 try {
                     long requestTime = System.currentTimeMillis();
                     map = dispatchGetMap(tile, metaTile);
                     checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
-                    metaTile.setWebMap(map);
-                    saveTiles(metaTile, tile, requestTime);
+                    if (map instanceof RawMap) {
+                        // non raster formats, such as vector tiles, are not meta tiled
+                        saveRawTile((RawMap) map, tile, requestTime);
+                        return finalizeTile(tile);
+                    }
+                    metaTile.setWebMap((RenderedImageMap) map);
+                    if (writer != null) {
+                        // return the requested tile as soon as it's encoded, the writer will
+                        // take care of storing the others, and of disposing the meta tile
+                        boolean store = getExpireCache(zLevel) != GWCVars.CACHE_DISABLE_CACHE;
+                        handedOver = true;
+                        writer.write(lockKey, metaTile, tile, this, store, requestTime);
+                    } else {
+                        saveTiles(metaTile, tile, requestTime);
+                    }
                 } catch (Exception e) {
                     throw new GeoWebCacheException("Problem communicating with GeoServer", e);
                 } 
@@ -573,7 +602,9 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             if(lock != null) {
                 lock.release();
             }
-            metaTile.dispose();
+            if (!handedOver) {
+                metaTile.dispose();
+            }
         }
 
 
@@ -606,7 +637,7 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         return metaKey.toString();
     }
 
-    private RenderedImageMap dispatchGetMap(final ConveyorTile tile, final MetaTile metaTile)
+    private WebMap dispatchGetMap(final ConveyorTile tile, final MetaTile metaTile)
             throws Exception {
 
         Map<String, String> params = buildGetMap(tile, metaTile);
@@ -617,14 +648,46 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
 
             GWC.get().dispatchOwsRequest(params, cookies);
             map = WEB_MAP.get();
-            if (!(map instanceof RenderedImageMap)) {
-                throw new IllegalStateException("Expected: RenderedImageMap, got " + map);
+            if (!(map instanceof RenderedImageMap || map instanceof RawMap)) {
+                throw new IllegalStateException("Expected: RenderedImageMap or RawMap, got "
+                        + map);
             }
         } finally {
             WEB_MAP.remove();
         }
 
-        return (RenderedImageMap) map;
+        return map;
+    }
+
+    /**
+     * Sets the contents of a non meta tiled map as the tile blob, and stores it if caching is
+     * enabled for the tile zoom level
+     */
+    private void saveRawTile(RawMap map, ConveyorTile tile, long requestTime)
+            throws IOException, GeoWebCacheException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        map.writeTo(bos);
+        Resource resource = new ByteArrayResource(bos.toByteArray());
+        tile.setBlob(resource);
+
+        final int zLevel = (int) tile.getTileIndex()[2];
+        if (getExpireCache(zLevel) == GWCVars.CACHE_DISABLE_CACHE) {
+            return;
+        }
+        long[] idx = tile.getTileIndex();
+        TileObject tileObject = TileObject.createCompleteTileObject(getName(), new long[] {
+                idx[0], idx[1], idx[2] }, tile.getGridSetId(), tile.getMimeType().getFormat(),
+                tile.getParameters(), resource);
+        tileObject.setCreated(requestTime);
+        try {
+            if (tile.isMetaTileCacheOnly()) {
+                tile.getStorageBroker().putTransient(tileObject);
+            } else {
+                tile.getStorageBroker().put(tileObject);
+            }
+        } catch (StorageException e) {
+            throw new GeoWebCacheException(e);
+        }
     }
 
     private GeoServerMetaTile createMetaTile(ConveyorTile tile, final int metaX, final int metaY) {
@@ -635,7 +698,8 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         MimeType responseFormat = tile.getMimeType();
         FormatModifier formatModifier = null;
         long[] tileGridPosition = tile.getTileIndex();
-        int gutter = info.getGutter();
+        // vector tiles are clipped to the tile bounds, a gutter would only enlarge the request
+        int gutter = responseFormat instanceof VectorTileMime ? 0 : info.getGutter();
         metaTile = new GeoServerMetaTile(gridSubset, responseFormat, formatModifier,
                 tileGridPosition, metaX, metaY, gutter);
 
@@ -695,6 +759,40 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         return false;
     }
 
+    /**
+     * Returns the asynchronous meta tile writer, if available and enabled
+     */
+    private AsyncMetaTileWriter getAsyncWriter() {
+        AsyncMetaTileWriter writer = GeoServerExtensions.bean(AsyncMetaTileWriter.class);
+        if (writer != null && writer.isEnabled()) {
+            return writer;
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the tile among the ones of the meta tiles still being written in the background
+     */
+    private boolean tryPendingFetch(ConveyorTile tile, AsyncMetaTileWriter writer,
+            String metaTileKey) {
+        AsyncMetaTileWriter.PendingMetaTile pending = writer.getPending(metaTileKey);
+        if (pending == null) {
+            return false;
+        }
+        try {
+            byte[] contents = pending.getTile(tile.getTileIndex(),
+                    AsyncMetaTileWriter.PENDING_WAIT);
+            if (contents == null) {
+                return false;
+            }
+            tile.setBlob(new ByteArrayResource(contents));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     private ConveyorTile finalizeTile(ConveyorTile tile) {
         if (tile.getStatus() == 0 && !tile.getError()) {
             tile.setStatus(200);
@@ -1017,7 +1115,7 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         List<MimeType> mimeTypes = new ArrayList<MimeType>(mimeFormats.size());
         for (String format : mimeFormats) {
             try {
-                mimeTypes.add(MimeType.createFromFormat(format));
+                mimeTypes.add(VectorTileMime.createFromFormat(format));
             } catch (MimeException e) {
                 LOGGER.log(Level.WARNING, "Can't create MimeType from format " + format, e);
             }
@@ -0,0 +1,60 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import org.geowebcache.mime.MimeException;
+import org.geowebcache.mime.MimeType;
+
+/**
+ * Mime types for the vector tile formats GeoServer can cache, including the UTFGrid
+ * interactivity grids. These are not known to {@link MimeType#createFromFormat(String)}, use
+ * {@link #createFromFormat(String)} instead when parsing a format that could be a vector tile one.
+ * <p>
+ * Vector tiles are not meta tiled, each tile is requested to GeoServer on its own.
+ * </p>
+ */
+public class VectorTileMime extends MimeType {
+
+    public static final VectorTileMime MAPBOX_VECTOR = new VectorTileMime(
+            "application/x-protobuf;type=mapbox-vector", "pbf", "mapbox-vector",
+            "application/x-protobuf;type=mapbox-vector");
+
+    public static final VectorTileMime UTFGRID = new VectorTileMime(
+            "application/json;type=utfgrid", "utfgrid", "utfgrid",
+            "application/json;type=utfgrid");
+
+    static final VectorTileMime[] ALL = { MAPBOX_VECTOR, UTFGRID };
+
+    private VectorTileMime(String mimeType, String fileExtension, String internalName,
+            String format) {
+        super(mimeType, fileExtension, internalName, format, false);
+    }
+
+    /**
+     * Returns the vector tile mime type for the given format, or null if the format is not a
+     * vector tile one
+     */
+    public static VectorTileMime checkForFormat(String format) {
+        for (VectorTileMime mime : ALL) {
+            if (mime.getFormat().equalsIgnoreCase(format)
+                    || mime.getMimeType().equalsIgnoreCase(format)) {
+                return mime;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link MimeType#createFromFormat(String)}, but also recognizes the vector tile
+     * formats
+     */
+    public static MimeType createFromFormat(String format) throws MimeException {
+        MimeType mime = checkForFormat(format);
+        if (mime != null) {
+            return mime;
+        }
+        return MimeType.createFromFormat(format);
+    }
+}
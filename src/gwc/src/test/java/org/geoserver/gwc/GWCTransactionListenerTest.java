@@ -10,6 +10,7 @@ import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
@@ -186,6 +187,33 @@ public class GWCTransactionListenerTest {
 
     }
 
+    @Test
+    public void testAfterTransactionQueued() throws Exception {
+        TruncationQueue queue = mock(TruncationQueue.class);
+        listener = new GWCTransactionListener(mediator, queue);
+
+        Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
+        ReferencedEnvelope affectedBounds1 = new ReferencedEnvelope(-180, 0, 0, 90, WGS84);
+        ReferencedEnvelope affectedBounds2 = new ReferencedEnvelope(0, 180, 0, 90, WGS84);
+
+        issueInsert(extendedProperties, affectedBounds1);
+
+        issueInsert(extendedProperties, affectedBounds2);
+
+        TransactionType request = mock(TransactionType.class);
+        TransactionResponseType result = mock(TransactionResponseType.class);
+        when(request.getExtendedProperties()).thenReturn(extendedProperties);
+
+        listener.afterTransaction(request, result, true);
+
+        // the regions are handed over to the queue one by one, no synchronous truncation
+        verify(queue, times(1)).add(eq("theLayer"), eq(affectedBounds1));
+        verify(queue, times(1)).add(eq("theLayer"), eq(affectedBounds2));
+        verify(queue, times(1)).add(eq("theGroup"), eq(affectedBounds1));
+        verify(queue, times(1)).add(eq("theGroup"), eq(affectedBounds2));
+        verify(mediator, times(0)).truncate(anyString(), any(ReferencedEnvelope.class));
+    }
+
     /**
      * Issues a fake dataStoreChange insert event that affects two tile layers: "theLayer" and
      * "theGroup"
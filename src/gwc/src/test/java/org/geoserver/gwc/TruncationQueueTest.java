@@ -0,0 +1,220 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.layer.TileLayer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TruncationQueueTest {
+
+    private GWC mediator;
+
+    private TruncationQueue queue;
+
+    private String gridSetId;
+
+    private int zoomStop;
+
+    @Before
+    public void setUp() throws Exception {
+        mediator = mock(GWC.class);
+        GridSetBroker gridSetBroker = new GridSetBroker(true, true);
+        GridSubset gridSubset = GridSubsetFactory.createGridSubSet(gridSetBroker.WORLD_EPSG4326);
+        gridSetId = gridSubset.getName();
+        zoomStop = gridSubset.getZoomStop();
+
+        TileLayer layer = mock(TileLayer.class);
+        when(layer.getGridSubsets()).thenReturn(Collections.singleton(gridSetId));
+        when(layer.getGridSubset(gridSetId)).thenReturn(gridSubset);
+        when(mediator.getTileLayerByName("theLayer")).thenReturn(layer);
+        when(
+                mediator.getIntersectingBounds(anyString(), any(GridSubset.class),
+                        any(ReferencedEnvelope.class))).thenAnswer(new Answer<BoundingBox>() {
+
+            @Override
+            public BoundingBox answer(InvocationOnMock invocation) throws Throwable {
+                ReferencedEnvelope env = (ReferencedEnvelope) invocation.getArguments()[2];
+                return new BoundingBox(env.getMinX(), env.getMinY(), env.getMaxX(), env
+                        .getMaxY());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.destroy();
+        }
+    }
+
+    @Test
+    public void testCoalesceSameTile() {
+        // level 3 of the world 4326 gridset has 22.5 degrees tiles, and a long window
+        queue = new TruncationQueue(mediator, 60000, 3);
+        for (int i = 0; i < 100; i++) {
+            double x = 1 + i * 0.1;
+            queue.add("theLayer", new ReferencedEnvelope(x, x + 0.01, 1, 1.01, WGS84));
+        }
+        assertEquals(1, queue.getQueueDepth());
+
+        queue.flush();
+        // the dirty tile up to the dirty level
+        verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                eq(new BoundingBox(0, 0, 22.5, 22.5)), (String) isNull(), eq(0), eq(3));
+        // the exact areas below it
+        for (int i = 0; i < 100; i++) {
+            double x = 1 + i * 0.1;
+            verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                    eq(new BoundingBox(x, 1, x + 0.01, 1.01)), (String) isNull(), eq(4),
+                    eq(zoomStop));
+        }
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(1, queue.getTruncatedTiles());
+        assertEquals(101, queue.getTruncateRequests());
+        assertEquals(1, queue.getBatches());
+    }
+
+    @Test
+    public void testMergeAdjacentTiles() {
+        queue = new TruncationQueue(mediator, 60000, 3);
+        queue.add("theLayer", new ReferencedEnvelope(1, 2, 1, 2, WGS84));
+        queue.add("theLayer", new ReferencedEnvelope(30, 31, 1, 2, WGS84));
+        queue.add("theLayer", new ReferencedEnvelope(1, 2, 30, 31, WGS84));
+        queue.add("theLayer", new ReferencedEnvelope(30, 31, 30, 31, WGS84));
+        assertEquals(4, queue.getQueueDepth());
+
+        queue.flush();
+        verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                eq(new BoundingBox(0, 0, 45, 45)), (String) isNull(), eq(0), eq(3));
+        assertEquals(4, queue.getTruncatedTiles());
+        assertEquals(5, queue.getTruncateRequests());
+    }
+
+    @Test
+    public void testContainedExactAreas() {
+        queue = new TruncationQueue(mediator, 60000, 3);
+        queue.add("theLayer", new ReferencedEnvelope(2, 3, 2, 3, WGS84));
+        queue.add("theLayer", new ReferencedEnvelope(1, 4, 1, 4, WGS84));
+        queue.add("theLayer", new ReferencedEnvelope(1.5, 2, 1.5, 2, WGS84));
+
+        queue.flush();
+        verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                eq(new BoundingBox(1, 1, 4, 4)), (String) isNull(), eq(4), eq(zoomStop));
+        assertEquals(2, queue.getTruncateRequests());
+    }
+
+    @Test
+    public void testExactAreasOverflow() {
+        queue = new TruncationQueue(mediator, 60000, 3);
+        for (int i = 0; i <= TruncationQueue.MAX_EXACT_AREAS; i++) {
+            double x = 1 + i * 0.01;
+            queue.add("theLayer", new ReferencedEnvelope(x, x + 0.001, 1, 1.001, WGS84));
+        }
+
+        // too many areas, the dirty tile is truncated at all levels
+        queue.flush();
+        verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                eq(new BoundingBox(0, 0, 22.5, 22.5)), (String) isNull(), eq(0), eq(zoomStop));
+        assertEquals(1, queue.getTruncateRequests());
+    }
+
+    @Test
+    public void testLargeArea() {
+        // level 8 has 512x256 tiles, too many to be tracked one by one
+        queue = new TruncationQueue(mediator, 60000, 8);
+        queue.add("theLayer", new ReferencedEnvelope(-180, 180, -90, 90, WGS84));
+
+        queue.flush();
+        verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                eq(new BoundingBox(-180, -90, 180, 90)), (String) isNull(), eq(0),
+                eq(zoomStop));
+        assertEquals(1, queue.getTruncateRequests());
+    }
+
+    @Test
+    public void testDestroyFlushes() throws Exception {
+        queue = new TruncationQueue(mediator, 60000, 3);
+        queue.add("theLayer", new ReferencedEnvelope(1, 2, 1, 2, WGS84));
+        verify(mediator, never()).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                any(BoundingBox.class), (String) isNull(), anyInt(), anyInt());
+
+        queue.destroy();
+        verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                eq(new BoundingBox(0, 0, 22.5, 22.5)), (String) isNull(), eq(0), eq(3));
+        assertEquals(0, queue.getQueueDepth());
+
+        // changes after the shutdown are truncated right away
+        queue.add("theLayer", new ReferencedEnvelope(30, 31, 1, 2, WGS84));
+        verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                eq(new BoundingBox(22.5, 0, 45, 22.5)), (String) isNull(), eq(0), eq(3));
+        queue = null;
+    }
+
+    @Test
+    public void testSynchronous() {
+        queue = new TruncationQueue(mediator, 0, 3);
+        queue.add("theLayer", new ReferencedEnvelope(1, 2, 1, 2, WGS84));
+        verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                eq(new BoundingBox(0, 0, 22.5, 22.5)), (String) isNull(), eq(0), eq(3));
+        verify(mediator, times(1)).truncate(eq("theLayer"), (String) isNull(), eq(gridSetId),
+                eq(new BoundingBox(1, 1, 2, 2)), (String) isNull(), eq(4), eq(zoomStop));
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    @Test
+    public void testScheduledFlush() throws Exception {
+        queue = new TruncationQueue(mediator, 50, 3);
+        queue.add("theLayer", new ReferencedEnvelope(1, 2, 1, 2, WGS84));
+        queue.add("theLayer", new ReferencedEnvelope(1, 2, 1, 2, WGS84));
+        for (int i = 0; i < 100 && queue.getBatches() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, queue.getBatches());
+        assertEquals(2, queue.getTruncateRequests());
+    }
+
+    @Test
+    public void testToRectangles() {
+        TreeSet<Long> tiles = new TreeSet<Long>();
+        // a 2x2 block and an isolated tile
+        tiles.add(TruncationQueue.encode(0, 0));
+        tiles.add(TruncationQueue.encode(1, 0));
+        tiles.add(TruncationQueue.encode(0, 1));
+        tiles.add(TruncationQueue.encode(1, 1));
+        tiles.add(TruncationQueue.encode(5, 3));
+
+        List<long[]> rectangles = TruncationQueue.toRectangles(tiles);
+        assertEquals(2, rectangles.size());
+        assertArrayEquals(new long[] { 0, 0, 1, 1 }, rectangles.get(0));
+        assertArrayEquals(new long[] { 5, 3, 5, 3 }, rectangles.get(1));
+    }
+}
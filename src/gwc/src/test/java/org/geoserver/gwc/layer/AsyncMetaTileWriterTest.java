@@ -0,0 +1,133 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.io.Resource;
+import org.geowebcache.layer.MetaTile;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class AsyncMetaTileWriterTest {
+
+    static final long[][] POSITIONS = new long[][] { { 0, 0, 1 }, { 1, 0, 1 }, { 0, 1, 1 },
+            { 1, 1, 1 } };
+
+    AsyncMetaTileWriter writer;
+
+    MetaTile metaTile;
+
+    ConveyorTile tile;
+
+    TileLayer layer;
+
+    StorageBroker storageBroker;
+
+    CountDownLatch encodeLatch;
+
+    @Before
+    public void setUp() throws Exception {
+        writer = new AsyncMetaTileWriter(true, 10);
+        encodeLatch = new CountDownLatch(1);
+
+        // each tile is encoded as a single byte, its index in the meta tile
+        metaTile = mock(MetaTile.class);
+        when(metaTile.getTilesGridPositions()).thenReturn(POSITIONS);
+        when(metaTile.writeTileToStream(anyInt(), any(Resource.class))).thenAnswer(
+                new Answer<Boolean>() {
+
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                        int idx = (Integer) invocation.getArguments()[0];
+                        if (idx != 1) {
+                            encodeLatch.await();
+                        }
+                        Resource resource = (Resource) invocation.getArguments()[1];
+                        OutputStream os = resource.getOutputStream();
+                        os.write(idx);
+                        os.close();
+                        return true;
+                    }
+                });
+
+        GridSubset gridSubset = mock(GridSubset.class);
+        when(gridSubset.covers(any(long[].class))).thenReturn(true);
+        layer = mock(TileLayer.class);
+        when(layer.getName()).thenReturn("theLayer");
+        when(layer.getGridSubset("EPSG:4326")).thenReturn(gridSubset);
+
+        storageBroker = mock(StorageBroker.class);
+        tile = mock(ConveyorTile.class);
+        when(tile.getTileIndex()).thenReturn(new long[] { 1, 0, 1 });
+        when(tile.getGridSetId()).thenReturn("EPSG:4326");
+        when(tile.getMimeType()).thenReturn(ImageMime.png);
+        when(tile.getParameters()).thenReturn(Collections.<String, String> emptyMap());
+        when(tile.getStorageBroker()).thenReturn(storageBroker);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        encodeLatch.countDown();
+        writer.destroy();
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        writer.write("theKey", metaTile, tile, layer, true, 0);
+
+        // the requested tile is available right away
+        verify(tile).setBlob(any(Resource.class));
+        AsyncMetaTileWriter.PendingMetaTile pending = writer.getPending("theKey");
+        assertNotNull(pending);
+        assertArrayEquals(new byte[] { 1 }, pending.getTile(new long[] { 1, 0, 1 }, 0));
+        verify(metaTile, never()).dispose();
+
+        // the others are served from memory once encoded
+        encodeLatch.countDown();
+        assertArrayEquals(new byte[] { 3 }, pending.getTile(new long[] { 1, 1, 1 }, 10000));
+
+        // and eventually stored
+        for (int i = 0; i < 100 && writer.getPendingCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, writer.getPendingCount());
+        verify(storageBroker, times(4)).put(any(TileObject.class));
+        verify(metaTile, times(1)).dispose();
+    }
+
+    @Test
+    public void testNoStore() throws Exception {
+        writer.write("theKey", metaTile, tile, layer, false, 0);
+
+        verify(tile).setBlob(any(Resource.class));
+        assertNull(writer.getPending("theKey"));
+        verify(storageBroker, never()).put(any(TileObject.class));
+        verify(metaTile, times(1)).dispose();
+    }
+}
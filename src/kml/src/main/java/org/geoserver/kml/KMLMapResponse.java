@@ -5,18 +5,13 @@
  */
 package org.geoserver.kml;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import javax.imageio.ImageIO;
-
-import org.geoserver.kml.icons.IconRenderer;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.WMS;
@@ -26,7 +21,6 @@ import org.geoserver.wms.map.PNGMapResponse;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
 import org.geotools.map.Layer;
-import org.geotools.styling.Style;
 
 import de.micromata.opengis.kml.v_2_2_0.Kml;
 
@@ -56,8 +50,8 @@ public class KMLMapResponse extends AbstractMapResponse {
     public void write(Object value, OutputStream output, Operation operation) throws IOException,
             ServiceException {
         KMLMap kmlMap = (KMLMap) value;
+        KmlEncodingContext context = kmlMap.getKmlEncodingContext();
         try {
-            KmlEncodingContext context = kmlMap.getKmlEncodingContext();
             Kml kml = kmlMap.getKml();
             if (context != null && context.isKmz()) {
                 encodeAsKmz(kml, context, operation, output);
@@ -65,6 +59,10 @@ public class KMLMapResponse extends AbstractMapResponse {
                 encoder.encode(kml, output, context);
             }
         } finally {
+            if (context != null) {
+                // removes the icon spill file, whatever happened during the encoding
+                context.getEmbeddedIcons().dispose();
+            }
             kmlMap.dispose();
         }
     }
@@ -78,6 +76,7 @@ public class KMLMapResponse extends AbstractMapResponse {
         ZipEntry entry = new ZipEntry("wms.kml");
         zip.putNextEntry(entry);
         encoder.encode(kml, zip, context);
+        zip.closeEntry();
 
         // prepare for the ground overlays
         final RenderedImageMapOutputFormat pngProducer = new RenderedImageMapOutputFormat(
@@ -121,21 +120,8 @@ public class KMLMapResponse extends AbstractMapResponse {
         }
         zip.closeEntry();// close the images/ folder
 
-        //write out the icons
-        Map<String, Style> embeddedIcons = context.getIconStyles();
-        if (!embeddedIcons.isEmpty()) {
-            ZipEntry icons = new ZipEntry("icons/");
-            zip.putNextEntry(icons);
-            for (Map.Entry<String, Style> namedStyle : embeddedIcons.entrySet()) {
-                final String name = namedStyle.getKey();
-                final Style style = namedStyle.getValue();
-                BufferedImage icon = IconRenderer.renderIcon(style);
-                entry = new ZipEntry("icons/" + name + ".png");
-                zip.putNextEntry(entry);
-                ImageIO.write(icon, "PNG", zip);
-            }
-            zip.closeEntry();
-        }
+        // write out the icons, already rendered while encoding the kml
+        context.getEmbeddedIcons().writeTo(zip);
 
         zip.finish();
         zip.flush();
@@ -17,6 +17,7 @@ import java.util.logging.Logger;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.kml.decorator.KmlDecoratorFactory;
 import org.geoserver.kml.decorator.KmlDecoratorFactory.KmlDecorator;
+import org.geoserver.kml.icons.EmbeddedIconCache;
 import org.geoserver.kml.sequence.CompositeList;
 import org.geoserver.kml.utils.LookAtOptions;
 import org.geoserver.ows.util.KvpUtils;
@@ -35,7 +36,6 @@ import org.geotools.map.Layer;
 import org.geotools.map.MapViewport;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.geotools.styling.Style;
 import org.geotools.styling.Symbolizer;
 import org.geotools.util.Converters;
 import org.geotools.util.logging.Logging;
@@ -111,7 +111,7 @@ public class KmlEncodingContext {
 
     public final static ReferencedEnvelope WORLD_BOUNDS_WGS84 = new ReferencedEnvelope(-180, 180, -90, 90, DefaultGeographicCRS.WGS84);
     protected boolean liveIcons;
-    protected Map<String, Style> iconStyles;
+    protected EmbeddedIconCache embeddedIcons;
 
     public KmlEncodingContext(WMSMapContent mapContent, WMS wms, boolean kmz) {
         this.mapContent = fixViewport(mapContent);
@@ -129,7 +129,7 @@ public class KmlEncodingContext {
         this.kmz = kmz;
         this.service = wms.getServiceInfo();
         this.liveIcons = true;
-        this.iconStyles = new HashMap<String,Style>();
+        this.embeddedIcons = new EmbeddedIconCache(kmz);
         
         Boolean autofit = Converters.convert(request.getFormatOptions().get("autofit"), Boolean.class);
         if(autofit != null && Converters.convert(autofit, Boolean.class)) {
@@ -508,8 +508,11 @@ public class KmlEncodingContext {
         this.liveIcons = liveIcons;
     }
 
-    public Map<String, Style> getIconStyles() {
-        return iconStyles;
+    /**
+     * Returns the icons to be embedded in the KMZ output
+     */
+    public EmbeddedIconCache getEmbeddedIcons() {
+        return embeddedIcons;
     }
 
     public String getMode() {
@@ -6,6 +6,7 @@
 package org.geoserver.kml.decorator;
 
 import java.awt.Color;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -15,9 +16,11 @@ import java.util.logging.Logger;
 
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.kml.KmlEncodingContext;
+import org.geoserver.kml.icons.EmbeddedIconCache;
 import org.geoserver.kml.icons.IconProperties;
 import org.geoserver.kml.icons.IconPropertyExtractor;
 import org.geoserver.kml.icons.IconPropertyInjector;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.WMSInfo;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.renderer.style.ExpressionExtractor;
@@ -211,12 +214,16 @@ public class PlacemarkStyleDecoratorFactory implements KmlDecoratorFactory {
             IconProperties properties, KmlEncodingContext context) {
             final String name = properties.getIconName(sld);
 
-            Map<String,org.geotools.styling.Style> iconStyles = context.getIconStyles();
-            if (!iconStyles.containsKey(name)) {
+            EmbeddedIconCache icons = context.getEmbeddedIcons();
+            if (!icons.contains(name)) {
                 final org.geotools.styling.Style injectedStyle = 
                     IconPropertyInjector.injectProperties(sld, properties.getProperties());
 
-                iconStyles.put(name, injectedStyle);
+                try {
+                    icons.add(name, injectedStyle);
+                } catch (IOException e) {
+                    throw new ServiceException("Failed to render icon " + name, e);
+                }
             }
             final Double scale = properties.getScale();
             final String path = "icons/" + name + ".png";
@@ -0,0 +1,181 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml.icons;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.geoserver.util.PropertyLookup;
+import org.geotools.styling.Style;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Collects the icons embedded in a KMZ file while the KML document is being encoded, so that
+ * they can be appended to the archive once the document is complete.
+ * <p>
+ * Icons are de-duplicated by name and rendered as PNG as soon as they are first referenced, so
+ * that the styles are not retained. The encoded icons are kept in memory up to
+ * {@link #MAX_MEMORY_KEY} bytes (256KB by default), the others are spilled to a temporary file,
+ * keeping the heap usage flat regardless of the number of features and distinct icons.
+ * </p>
+ * <p>
+ * When the icons are not going to be written (plain KML output) only the names are tracked.
+ * </p>
+ */
+public class EmbeddedIconCache {
+
+    static final Logger LOGGER = Logging.getLogger(EmbeddedIconCache.class);
+
+    /**
+     * Property setting the max amount of memory used to hold the icons of a single KMZ
+     */
+    public static final String MAX_MEMORY_KEY = "org.geoserver.kml.kmzIconMemory";
+
+    static final long DEFAULT_MAX_MEMORY = 256 * 1024;
+
+    final boolean render;
+
+    final long maxMemory;
+
+    final Set<String> names = new HashSet<String>();
+
+    final Map<String, byte[]> inMemory = new LinkedHashMap<String, byte[]>();
+
+    /**
+     * The position and length of the icons spilled to disk
+     */
+    final Map<String, long[]> spilled = new LinkedHashMap<String, long[]>();
+
+    long memory;
+
+    File spillFile;
+
+    RandomAccessFile spill;
+
+    /**
+     * @param render whether the icons should be rendered and kept, or just tracked by name
+     */
+    public EmbeddedIconCache(boolean render) {
+        this(render, PropertyLookup.getLong(MAX_MEMORY_KEY, DEFAULT_MAX_MEMORY));
+    }
+
+    EmbeddedIconCache(boolean render, long maxMemory) {
+        this.render = render;
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Returns true if the icon has already been added
+     */
+    public boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * Adds an icon, rendering it with the specified style, unless an icon with the same name has
+     * already been added
+     */
+    public void add(String name, Style style) throws IOException {
+        if (!names.add(name) || !render) {
+            return;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageIO.write(IconRenderer.renderIcon(style), "PNG", bos);
+        byte[] bytes = bos.toByteArray();
+        if (memory + bytes.length <= maxMemory) {
+            inMemory.put(name, bytes);
+            memory += bytes.length;
+        } else {
+            if (spill == null) {
+                spillFile = File.createTempFile("kmz-icons", ".bin");
+                spill = new RandomAccessFile(spillFile, "rw");
+            }
+            long position = spill.length();
+            spill.seek(position);
+            spill.write(bytes);
+            spilled.put(name, new long[] { position, bytes.length });
+        }
+    }
+
+    /**
+     * Returns the number of distinct icons added so far
+     */
+    public int size() {
+        return names.size();
+    }
+
+    public boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    /**
+     * Writes the icons in the "icons" folder of the zip file
+     */
+    public void writeTo(ZipOutputStream zip) throws IOException {
+        if (!render || names.isEmpty()) {
+            return;
+        }
+        zip.putNextEntry(new ZipEntry("icons/"));
+        for (Map.Entry<String, byte[]> entry : inMemory.entrySet()) {
+            zip.putNextEntry(new ZipEntry("icons/" + entry.getKey() + ".png"));
+            zip.write(entry.getValue());
+        }
+        if (spill != null) {
+            byte[] buffer = new byte[8192];
+            for (Map.Entry<String, long[]> entry : spilled.entrySet()) {
+                zip.putNextEntry(new ZipEntry("icons/" + entry.getKey() + ".png"));
+                copy(entry.getValue()[0], entry.getValue()[1], buffer, zip);
+            }
+        }
+        zip.closeEntry();
+    }
+
+    void copy(long position, long length, byte[] buffer, OutputStream os) throws IOException {
+        spill.seek(position);
+        long remaining = length;
+        while (remaining > 0) {
+            int read = spill.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of the icon spill file " + spillFile);
+            }
+            os.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Releases the icons, and removes the spill file if any
+     */
+    public void dispose() {
+        inMemory.clear();
+        spilled.clear();
+        memory = 0;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close the icon spill file", e);
+            }
+            spill = null;
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+}
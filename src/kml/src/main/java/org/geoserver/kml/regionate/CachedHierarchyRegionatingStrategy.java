@@ -6,18 +6,20 @@
 package org.geoserver.kml.regionate;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -56,8 +58,8 @@ import com.vividsolutions.jts.geom.Point;
  * Base class for regionating strategies. Common functionality provided:
  * <ul>
  * <li>tiling based on the TMS tiling recommendation</li>
- * <li>caching the assignment of a feature in a specific tile in an H2 database
- * stored in the data directory</li>
+ * <li>caching the assignment of a feature in a specific tile in a memory mapped
+ * {@link RegionatingIndex} stored in the data directory</li>
  * <li>
  * 
  * @author Andrea Aime - OpenGeo
@@ -70,8 +72,6 @@ public abstract class CachedHierarchyRegionatingStrategy implements
 
     static final double MAX_ERROR = 0.02;
 
-    static final Set<String> NO_FIDS = Collections.emptySet();
-
     /**
      * This structure is used to make sure that multiple threads end up using
      * the same table name object, so that we can use it as a synchonization
@@ -80,6 +80,11 @@ public abstract class CachedHierarchyRegionatingStrategy implements
     static CanonicalSet<String> canonicalizer = CanonicalSet
             .newInstance(String.class);
 
+    /**
+     * The open regionating indexes, by file path
+     */
+    static Map<String, RegionatingIndex> indexes = new ConcurrentHashMap<String, RegionatingIndex>();
+
     static {
         try {
             // make sure, once and for all, that H2 is around
@@ -192,6 +197,11 @@ public abstract class CachedHierarchyRegionatingStrategy implements
             Resource geosearch = loader.get("geosearch");
             if( geosearch.getType() == Type.DIRECTORY ){
                 File directory = geosearch.dir();
+                String name = getDatabaseName(cfg);
+                indexes.remove(new File(directory, indexFileName(name, 0)).getAbsolutePath());
+                for (File index : listIndexFiles(directory, name)) {
+                    deleteIndexFile(index);
+                }
                 DeleteDbFiles.execute(
                         directory.getCanonicalPath(),
                     "h2cache_" + getDatabaseName(cfg),
@@ -231,7 +241,7 @@ public abstract class CachedHierarchyRegionatingStrategy implements
     }
 
     /**
-     * Open/creates the db and then reads/computes the tile features
+     * Grabs the regionating index, building it if missing, and then reads the tile features
      * 
      * @param dataDir
      * @param tile
@@ -240,212 +250,277 @@ public abstract class CachedHierarchyRegionatingStrategy implements
      */
     private Set<String> getFeaturesForTile(String dataDir, Tile tile)
             throws Exception {
-        Connection conn = null;
-        Statement st = null;
+        return getIndex(dataDir).getFids(tile.x, tile.y, tile.z);
+    }
+
+    /**
+     * Returns the regionating index for the current layer, opening or building it as needed.
+     * Indexes are kept open and shared among requests, and are rebuilt if the file is removed
+     * or the features per tile limit changes
+     * 
+     * @param dataDir
+     * @return
+     * @throws Exception
+     */
+    RegionatingIndex getIndex(String dataDir) throws Exception {
+        File directory = new File(dataDir, "geosearch");
+        String path = new File(directory, indexFileName(tableName, 0)).getAbsolutePath();
+        RegionatingIndex index = indexes.get(path);
+        if (index != null && index.isValid(featuresPerTile)) {
+            return index;
+        }
 
         // build the synchonization token
         canonicalizer.add(tableName);
         tableName = canonicalizer.get(tableName);
 
-        try {
-            // make sure no two thread in parallel can build the same db
-            synchronized (tableName) {
-                // get a hold to the database that contains the cache (this will
-                // eventually create the db)
-                conn = DriverManager.getConnection("jdbc:h2:file:" + dataDir
-                        + "/geosearch/h2cache_" + tableName, "geoserver",
-                        "geopass");
-
-                // try to create the table, if it's already there this will fail
-                st = conn.createStatement();
-                st.execute("CREATE TABLE IF NOT EXISTS TILECACHE( " //
-                        + "x BIGINT, " //
-                        + "y BIGINT, " //
-                        + "z INT, " //
-                        + "fid varchar (64))");
-                st.execute("CREATE INDEX IF NOT EXISTS IDX_TILECACHE ON TILECACHE(x, y, z)");
+        // make sure no two thread in parallel can build the same index
+        synchronized (tableName) {
+            index = indexes.get(path);
+            if (index != null && index.isValid(featuresPerTile)) {
+                return index;
+            }
+            index = null;
+            File file = findIndexFile(directory, tableName);
+            if (file != null) {
+                try {
+                    index = RegionatingIndex.open(file);
+                    if (index.getFeaturesPerTile() != featuresPerTile) {
+                        index = null;
+                        deleteIndexFile(file);
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Could not open the regionating index " + file
+                            + ", rebuilding it", e);
+                    deleteIndexFile(file);
+                }
+            }
+            if (index == null) {
+                directory.mkdirs();
+                file = newIndexFile(directory, tableName);
+                buildIndex(dataDir, file);
+                index = RegionatingIndex.open(file);
             }
+            RegionatingIndex previous = indexes.put(path, index);
+            if (previous != null && !previous.file.equals(index.file)) {
+                deleteIndexFile(previous.file);
+            }
+            return index;
+        }
+    }
 
-            return readFeaturesForTile(tile, conn);
-        } finally {
-            JDBCUtils.close(st);
-            JDBCUtils.close(conn, null, null);
+    /**
+     * Returns the name of the index file of the specified table. Version zero is the plain name,
+     * the others are used when an older index could not be removed, which happens on Windows as
+     * long as the older file is memory mapped
+     */
+    static String indexFileName(String table, int version) {
+        if (version == 0) {
+            return "regionate_" + table + ".idx";
         }
+        return "regionate_" + table + ".v" + version + ".idx";
     }
 
     /**
-     * Reads/computes the tile feature set
-     * 
-     * @param tile
-     *            the Tile whose features we must find
-     * @param conn
-     *            the H2 connection
-     * @return
-     * @throws Exception
+     * Returns the version of the index file, or -1 if the file is not an index of the table
      */
-    protected Set<String> readFeaturesForTile(Tile tile, Connection conn)
-            throws Exception {
-        // grab the fids and decide whether we have to compute them
-        Set<String> fids = readCachedTileFids(tile, conn);
-        if (fids != null) {
-            return fids;
-        } else {
-            // build the synchronization token
-            String tileKey = tableName + tile.x + "-" + tile.y + "-" + tile.z;
-            canonicalizer.add(tileKey);
-            tileKey = canonicalizer.get(tileKey);
-
-            synchronized (tileKey) {
-                // might have been built while we were waiting
-                fids = readCachedTileFids(tile, conn);
-                if (fids != null)
-                    return fids;
-
-                // still missing, we need to compute them
-                fids = computeFids(tile, conn);
-                storeFids(tile, fids, conn);
-
-                // optimization, if we did not manage to fill up this tile,
-                // the ones below it will be empty -> mark them as such right
-                // away
-                if (fids.size() < featuresPerTile)
-                    for (Tile child : tile.getChildren())
-                        storeFids(child, NO_FIDS, conn);
+    static int indexFileVersion(File file, String table) {
+        Matcher matcher = Pattern.compile(
+                "regionate_" + Pattern.quote(table) + "(?:\\.v(\\d+))?\\.idx").matcher(
+                file.getName());
+        if (!matcher.matches()) {
+            return -1;
+        }
+        return matcher.group(1) == null ? 0 : Integer.parseInt(matcher.group(1));
+    }
+
+    /**
+     * Lists all the index files of the table, stale ones included
+     */
+    static List<File> listIndexFiles(File directory, String table) {
+        List<File> result = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (indexFileVersion(file, table) >= 0) {
+                    result.add(file);
+                }
             }
         }
-        return fids;
+        return result;
     }
 
     /**
-     * Store the fids inside
-     * 
-     * @param t
-     * @param fids
-     * @param conn
-     * @throws SQLException
+     * Returns the most recent usable index file of the table, or null if there is none. Stale
+     * index files are removed, if they are not in use anymore
      */
-    private void storeFids(Tile t, Set<String> fids, Connection conn)
-            throws SQLException {
-        PreparedStatement ps = null;
-        try {
-            // we are going to execute this one many times, 
-            // let's prepare it so that the db engine does 
-            // not have to parse it at every call
-            String stmt = "INSERT INTO TILECACHE VALUES (" + t.x + ", " + t.y
-                    + ", " + t.z + ", ?)";
-            ps = conn.prepareStatement(stmt);
-
-            if (fids.size() == 0) {
-                // we just have to mark the tile as empty
-                ps.setString(1, null);
-                ps.execute();
-            } else {
-                // store all the fids
-                conn.setAutoCommit(false);
-                for (String fid : fids) {
-                    ps.setString(1, fid);
-                    ps.execute();
+    static File findIndexFile(File directory, String table) {
+        File result = null;
+        int maxVersion = -1;
+        for (File file : listIndexFiles(directory, table)) {
+            File marker = staleMarker(file);
+            if (marker.exists()) {
+                if (file.delete() || !file.exists()) {
+                    marker.delete();
                 }
-                conn.commit();
+                continue;
             }
-        } finally {
-            conn.setAutoCommit(true);
-            JDBCUtils.close(ps);
+            int version = indexFileVersion(file, table);
+            if (version > maxVersion) {
+                maxVersion = version;
+                result = file;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a file name for a new index of the table, not clashing with any existing one
+     */
+    static File newIndexFile(File directory, String table) {
+        int version = -1;
+        for (File file : listIndexFiles(directory, table)) {
+            version = Math.max(version, indexFileVersion(file, table));
+        }
+        File file = new File(directory, indexFileName(table, version + 1));
+        // drop a leftover marker, in case the stale file has been removed by hand
+        staleMarker(file).delete();
+        return file;
+    }
+
+    /**
+     * Deletes the index file. If that is not possible, as it happens on Windows while the file is
+     * still memory mapped, the file is marked as stale instead, so that it's not used anymore and
+     * gets removed later
+     */
+    static void deleteIndexFile(File file) {
+        if (file.delete() || !file.exists()) {
+            return;
         }
+        try {
+            staleMarker(file).createNewFile();
+            LOGGER.log(Level.INFO, "Could not delete the regionating index " + file
+                    + ", it will be removed once no longer in use");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not delete the regionating index " + file
+                    + " nor mark it as stale", e);
+        }
+    }
+
+    static File staleMarker(File file) {
+        return new File(file.getParentFile(), file.getName() + ".stale");
     }
 
     /**
-     * Computes the fids that will be stored in the specified tile
+     * Builds the regionating index with a single scan of the features, sorted by priority
      * 
-     * @param tileCoords
-     * @param st
-     * @return
-     * @throws SQLException
+     * @param dataDir
+     * @param file
+     * @throws Exception
      */
-    private Set<String> computeFids(Tile tile, Connection conn)
-            throws Exception {
-        Tile parent = tile.getParent();
-        Set<String> parentFids = getUpwardFids(parent, conn);
-        Set<String> currFids = new HashSet<String>();
+    private void buildIndex(String dataDir, File file) throws Exception {
+        long start = System.currentTimeMillis();
+        RegionatingIndex.Builder builder = new RegionatingIndex.Builder(featuresPerTile,
+                dataEnvelope, file.getParentFile(),
+                RegionatingIndex.Builder.DEFAULT_MAX_BUFFERED_FIDS);
+        Connection conn = null;
         FeatureIterator fi = null;
         try {
-            // grab the features
-            FeatureSource fs = featureType.getFeatureSource(null,null);
-            GeometryDescriptor geom = fs.getSchema().getGeometryDescriptor();
-            CoordinateReferenceSystem nativeCrs = geom
-                    .getCoordinateReferenceSystem();
+            // the sorting strategies might need a database of their own to sort the features
+            conn = DriverManager.getConnection("jdbc:h2:file:" + dataDir
+                    + "/geosearch/h2cache_" + tableName, "geoserver", "geopass");
 
-            ReferencedEnvelope nativeTileEnvelope = null;
+            FeatureSource fs = featureType.getFeatureSource(null, null);
+            GeometryDescriptor geom = fs.getSchema().getGeometryDescriptor();
+            CoordinateReferenceSystem nativeCrs = geom.getCoordinateReferenceSystem();
 
-            if (!CRS.equalsIgnoreMetadata(Tile.WGS84, nativeCrs)) {
-                try {
-                    nativeTileEnvelope = tile.getEnvelope().transform(nativeCrs, true);
-                } catch (ProjectionException pe) {
-                    // the WGS84 envelope of the tile is too big for this project,
-                    // let's intersect it with the declared lat/lon bounds then
-                    LOGGER.log(Level.INFO, "Could not reproject the current tile bounds " 
-                            + tile.getEnvelope() + " to the native SRS, intersecting with " 
-                            + "the layer declared lat/lon bounds and retrying");
-                    
-                    // let's compare against the declared data bounds then
-                    ReferencedEnvelope llEnv = featureType.getLatLonBoundingBox();
-                    Envelope reduced = tile.getEnvelope().intersection(llEnv);
-                    if(reduced.isNull() || reduced.getWidth() == 0 || reduced.getHeight() == 0) {
-                        // no overlap, no party, the tile will be empty
-                        return Collections.emptySet();
-                    }
-                    
-                    // there is some overlap, let's try the reprojection again.
-                    // if even this fails, the user has evidently setup the 
-                    // geographics bounds improperly
-                    ReferencedEnvelope refRed = new ReferencedEnvelope(reduced, 
-                            tile.getEnvelope().getCoordinateReferenceSystem());
-                    nativeTileEnvelope = refRed.transform(nativeCrs, true);
-                }
-            } else {
-                nativeTileEnvelope = tile.getEnvelope();
+            // scan all the data, starting from the tile containing it, or the whole world
+            ReferencedEnvelope area = Tile.WORLD_BOUNDS;
+            if (builder.rootZ >= 0) {
+                area = new Tile(builder.rootX, builder.rootY, builder.rootZ).getEnvelope();
             }
+            ReferencedEnvelope nativeArea = getNativeEnvelope(area, nativeCrs);
+            if (nativeArea != null) {
+                fi = getSortedFeatures(geom, area, nativeArea, conn);
+
+                // if the crs is not wgs84, we'll need to transform the point
+                MathTransform tx = null;
+                double[] coords = new double[2];
+                boolean first = true;
+                while (fi.hasNext()) {
+                    SimpleFeature f = (SimpleFeature) fi.next();
+
+                    // check the need for a transformation
+                    if (first) {
+                        first = false;
+                        CoordinateReferenceSystem nativeCRS = f.getType()
+                                .getCoordinateReferenceSystem();
+                        if (nativeCRS != null
+                                && !CRS.equalsIgnoreMetadata(nativeCRS, Tile.WGS84)) {
+                            tx = CRS.findMathTransform(nativeCRS, Tile.WGS84);
+                        }
+                    }
 
-            fi = getSortedFeatures(geom, tile.getEnvelope(), nativeTileEnvelope, conn);
-
-            // if the crs is not wgs84, we'll need to transform the point
-            MathTransform tx = null;
-            double[] coords = new double[2];
-
-            // scan counting how many fids we've collected
-            boolean first = true;
-            while (fi.hasNext() && currFids.size() < featuresPerTile) {
-                // grab the feature, skip it if it's already in a parent element
-                SimpleFeature f = (SimpleFeature) fi.next();
-                if (parentFids.contains(f.getID()))
-                    continue;
-
-                // check the need for a transformation
-                if (first) {
-                    first = false;
-                    CoordinateReferenceSystem nativeCRS = f.getType()
-                            .getCoordinateReferenceSystem();
-                    featureType.getFeatureType().getCoordinateReferenceSystem();
-                    if (nativeCRS != null
-                            && !CRS.equalsIgnoreMetadata(nativeCRS, Tile.WGS84)) {
-                        tx = CRS.findMathTransform(nativeCRS, Tile.WGS84);
+                    Geometry g = (Geometry) f.getDefaultGeometry();
+                    if (g == null || g.isEmpty()) {
+                        continue;
                     }
+                    Point p = g.getCentroid();
+                    coords[0] = p.getX();
+                    coords[1] = p.getY();
+                    if (tx != null)
+                        tx.transform(coords, 0, coords, 0, 1);
+                    builder.add(f.getID(), coords[0], coords[1]);
                 }
-
-                // see if the features is to be included in this tile
-                Point p = ((Geometry) f.getDefaultGeometry()).getCentroid();
-                coords[0] = p.getX();
-                coords[1] = p.getY();
-                if (tx != null)
-                    tx.transform(coords, 0, coords, 0, 1);
-                if (tile.contains(coords[0], coords[1]))
-                    currFids.add(f.getID());
             }
         } finally {
             if (fi != null)
                 fi.close();
+            JDBCUtils.close(conn, null, null);
+        }
+        builder.write(file);
+        LOGGER.log(Level.INFO, "Built regionating index for " + tableName + " with "
+                + builder.getFeatureCount() + " features in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Transforms the WGS84 envelope to the native CRS, returns null if the envelope does not
+     * overlap the data
+     * 
+     * @param envelope
+     * @param nativeCrs
+     * @return
+     * @throws Exception
+     */
+    private ReferencedEnvelope getNativeEnvelope(ReferencedEnvelope envelope,
+            CoordinateReferenceSystem nativeCrs) throws Exception {
+        if (CRS.equalsIgnoreMetadata(Tile.WGS84, nativeCrs)) {
+            return envelope;
+        }
+        try {
+            return envelope.transform(nativeCrs, true);
+        } catch (ProjectionException pe) {
+            // the WGS84 envelope is too big for this projection,
+            // let's intersect it with the declared lat/lon bounds then
+            LOGGER.log(Level.INFO, "Could not reproject the bounds " + envelope
+                    + " to the native SRS, intersecting with "
+                    + "the layer declared lat/lon bounds and retrying");
+
+            ReferencedEnvelope llEnv = featureType.getLatLonBoundingBox();
+            Envelope reduced = envelope.intersection(llEnv);
+            if (reduced.isNull() || reduced.getWidth() == 0 || reduced.getHeight() == 0) {
+                // no overlap, no party, there is nothing to index
+                return null;
+            }
+
+            // there is some overlap, let's try the reprojection again.
+            // if even this fails, the user has evidently setup the
+            // geographics bounds improperly
+            ReferencedEnvelope refRed = new ReferencedEnvelope(reduced,
+                    envelope.getCoordinateReferenceSystem());
+            return refRed.transform(nativeCrs, true);
         }
-        return currFids;
     }
 
     /**
@@ -465,78 +540,6 @@ public abstract class CachedHierarchyRegionatingStrategy implements
     		ReferencedEnvelope nativeEnvelope, Connection indexConnection)
             throws Exception;
 
-    /**
-     * Returns a set of all the fids in the specified tile and in the parents of
-     * it, recursing up to the root tile
-     * 
-     * @param tile
-     * @param st
-     * @return
-     * @throws SQLException
-     */
-    private Set<String> getUpwardFids(Tile tile, Connection conn)
-            throws Exception {
-        // recursion stop condition
-        if (tile == null) {
-            return Collections.emptySet();
-        }
-
-        // return the curren tile fids, and recurse up to the parent
-        Set<String> fids = new HashSet();
-        fids.addAll(readFeaturesForTile(tile, conn));
-        Tile parent = tile.getParent();
-        if(parent != null) {
-            fids.addAll(getUpwardFids(parent, conn));
-        }
-        return fids;
-    }
-
-    /**
-     * Here we have three cases
-     * <ul>
-     * <li>the tile was already computed, and it resulted to be empty. We leave
-     * a "x,y,z,null" marker to know if that happened, and in this case the
-     * returned set will be empty</li> <li>the tile was already computed, and we
-     * have data, the returned sest will be non empty</li> <li>the tile is new,
-     * the db contains nothing, in this case we return "null"</li>
-     * <ul>
-     * 
-     * @param tileCoords
-     * @param conn
-     * @throws SQLException
-     */
-    protected Set<String> readCachedTileFids(Tile tile, Connection conn)
-            throws SQLException {
-        Set<String> fids = null;
-        Statement st = null;
-        ResultSet rs = null;
-        try {
-            st = conn.createStatement();
-            rs = st.executeQuery("SELECT fid FROM TILECACHE where x = "
-                    + tile.x + " AND y = " + tile.y + " and z = " + tile.z);
-            // decide whether we have to collect the fids or just to
-            // return that the tile was empty
-            if (rs.next()) {
-                String fid = rs.getString(1);
-                if (fid == null) {
-                    return Collections.emptySet();
-                } else {
-                    fids = new HashSet<String>();
-                    fids.add(fid);
-                }
-            }
-            // fill the set with the collected fids
-            while (rs.next()) {
-                fids.add(rs.getString(1));
-            }
-        } finally {
-            JDBCUtils.close(rs);
-            JDBCUtils.close(st);
-        }
-
-        return fids;
-    }
-
     /**
      * Returns the name to be used for the database. Should be unique for this
      * specific regionated layer.
@@ -0,0 +1,558 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml.regionate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A read only, memory mapped index of the features assigned to each regionating tile.
+ * <p>
+ * The index is built with a single scan of the features, sorted by regionating priority: each
+ * feature goes in the first tile containing its centroid, walking down from the root tile, that
+ * still has room for it. This is the same assignment the tiles would get if computed one at a
+ * time, top down, excluding the features already found in their parents.
+ * </p>
+ * <p>
+ * The file contains a header, a directory of the non empty tiles sorted by level and position,
+ * searched with a binary search, and the packed feature ids of each tile. The tiles above the
+ * root tile (the deepest one containing the whole data set) are not stored, as they contain the
+ * same features as the root. Lookups use absolute reads on a duplicate of the mapped buffer, so
+ * the index can be shared among threads.
+ * </p>
+ */
+public class RegionatingIndex {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int MAGIC = 0x4B524731;
+
+    /**
+     * The deepest level features are pushed down to. Features that do not fit in a tile at this
+     * level are added to it anyways
+     */
+    static final int MAX_LEVEL = 25;
+
+    static final int HEADER_SIZE = 32;
+
+    static final int DIRECTORY_ENTRY_SIZE = 16;
+
+    static final Set<String> NO_FIDS = Collections.emptySet();
+
+    final File file;
+
+    final long lastModified;
+
+    final ByteBuffer buffer;
+
+    final int featuresPerTile;
+
+    final int rootZ;
+
+    final long rootX;
+
+    final long rootY;
+
+    final int tileCount;
+
+    final int dataStart;
+
+    RegionatingIndex(File file, long lastModified, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Invalid regionating index " + file);
+        }
+        this.featuresPerTile = buffer.getInt(4);
+        this.rootZ = buffer.getInt(8);
+        this.rootX = buffer.getLong(12);
+        this.rootY = buffer.getLong(20);
+        this.tileCount = buffer.getInt(28);
+        this.dataStart = HEADER_SIZE + tileCount * DIRECTORY_ENTRY_SIZE;
+    }
+
+    /**
+     * Memory maps the specified index file
+     */
+    public static RegionatingIndex open(File file) throws IOException {
+        long lastModified = file.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new RegionatingIndex(file, lastModified, buffer);
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns true if the index file is still there, unchanged, and has been built with the
+     * specified number of features per tile
+     */
+    public boolean isValid(int featuresPerTile) {
+        return this.featuresPerTile == featuresPerTile && file.exists()
+                && file.lastModified() == lastModified;
+    }
+
+    public int getFeaturesPerTile() {
+        return featuresPerTile;
+    }
+
+    /**
+     * Returns the number of non empty tiles
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Returns the ids of the features assigned to the specified tile
+     */
+    public Set<String> getFids(long x, long y, long z) {
+        if (z <= rootZ) {
+            // the root contents are shared by all the tiles containing it
+            int shift = (int) (rootZ - z);
+            if ((rootX >> shift) == x && (rootY >> shift) == y) {
+                return readFids(rootZ, rootX, rootY);
+            }
+            return NO_FIDS;
+        }
+        return readFids(z, x, y);
+    }
+
+    Set<String> readFids(long z, long x, long y) {
+        long key = key(z, x, y);
+        ByteBuffer bb = buffer.duplicate();
+        int low = 0;
+        int high = tileCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = HEADER_SIZE + mid * DIRECTORY_ENTRY_SIZE;
+            long midKey = bb.getLong(entry);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                int position = dataStart + bb.getInt(entry + 8);
+                int count = bb.getInt(entry + 12);
+                Set<String> fids = new HashSet<String>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    int length = bb.getShort(position) & 0xFFFF;
+                    byte[] bytes = new byte[length];
+                    bb.position(position + 2);
+                    bb.get(bytes);
+                    fids.add(new String(bytes, UTF8));
+                    position += 2 + length;
+                }
+                return fids;
+            }
+        }
+        return NO_FIDS;
+    }
+
+    static long key(long z, long x, long y) {
+        return (z << 56) | (x << 28) | y;
+    }
+
+    /**
+     * Returns the size of the tiles at the specified level, in degrees
+     */
+    static double tileSize(long z) {
+        return Tile.MAX_TILE_WIDTH / Math.pow(2, z);
+    }
+
+    /**
+     * Builds the index in a single pass over the features, which have to be added in regionating
+     * priority order.
+     * <p>
+     * Only the per tile feature counts are kept in memory for the whole build, the feature ids are
+     * buffered and, once the buffer holds more than the configured number of ids, sorted by tile
+     * and spilled to a temporary run file. The runs are merged back when the index is written, so
+     * the heap usage is bounded by the buffer size plus a few bytes per non empty tile.
+     * </p>
+     */
+    public static class Builder {
+
+        /**
+         * The default number of feature ids buffered in memory before spilling them to disk
+         */
+        public static final int DEFAULT_MAX_BUFFERED_FIDS = 100000;
+
+        final int featuresPerTile;
+
+        final Envelope dataEnvelope;
+
+        final File spillDirectory;
+
+        final int maxBufferedFids;
+
+        int rootZ = -1;
+
+        long rootX;
+
+        long rootY;
+
+        final Map<Long, TileStats> tiles = new HashMap<Long, TileStats>();
+
+        final List<BufferedFid> buffer = new ArrayList<BufferedFid>();
+
+        final List<File> runs = new ArrayList<File>();
+
+        int featureCount;
+
+        /**
+         * @param featuresPerTile the max number of features per tile
+         * @param dataEnvelope the WGS84 bounds of the data
+         */
+        public Builder(int featuresPerTile, Envelope dataEnvelope) {
+            this(featuresPerTile, dataEnvelope, null, DEFAULT_MAX_BUFFERED_FIDS);
+        }
+
+        /**
+         * @param featuresPerTile the max number of features per tile
+         * @param dataEnvelope the WGS84 bounds of the data
+         * @param spillDirectory the directory for the temporary run files, or null to use the
+         *        system temporary directory
+         * @param maxBufferedFids the number of feature ids kept in memory before spilling them to
+         *        a run file
+         */
+        public Builder(int featuresPerTile, Envelope dataEnvelope, File spillDirectory,
+                int maxBufferedFids) {
+            this.featuresPerTile = featuresPerTile;
+            this.dataEnvelope = dataEnvelope;
+            this.spillDirectory = spillDirectory;
+            this.maxBufferedFids = Math.max(1, maxBufferedFids);
+
+            // find the deepest tile containing the whole data set, if any
+            for (int z = 0; z <= MAX_LEVEL; z++) {
+                long x = tileX(dataEnvelope.getMinX(), z);
+                long y = tileY(dataEnvelope.getMinY(), z);
+                Tile tile = new Tile(x, y, z);
+                if (!tile.getEnvelope().contains(dataEnvelope)) {
+                    break;
+                }
+                rootZ = z;
+                rootX = x;
+                rootY = y;
+            }
+        }
+
+        /**
+         * Assigns the feature to the first tile containing the specified centroid that still has
+         * room for it
+         */
+        public void add(String fid, double x, double y) throws IOException {
+            if (Double.isNaN(x) || Double.isNaN(y)) {
+                return;
+            }
+            byte[] bytes = fid.getBytes(UTF8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("Feature id too long: " + fid);
+            }
+            for (int z = Math.max(rootZ, 0); z <= MAX_LEVEL; z++) {
+                long key = key(z, tileX(x, z), tileY(y, z));
+                TileStats stats = tiles.get(key);
+                if (stats == null) {
+                    stats = new TileStats();
+                    tiles.put(key, stats);
+                }
+                if (stats.count < featuresPerTile || z == MAX_LEVEL) {
+                    stats.count++;
+                    stats.size += 2 + bytes.length;
+                    featureCount++;
+                    buffer.add(new BufferedFid(key, bytes));
+                    if (buffer.size() >= maxBufferedFids) {
+                        spill();
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Sorts the buffered feature ids by tile and writes them to a new run file
+         */
+        void spill() throws IOException {
+            Collections.sort(buffer);
+            File run = File.createTempFile("regionate", ".run", spillDirectory);
+            runs.add(run);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(run)));
+            try {
+                for (BufferedFid fid : buffer) {
+                    out.writeLong(fid.key);
+                    out.writeShort(fid.bytes.length);
+                    out.write(fid.bytes);
+                }
+            } finally {
+                out.close();
+            }
+            buffer.clear();
+        }
+
+        /**
+         * The tile column containing the specified longitude. Centroids sitting on the east border
+         * of the data go in the tile on their west, see {@link Tile#contains(double, double)}
+         */
+        long tileX(double x, long z) {
+            double size = tileSize(z);
+            long max = (long) Math.pow(2, z + 1) - 1;
+            double offset = x - Tile.WORLD_BOUNDS.getMinX();
+            long tx = (long) Math.floor(offset / size);
+            if (tx > 0 && x >= dataEnvelope.getMaxX() && tx * size == offset) {
+                tx--;
+            }
+            return Math.max(0, Math.min(max, tx));
+        }
+
+        /**
+         * The tile row containing the specified latitude, same border handling as
+         * {@link #tileX(double, long)}
+         */
+        long tileY(double y, long z) {
+            double size = tileSize(z);
+            long max = (long) Math.pow(2, z) - 1;
+            double offset = y - Tile.WORLD_BOUNDS.getMinY();
+            long ty = (long) Math.floor(offset / size);
+            if (ty > 0 && y >= dataEnvelope.getMaxY() && ty * size == offset) {
+                ty--;
+            }
+            return Math.max(0, Math.min(max, ty));
+        }
+
+        /**
+         * Returns the number of features added to the index
+         */
+        public int getFeatureCount() {
+            return featureCount;
+        }
+
+        /**
+         * Writes the index to the specified file, replacing it atomically if possible. The
+         * temporary run files are removed, the builder cannot be used anymore afterwards.
+         */
+        public void write(File file) throws IOException {
+            TreeMap<Long, TileStats> sorted = new TreeMap<Long, TileStats>();
+            for (Map.Entry<Long, TileStats> entry : tiles.entrySet()) {
+                if (entry.getValue().count > 0) {
+                    sorted.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+            List<FidSource> sources = new ArrayList<FidSource>();
+            try {
+                // the runs hold older features than the buffer, merging them in this order
+                // preserves the insertion order within each tile
+                for (File run : runs) {
+                    sources.add(new RunSource(sources.size(), run));
+                }
+                Collections.sort(buffer);
+                sources.add(new BufferSource(sources.size(), buffer));
+
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(temp)));
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeInt(featuresPerTile);
+                    out.writeInt(rootZ);
+                    out.writeLong(rootX);
+                    out.writeLong(rootY);
+                    out.writeInt(sorted.size());
+
+                    // directory, with the offsets in the data section
+                    long offset = 0;
+                    for (Map.Entry<Long, TileStats> entry : sorted.entrySet()) {
+                        TileStats stats = entry.getValue();
+                        out.writeLong(entry.getKey());
+                        out.writeInt((int) offset);
+                        out.writeInt(stats.count);
+                        offset += stats.size;
+                        if (offset > Integer.MAX_VALUE) {
+                            throw new IOException("Regionating index too large");
+                        }
+                    }
+
+                    // packed feature ids, merging the sorted runs
+                    PriorityQueue<FidSource> queue = new PriorityQueue<FidSource>(
+                            sources.size());
+                    for (FidSource source : sources) {
+                        if (source.next()) {
+                            queue.add(source);
+                        }
+                    }
+                    while (!queue.isEmpty()) {
+                        FidSource source = queue.poll();
+                        out.writeShort(source.bytes.length);
+                        out.write(source.bytes);
+                        if (source.next()) {
+                            queue.add(source);
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                for (FidSource source : sources) {
+                    source.close();
+                }
+                for (File run : runs) {
+                    if (!run.delete()) {
+                        run.deleteOnExit();
+                    }
+                }
+                runs.clear();
+                buffer.clear();
+            }
+
+            if (file.exists() && !file.delete()) {
+                temp.delete();
+                throw new IOException("Could not replace the regionating index " + file);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * The number of features assigned to a tile, and the size of their encoded ids
+     */
+    static class TileStats {
+        int count;
+
+        long size;
+    }
+
+    /**
+     * A feature id waiting to be spilled or written, sorted by tile
+     */
+    static class BufferedFid implements Comparable<BufferedFid> {
+        final long key;
+
+        final byte[] bytes;
+
+        BufferedFid(long key, byte[] bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int compareTo(BufferedFid other) {
+            return key < other.key ? -1 : (key == other.key ? 0 : 1);
+        }
+    }
+
+    /**
+     * A sorted sequence of feature ids taking part in the merge. Sources with the same current key
+     * are ordered by their position, so that the merge is stable
+     */
+    abstract static class FidSource implements Comparable<FidSource> {
+        final int order;
+
+        long key;
+
+        byte[] bytes;
+
+        FidSource(int order) {
+            this.order = order;
+        }
+
+        /**
+         * Moves to the next feature id, returns false if there are no more
+         */
+        abstract boolean next() throws IOException;
+
+        void close() {
+            // nothing to do
+        }
+
+        @Override
+        public int compareTo(FidSource other) {
+            if (key != other.key) {
+                return key < other.key ? -1 : 1;
+            }
+            return order - other.order;
+        }
+    }
+
+    static class BufferSource extends FidSource {
+        final List<BufferedFid> fids;
+
+        int index;
+
+        BufferSource(int order, List<BufferedFid> fids) {
+            super(order);
+            this.fids = fids;
+        }
+
+        @Override
+        boolean next() {
+            if (index >= fids.size()) {
+                return false;
+            }
+            BufferedFid fid = fids.get(index++);
+            key = fid.key;
+            bytes = fid.bytes;
+            return true;
+        }
+    }
+
+    static class RunSource extends FidSource {
+        final DataInputStream in;
+
+        RunSource(int order, File run) throws IOException {
+            super(order);
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+        }
+
+        @Override
+        boolean next() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore, the run is deleted right after
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml.icons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Test;
+
+public class EmbeddedIconCacheTest {
+
+    StyleBuilder sb = new StyleBuilder();
+
+    @Test
+    public void testInMemory() throws Exception {
+        EmbeddedIconCache cache = new EmbeddedIconCache(true, 1024 * 1024);
+        try {
+            cache.add("red", style("circle", Color.RED));
+            cache.add("blue", style("square", Color.BLUE));
+            // duplicates are ignored
+            cache.add("red", style("square", Color.GREEN));
+            assertEquals(2, cache.size());
+            assertTrue(cache.contains("red"));
+            assertNull(cache.spillFile);
+
+            List<String> names = checkIcons(cache);
+            assertEquals("icons/", names.get(0));
+            assertEquals(3, names.size());
+            assertTrue(names.contains("icons/red.png"));
+            assertTrue(names.contains("icons/blue.png"));
+        } finally {
+            cache.dispose();
+        }
+    }
+
+    @Test
+    public void testSpillToDisk() throws Exception {
+        // no room in memory at all, everything goes on disk
+        EmbeddedIconCache cache = new EmbeddedIconCache(true, 1);
+        cache.add("red", style("circle", Color.RED));
+        cache.add("blue", style("square", Color.BLUE));
+        cache.add("green", style("triangle", Color.GREEN));
+        File spillFile = cache.spillFile;
+        assertNotNull(spillFile);
+        assertTrue(spillFile.exists());
+        assertTrue(cache.inMemory.isEmpty());
+
+        List<String> names = checkIcons(cache);
+        assertEquals(4, names.size());
+        assertTrue(names.contains("icons/green.png"));
+
+        cache.dispose();
+        assertFalse(spillFile.exists());
+        assertNull(cache.spillFile);
+    }
+
+    @Test
+    public void testNoRender() throws Exception {
+        EmbeddedIconCache cache = new EmbeddedIconCache(false);
+        cache.add("red", style("circle", Color.RED));
+        assertTrue(cache.contains("red"));
+        assertTrue(cache.inMemory.isEmpty());
+        assertNull(cache.spillFile);
+
+        // nothing gets written
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bos);
+        zip.putNextEntry(new ZipEntry("wms.kml"));
+        cache.writeTo(zip);
+        zip.finish();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals("wms.kml", zis.getNextEntry().getName());
+        assertNull(zis.getNextEntry());
+    }
+
+    /**
+     * Writes the icons in a zip, checks they are valid images and returns the entry names
+     */
+    List<String> checkIcons(EmbeddedIconCache cache) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bos);
+        cache.writeTo(zip);
+        zip.finish();
+
+        List<String> names = new ArrayList<String>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            names.add(entry.getName());
+            if (!entry.isDirectory()) {
+                ByteArrayOutputStream icon = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = zis.read(buffer)) > 0) {
+                    icon.write(buffer, 0, read);
+                }
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(icon.toByteArray()));
+                assertNotNull(entry.getName(), image);
+            }
+        }
+        return names;
+    }
+
+    Style style(String mark, Color color) {
+        return sb.createStyle(sb.createPointSymbolizer(sb.createGraphic(null,
+                sb.createMark(mark, color), null)));
+    }
+}
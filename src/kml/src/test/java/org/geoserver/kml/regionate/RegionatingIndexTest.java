@@ -0,0 +1,211 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml.regionate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class RegionatingIndexTest {
+
+    static final Logger LOGGER = Logging.getLogger(RegionatingIndexTest.class);
+
+    File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("regionate", ".idx");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testAssignment() throws Exception {
+        RegionatingIndex.Builder builder = new RegionatingIndex.Builder(2, new Envelope(0, 10, 0,
+                10));
+        // the deepest tile containing the data
+        assertEquals(4, builder.rootZ);
+        assertEquals(16, builder.rootX);
+        assertEquals(8, builder.rootY);
+
+        builder.add("a", 1, 1);
+        builder.add("b", 9, 9);
+        builder.add("c", 2, 2);
+        builder.add("d", 3, 3);
+        builder.add("e", 8, 8);
+        assertEquals(5, builder.getFeatureCount());
+        builder.write(file);
+
+        RegionatingIndex index = RegionatingIndex.open(file);
+        assertEquals(3, index.getTileCount());
+        assertEquals(set("a", "b"), index.getFids(16, 8, 4));
+        assertEquals(set("c", "d"), index.getFids(32, 16, 5));
+        assertEquals(set("e"), index.getFids(33, 17, 5));
+        assertEquals(set(), index.getFids(32, 17, 5));
+        assertEquals(set(), index.getFids(64, 32, 6));
+
+        // the tiles containing the root have the same contents
+        assertEquals(set("a", "b"), index.getFids(8, 4, 3));
+        assertEquals(set("a", "b"), index.getFids(1, 0, 0));
+        assertEquals(set(), index.getFids(0, 0, 0));
+    }
+
+    @Test
+    public void testDataEastBorder() throws Exception {
+        RegionatingIndex.Builder builder = new RegionatingIndex.Builder(1, new Envelope(0, 90, 0,
+                45));
+        builder.add("a", 10, 10);
+        // sits on the data and tile east border, belongs to the tile on the west
+        builder.add("b", 90, 10);
+        builder.write(file);
+
+        RegionatingIndex index = RegionatingIndex.open(file);
+        assertEquals(set("a"), index.getFids(2, 1, 1));
+        assertEquals(set("b"), index.getFids(5, 2, 2));
+    }
+
+    @Test
+    public void testValidity() throws Exception {
+        RegionatingIndex.Builder builder = new RegionatingIndex.Builder(10, new Envelope(0, 10, 0,
+                10));
+        builder.add("a", 1, 1);
+        builder.write(file);
+
+        RegionatingIndex index = RegionatingIndex.open(file);
+        assertTrue(index.isValid(10));
+        assertFalse(index.isValid(20));
+        file.delete();
+        assertFalse(index.isValid(10));
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        File spillDir = file.getParentFile();
+        Envelope envelope = new Envelope(-10, 30, 35, 70);
+        RegionatingIndex.Builder memory = new RegionatingIndex.Builder(4, envelope);
+        RegionatingIndex.Builder spilling = new RegionatingIndex.Builder(4, envelope, spillDir, 7);
+        Random random = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            double x = -10 + random.nextDouble() * 40;
+            double y = 35 + random.nextDouble() * 35;
+            memory.add("f." + i, x, y);
+            spilling.add("f." + i, x, y);
+        }
+        assertEquals(28, spilling.runs.size());
+        assertEquals(4, spilling.buffer.size());
+
+        File other = File.createTempFile("regionate", ".idx");
+        try {
+            memory.write(file);
+            spilling.write(other);
+            assertTrue(spilling.runs.isEmpty());
+            assertTrue(Arrays.equals(Files.readAllBytes(file.toPath()),
+                    Files.readAllBytes(other.toPath())));
+        } finally {
+            other.delete();
+        }
+    }
+
+    @Test
+    public void testIndexVersions() throws Exception {
+        File directory = new File(file.getParentFile(), "regionate" + System.nanoTime());
+        directory.mkdir();
+        try {
+            assertNull(CachedHierarchyRegionatingStrategy.findIndexFile(directory, "topp_states"));
+            File first = CachedHierarchyRegionatingStrategy.newIndexFile(directory, "topp_states");
+            assertEquals("regionate_topp_states.idx", first.getName());
+            first.createNewFile();
+            assertEquals(first,
+                    CachedHierarchyRegionatingStrategy.findIndexFile(directory, "topp_states"));
+
+            // an index that cannot be removed is marked as stale and skipped
+            CachedHierarchyRegionatingStrategy.staleMarker(first).createNewFile();
+            File second = CachedHierarchyRegionatingStrategy
+                    .newIndexFile(directory, "topp_states");
+            assertEquals("regionate_topp_states.v1.idx", second.getName());
+            second.createNewFile();
+            assertEquals(second,
+                    CachedHierarchyRegionatingStrategy.findIndexFile(directory, "topp_states"));
+            // and removed, along with its marker, once possible
+            assertFalse(first.exists());
+            assertFalse(CachedHierarchyRegionatingStrategy.staleMarker(first).exists());
+
+            // indexes of other tables are not picked up
+            assertTrue(CachedHierarchyRegionatingStrategy.listIndexFiles(directory, "topp")
+                    .isEmpty());
+        } finally {
+            for (File f : directory.listFiles()) {
+                f.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Measures the index build time and the tile lookup latency over a synthetic data set. Enable
+     * it with -Dkml.regionating.benchmark=true
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("kml.regionating.benchmark"));
+        final int features = 1000000;
+        final int lookups = 100000;
+        Random random = new Random(0);
+
+        long start = System.currentTimeMillis();
+        RegionatingIndex.Builder builder = new RegionatingIndex.Builder(64, new Envelope(-10, 30,
+                35, 70));
+        for (int i = 0; i < features; i++) {
+            builder.add("f." + i, -10 + random.nextDouble() * 40, 35 + random.nextDouble() * 35);
+        }
+        builder.write(file);
+        long buildTime = System.currentTimeMillis() - start;
+
+        RegionatingIndex index = RegionatingIndex.open(file);
+        long[] keys = new long[builder.tiles.size()];
+        int k = 0;
+        for (Long key : builder.tiles.keySet()) {
+            keys[k++] = key;
+        }
+        start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < lookups; i++) {
+            long key = keys[random.nextInt(keys.length)];
+            long z = key >>> 56;
+            long x = (key >>> 28) & 0xFFFFFFF;
+            long y = key & 0xFFFFFFF;
+            found += index.getFids(x, y, z).size();
+        }
+        long lookupTime = System.nanoTime() - start;
+
+        LOGGER.info(String.format("Indexed %d features in %d tiles in %d ms, file size %.1f MB; "
+                + "%d lookups, %.1f us per lookup, %d fids read", features,
+                index.getTileCount(), buildTime, file.length() / (1024d * 1024d), lookups,
+                lookupTime / 1000d / lookups, found));
+    }
+
+    static HashSet<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
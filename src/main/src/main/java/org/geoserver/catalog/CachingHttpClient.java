@@ -0,0 +1,586 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.ows.util.KvpUtils;
+import org.geotools.data.ows.HTTPClient;
+import org.geotools.data.ows.HTTPResponse;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * A {@link HTTPClient} wrapper used to talk to cascaded servers.
+ * <p>
+ * GET requests are normalized (keys upper cased and sorted, values untouched) and identical
+ * concurrent requests are coalesced, so that only one of them actually reaches the remote server
+ * while the others wait for its response. Only the responses smaller than the max response size
+ * are buffered and shared, the larger ones are streamed to the caller that issued them, while the
+ * callers waiting on them perform their own request. When a cache size is configured the buffered
+ * responses are also kept in a bounded cache, for the configured time to live. Service exceptions
+ * are never cached.
+ * </p>
+ * <p>
+ * POST requests are streamed from the delegate as is.
+ * </p>
+ * <p>
+ * The wrapper collects a few {@link Statistics} about the remote server usage and latency, which
+ * are available from {@link ResourcePool#getWebMapServerStatistics(WMSStoreInfo)} and published
+ * in JMX by {@link WebMapServerStatistics}.
+ * </p>
+ */
+public class CachingHttpClient implements HTTPClient, Closeable {
+
+    static final Logger LOGGER = Logging.getLogger(CachingHttpClient.class);
+
+    /**
+     * The response headers preserved in the buffered responses
+     */
+    static final String[] HEADERS = { "Content-Type", "Content-Encoding", "Content-Disposition",
+            "Cache-Control", "Expires", "Last-Modified", "ETag" };
+
+    /**
+     * The default max size of a response to be buffered and cached
+     */
+    static final long DEFAULT_MAX_RESPONSE_SIZE = 1024 * 1024;
+
+    /**
+     * Matches the first element of a XML document, capturing its local name
+     */
+    static final Pattern ROOT_ELEMENT = Pattern.compile("<(?:[\\w.-]+:)?([\\w.-]+)");
+
+    final HTTPClient delegate;
+
+    final Cache<String, BufferedResponse> cache;
+
+    final long maxResponseSize;
+
+    final ConcurrentHashMap<String, FutureTask<HTTPResponse>> inFlight = new ConcurrentHashMap<String, FutureTask<HTTPResponse>>();
+
+    final Statistics statistics = new Statistics();
+
+    /**
+     * @param delegate the client performing the actual requests
+     * @param cacheSize the max size of the cache in bytes, 0 or negative to disable it
+     * @param timeToLive the number of seconds a response is kept in the cache
+     */
+    public CachingHttpClient(HTTPClient delegate, long cacheSize, int timeToLive) {
+        this(delegate, cacheSize, timeToLive, cacheSize > 0 ? Math.min(cacheSize,
+                DEFAULT_MAX_RESPONSE_SIZE) : DEFAULT_MAX_RESPONSE_SIZE);
+    }
+
+    /**
+     * @param delegate the client performing the actual requests
+     * @param cacheSize the max size of the cache in bytes, 0 or negative to disable it
+     * @param timeToLive the number of seconds a response is kept in the cache
+     * @param maxResponseSize the max size in bytes of a response to be buffered, shared and
+     *        cached
+     */
+    public CachingHttpClient(HTTPClient delegate, long cacheSize, int timeToLive,
+            long maxResponseSize) {
+        this.delegate = delegate;
+        this.maxResponseSize = maxResponseSize;
+        if (cacheSize > 0) {
+            cache = CacheBuilder.newBuilder().maximumWeight(cacheSize)
+                    .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+                    .weigher(new Weigher<String, BufferedResponse>() {
+
+                        @Override
+                        public int weigh(String key, BufferedResponse value) {
+                            return key.length() * 2 + value.contents.length;
+                        }
+                    }).build();
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Returns the wrapped client
+     */
+    public HTTPClient getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the usage statistics of the remote server
+     */
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public HTTPResponse get(final URL url) throws IOException {
+        statistics.requests.incrementAndGet();
+        final String key = normalize(url);
+        if (cache != null) {
+            BufferedResponse cached = cache.getIfPresent(key);
+            if (cached != null) {
+                statistics.cacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        // coalesce with an identical request already running, if any
+        FutureTask<HTTPResponse> task = new FutureTask<HTTPResponse>(
+                new Callable<HTTPResponse>() {
+
+                    @Override
+                    public HTTPResponse call() throws Exception {
+                        return execute(key, url);
+                    }
+                });
+        FutureTask<HTTPResponse> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key);
+            }
+            return getResponse(task, url);
+        }
+
+        statistics.coalesced.incrementAndGet();
+        HTTPResponse response = getResponse(running, url);
+        if (response instanceof BufferedResponse) {
+            return response;
+        }
+        // too large to be shared, it's being streamed to the caller that issued it
+        return stream(url);
+    }
+
+    HTTPResponse getResponse(FutureTask<HTTPResponse> task, URL url) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + url, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to get " + url, cause);
+        }
+    }
+
+    /**
+     * Performs the request, buffering and caching (if enabled) the response if small enough, or
+     * returning a response streaming its contents otherwise
+     */
+    HTTPResponse execute(String key, URL url) throws IOException {
+        long start = System.nanoTime();
+        HTTPResponse response = null;
+        boolean streaming = false;
+        try {
+            response = delegate.get(url);
+            InputStream is = response.getResponseStream();
+            byte[] head = readAtMost(is, maxResponseSize + 1);
+            if (head.length > maxResponseSize) {
+                streaming = true;
+                return new StreamingResponse(response, new SequenceInputStream(
+                        new ByteArrayInputStream(head), is));
+            }
+            IOUtils.closeQuietly(is);
+
+            BufferedResponse buffered = new BufferedResponse(response, head);
+            if (cache != null && !buffered.isServiceException()) {
+                cache.put(key, buffered);
+            }
+            return buffered;
+        } catch (IOException e) {
+            statistics.upstreamErrors.incrementAndGet();
+            throw e;
+        } finally {
+            if (response != null && !streaming) {
+                response.dispose();
+            }
+            statistics.upstreamRequest(System.nanoTime() - start);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Remote request " + url + " completed in "
+                        + (System.nanoTime() - start) / 1000000 + "ms");
+            }
+        }
+    }
+
+    /**
+     * Performs the request, returning the delegate response as is
+     */
+    HTTPResponse stream(URL url) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.get(url);
+        } catch (IOException e) {
+            statistics.upstreamErrors.incrementAndGet();
+            throw e;
+        } finally {
+            statistics.upstreamRequest(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads up to the specified number of bytes from the stream
+     */
+    static byte[] readAtMost(InputStream is, long limit) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        long remaining = limit;
+        int read;
+        while (remaining > 0
+                && (read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+            bos.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return bos.toByteArray();
+    }
+
+    @Override
+    public HTTPResponse post(URL url, InputStream postContent, String postContentType)
+            throws IOException {
+        statistics.requests.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return delegate.post(url, postContent, postContentType);
+        } catch (IOException e) {
+            statistics.upstreamErrors.incrementAndGet();
+            throw e;
+        } finally {
+            statistics.upstreamRequest(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Builds the cache key out of the URL, with the query string parameters sorted by upper cased
+     * key
+     */
+    static String normalize(URL url) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(url.getProtocol()).append("://").append(url.getHost());
+        if (url.getPort() != -1) {
+            sb.append(":").append(url.getPort());
+        }
+        sb.append(url.getPath());
+        if (url.getQuery() != null) {
+            Map<String, Object> kvp = KvpUtils.parseQueryString(url.toExternalForm());
+            Map<String, Object> sorted = new TreeMap<String, Object>();
+            for (Map.Entry<String, Object> entry : kvp.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Object[]) {
+                    // repeated parameter
+                    value = Arrays.toString((Object[]) value);
+                }
+                sorted.put(entry.getKey().toUpperCase(), value);
+            }
+            char separator = '?';
+            for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+                sb.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+                separator = '&';
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Drops all the cached responses
+     */
+    public void clear() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the number of cached responses
+     */
+    public long getCacheSize() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        clear();
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    @Override
+    public String getUser() {
+        return delegate.getUser();
+    }
+
+    @Override
+    public void setUser(String user) {
+        delegate.setUser(user);
+    }
+
+    @Override
+    public String getPassword() {
+        return delegate.getPassword();
+    }
+
+    @Override
+    public void setPassword(String password) {
+        delegate.setPassword(password);
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return delegate.getConnectTimeout();
+    }
+
+    @Override
+    public void setConnectTimeout(int connectTimeout) {
+        delegate.setConnectTimeout(connectTimeout);
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return delegate.getReadTimeout();
+    }
+
+    @Override
+    public void setReadTimeout(int readTimeout) {
+        delegate.setReadTimeout(readTimeout);
+    }
+
+    @Override
+    public void setTryGzip(boolean tryGZIP) {
+        delegate.setTryGzip(tryGZIP);
+    }
+
+    @Override
+    public boolean isTryGzip() {
+        return delegate.isTryGzip();
+    }
+
+    /**
+     * A fully read response, that can be shared among threads and returned multiple times
+     */
+    static class BufferedResponse implements HTTPResponse {
+
+        final byte[] contents;
+
+        final String contentType;
+
+        final String charset;
+
+        final Map<String, String> headers = new TreeMap<String, String>(
+                String.CASE_INSENSITIVE_ORDER);
+
+        BufferedResponse(HTTPResponse response, byte[] contents) throws IOException {
+            this.contents = contents;
+            this.contentType = response.getContentType();
+            this.charset = response.getResponseCharset();
+            for (String header : HEADERS) {
+                String value = response.getResponseHeader(header);
+                if (value != null) {
+                    headers.put(header, value);
+                }
+            }
+        }
+
+        /**
+         * Returns true if the response is a service exception report, either using the WMS 1.1
+         * exception mime type or, as WMS 1.3 does, a generic XML one
+         */
+        boolean isServiceException() {
+            if (contentType == null) {
+                return false;
+            }
+            if (contentType.contains("se_xml") || contentType.contains("se+xml")) {
+                return true;
+            }
+            if (contentType.contains("xml")) {
+                String head = new String(contents, 0, Math.min(contents.length, 1024),
+                        Charset.forName("ISO-8859-1"));
+                Matcher matcher = ROOT_ELEMENT.matcher(head);
+                return matcher.find() && matcher.group(1).endsWith("ExceptionReport");
+            }
+            return false;
+        }
+
+        @Override
+        public void dispose() {
+            // nothing to do, the contents are shared
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public String getResponseHeader(String headerName) {
+            return headers.get(headerName);
+        }
+
+        @Override
+        public InputStream getResponseStream() throws IOException {
+            return new ByteArrayInputStream(contents);
+        }
+
+        @Override
+        public String getResponseCharset() {
+            return charset;
+        }
+    }
+
+    /**
+     * A response too large to be buffered, streaming the contents already read followed by the
+     * rest of the delegate response
+     */
+    static class StreamingResponse implements HTTPResponse {
+
+        final HTTPResponse delegate;
+
+        final InputStream stream;
+
+        StreamingResponse(HTTPResponse delegate, InputStream stream) {
+            this.delegate = delegate;
+            this.stream = stream;
+        }
+
+        @Override
+        public void dispose() {
+            IOUtils.closeQuietly(stream);
+            delegate.dispose();
+        }
+
+        @Override
+        public String getContentType() {
+            return delegate.getContentType();
+        }
+
+        @Override
+        public String getResponseHeader(String headerName) {
+            return delegate.getResponseHeader(headerName);
+        }
+
+        @Override
+        public InputStream getResponseStream() throws IOException {
+            return stream;
+        }
+
+        @Override
+        public String getResponseCharset() {
+            return delegate.getResponseCharset();
+        }
+    }
+
+    /**
+     * Usage and latency statistics of a remote server
+     */
+    public static class Statistics {
+
+        final AtomicLong requests = new AtomicLong();
+
+        final AtomicLong cacheHits = new AtomicLong();
+
+        final AtomicLong coalesced = new AtomicLong();
+
+        final AtomicLong upstreamRequests = new AtomicLong();
+
+        final AtomicLong upstreamErrors = new AtomicLong();
+
+        final AtomicLong upstreamTime = new AtomicLong();
+
+        final AtomicLong maxUpstreamTime = new AtomicLong();
+
+        void upstreamRequest(long nanos) {
+            upstreamRequests.incrementAndGet();
+            upstreamTime.addAndGet(nanos);
+            long max = maxUpstreamTime.get();
+            while (max < nanos && !maxUpstreamTime.compareAndSet(max, nanos)) {
+                max = maxUpstreamTime.get();
+            }
+        }
+
+        /**
+         * The total number of requests received
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * The number of requests served from the cache
+         */
+        public long getCacheHits() {
+            return cacheHits.get();
+        }
+
+        /**
+         * The number of requests that waited for an identical one to complete, including the ones
+         * that then had to perform their own request as the response was too large to be shared
+         */
+        public long getCoalesced() {
+            return coalesced.get();
+        }
+
+        /**
+         * The number of requests actually sent to the remote server
+         */
+        public long getUpstreamRequests() {
+            return upstreamRequests.get();
+        }
+
+        /**
+         * The number of requests to the remote server that failed
+         */
+        public long getUpstreamErrors() {
+            return upstreamErrors.get();
+        }
+
+        /**
+         * The average remote request time, in milliseconds
+         */
+        public double getAverageUpstreamTime() {
+            long count = upstreamRequests.get();
+            return count == 0 ? 0 : upstreamTime.get() / 1e6 / count;
+        }
+
+        /**
+         * The max remote request time, in milliseconds
+         */
+        public double getMaxUpstreamTime() {
+            return maxUpstreamTime.get() / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequests() + ", cacheHits=" + getCacheHits() + ", coalesced="
+                    + getCoalesced() + ", upstreamRequests=" + getUpstreamRequests()
+                    + ", upstreamErrors=" + getUpstreamErrors() + ", averageUpstreamTime="
+                    + getAverageUpstreamTime() + "ms, maxUpstreamTime=" + getMaxUpstreamTime()
+                    + "ms";
+        }
+    }
+}
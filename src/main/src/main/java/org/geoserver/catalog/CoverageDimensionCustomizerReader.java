@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,12 +27,17 @@ import org.geotools.coverage.GridSampleDimension;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.DimensionDescriptor;
 import org.geotools.coverage.grid.io.GranuleSource;
+import org.geotools.coverage.grid.io.GranuleStore;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
 import org.geotools.coverage.grid.io.HarvestedSource;
 import org.geotools.coverage.grid.io.OverviewPolicy;
 import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.factory.Hints;
 import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.resources.Classes;
 import org.geotools.util.NumberRange;
 import org.geotools.util.SimpleInternationalString;
@@ -45,6 +51,7 @@ import org.opengis.coverage.grid.Format;
 import org.opengis.coverage.grid.GridCoverageReader;
 import org.opengis.coverage.grid.GridEnvelope;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterDescriptor;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -72,6 +79,12 @@ public class CoverageDimensionCustomizerReader implements GridCoverage2DReader {
 
     private String coverageName;
 
+    private CoverageReadCache readCache;
+
+    private String storeId;
+
+    private Object readerKey;
+
     static class CoverageDimensionCustomizerStructuredReader extends CoverageDimensionCustomizerReader implements StructuredGridCoverage2DReader{
 
         private StructuredGridCoverage2DReader structuredDelegate;
@@ -91,7 +104,11 @@ public class CoverageDimensionCustomizerReader implements GridCoverage2DReader {
         @Override
         public GranuleSource getGranules(String coverageName, boolean readOnly) throws IOException,
                 UnsupportedOperationException {
-            return structuredDelegate.getGranules(coverageName, readOnly);
+            GranuleSource source = structuredDelegate.getGranules(coverageName, readOnly);
+            if (!readOnly && source instanceof GranuleStore && isReadCached()) {
+                return new ReadCacheInvalidatingGranuleStore((GranuleStore) source, this);
+            }
+            return source;
         }
 
         @Override
@@ -102,30 +119,50 @@ public class CoverageDimensionCustomizerReader implements GridCoverage2DReader {
         @Override
         public void createCoverage(String coverageName, SimpleFeatureType schema)
                 throws IOException, UnsupportedOperationException {
-            structuredDelegate.createCoverage(coverageName, schema);
+            try {
+                structuredDelegate.createCoverage(coverageName, schema);
+            } finally {
+                invalidateReadCache();
+            }
         }
 
         @Override
         public boolean removeCoverage(String coverageName) throws IOException,
                 UnsupportedOperationException {
-            return structuredDelegate.removeCoverage(coverageName);
+            try {
+                return structuredDelegate.removeCoverage(coverageName);
+            } finally {
+                invalidateReadCache();
+            }
         }
 
         @Override
         public boolean removeCoverage(String coverageName, boolean delete) throws IOException,
                 UnsupportedOperationException {
-            return structuredDelegate.removeCoverage(coverageName, delete);
+            try {
+                return structuredDelegate.removeCoverage(coverageName, delete);
+            } finally {
+                invalidateReadCache();
+            }
         }
 
         @Override
         public void delete(boolean deleteData) throws IOException {
-            structuredDelegate.delete(deleteData);
+            try {
+                structuredDelegate.delete(deleteData);
+            } finally {
+                invalidateReadCache();
+            }
         }
 
         @Override
         public List<HarvestedSource> harvest(String defaultTargetCoverage, Object source,
                 Hints hints) throws IOException, UnsupportedOperationException {
-            return structuredDelegate.harvest(defaultTargetCoverage, source, hints);
+            try {
+                return structuredDelegate.harvest(defaultTargetCoverage, source, hints);
+            } finally {
+                invalidateReadCache();
+            }
         }
 
         @Override
@@ -135,6 +172,85 @@ public class CoverageDimensionCustomizerReader implements GridCoverage2DReader {
         }
     }
 
+    /**
+     * Drops the cached reads of the store every time granules are added, removed or updated
+     */
+    static class ReadCacheInvalidatingGranuleStore implements GranuleStore {
+
+        private GranuleStore delegate;
+
+        private CoverageDimensionCustomizerReader reader;
+
+        ReadCacheInvalidatingGranuleStore(GranuleStore delegate,
+                CoverageDimensionCustomizerReader reader) {
+            this.delegate = delegate;
+            this.reader = reader;
+        }
+
+        @Override
+        public SimpleFeatureCollection getGranules(Query q) throws IOException {
+            return delegate.getGranules(q);
+        }
+
+        @Override
+        public int getCount(Query q) throws IOException {
+            return delegate.getCount(q);
+        }
+
+        @Override
+        public ReferencedEnvelope getBounds(Query q) throws IOException {
+            return delegate.getBounds(q);
+        }
+
+        @Override
+        public SimpleFeatureType getSchema() throws IOException {
+            return delegate.getSchema();
+        }
+
+        @Override
+        public void dispose() throws IOException {
+            delegate.dispose();
+        }
+
+        @Override
+        public void addGranules(SimpleFeatureCollection granules) {
+            try {
+                delegate.addGranules(granules);
+            } finally {
+                reader.invalidateReadCache();
+            }
+        }
+
+        @Override
+        public int removeGranules(Filter filter) {
+            try {
+                return delegate.removeGranules(filter);
+            } finally {
+                reader.invalidateReadCache();
+            }
+        }
+
+        @Override
+        public void updateGranules(String[] attributeNames, Object[] attributeValues,
+                Filter filter) {
+            try {
+                delegate.updateGranules(attributeNames, attributeValues, filter);
+            } finally {
+                reader.invalidateReadCache();
+            }
+        }
+
+        @Override
+        public Transaction getTransaction() {
+            return delegate.getTransaction();
+        }
+
+        @Override
+        public void setTransaction(Transaction transaction) {
+            delegate.setTransaction(transaction);
+        }
+    }
+
     /**
      * Wrap a {@link GridCoverage2DReader} into a {@link CoverageDimensionCustomizerReader}.
      * @param delegate the reader to be wrapped.
@@ -224,7 +340,7 @@ public class CoverageDimensionCustomizerReader implements GridCoverage2DReader {
      */
     public GridCoverage2D read(String coverageName, GeneralParameterValue[] parameters)
             throws IllegalArgumentException, IOException {
-        final GridCoverage2D coverage = coverageName != null ? delegate.read(coverageName, parameters) : delegate.read(parameters);
+        final GridCoverage2D coverage = readDelegate(coverageName, parameters);
         if (coverage == null) {
             return coverage;
         }
@@ -246,6 +362,52 @@ public class CoverageDimensionCustomizerReader implements GridCoverage2DReader {
         return new GridCoverageWrapper(coverageName, coverage, wrappedDims, properties);
     }
 
+    /**
+     * Reads from the delegate, going through the read cache if one has been configured
+     */
+    private GridCoverage2D readDelegate(final String coverageName,
+            final GeneralParameterValue[] parameters) throws IOException {
+        if (readCache == null) {
+            return coverageName != null ? delegate.read(coverageName, parameters) : delegate
+                    .read(parameters);
+        }
+        return readCache.read(storeId, readerKey, coverageName, parameters,
+                new Callable<GridCoverage2D>() {
+
+                    @Override
+                    public GridCoverage2D call() throws Exception {
+                        return coverageName != null ? delegate.read(coverageName, parameters)
+                                : delegate.read(parameters);
+                    }
+                });
+    }
+
+    /**
+     * Makes the reader share decoded reads with the other readers using the same cache
+     * 
+     * @param readCache the cache
+     * @param storeId the coverage store id
+     * @param readerKey identifies the wrapped reader among the ones of the same store
+     */
+    public void setReadCache(CoverageReadCache readCache, String storeId, Object readerKey) {
+        this.readCache = readCache;
+        this.storeId = storeId;
+        this.readerKey = readerKey;
+    }
+
+    boolean isReadCached() {
+        return readCache != null;
+    }
+
+    /**
+     * Drops the cached reads of the store, the reader contents changed
+     */
+    void invalidateReadCache() {
+        if (readCache != null) {
+            readCache.invalidate(storeId);
+        }
+    }
+
     protected GridSampleDimension[] wrapDimensions(SampleDimension[] dims) {
         GridSampleDimension[] wrappedDims = null;
         if (info != null) {
@@ -0,0 +1,535 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TiledImage;
+
+import org.geoserver.util.PropertyLookup;
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.util.Utilities;
+import org.geotools.util.logging.Logging;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+/**
+ * A memory bounded cache of decoded coverage reads, shared by all the readers handed out by the
+ * {@link ResourcePool}.
+ * <p>
+ * Reads are identified by the reader they are performed against, the coverage name and the read
+ * parameters (which include the requested grid geometry, and thus the overview level and the
+ * area being read). Concurrent identical reads are coalesced, only the first one hits the reader
+ * while the others wait for its result, and the decoded rasters are then kept in memory (in least
+ * recently used order) so that subsequent reads of hot areas, such as the ones generated by tiled
+ * clients, are not decoded again. Each cache hit gets its own coverage sharing the cached pixel
+ * data through a read only image, whose tiles are not {@link java.awt.image.WritableRaster}s.
+ * <p>
+ * The cache works at the level of whole reads: two reads share the cached result only if they
+ * have exactly the same parameters, partially overlapping reads are performed separately. This
+ * matches well tiled clients, which keep on issuing the same requests, and requests that map to
+ * the same overview and area, but it's not a tile level cache of the source data.
+ * <p>
+ * The cached reads of a store are dropped when the store is modified or removed in the catalog,
+ * and when its structured reader is used to harvest, remove or update granules, see
+ * {@link #invalidate(String)}.
+ * <p>
+ * The cache is disabled by default, its size in megabytes is controlled by the
+ * {@link #CACHE_SIZE_KEY} property, which can be set as a system property, servlet context
+ * parameter or environment variable. Reads larger than a quarter of the cache are never
+ * cached.
+ */
+public class CoverageReadCache {
+
+    static final Logger LOGGER = Logging.getLogger(CoverageReadCache.class);
+
+    /**
+     * System property setting the cache size, in megabytes
+     */
+    public static final String CACHE_SIZE_KEY = "org.geoserver.catalog.coverageReadCacheSize";
+
+    /**
+     * Hit/miss statistics for a single coverage store
+     */
+    public static class Statistics {
+        AtomicLong hits = new AtomicLong();
+
+        AtomicLong coalesced = new AtomicLong();
+
+        AtomicLong misses = new AtomicLong();
+
+        /**
+         * Reads served from the cache
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /**
+         * Reads that waited for an identical read already in progress
+         */
+        public long getCoalesced() {
+            return coalesced.get();
+        }
+
+        /**
+         * Reads that had to be performed against the reader
+         */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * The ratio of reads that did not hit the reader
+         */
+        public double getHitRatio() {
+            long saved = hits.get() + coalesced.get();
+            long total = saved + misses.get();
+            return total == 0 ? 0 : ((double) saved) / total;
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics [hits=" + hits + ", coalesced=" + coalesced + ", misses=" + misses
+                    + "]";
+        }
+    }
+
+    /**
+     * The identifier of a read
+     */
+    static class ReadKey {
+        String storeId;
+
+        Object readerKey;
+
+        String coverageName;
+
+        Object[] parameters;
+
+        public ReadKey(String storeId, Object readerKey, String coverageName,
+                GeneralParameterValue[] parameters) {
+            this.storeId = storeId;
+            this.readerKey = readerKey;
+            this.coverageName = coverageName;
+            // parameters order is not significant
+            Map<String, Object> values = new TreeMap<String, Object>();
+            if (parameters != null) {
+                for (GeneralParameterValue parameter : parameters) {
+                    if (parameter instanceof ParameterValue) {
+                        values.put(parameter.getDescriptor().getName().getCode(),
+                                ((ParameterValue<?>) parameter).getValue());
+                    }
+                }
+            }
+            List<Object> flattened = new ArrayList<Object>();
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                flattened.add(entry.getKey());
+                flattened.add(entry.getValue());
+            }
+            this.parameters = flattened.toArray();
+        }
+
+        @Override
+        public int hashCode() {
+            int result = storeId.hashCode();
+            result = 31 * result + readerKey.hashCode();
+            result = 31 * result + (coverageName == null ? 0 : coverageName.hashCode());
+            result = 31 * result + Utilities.deepHashCode(parameters);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof ReadKey))
+                return false;
+            ReadKey other = (ReadKey) obj;
+            return storeId.equals(other.storeId) && readerKey.equals(other.readerKey)
+                    && Utilities.equals(coverageName, other.coverageName)
+                    && Utilities.deepEquals(parameters, other.parameters);
+        }
+    }
+
+    /**
+     * The result of a read, either decoded in memory, or too large to be cached
+     */
+    static class CachedRead {
+        TiledImage image;
+
+        GridCoverage2D coverage;
+
+        CharSequence name;
+
+        GridGeometry2D gridGeometry;
+
+        GridSampleDimension[] sampleDimensions;
+
+        Map coverageProperties;
+
+        Map<String, Object> imageProperties;
+
+        long size;
+
+        CachedRead(GridCoverage2D uncached) {
+            this.coverage = uncached;
+        }
+
+        /**
+         * Builds a cached read, copying from the source coverage all the information needed to
+         * build new coverages, so that the source can be disposed right after
+         */
+        CachedRead(GridCoverage2D source, TiledImage image, long size) {
+            this.name = source.getName();
+            this.gridGeometry = source.getGridGeometry();
+            this.sampleDimensions = (GridSampleDimension[]) source.getSampleDimensions();
+            this.coverageProperties = source.getProperties() == null ? null : new HashMap(
+                    source.getProperties());
+            this.imageProperties = getImageProperties(source.getRenderedImage());
+            this.image = image;
+            this.size = size;
+        }
+
+        boolean isCached() {
+            return image != null;
+        }
+
+        /**
+         * Builds a new coverage sharing the cached pixels, which cannot be modified
+         */
+        GridCoverage2D toCoverage() {
+            Map properties = coverageProperties == null ? null : new HashMap(coverageProperties);
+            // ROI, NoData and footprints travel as image properties too
+            ReadOnlyImage shared = new ReadOnlyImage(image, new HashMap<String, Object>(
+                    imageProperties));
+            return new GridCoverageFactory().create(name, shared, gridGeometry,
+                    sampleDimensions, null, properties);
+        }
+
+        static Map<String, Object> getImageProperties(RenderedImage image) {
+            Map<String, Object> properties = new HashMap<String, Object>();
+            String[] names = image.getPropertyNames();
+            if (names != null) {
+                for (String name : names) {
+                    Object value = image.getProperty(name);
+                    if (value != null && value != Image.UndefinedProperty) {
+                        properties.put(name, value);
+                    }
+                }
+            }
+            return properties;
+        }
+    }
+
+    /**
+     * A read only view of a cached image, sharing its pixels
+     */
+    static class ReadOnlyImage extends PlanarImage {
+
+        TiledImage image;
+
+        ReadOnlyImage(TiledImage image, Map<String, Object> properties) {
+            super(new ImageLayout(image), null, properties);
+            this.image = image;
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            Raster tile = image.getTile(tileX, tileY);
+            return tile == null ? null : new ReadOnlyRaster(tile);
+        }
+    }
+
+    /**
+     * A raster sharing the data buffer of a tile, without exposing the {@link java.awt.image.WritableRaster}
+     * methods
+     */
+    static class ReadOnlyRaster extends Raster {
+
+        ReadOnlyRaster(Raster tile) {
+            super(tile.getSampleModel(), tile.getDataBuffer(), tile.getBounds(), new Point(
+                    tile.getSampleModelTranslateX(), tile.getSampleModelTranslateY()), null);
+        }
+    }
+
+    long maxSize;
+
+    long size;
+
+    /**
+     * Incremented on each invalidation, reads started before an invalidation are not cached
+     */
+    AtomicLong generation = new AtomicLong();
+
+    LinkedHashMap<ReadKey, CachedRead> cache = new LinkedHashMap<ReadKey, CachedRead>(16,
+            0.75f, true);
+
+    Map<ReadKey, FutureTask<CachedRead>> pending = new ConcurrentHashMap<ReadKey, FutureTask<CachedRead>>();
+
+    Map<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+
+    /**
+     * Builds a cache sized according to the {@link #CACHE_SIZE_KEY} property
+     */
+    public CoverageReadCache() {
+        this(PropertyLookup.getLong(CACHE_SIZE_KEY, 0) * 1024 * 1024);
+    }
+
+    /**
+     * Builds a cache with the specified size
+     *
+     * @param maxSize The maximum amount of memory used by the cache, in bytes
+     */
+    public CoverageReadCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns the maximum cache size, in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the current cache size, in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the read statistics for the specified store, or null if no reads happened yet
+     */
+    public Statistics getStatistics(String storeId) {
+        return statistics.get(storeId);
+    }
+
+    /**
+     * Reads a coverage, using the cached result if available, or performing the read via the
+     * provided loader otherwise
+     *
+     * @param storeId The coverage store id
+     * @param readerKey An object identifying the reader within the store (the reader could be
+     *        configured with different hints)
+     * @param coverageName The coverage name, may be null
+     * @param parameters The read parameters
+     * @param loader Performs the actual read against the reader
+     */
+    public GridCoverage2D read(String storeId, Object readerKey, String coverageName,
+            GeneralParameterValue[] parameters, final Callable<GridCoverage2D> loader)
+            throws IOException {
+        if (!isEnabled() || storeId == null || readerKey == null) {
+            return call(loader);
+        }
+        Statistics stats = getOrCreateStatistics(storeId);
+        ReadKey key = new ReadKey(storeId, readerKey, coverageName, parameters);
+        CachedRead cached = get(key);
+        if (cached != null) {
+            stats.hits.incrementAndGet();
+            return cached.toCoverage();
+        }
+
+        FutureTask<CachedRead> task = new FutureTask<CachedRead>(new Callable<CachedRead>() {
+
+            @Override
+            public CachedRead call() throws Exception {
+                GridCoverage2D coverage = loader.call();
+                return coverage == null ? new CachedRead(null) : decode(coverage);
+            }
+        });
+        FutureTask<CachedRead> existing = pending.get(key);
+        if (existing == null) {
+            synchronized (pending) {
+                existing = pending.get(key);
+                if (existing == null) {
+                    pending.put(key, task);
+                }
+            }
+        }
+        if (existing == null) {
+            stats.misses.incrementAndGet();
+            long startGeneration = generation.get();
+            try {
+                task.run();
+                CachedRead result = get(task);
+                if (result.isCached()) {
+                    put(key, result, startGeneration);
+                    return result.toCoverage();
+                } else {
+                    return result.coverage;
+                }
+            } finally {
+                pending.remove(key);
+            }
+        } else {
+            CachedRead result = get(existing);
+            if (result.isCached()) {
+                stats.coalesced.incrementAndGet();
+                return result.toCoverage();
+            } else {
+                // the result could not be shared, perform our own read
+                stats.misses.incrementAndGet();
+                return call(loader);
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached reads and the statistics for the specified store
+     */
+    public synchronized void clear(String storeId) {
+        invalidate(storeId);
+        statistics.remove(storeId);
+    }
+
+    /**
+     * Removes all the cached reads for the specified store, to be called when its contents
+     * change. Reads in progress are not cached when they complete.
+     */
+    public synchronized void invalidate(String storeId) {
+        generation.incrementAndGet();
+        for (Iterator<Map.Entry<ReadKey, CachedRead>> it = cache.entrySet().iterator(); it
+                .hasNext();) {
+            Map.Entry<ReadKey, CachedRead> entry = it.next();
+            if (entry.getKey().storeId.equals(storeId)) {
+                size -= entry.getValue().size;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached reads
+     */
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        cache.clear();
+        size = 0;
+        statistics.clear();
+    }
+
+    Statistics getOrCreateStatistics(String storeId) {
+        Statistics stats = statistics.get(storeId);
+        if (stats == null) {
+            synchronized (statistics) {
+                stats = statistics.get(storeId);
+                if (stats == null) {
+                    stats = new Statistics();
+                    statistics.put(storeId, stats);
+                }
+            }
+        }
+        return stats;
+    }
+
+    synchronized CachedRead get(ReadKey key) {
+        return cache.get(key);
+    }
+
+    synchronized void put(ReadKey key, CachedRead read, long startGeneration) {
+        if (generation.get() != startGeneration) {
+            // the store changed while reading
+            return;
+        }
+        CachedRead previous = cache.put(key, read);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += read.size;
+        // evict the least recently used entries
+        for (Iterator<CachedRead> it = cache.values().iterator(); it.hasNext() && size > maxSize;) {
+            CachedRead evicted = it.next();
+            size -= evicted.size;
+            it.remove();
+        }
+    }
+
+    /**
+     * Decodes the coverage in memory, unless it's too large to be cached
+     */
+    CachedRead decode(GridCoverage2D coverage) {
+        RenderedImage source = coverage.getRenderedImage();
+        SampleModel sm = source.getSampleModel();
+        long size = (long) source.getWidth() * source.getHeight() * sm.getNumBands()
+                * DataBuffer.getDataTypeSize(sm.getDataType()) / 8;
+        if (size > maxSize / 4) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Coverage read too large to be cached: " + size + " bytes");
+            }
+            return new CachedRead(coverage);
+        }
+
+        TiledImage image = new TiledImage(source.getMinX(), source.getMinY(), source.getWidth(),
+                source.getHeight(), source.getTileGridXOffset(), source.getTileGridYOffset(), sm,
+                source.getColorModel());
+        image.set(source);
+        CachedRead read = new CachedRead(coverage, image, size);
+        coverage.dispose(true);
+        return read;
+    }
+
+    CachedRead get(FutureTask<CachedRead> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while waiting for the coverage read", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    GridCoverage2D call(Callable<GridCoverage2D> loader) throws IOException {
+        try {
+            return loader.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
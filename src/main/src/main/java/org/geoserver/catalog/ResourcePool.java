@@ -133,6 +133,7 @@ import org.vfny.geoserver.util.DataStoreUtils;
  * <li>{@link #wmsCache} </li>
  * <li>{@link #coverageReaderCache} </li>
  * <li>{@link #hintCoverageReaderCache} </li>
+ * <li>{@link #coverageReadCache} - decoded coverage reads, see {@link CoverageReadCache}</li>
  * <li>{@link #styleCache} </li>
  * </p>
  * 
@@ -194,6 +195,7 @@ public class ResourcePool {
     Map<StyleInfo,Style> styleCache;
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
+    CoverageReadCache coverageReadCache;
     CatalogRepository repository;
 
     /**
@@ -226,6 +228,7 @@ public class ResourcePool {
         featureTypeAttributeCache = createFeatureTypeAttributeCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
         coverageReaderCache = createCoverageReaderCache();
         hintCoverageReaderCache = createHintCoverageReaderCache();
+        coverageReadCache = new CoverageReadCache();
         
         wmsCache = createWmsCache();
         styleCache = createStyleCache();
@@ -412,6 +415,25 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Returns the cache of decoded coverage reads shared by the coverage readers
+     */
+    public CoverageReadCache getCoverageReadCache() {
+        return coverageReadCache;
+    }
+
+    /**
+     * Sets the cache of decoded coverage reads. The previous cache, if any, is cleared
+     */
+    public void setCoverageReadCache(CoverageReadCache coverageReadCache) {
+        synchronized (this) {
+            if (this.coverageReadCache != null) {
+                this.coverageReadCache.clear();
+            }
+            this.coverageReadCache = coverageReadCache;
+        }
+    }
+
     /**
      * Sets the size of the feature type cache.
      * <p>
@@ -1462,7 +1484,8 @@ public class ResourcePool {
             // GeoServer does not need to be updated to the multicoverage stuff
             // (we might want to introduce a hint later for code that really wants to get the
             // multi-coverage reader)
-            return CoverageDimensionCustomizerReader.wrap((GridCoverage2DReader) reader, coverageName, info);
+            return enableReadCache(CoverageDimensionCustomizerReader.wrap(
+                    (GridCoverage2DReader) reader, coverageName, info), info, key);
         } else {
             // In order to deal with Bands customization, we need to get a CoverageInfo.
             // Therefore we won't wrap the reader into a CoverageDimensionCustomizerReader in case 
@@ -1472,7 +1495,8 @@ public class ResourcePool {
             // that case so returning the simple reader.
             final int numCoverages = ((GridCoverage2DReader) reader).getGridCoverageCount();
             if (numCoverages == 1) {
-                return CoverageDimensionCustomizerReader.wrap((GridCoverage2DReader) reader, null, info);
+                return enableReadCache(CoverageDimensionCustomizerReader.wrap(
+                        (GridCoverage2DReader) reader, null, info), info, key);
             }
             // Avoid dimensions wrapping since we have a multi-coverage reader 
             // but no coveragename have been specified
@@ -1481,12 +1505,30 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Makes the reader go through the shared read cache, if enabled. Only readers that are
+     * themselves cached can share reads, the reader cache key identifies them.
+     */
+    private GridCoverageReader enableReadCache(GridCoverageReader reader,
+            CoverageStoreInfo info, Object readerKey) {
+        CoverageReadCache readCache = coverageReadCache;
+        if (readerKey != null && readCache != null && readCache.isEnabled()
+                && reader instanceof CoverageDimensionCustomizerReader) {
+            ((CoverageDimensionCustomizerReader) reader).setReadCache(readCache, info.getId(),
+                    readerKey);
+        }
+        return reader;
+    }
+    
     /**
      * Clears any cached readers for the coverage.
      */
     public void clear(CoverageStoreInfo info) {
         String storeId = info.getId();
         coverageReaderCache.remove(storeId);
+        if (coverageReadCache != null) {
+            coverageReadCache.clear(storeId);
+        }
         HashSet<CoverageHintReaderKey> keys = new HashSet<CoverageHintReaderKey>(hintCoverageReaderCache.keySet());
         for (CoverageHintReaderKey key : keys) {
             if(key.id != null && key.id.equals(storeId)) {
@@ -1643,6 +1685,11 @@ public class ResourcePool {
                     wms = wmsCache.get(id);
                     if (wms == null) {
                         HTTPClient client = getHTTPClient(info);
+                        // coalesce identical concurrent requests, and cache the responses if
+                        // so configured
+                        long cacheSize = info.getResponseCacheSize() * 1024l * 1024l;
+                        client = new CachingHttpClient(client, cacheSize,
+                                info.getResponseCacheTimeToLive());
                         String capabilitiesURL = info.getCapabilitiesURL();
                         URL serverURL = new URL(capabilitiesURL);
                         wms = new WebMapServer(serverURL, client);
@@ -1723,6 +1770,18 @@ public class ResourcePool {
     public void clear( WMSStoreInfo info ) {
         wmsCache.remove( info.getId() );
     }
+
+    /**
+     * Returns the usage and latency statistics of the remote server behind a WMS store, or null
+     * if the store has not been connected to yet
+     */
+    public CachingHttpClient.Statistics getWebMapServerStatistics(WMSStoreInfo info) {
+        WebMapServer wms = wmsCache.get(info.getId());
+        if (wms != null && wms.getHTTPClient() instanceof CachingHttpClient) {
+            return ((CachingHttpClient) wms.getHTTPClient()).getStatistics();
+        }
+        return null;
+    }
     
     /**
      * Returns a style resource, caching the result. Any associated images should
@@ -1908,6 +1967,9 @@ public class ResourcePool {
         featureTypeAttributeCache.clear();
         coverageReaderCache.clear();
         hintCoverageReaderCache.clear();
+        if (coverageReadCache != null) {
+            coverageReadCache.clear();
+        }
         wmsCache.clear();
         styleCache.clear();
         listeners.clear();
@@ -99,5 +99,26 @@ public interface WMSStoreInfo extends StoreInfo {
      * @see #setMaxConnections(int)
      */
     public void setUseConnectionPooling(boolean useHttpConnectionPooling);
+
+    /**
+     * @return the max size, in megabytes, of the cache holding the responses of the remote server,
+     *         0 (default) if the responses should not be cached
+     */
+    public int getResponseCacheSize();
+
+    /**
+     * @param megabytes the max size of the remote responses cache, 0 to disable it
+     */
+    public void setResponseCacheSize(int megabytes);
+
+    /**
+     * @return number of seconds a remote response is kept in the cache, defaults to 300
+     */
+    public int getResponseCacheTimeToLive();
+
+    /**
+     * @param seconds the number of seconds a remote response is kept in the cache
+     */
+    public void setResponseCacheTimeToLive(int seconds);
     
 }
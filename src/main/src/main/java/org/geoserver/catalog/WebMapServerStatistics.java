@@ -0,0 +1,36 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Publishes the {@link CachingHttpClient.Statistics} of the WMS stores the {@link ResourcePool}
+ * has connected to
+ */
+public class WebMapServerStatistics implements WebMapServerStatisticsMBean {
+
+    final Catalog catalog;
+
+    public WebMapServerStatistics(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public String[] getSummary() {
+        ResourcePool pool = catalog.getResourcePool();
+        List<String> summary = new ArrayList<String>();
+        for (WMSStoreInfo store : catalog.getStores(WMSStoreInfo.class)) {
+            CachingHttpClient.Statistics statistics = pool.getWebMapServerStatistics(store);
+            if (statistics != null) {
+                String name = store.getWorkspace() == null ? store.getName() : store
+                        .getWorkspace().getName() + ":" + store.getName();
+                summary.add(name + ": " + statistics);
+            }
+        }
+        return summary.toArray(new String[summary.size()]);
+    }
+}
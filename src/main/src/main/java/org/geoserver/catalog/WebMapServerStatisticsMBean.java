@@ -0,0 +1,16 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+/**
+ * JMX view of the cascaded WMS servers usage statistics
+ */
+public interface WebMapServerStatisticsMBean {
+
+    /**
+     * Returns one line per connected WMS store, with the usage and latency of its remote server
+     */
+    String[] getSummary();
+}
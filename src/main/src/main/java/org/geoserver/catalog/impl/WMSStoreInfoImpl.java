@@ -22,6 +22,8 @@ public class WMSStoreInfoImpl extends StoreInfoImpl implements WMSStoreInfo {
 
     public static final int DEFAULT_READ_TIMEOUT = 60;
 
+    public static final int DEFAULT_RESPONSE_CACHE_TTL = 300;
+
     String capabilitiesURL;
     private String user;
     private String password;
@@ -112,4 +114,26 @@ public class WMSStoreInfoImpl extends StoreInfoImpl implements WMSStoreInfo {
     public void setUseConnectionPooling(boolean useHttpConnectionPooling) {
         getMetadata().put("useConnectionPooling", Boolean.valueOf(useHttpConnectionPooling));
     }
+
+    @Override
+    public int getResponseCacheSize() {
+        Integer size = getMetadata().get("responseCacheSize", Integer.class);
+        return size == null ? 0 : size;
+    }
+
+    @Override
+    public void setResponseCacheSize(int megabytes) {
+        getMetadata().put("responseCacheSize", Integer.valueOf(megabytes));
+    }
+
+    @Override
+    public int getResponseCacheTimeToLive() {
+        Integer ttl = getMetadata().get("responseCacheTimeToLive", Integer.class);
+        return ttl == null ? DEFAULT_RESPONSE_CACHE_TTL : ttl;
+    }
+
+    @Override
+    public void setResponseCacheTimeToLive(int seconds) {
+        getMetadata().put("responseCacheTimeToLive", Integer.valueOf(seconds));
+    }
 }
@@ -168,4 +168,20 @@ public class DecoratingWMSStoreInfo extends AbstractDecorator<WMSStoreInfo> impl
         delegate.setUseConnectionPooling(useHttpConnectionPooling);
     }
 
+    public int getResponseCacheSize() {
+        return delegate.getResponseCacheSize();
+    }
+
+    public void setResponseCacheSize(int megabytes) {
+        delegate.setResponseCacheSize(megabytes);
+    }
+
+    public int getResponseCacheTimeToLive() {
+        return delegate.getResponseCacheTimeToLive();
+    }
+
+    public void setResponseCacheTimeToLive(int seconds) {
+        delegate.setResponseCacheTimeToLive(seconds);
+    }
+
 }
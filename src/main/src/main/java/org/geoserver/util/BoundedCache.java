@@ -0,0 +1,172 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Base class for the in memory caches bounded by the weight of their entries, such as the
+ * legend, hit grid, remote style and process result caches.
+ * <p>
+ * The cache is disabled when built with a zero or negative maximum weight, in which case
+ * {@link #cache} is null. Lookups made through {@link #getIfPresent(Object)} are counted, and all
+ * the entries are dropped when the configuration is reset, reloaded or disposed.
+ * </p>
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public abstract class BoundedCache<K, V> implements GeoServerLifecycleHandler {
+
+    /**
+     * The underlying cache, null if the cache is disabled
+     */
+    protected final Cache<K, V> cache;
+
+    protected final AtomicLong requests = new AtomicLong();
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Builds a cache whose entries do not expire
+     *
+     * @param maxWeight the maximum total weight of the entries, zero or negative disables the
+     *        cache
+     */
+    protected BoundedCache(long maxWeight) {
+        this(maxWeight, 0);
+    }
+
+    /**
+     * Builds a cache whose entries expire after the specified time
+     *
+     * @param maxWeight the maximum total weight of the entries, zero or negative disables the
+     *        cache
+     * @param expireAfterWriteSeconds the entries time to live, zero or negative for no expiration
+     */
+    protected BoundedCache(long maxWeight, long expireAfterWriteSeconds) {
+        if (maxWeight > 0) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumWeight(
+                    maxWeight);
+            if (expireAfterWriteSeconds > 0) {
+                builder.expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS);
+            }
+            cache = builder.weigher(new Weigher<K, V>() {
+
+                @Override
+                public int weigh(K key, V value) {
+                    return BoundedCache.this.weigh(key, value);
+                }
+            }).removalListener(new RemovalListener<K, V>() {
+
+                @Override
+                public void onRemoval(RemovalNotification<K, V> notification) {
+                    BoundedCache.this.onRemoval(notification);
+                }
+            }).build();
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Returns the weight of an entry, in the same unit as the maximum weight
+     */
+    protected abstract int weigh(K key, V value);
+
+    /**
+     * Called when an entry is evicted, invalidated or replaced. Does nothing by default.
+     */
+    protected void onRemoval(RemovalNotification<K, V> notification) {
+        // nothing to do
+    }
+
+    /**
+     * Returns true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Looks up an entry, counting the request and, if found, the hit. Must be called only if the
+     * cache is enabled.
+     */
+    protected V getIfPresent(K key) {
+        requests.incrementAndGet();
+        V value = cache.getIfPresent(key);
+        if (value != null) {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * The number of lookups performed against the cache
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * The number of lookups that found an entry
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * The ratio between hits and lookups, between 0 and 1
+     */
+    public double getHitRate() {
+        long total = requests.get();
+        return total == 0 ? 0 : hits.get() / (double) total;
+    }
+
+    /**
+     * Returns the number of cached entries
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * Drops all the cached entries
+     */
+    public void clear() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+}
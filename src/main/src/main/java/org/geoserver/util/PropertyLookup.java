@@ -0,0 +1,74 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.util;
+
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Typed access to the configuration properties looked up by
+ * {@link GeoServerExtensions#getProperty(String)}, that is, system properties, servlet context
+ * parameters and environment variables. Invalid values are logged and replaced by the default.
+ */
+public final class PropertyLookup {
+
+    static final Logger LOGGER = Logging.getLogger(PropertyLookup.class);
+
+    private PropertyLookup() {
+    }
+
+    /**
+     * Returns the property value, or the default value if not set
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Returns the property value as a long, or the default value if not set or not a number
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns the property value as an integer, or the default value if not set or not a number
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns the property value as a boolean, or the default value if not set
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.valueOf(value.trim());
+    }
+}
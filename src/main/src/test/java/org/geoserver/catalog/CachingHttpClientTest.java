@@ -0,0 +1,196 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.test.http.MockHttpClient;
+import org.geoserver.test.http.MockHttpResponse;
+import org.geotools.data.ows.HTTPResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingHttpClientTest {
+
+    static final String MAP_URL = "http://localhost/wms?SERVICE=WMS&REQUEST=GetMap&LAYERS=a";
+
+    CountingClient delegate;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = new CountingClient();
+        delegate.expectGet(new URL(MAP_URL), new MockHttpResponse("image", "image/png"));
+        delegate.expectGet(new URL("http://localhost/wms?REQUEST=GetMap&LAYERS=error"),
+                new MockHttpResponse("<ServiceExceptionReport/>",
+                        "application/vnd.ogc.se_xml"));
+    }
+
+    @Test
+    public void testNormalize() throws Exception {
+        assertEquals(CachingHttpClient.normalize(new URL(MAP_URL)),
+                CachingHttpClient.normalize(new URL(
+                        "http://localhost/wms?layers=a&request=GetMap&service=WMS")));
+        assertEquals("http://localhost:8080/wms?LAYERS=a&REQUEST=GetMap",
+                CachingHttpClient.normalize(new URL(
+                        "http://localhost:8080/wms?request=GetMap&LAYERS=a")));
+    }
+
+    @Test
+    public void testNoCache() throws Exception {
+        CachingHttpClient client = new CachingHttpClient(delegate, 0, 60);
+        assertEquals("image", read(client.get(new URL(MAP_URL))));
+        assertEquals("image", read(client.get(new URL(MAP_URL))));
+        assertEquals(2, delegate.gets.get());
+        assertEquals(2, client.getStatistics().getUpstreamRequests());
+        assertEquals(0, client.getStatistics().getCacheHits());
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        CachingHttpClient client = new CachingHttpClient(delegate, 1024 * 1024, 60);
+        assertEquals("image", read(client.get(new URL(MAP_URL))));
+        // same request, different parameter order and key case
+        URL reordered = new URL("http://localhost/wms?layers=a&service=WMS&request=GetMap");
+        assertEquals("image", read(client.get(reordered)));
+        assertEquals(1, delegate.gets.get());
+        assertEquals(1, client.getStatistics().getCacheHits());
+        assertEquals(2, client.getStatistics().getRequests());
+
+        // service exceptions are not cached
+        URL error = new URL("http://localhost/wms?REQUEST=GetMap&LAYERS=error");
+        client.get(error);
+        client.get(error);
+        assertEquals(3, delegate.gets.get());
+        assertEquals(1, client.getCacheSize());
+
+        client.clear();
+        client.get(new URL(MAP_URL));
+        assertEquals(4, delegate.gets.get());
+    }
+
+    @Test
+    public void testExceptionReportNotCached() throws Exception {
+        // WMS 1.3 returns exceptions as text/xml
+        URL url = new URL("http://localhost/wms?REQUEST=GetMap&VERSION=1.3.0&LAYERS=error");
+        delegate.expectGet(url, new MockHttpResponse("<?xml version=\"1.0\"?>\n"
+                + "<ServiceExceptionReport version=\"1.3.0\"/>", "text/xml"));
+        URL info = new URL("http://localhost/wms?REQUEST=GetFeatureInfo&LAYERS=a");
+        delegate.expectGet(info, new MockHttpResponse("<FeatureInfoResponse/>", "text/xml"));
+
+        CachingHttpClient client = new CachingHttpClient(delegate, 1024 * 1024, 60);
+        client.get(url);
+        client.get(url);
+        assertEquals(2, delegate.gets.get());
+        client.get(info);
+        client.get(info);
+        assertEquals(3, delegate.gets.get());
+        assertEquals(1, client.getCacheSize());
+    }
+
+    @Test
+    public void testLargeResponseStreamed() throws Exception {
+        CachingHttpClient client = new CachingHttpClient(delegate, 1024 * 1024, 60, 3);
+        HTTPResponse response = client.get(new URL(MAP_URL));
+        assertFalse(response instanceof CachingHttpClient.BufferedResponse);
+        assertEquals("image", read(response));
+        response.dispose();
+        assertEquals(0, client.getCacheSize());
+        client.get(new URL(MAP_URL)).dispose();
+        assertEquals(2, delegate.gets.get());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        assertCoalesced(new CachingHttpClient(delegate, 1024 * 1024, 60));
+    }
+
+    @Test
+    public void testCoalesceNoCache() throws Exception {
+        CachingHttpClient client = new CachingHttpClient(delegate, 0, 60);
+        assertCoalesced(client);
+        // nothing got cached, the next request goes to the server
+        assertEquals("image", read(client.get(new URL(MAP_URL))));
+        assertEquals(2, delegate.gets.get());
+        assertEquals(0, client.getCacheSize());
+    }
+
+    void assertCoalesced(final CachingHttpClient client) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        delegate.latch = latch;
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception {
+                        return read(client.get(new URL(MAP_URL)));
+                    }
+                }));
+            }
+            // wait for the followers to queue up behind the first request
+            long limit = System.currentTimeMillis() + 10000;
+            while (client.getStatistics().getCoalesced() < 3
+                    && System.currentTimeMillis() < limit) {
+                Thread.sleep(10);
+            }
+            latch.countDown();
+            for (Future<String> future : futures) {
+                assertEquals("image", future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        delegate.latch = null;
+        assertEquals(1, delegate.gets.get());
+        assertEquals(3, client.getStatistics().getCoalesced());
+    }
+
+    String read(HTTPResponse response) throws IOException {
+        InputStream is = response.getResponseStream();
+        try {
+            return IOUtils.toString(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    static class CountingClient extends MockHttpClient {
+
+        AtomicInteger gets = new AtomicInteger();
+
+        CountDownLatch latch;
+
+        @Override
+        public HTTPResponse get(URL url) throws IOException {
+            gets.incrementAndGet();
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return super.get(url);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.media.jai.ROIShape;
+import javax.media.jai.TiledImage;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+public class CoverageReadCacheTest {
+
+    static final ReferencedEnvelope WORLD = new ReferencedEnvelope(-180, 180, -90, 90,
+            DefaultGeographicCRS.WGS84);
+
+    /**
+     * A loader counting how many times it's been called
+     */
+    static class CountingLoader implements Callable<GridCoverage2D> {
+        AtomicInteger calls = new AtomicInteger();
+
+        CountDownLatch latch;
+
+        int size;
+
+        CountingLoader(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public GridCoverage2D call() throws Exception {
+            calls.incrementAndGet();
+            if (latch != null) {
+                latch.await();
+            }
+            BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_GRAY);
+            image.getRaster().setSample(1, 1, 0, 100);
+            return new GridCoverageFactory().create("test", image, WORLD);
+        }
+    }
+
+    GeneralParameterValue[] readParameters(int width) {
+        ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        gg.setValue(new GridGeometry2D(new GridEnvelope2D(new Rectangle(0, 0, width, width)),
+                WORLD));
+        return new GeneralParameterValue[] { gg };
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(0);
+        CountingLoader loader = new CountingLoader(10);
+        cache.read("store", "store", null, readParameters(10), loader);
+        cache.read("store", "store", null, readParameters(10), loader);
+        assertEquals(2, loader.calls.get());
+        assertNull(cache.getStatistics("store"));
+    }
+
+    @Test
+    public void testHits() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        CountingLoader loader = new CountingLoader(10);
+        GridCoverage2D c1 = cache.read("store", "store", null, readParameters(10), loader);
+        GridCoverage2D c2 = cache.read("store", "store", null, readParameters(10), loader);
+        assertEquals(1, loader.calls.get());
+        assertNotSame(c1, c2);
+        assertEquals(100, c2.getRenderedImage().getData().getSample(1, 1, 0));
+        assertEquals(100, cache.getSize());
+
+        // a different area, a different reader, a different store
+        cache.read("store", "store", null, readParameters(20), loader);
+        cache.read("store", "otherReader", null, readParameters(10), loader);
+        cache.read("store2", "store2", null, readParameters(10), loader);
+        assertEquals(4, loader.calls.get());
+
+        CoverageReadCache.Statistics stats = cache.getStatistics("store");
+        assertEquals(1, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(0.25, stats.getHitRatio(), 0d);
+    }
+
+    @Test
+    public void testPropertiesPreserved() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        final ROIShape roi = new ROIShape(new Rectangle(0, 0, 5, 5));
+        Callable<GridCoverage2D> loader = new Callable<GridCoverage2D>() {
+
+            @Override
+            public GridCoverage2D call() throws Exception {
+                TiledImage image = new TiledImage(new BufferedImage(10, 10,
+                        BufferedImage.TYPE_BYTE_GRAY), true);
+                image.setProperty("ROI", roi);
+                Map<String, Object> properties = new HashMap<String, Object>();
+                properties.put("GC_NODATA", "nodata");
+                return new GridCoverageFactory().create("test", image,
+                        new GridGeometry2D(new GridEnvelope2D(0, 0, 10, 10), WORLD), null,
+                        null, properties);
+            }
+        };
+        // the miss and the hit should both carry the properties
+        for (int i = 0; i < 2; i++) {
+            GridCoverage2D coverage = cache.read("store", "store", null, readParameters(10),
+                    loader);
+            assertSame(roi, coverage.getRenderedImage().getProperty("ROI"));
+            assertEquals("nodata", coverage.getProperty("GC_NODATA"));
+        }
+        assertEquals(1, cache.getStatistics("store").getHits());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        // room for four 10x10 byte images, but reads larger than 1/4 of the cache are skipped
+        CoverageReadCache cache = new CoverageReadCache(400);
+        CountingLoader small = new CountingLoader(10);
+        for (int i = 0; i < 5; i++) {
+            cache.read("store", "store", null, readParameters(i + 1), small);
+        }
+        assertEquals(400, cache.getSize());
+        // the first one has been evicted
+        cache.read("store", "store", null, readParameters(1), small);
+        assertEquals(6, small.calls.get());
+        cache.read("store", "store", null, readParameters(5), small);
+        assertEquals(6, small.calls.get());
+
+        CountingLoader large = new CountingLoader(20);
+        cache.read("store", "store", null, readParameters(100), large);
+        cache.read("store", "store", null, readParameters(100), large);
+        assertEquals(2, large.calls.get());
+        assertEquals(400, cache.getSize());
+    }
+
+    @Test
+    public void testClearStore() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        CountingLoader loader = new CountingLoader(10);
+        cache.read("store", "store", null, readParameters(10), loader);
+        cache.read("store2", "store2", null, readParameters(10), loader);
+        cache.clear("store");
+        assertEquals(100, cache.getSize());
+        cache.read("store", "store", null, readParameters(10), loader);
+        cache.read("store2", "store2", null, readParameters(10), loader);
+        assertEquals(3, loader.calls.get());
+    }
+
+    @Test
+    public void testReadOnly() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        CountingLoader loader = new CountingLoader(10);
+        for (int i = 0; i < 2; i++) {
+            RenderedImage image = cache.read("store", "store", null, readParameters(10), loader)
+                    .getRenderedImage();
+            assertFalse(image.getTile(0, 0) instanceof WritableRaster);
+            assertEquals(100, image.getTile(0, 0).getSample(1, 1, 0));
+        }
+    }
+
+    @Test
+    public void testInvalidateDuringRead() throws Exception {
+        final CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        CountingLoader loader = new CountingLoader(10) {
+            @Override
+            public GridCoverage2D call() throws Exception {
+                // the store contents change while the read is running
+                cache.invalidate("store");
+                return super.call();
+            }
+        };
+        assertNotNull(cache.read("store", "store", null, readParameters(10), loader));
+        assertEquals(0, cache.getSize());
+        cache.read("store", "store", null, readParameters(10), loader);
+        assertEquals(2, loader.calls.get());
+        // invalidation keeps the statistics
+        assertEquals(2, cache.getStatistics("store").getMisses());
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        final CountingLoader loader = new CountingLoader(10);
+        loader.latch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(new Callable<GridCoverage2D>() {
+
+                    @Override
+                    public GridCoverage2D call() throws Exception {
+                        return cache.read("store", "store", null, readParameters(10), loader);
+                    }
+                });
+            }
+            // wait for the first read to start, and let the others pile up
+            while (loader.calls.get() == 0) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            loader.latch.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, loader.calls.get());
+        CoverageReadCache.Statistics stats = cache.getStatistics("store");
+        assertEquals(1, stats.getMisses());
+        assertEquals(3, stats.getHits() + stats.getCoalesced());
+        assertFalse(cache.pending.containsKey(new CoverageReadCache.ReadKey("store", "store",
+                null, readParameters(10))));
+    }
+}
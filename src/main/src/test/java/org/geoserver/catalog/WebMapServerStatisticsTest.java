@@ -0,0 +1,46 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.easymock.classextension.EasyMock.createNiceMock;
+import static org.easymock.classextension.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class WebMapServerStatisticsTest {
+
+    @Test
+    public void testSummary() throws Exception {
+        WorkspaceInfo ws = createNiceMock(WorkspaceInfo.class);
+        expect(ws.getName()).andReturn("ws").anyTimes();
+        replay(ws);
+        WMSStoreInfo connected = createNiceMock(WMSStoreInfo.class);
+        expect(connected.getName()).andReturn("connected").anyTimes();
+        expect(connected.getWorkspace()).andReturn(ws).anyTimes();
+        replay(connected);
+        WMSStoreInfo idle = createNiceMock(WMSStoreInfo.class);
+        replay(idle);
+
+        CachingHttpClient.Statistics statistics = new CachingHttpClient.Statistics();
+        statistics.requests.incrementAndGet();
+        ResourcePool pool = createNiceMock(ResourcePool.class);
+        expect(pool.getWebMapServerStatistics(connected)).andReturn(statistics).anyTimes();
+        replay(pool);
+        Catalog catalog = createNiceMock(Catalog.class);
+        expect(catalog.getResourcePool()).andReturn(pool).anyTimes();
+        expect(catalog.getStores(WMSStoreInfo.class)).andReturn(Arrays.asList(connected, idle))
+                .anyTimes();
+        replay(catalog);
+
+        // only the stores connected to are reported
+        String[] summary = new WebMapServerStatistics(catalog).getSummary();
+        assertEquals(1, summary.length);
+        assertEquals("ws:connected: " + statistics, summary[0]);
+    }
+}
@@ -0,0 +1,75 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.cache.RemovalNotification;
+
+public class BoundedCacheTest {
+
+    static class StringCache extends BoundedCache<String, String> {
+
+        List<String> removed = new ArrayList<String>();
+
+        StringCache(long maxWeight) {
+            super(maxWeight);
+        }
+
+        @Override
+        protected int weigh(String key, String value) {
+            return value.length();
+        }
+
+        @Override
+        protected void onRemoval(RemovalNotification<String, String> notification) {
+            removed.add(notification.getKey());
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        StringCache cache = new StringCache(0);
+        assertFalse(cache.isEnabled());
+        assertEquals(0, cache.size());
+        // no failures
+        cache.clear();
+        cache.onReset();
+    }
+
+    @Test
+    public void testCounters() {
+        StringCache cache = new StringCache(100);
+        assertTrue(cache.isEnabled());
+        cache.cache.put("a", "abc");
+        assertEquals("abc", cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+        assertEquals(2, cache.getRequests());
+        assertEquals(1, cache.getHits());
+        assertEquals(0.5, cache.getHitRate(), 0d);
+    }
+
+    @Test
+    public void testWeightAndRemoval() {
+        StringCache cache = new StringCache(10);
+        cache.cache.put("a", "12345");
+        cache.cache.put("b", "12345");
+        cache.cache.put("c", "12345");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.removed.size());
+
+        cache.onReload();
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.removed.size());
+    }
+}
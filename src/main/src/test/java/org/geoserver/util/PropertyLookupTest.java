@@ -0,0 +1,45 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.junit.After;
+import org.junit.Test;
+
+public class PropertyLookupTest {
+
+    @After
+    public void tearDown() {
+        GeoServerExtensionsHelper.clear();
+    }
+
+    @Test
+    public void testDefaults() {
+        assertEquals(10, PropertyLookup.getLong("org.geoserver.test.missing", 10));
+        assertEquals(5, PropertyLookup.getInt("org.geoserver.test.missing", 5));
+        assertTrue(PropertyLookup.getBoolean("org.geoserver.test.missing", true));
+        assertEquals("abc", PropertyLookup.getString("org.geoserver.test.missing", "abc"));
+    }
+
+    @Test
+    public void testValues() {
+        GeoServerExtensionsHelper.property("org.geoserver.test.long", " 123 ");
+        GeoServerExtensionsHelper.property("org.geoserver.test.boolean", "false");
+        assertEquals(123, PropertyLookup.getLong("org.geoserver.test.long", 10));
+        assertEquals(123, PropertyLookup.getInt("org.geoserver.test.long", 10));
+        assertFalse(PropertyLookup.getBoolean("org.geoserver.test.boolean", true));
+    }
+
+    @Test
+    public void testInvalid() {
+        GeoServerExtensionsHelper.property("org.geoserver.test.long", "abc");
+        assertEquals(10, PropertyLookup.getLong("org.geoserver.test.long", 10));
+        assertEquals(5, PropertyLookup.getInt("org.geoserver.test.long", 5));
+    }
+}
@@ -55,6 +55,20 @@ public interface WCSInfo extends ServiceInfo {
      */
     void setMaxOutputMemory(long size);
     
+    /**
+     * Returns the maximum number of coverage reads a single GetCoverage request can perform in
+     * parallel (e.g., when reading the two sides of a dateline crossing request, or the slices
+     * of a multidimensional request). A value of one or less means the reads are performed
+     * sequentially.
+     */
+    int getMaxRequestReadThreads();
+
+    /**
+     * Sets the maximum number of parallel coverage reads per request. See
+     * {@link #getMaxRequestReadThreads()}
+     */
+    void setMaxRequestReadThreads(int maxRequestReadThreads);
+
     /**
      * Returns the overview policy used when returning WCS data
      */
@@ -30,6 +30,8 @@ public class WCSInfoImpl extends ServiceInfoImpl implements WCSInfo {
     long maxInputMemory = -1;
     
     long maxOutputMemory = -1;
+
+    Integer maxRequestReadThreads;
     
     Boolean subsamplingEnabled = Boolean.TRUE;
     
@@ -62,6 +64,14 @@ public class WCSInfoImpl extends ServiceInfoImpl implements WCSInfo {
         this.maxOutputMemory = maxOutputSize;
     }
 
+    public int getMaxRequestReadThreads() {
+        return maxRequestReadThreads == null ? 1 : maxRequestReadThreads;
+    }
+
+    public void setMaxRequestReadThreads(int maxRequestReadThreads) {
+        this.maxRequestReadThreads = maxRequestReadThreads;
+    }
+
     public boolean isGmlPrefixing() {
         return gmlPrefixing;
     }
@@ -117,6 +127,8 @@ public class WCSInfoImpl extends ServiceInfoImpl implements WCSInfo {
         result = prime * result + (latLon ? 1231 : 1237);
         result = prime * result + (int) (maxInputMemory ^ (maxInputMemory >>> 32));
         result = prime * result + (int) (maxOutputMemory ^ (maxOutputMemory >>> 32));
+        result = prime * result
+                + ((maxRequestReadThreads == null) ? 0 : maxRequestReadThreads.hashCode());
         result = prime * result + ((overviewPolicy == null) ? 0 : overviewPolicy.hashCode());
         result = prime * result + ((srs == null) ? 0 : srs.hashCode());
         result = prime * result
@@ -141,6 +153,11 @@ public class WCSInfoImpl extends ServiceInfoImpl implements WCSInfo {
             return false;
         if (maxOutputMemory != other.maxOutputMemory)
             return false;
+        if (maxRequestReadThreads == null) {
+            if (other.maxRequestReadThreads != null)
+                return false;
+        } else if (!maxRequestReadThreads.equals(other.maxRequestReadThreads))
+            return false;
         if (overviewPolicy != other.overviewPolicy)
             return false;
         if (srs == null) {
@@ -21,6 +21,7 @@ import javax.media.jai.JAI;
 
 import org.geoserver.config.GeoServer;
 import org.geoserver.platform.OWS20Exception;
+import org.geoserver.util.PropertyLookup;
 import org.geoserver.wcs.WCSInfo;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
@@ -55,9 +56,29 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
 	
         public static final String GEOTIFF_CONTENT_TYPE = "image/tiff";
 
+    /**
+     * Property setting the estimated output size, in bytes, above which uncompressed outputs are
+     * streamed out tile by tile instead of being encoded by the GeoTIFF writer
+     */
+    static final String STREAMING_THRESHOLD_KEY = "wcs.geotiff.streamingThreshold";
+
+    static final long DEFAULT_STREAMING_THRESHOLD = 256 * 1024 * 1024;
+
+    /**
+     * Maximum tile size used when streaming, large source tiles are split in smaller ones
+     */
+    static final int MAX_STREAMING_TILE_SIZE = 1024;
+
+
+    private final long streamingThreshold;
 
-    @SuppressWarnings("serial")
     public GeoTIFFCoverageResponseDelegate(GeoServer geoserver) {
+        this(geoserver, PropertyLookup.getLong(STREAMING_THRESHOLD_KEY,
+                DEFAULT_STREAMING_THRESHOLD));
+    }
+
+    @SuppressWarnings("serial")
+    GeoTIFFCoverageResponseDelegate(GeoServer geoserver, long streamingThreshold) {
         super(
                 geoserver,
                 Arrays.asList("tif","tiff","geotiff","TIFF", "GEOTIFF", "GeoTIFF","image/geotiff"), //output formats
@@ -84,6 +105,7 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
                         put("image/geotiff", "image/tiff");                        
                     }
                 });        
+        this.streamingThreshold = streamingThreshold;
     }
 
     public void encode(GridCoverage2D sourceCoverage, String outputFormat, Map<String,String> econdingParameters, OutputStream output) throws IOException {
@@ -98,11 +120,24 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
         handleCompression(econdingParameters, wp);
         
         // tiling
-        handleTiling(econdingParameters, wp, sourceCoverage);
+        final Dimension tileDimensions = handleTiling(econdingParameters, wp, sourceCoverage);
         
         // interleaving
         handleInterleaving(econdingParameters, wp, sourceCoverage);
 
+        // large uncompressed outputs are streamed out tile by tile
+        StreamingGeoTiffWriter streamingWriter = getStreamingWriter(sourceCoverage, wp,
+                tileDimensions);
+        if (streamingWriter != null) {
+            LOGGER.fine("Streaming out the GeoTIFF output tile by tile");
+            try {
+                streamingWriter.write(sourceCoverage, output);
+            } finally {
+                sourceCoverage.dispose(false);
+            }
+            return;
+        }
+
         final ParameterValueGroup writerParams = GEOTIF_FORMAT.getWriteParameters();
         writerParams.parameter(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName().toString()).setValue(wp);
         
@@ -127,6 +162,28 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
         }
     }
 
+    /**
+     * Returns the writer streaming out the coverage, or null if the coverage should be encoded by
+     * the GeoTIFF writer instead. Streaming is used only if no compression has been requested,
+     * both the image layout and the CRS are supported, and the estimated output size reaches the
+     * streaming threshold
+     */
+    StreamingGeoTiffWriter getStreamingWriter(GridCoverage2D sourceCoverage,
+            GeoTiffWriteParams wp, Dimension tileDimensions) {
+        RenderedImage image = sourceCoverage.getRenderedImage();
+        if (wp.getCompressionMode() == GeoTiffWriteParams.MODE_EXPLICIT
+                || !StreamingGeoTiffWriter.canWrite(image)
+                || !StreamingGeoTiffWriter.canWrite(sourceCoverage.getCoordinateReferenceSystem2D())) {
+            return null;
+        }
+        StreamingGeoTiffWriter writer = new StreamingGeoTiffWriter(Math.min(tileDimensions.width,
+                MAX_STREAMING_TILE_SIZE), Math.min(tileDimensions.height, MAX_STREAMING_TILE_SIZE));
+        if (writer.estimateSize(image) < streamingThreshold) {
+            return null;
+        }
+        return writer;
+    }
+
     /**
      * Handle interleaving encoding parameters for WCS.
      * 
@@ -178,9 +235,10 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
      * @param wp an instance of {@link GeoTiffWriteParams} to be massaged as per the provided encoding parameters.
      * @param sourceCoverage the source {@link GridCoverage2D} to encode.
      * 
+     * @return the output tile dimensions
      * @throws WcsException in case there are invalid or unsupported options.
      */
-    private void handleTiling(Map<String, String> econdingParameters, final GeoTiffWriteParams wp, GridCoverage2D sourceCoverage)
+    private Dimension handleTiling(Map<String, String> econdingParameters, final GeoTiffWriteParams wp, GridCoverage2D sourceCoverage)
             throws WcsException {
 
         // start with default dimension, since tileW and tileH are optional
@@ -270,6 +328,7 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
         } else {
             LOGGER.fine("Mantaining original tiling");
         }
+        return tileDimensions;
     }
 
     /**
@@ -0,0 +1,603 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.media.jai.OpImage;
+import javax.media.jai.TileCache;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffConstants;
+import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataEncoder;
+import org.geotools.gce.geotiff.CRS2GeoTiffMetadataAdapter;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.CRS.AxisOrder;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Writes a coverage as an uncompressed, tiled GeoTIFF in a single pass over the output stream.
+ * <p>
+ * Since the tiles are not compressed their size is known in advance, so the whole file layout
+ * (header, directory, tile offsets) can be computed before the first pixel is read, and the tiles
+ * are then computed and written one at a time in row major order. The heap usage is bounded by a
+ * single output tile plus the source tiles held in the JAI tile cache, regardless of the coverage
+ * size, and the client starts receiving data immediately. The tile cache is shared and bounded by
+ * its own memory capacity, so to avoid flushing it with tiles that will not be read again the
+ * tiles of the written image are removed from it as soon as the output moves past their row
+ * (the tiles of the upstream operations are left to the cache eviction policy). The BigTIFF layout is used when the
+ * file would exceed the 4GB limit of classic TIFF.
+ * <p>
+ * Only images with the same number of bits per sample in all bands, and 8, 16, 32 or 64 bits per
+ * sample, can be written, see {@link #canWrite(RenderedImage)}. The georeferencing is encoded
+ * using the same GeoTIFF metadata adapters used by the GeoTools GeoTIFF writer.
+ */
+public class StreamingGeoTiffWriter {
+
+    static final int TAG_IMAGE_WIDTH = 256;
+
+    static final int TAG_IMAGE_LENGTH = 257;
+
+    static final int TAG_BITS_PER_SAMPLE = 258;
+
+    static final int TAG_COMPRESSION = 259;
+
+    static final int TAG_PHOTOMETRIC_INTERPRETATION = 262;
+
+    static final int TAG_SAMPLES_PER_PIXEL = 277;
+
+    static final int TAG_PLANAR_CONFIGURATION = 284;
+
+    static final int TAG_COLOR_MAP = 320;
+
+    static final int TAG_TILE_WIDTH = 322;
+
+    static final int TAG_TILE_LENGTH = 323;
+
+    static final int TAG_TILE_OFFSETS = 324;
+
+    static final int TAG_TILE_BYTE_COUNTS = 325;
+
+    static final int TAG_EXTRA_SAMPLES = 338;
+
+    static final int TAG_SAMPLE_FORMAT = 339;
+
+    static final int TYPE_ASCII = 2;
+
+    static final int TYPE_SHORT = 3;
+
+    static final int TYPE_LONG = 4;
+
+    static final int TYPE_DOUBLE = 12;
+
+    static final int TYPE_LONG8 = 16;
+
+    static final int PHOTOMETRIC_MIN_IS_BLACK = 1;
+
+    static final int PHOTOMETRIC_RGB = 2;
+
+    static final int PHOTOMETRIC_PALETTE = 3;
+
+    static final int SAMPLE_FORMAT_UINT = 1;
+
+    static final int SAMPLE_FORMAT_INT = 2;
+
+    static final int SAMPLE_FORMAT_FLOAT = 3;
+
+    /**
+     * Classic TIFF files cannot be larger than 4GB
+     */
+    static final long CLASSIC_TIFF_MAX_SIZE = 0xFFFFFFFFL;
+
+    static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * A directory entry, with its value already encoded in little endian order
+     */
+    static final class Entry {
+        int tag;
+
+        int type;
+
+        long count;
+
+        byte[] value;
+
+        /**
+         * Offset of the value in the file, when it does not fit in the entry itself
+         */
+        long valueOffset;
+
+        Entry(int tag, int type, long count, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+
+    int tileWidth;
+
+    int tileHeight;
+
+    boolean forceBigTiff;
+
+    /**
+     * Builds a new writer
+     *
+     * @param tileWidth The output tile width, will be rounded up to a multiple of 16
+     * @param tileHeight The output tile height, will be rounded up to a multiple of 16
+     */
+    public StreamingGeoTiffWriter(int tileWidth, int tileHeight) {
+        this.tileWidth = roundTileSize(tileWidth);
+        this.tileHeight = roundTileSize(tileHeight);
+    }
+
+    static int roundTileSize(int size) {
+        return Math.max(16, (size + 15) / 16 * 16);
+    }
+
+    /**
+     * Forces the usage of the BigTIFF layout, even for files that would fit a classic TIFF
+     */
+    public void setForceBigTiff(boolean forceBigTiff) {
+        this.forceBigTiff = forceBigTiff;
+    }
+
+    /**
+     * Returns true if the image sample model can be encoded by this writer
+     */
+    public static boolean canWrite(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        int bits = sm.getSampleSize(0);
+        for (int i = 1; i < sm.getNumBands(); i++) {
+            if (sm.getSampleSize(i) != bits) {
+                return false;
+            }
+        }
+        switch (sm.getDataType()) {
+        case DataBuffer.TYPE_BYTE:
+            return bits == 8;
+        case DataBuffer.TYPE_USHORT:
+        case DataBuffer.TYPE_SHORT:
+            return bits == 16;
+        case DataBuffer.TYPE_INT:
+        case DataBuffer.TYPE_FLOAT:
+            return bits == 32;
+        case DataBuffer.TYPE_DOUBLE:
+            return bits == 64;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the CRS can be encoded without axis flipping, the GeoTIFF format expects
+     * the east oriented axis first
+     */
+    public static boolean canWrite(CoordinateReferenceSystem crs) {
+        return crs != null && CRS.getAxisOrder(crs) != AxisOrder.NORTH_EAST;
+    }
+
+    /**
+     * Estimates the size of the file that would be written for the specified image
+     */
+    public long estimateSize(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        long tilesX = (image.getWidth() + tileWidth - 1) / tileWidth;
+        long tilesY = (image.getHeight() + tileHeight - 1) / tileHeight;
+        return tilesX * tilesY * getTileBytes(sm);
+    }
+
+    long getTileBytes(SampleModel sm) {
+        return (long) tileWidth * tileHeight * sm.getNumBands() * (sm.getSampleSize(0) / 8);
+    }
+
+    /**
+     * Writes the coverage to the output stream, the stream is not closed
+     */
+    public void write(GridCoverage2D coverage, OutputStream output) throws IOException {
+        RenderedImage image = coverage.getRenderedImage();
+        if (!canWrite(image)) {
+            throw new IllegalArgumentException("Cannot stream out images with sample model "
+                    + image.getSampleModel());
+        }
+        SampleModel sm = image.getSampleModel();
+        final int bands = sm.getNumBands();
+        final int bytesPerSample = sm.getSampleSize(0) / 8;
+        final int tilesX = (image.getWidth() + tileWidth - 1) / tileWidth;
+        final int tilesY = (image.getHeight() + tileHeight - 1) / tileHeight;
+        final long tileCount = (long) tilesX * tilesY;
+        final long tileBytes = getTileBytes(sm);
+        if (tileBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tile size is too large: " + tileWidth + "x"
+                    + tileHeight);
+        }
+
+        // build the directory, first assuming a classic TIFF
+        List<Entry> entries = buildEntries(coverage, image, tileCount, tileBytes);
+        boolean bigTiff = forceBigTiff;
+        long dataStart = layout(entries, bigTiff);
+        if (!bigTiff && dataStart + tileCount * tileBytes > CLASSIC_TIFF_MAX_SIZE) {
+            bigTiff = true;
+            entries = buildEntries(coverage, image, tileCount, tileBytes);
+            dataStart = layout(entries, bigTiff);
+        }
+        fillTileOffsets(entries, dataStart, tileCount, tileBytes, bigTiff);
+
+        // write header and directory
+        writeHeader(entries, dataStart, bigTiff, output);
+
+        // stream out the tiles
+        final byte[] buffer = new byte[(int) tileBytes];
+        final ByteBuffer bb = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        final Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY(),
+                image.getWidth(), image.getHeight());
+        final int dataType = sm.getDataType();
+        int[] intRow = null;
+        float[] floatRow = null;
+        double[] doubleRow = null;
+        int releasedTileRows = image.getMinTileY();
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                Rectangle tileArea = new Rectangle(bounds.x + tx * tileWidth, bounds.y + ty
+                        * tileHeight, tileWidth, tileHeight);
+                Rectangle readArea = tileArea.intersection(bounds);
+                if (readArea.width < tileWidth || readArea.height < tileHeight) {
+                    // partial tile, the padding must be zero
+                    Arrays.fill(buffer, (byte) 0);
+                }
+                Raster raster = image.getData(readArea);
+                int rowSamples = readArea.width * bands;
+                for (int y = readArea.y; y < readArea.y + readArea.height; y++) {
+                    bb.position((y - tileArea.y) * tileWidth * bands * bytesPerSample);
+                    switch (dataType) {
+                    case DataBuffer.TYPE_BYTE:
+                        intRow = raster.getPixels(readArea.x, y, readArea.width, 1, intRow);
+                        for (int i = 0; i < rowSamples; i++) {
+                            bb.put((byte) intRow[i]);
+                        }
+                        break;
+                    case DataBuffer.TYPE_USHORT:
+                    case DataBuffer.TYPE_SHORT:
+                        intRow = raster.getPixels(readArea.x, y, readArea.width, 1, intRow);
+                        for (int i = 0; i < rowSamples; i++) {
+                            bb.putShort((short) intRow[i]);
+                        }
+                        break;
+                    case DataBuffer.TYPE_INT:
+                        intRow = raster.getPixels(readArea.x, y, readArea.width, 1, intRow);
+                        for (int i = 0; i < rowSamples; i++) {
+                            bb.putInt(intRow[i]);
+                        }
+                        break;
+                    case DataBuffer.TYPE_FLOAT:
+                        floatRow = raster.getPixels(readArea.x, y, readArea.width, 1, floatRow);
+                        for (int i = 0; i < rowSamples; i++) {
+                            bb.putFloat(floatRow[i]);
+                        }
+                        break;
+                    case DataBuffer.TYPE_DOUBLE:
+                        doubleRow = raster.getPixels(readArea.x, y, readArea.width, 1,
+                                doubleRow);
+                        for (int i = 0; i < rowSamples; i++) {
+                            bb.putDouble(doubleRow[i]);
+                        }
+                        break;
+                    }
+                }
+                output.write(buffer);
+            }
+            releasedTileRows = releaseTiles(image, releasedTileRows, bounds.y + (ty + 1)
+                    * tileHeight);
+        }
+        output.flush();
+    }
+
+    /**
+     * Removes from the JAI tile cache the source tiles in the rows starting at
+     * {@code firstTileRow} that lie entirely above {@code y}, returning the first row that has
+     * not been released
+     */
+    int releaseTiles(RenderedImage image, int firstTileRow, int y) {
+        TileCache cache = image instanceof OpImage ? ((OpImage) image).getTileCache() : null;
+        int tileRow = firstTileRow;
+        int maxTileRow = image.getMinTileY() + image.getNumYTiles();
+        while (tileRow < maxTileRow
+                && image.getTileGridYOffset() + (tileRow + 1) * image.getTileHeight() <= y) {
+            if (cache != null) {
+                for (int tx = image.getMinTileX(); tx < image.getMinTileX()
+                        + image.getNumXTiles(); tx++) {
+                    cache.remove(image, tx, tileRow);
+                }
+            }
+            tileRow++;
+        }
+        return tileRow;
+    }
+
+    /**
+     * Builds the directory entries, with placeholders for the tile offsets
+     */
+    List<Entry> buildEntries(GridCoverage2D coverage, RenderedImage image, long tileCount,
+            long tileBytes) throws IOException {
+        SampleModel sm = image.getSampleModel();
+        ColorModel cm = image.getColorModel();
+        int bands = sm.getNumBands();
+        int bits = sm.getSampleSize(0);
+
+        List<Entry> entries = new ArrayList<Entry>();
+        entries.add(longEntry(TAG_IMAGE_WIDTH, image.getWidth()));
+        entries.add(longEntry(TAG_IMAGE_LENGTH, image.getHeight()));
+        entries.add(shortEntry(TAG_BITS_PER_SAMPLE, repeat(bits, bands)));
+        entries.add(shortEntry(TAG_COMPRESSION, 1));
+        entries.add(shortEntry(TAG_SAMPLES_PER_PIXEL, bands));
+        entries.add(shortEntry(TAG_PLANAR_CONFIGURATION, 1));
+        entries.add(longEntry(TAG_TILE_WIDTH, tileWidth));
+        entries.add(longEntry(TAG_TILE_LENGTH, tileHeight));
+        // actual values are set once the layout is known
+        entries.add(new Entry(TAG_TILE_OFFSETS, TYPE_LONG, tileCount, null));
+        entries.add(new Entry(TAG_TILE_BYTE_COUNTS, TYPE_LONG, tileCount, null));
+
+        // color interpretation
+        int colorBands;
+        if (cm instanceof IndexColorModel && bands == 1 && bits <= 16) {
+            entries.add(shortEntry(TAG_PHOTOMETRIC_INTERPRETATION, PHOTOMETRIC_PALETTE));
+            entries.add(shortEntry(TAG_COLOR_MAP, buildColorMap((IndexColorModel) cm, bits)));
+            colorBands = 1;
+        } else if (cm != null && cm.getColorSpace().getType() == ColorSpace.TYPE_RGB
+                && bands >= 3 && bits == 8) {
+            entries.add(shortEntry(TAG_PHOTOMETRIC_INTERPRETATION, PHOTOMETRIC_RGB));
+            colorBands = 3;
+        } else {
+            entries.add(shortEntry(TAG_PHOTOMETRIC_INTERPRETATION, PHOTOMETRIC_MIN_IS_BLACK));
+            colorBands = 1;
+        }
+        if (bands > colorBands) {
+            int[] extra = new int[bands - colorBands];
+            if (cm != null && cm.hasAlpha() && !cm.isAlphaPremultiplied()) {
+                // unassociated alpha, the last band
+                extra[extra.length - 1] = 2;
+            }
+            entries.add(shortEntry(TAG_EXTRA_SAMPLES, extra));
+        }
+        entries.add(shortEntry(TAG_SAMPLE_FORMAT, repeat(getSampleFormat(sm), bands)));
+
+        // georeferencing
+        addGeoTiffEntries(coverage, image, entries);
+
+        // the directory must be sorted by tag
+        Collections.sort(entries, new Comparator<Entry>() {
+
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return e1.tag - e2.tag;
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Adds the GeoTIFF tags, as generated by the GeoTools GeoTIFF metadata encoder
+     */
+    void addGeoTiffEntries(GridCoverage2D coverage, RenderedImage image, List<Entry> entries)
+            throws IOException {
+        CoordinateReferenceSystem crs = coverage.getCoordinateReferenceSystem2D();
+        CRS2GeoTiffMetadataAdapter adapter = new CRS2GeoTiffMetadataAdapter(crs);
+        GeoTiffIIOMetadataEncoder metadata = adapter.parseCoordinateReferenceSystem();
+        // the transformation maps the corner of the first pixel in the file
+        AffineTransform gridToWorld = new AffineTransform((AffineTransform) coverage
+                .getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT));
+        gridToWorld.translate(image.getMinX(), image.getMinY());
+        metadata.addGeoShortParam(GeoTiffConstants.GTRasterTypeGeoKey,
+                GeoTiffConstants.RasterPixelIsArea);
+        metadata.setModelTransformation(gridToWorld);
+
+        // the tree follows the TIFF native metadata format, TIFFIFD/TIFFField elements
+        Element root = metadata.createRootTree();
+        for (Node ifd = root.getFirstChild(); ifd != null; ifd = ifd.getNextSibling()) {
+            for (Node field = ifd.getFirstChild(); field != null; field = field.getNextSibling()) {
+                Entry entry = parseField((Element) field);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+    }
+
+    Entry parseField(Element field) {
+        int tag = Integer.parseInt(field.getAttribute("number"));
+        Node values = field.getFirstChild();
+        if (values == null) {
+            return null;
+        }
+        String type = values.getNodeName();
+        List<String> items = new ArrayList<String>();
+        for (Node value = values.getFirstChild(); value != null; value = value.getNextSibling()) {
+            items.add(((Element) value).getAttribute("value"));
+        }
+        if ("TIFFShorts".equals(type)) {
+            int[] shorts = new int[items.size()];
+            for (int i = 0; i < shorts.length; i++) {
+                shorts[i] = Integer.parseInt(items.get(i));
+            }
+            return shortEntry(tag, shorts);
+        } else if ("TIFFDoubles".equals(type)) {
+            ByteBuffer bb = allocate(items.size() * 8);
+            for (String item : items) {
+                bb.putDouble(Double.parseDouble(item));
+            }
+            return new Entry(tag, TYPE_DOUBLE, items.size(), bb.array());
+        } else if ("TIFFAsciis".equals(type)) {
+            StringBuilder sb = new StringBuilder();
+            for (String item : items) {
+                sb.append(item).append('\0');
+            }
+            byte[] bytes = sb.toString().getBytes(ASCII);
+            return new Entry(tag, TYPE_ASCII, bytes.length, bytes);
+        }
+        return null;
+    }
+
+    /**
+     * Assigns the offsets of the values that do not fit in the entries, and returns the offset at
+     * which the tile data starts
+     */
+    long layout(List<Entry> entries, boolean bigTiff) {
+        int inlineSize = bigTiff ? 8 : 4;
+        long headerSize = bigTiff ? 16 : 8;
+        long ifdSize = bigTiff ? 8 + entries.size() * 20 + 8 : 2 + entries.size() * 12 + 4;
+        long offset = headerSize + ifdSize;
+        for (Entry entry : entries) {
+            if (entry.tag == TAG_TILE_OFFSETS || entry.tag == TAG_TILE_BYTE_COUNTS) {
+                entry.type = bigTiff ? TYPE_LONG8 : TYPE_LONG;
+                entry.value = new byte[(int) (entry.count * (bigTiff ? 8 : 4))];
+            }
+            if (entry.value.length > inlineSize) {
+                entry.valueOffset = offset;
+                // values must start on a word boundary
+                offset += entry.value.length + (entry.value.length % 2);
+            }
+        }
+        return offset;
+    }
+
+    void fillTileOffsets(List<Entry> entries, long dataStart, long tileCount, long tileBytes,
+            boolean bigTiff) {
+        for (Entry entry : entries) {
+            if (entry.tag == TAG_TILE_OFFSETS || entry.tag == TAG_TILE_BYTE_COUNTS) {
+                ByteBuffer bb = ByteBuffer.wrap(entry.value).order(ByteOrder.LITTLE_ENDIAN);
+                for (long i = 0; i < tileCount; i++) {
+                    long value = entry.tag == TAG_TILE_OFFSETS ? dataStart + i * tileBytes
+                            : tileBytes;
+                    if (bigTiff) {
+                        bb.putLong(value);
+                    } else {
+                        bb.putInt((int) value);
+                    }
+                }
+            }
+        }
+    }
+
+    void writeHeader(List<Entry> entries, long dataStart, boolean bigTiff, OutputStream output)
+            throws IOException {
+        int inlineSize = bigTiff ? 8 : 4;
+        // the header and directory
+        ByteBuffer bb = allocate((int) dataStart);
+        bb.put((byte) 'I').put((byte) 'I');
+        if (bigTiff) {
+            bb.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(16);
+            bb.putLong(entries.size());
+        } else {
+            bb.putShort((short) 42).putInt(8);
+            bb.putShort((short) entries.size());
+        }
+        for (Entry entry : entries) {
+            bb.putShort((short) entry.tag);
+            bb.putShort((short) entry.type);
+            if (bigTiff) {
+                bb.putLong(entry.count);
+            } else {
+                bb.putInt((int) entry.count);
+            }
+            if (entry.value.length > inlineSize) {
+                if (bigTiff) {
+                    bb.putLong(entry.valueOffset);
+                } else {
+                    bb.putInt((int) entry.valueOffset);
+                }
+            } else {
+                bb.put(entry.value);
+                for (int i = entry.value.length; i < inlineSize; i++) {
+                    bb.put((byte) 0);
+                }
+            }
+        }
+        // no next directory
+        if (bigTiff) {
+            bb.putLong(0);
+        } else {
+            bb.putInt(0);
+        }
+        // the values not fitting in the directory
+        for (Entry entry : entries) {
+            if (entry.value.length > inlineSize) {
+                bb.position((int) entry.valueOffset);
+                bb.put(entry.value);
+            }
+        }
+        output.write(bb.array());
+    }
+
+    int getSampleFormat(SampleModel sm) {
+        switch (sm.getDataType()) {
+        case DataBuffer.TYPE_SHORT:
+        case DataBuffer.TYPE_INT:
+            return SAMPLE_FORMAT_INT;
+        case DataBuffer.TYPE_FLOAT:
+        case DataBuffer.TYPE_DOUBLE:
+            return SAMPLE_FORMAT_FLOAT;
+        default:
+            return SAMPLE_FORMAT_UINT;
+        }
+    }
+
+    int[] buildColorMap(IndexColorModel icm, int bits) {
+        int size = 1 << bits;
+        int[] colorMap = new int[size * 3];
+        int mapSize = Math.min(size, icm.getMapSize());
+        for (int i = 0; i < mapSize; i++) {
+            // TIFF color maps use 16 bits per component
+            colorMap[i] = icm.getRed(i) * 257;
+            colorMap[size + i] = icm.getGreen(i) * 257;
+            colorMap[2 * size + i] = icm.getBlue(i) * 257;
+        }
+        return colorMap;
+    }
+
+    static int[] repeat(int value, int count) {
+        int[] result = new int[count];
+        Arrays.fill(result, value);
+        return result;
+    }
+
+    static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static Entry shortEntry(int tag, int... values) {
+        ByteBuffer bb = allocate(values.length * 2);
+        for (int value : values) {
+            bb.putShort((short) value);
+        }
+        return new Entry(tag, TYPE_SHORT, values.length, bb.array());
+    }
+
+    static Entry longEntry(int tag, long value) {
+        return new Entry(tag, TYPE_LONG, 1, allocate(4).putInt((int) value).array());
+    }
+}
@@ -0,0 +1,84 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.gce.geotiff.GeoTiffWriteParams;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GeoTIFFCoverageResponseDelegateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    GridCoverage2D buildCoverage() {
+        // 100x100 single byte, that is, 10000 bytes of output
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY);
+        return new GridCoverageFactory().create("test", image, new ReferencedEnvelope(0, 10, 0,
+                10, DefaultGeographicCRS.WGS84));
+    }
+
+    @Test
+    public void testStreamingThreshold() {
+        GridCoverage2D coverage = buildCoverage();
+        Dimension tiles = new Dimension(100, 100);
+
+        // below the threshold the GeoTIFF writer is used
+        GeoTIFFCoverageResponseDelegate delegate = new GeoTIFFCoverageResponseDelegate(null,
+                10001);
+        assertNull(delegate.getStreamingWriter(coverage, new GeoTiffWriteParams(), tiles));
+
+        // at the threshold the output is streamed
+        delegate = new GeoTIFFCoverageResponseDelegate(null, 10000);
+        assertNotNull(delegate.getStreamingWriter(coverage, new GeoTiffWriteParams(), tiles));
+
+        // but not if compression is requested
+        GeoTiffWriteParams compressed = new GeoTiffWriteParams();
+        compressed.setCompressionMode(GeoTiffWriteParams.MODE_EXPLICIT);
+        compressed.setCompressionType("LZW");
+        assertNull(delegate.getStreamingWriter(coverage, compressed, tiles));
+    }
+
+    @Test
+    public void testEncodeStreaming() throws Exception {
+        // the streaming path does not need the GeoServer configuration
+        GeoTIFFCoverageResponseDelegate delegate = new GeoTIFFCoverageResponseDelegate(null, 0);
+        File file = folder.newFile("streamed.tif");
+        OutputStream os = new FileOutputStream(file);
+        try {
+            delegate.encode(buildCoverage(), "image/tiff",
+                    Collections.<String, String> emptyMap(), os);
+        } finally {
+            os.close();
+        }
+
+        GeoTiffReader reader = new GeoTiffReader(file);
+        try {
+            GridCoverage2D result = reader.read(null);
+            assertEquals(100, result.getRenderedImage().getWidth());
+            assertEquals(100, result.getRenderedImage().getHeight());
+            result.dispose(true);
+        } finally {
+            reader.dispose();
+        }
+    }
+}
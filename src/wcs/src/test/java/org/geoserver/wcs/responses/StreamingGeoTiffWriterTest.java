@@ -0,0 +1,157 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.media.jai.RasterFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StreamingGeoTiffWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File file;
+
+    @Before
+    public void setup() throws Exception {
+        file = folder.newFile("streaming.tif");
+    }
+
+    @Test
+    public void testFloatCoverage() throws Exception {
+        // a size that is not a multiple of the tile size, so that we get partial tiles
+        WritableRaster raster = RasterFactory.createBandedRaster(DataBuffer.TYPE_FLOAT, 100, 70,
+                1, null);
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
+                raster.setSample(x, y, 0, x * 1000 + y + 0.5f);
+            }
+        }
+        ReferencedEnvelope envelope = new ReferencedEnvelope(10, 20, 40, 47,
+                CRS.decode("EPSG:32632"));
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", raster, envelope);
+
+        GridCoverage2D result = writeAndRead(coverage, false);
+        try {
+            assertEquals(envelope.getMinX(), result.getEnvelope2D().getMinX(), 1e-9);
+            assertEquals(envelope.getMinY(), result.getEnvelope2D().getMinY(), 1e-9);
+            assertEquals(envelope.getMaxX(), result.getEnvelope2D().getMaxX(), 1e-9);
+            assertEquals(envelope.getMaxY(), result.getEnvelope2D().getMaxY(), 1e-9);
+            assertTrue(CRS.equalsIgnoreMetadata(envelope.getCoordinateReferenceSystem(),
+                    result.getCoordinateReferenceSystem()));
+            assertSamePixels(coverage.getRenderedImage(), result.getRenderedImage());
+        } finally {
+            result.dispose(true);
+        }
+    }
+
+    @Test
+    public void testRGBBigTiff() throws Exception {
+        BufferedImage image = new BufferedImage(50, 40, BufferedImage.TYPE_3BYTE_BGR);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
+                raster.setPixel(x, y, new int[] { x, y, x + y });
+            }
+        }
+        ReferencedEnvelope envelope = new ReferencedEnvelope(-10, 10, -8, 8,
+                DefaultGeographicCRS.WGS84);
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", image, envelope);
+
+        GridCoverage2D result = writeAndRead(coverage, true);
+        try {
+            // check the BigTIFF signature
+            InputStream is = new FileInputStream(file);
+            try {
+                byte[] header = new byte[4];
+                IOUtils.readFully(is, header);
+                assertEquals('I', header[0]);
+                assertEquals(43, header[2]);
+            } finally {
+                is.close();
+            }
+            assertEquals(envelope.getMinX(), result.getEnvelope2D().getMinX(), 1e-9);
+            assertEquals(envelope.getMaxY(), result.getEnvelope2D().getMaxY(), 1e-9);
+            assertSamePixels(coverage.getRenderedImage(), result.getRenderedImage());
+        } finally {
+            result.dispose(true);
+        }
+    }
+
+    @Test
+    public void testCanWrite() throws Exception {
+        assertTrue(StreamingGeoTiffWriter.canWrite(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_GRAY)));
+        // packed samples are not supported
+        assertFalse(StreamingGeoTiffWriter.canWrite(new BufferedImage(10, 10,
+                BufferedImage.TYPE_USHORT_565_RGB)));
+        assertTrue(StreamingGeoTiffWriter.canWrite(DefaultGeographicCRS.WGS84));
+        assertFalse(StreamingGeoTiffWriter.canWrite(CRS.decode("urn:ogc:def:crs:EPSG::4326")));
+    }
+
+    GridCoverage2D writeAndRead(GridCoverage2D coverage, boolean bigTiff) throws Exception {
+        StreamingGeoTiffWriter writer = new StreamingGeoTiffWriter(32, 32);
+        writer.setForceBigTiff(bigTiff);
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            writer.write(coverage, os);
+        } finally {
+            os.close();
+        }
+        assertEquals(writer.estimateSize(coverage.getRenderedImage()), file.length(),
+                file.length() / 10);
+
+        GeoTiffReader reader = new GeoTiffReader(file);
+        try {
+            return reader.read(null);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    void assertSamePixels(RenderedImage expected, RenderedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        Raster re = expected.getData();
+        Raster ra = actual.getData();
+        int bands = re.getNumBands();
+        assertEquals(bands, ra.getNumBands());
+        for (int y = 0; y < re.getHeight(); y++) {
+            for (int x = 0; x < re.getWidth(); x++) {
+                for (int b = 0; b < bands; b++) {
+                    assertEquals(re.getSampleDouble(x + re.getMinX(), y + re.getMinY(), b),
+                            ra.getSampleDouble(x + ra.getMinX(), y + ra.getMinY(), b), 0d);
+                }
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,6 +56,7 @@ import org.geoserver.wcs2_0.response.GranuleStackImpl;
 import org.geoserver.wcs2_0.response.WCSDimensionsSubsetHelper;
 import org.geoserver.wcs2_0.util.EnvelopeAxesLabelsMapper;
 import org.geoserver.wcs2_0.util.NCNameResourceCodec;
+import org.geoserver.wcs2_0.util.ParallelReadExecutor;
 import org.geoserver.wcs2_0.util.RequestUtils;
 import org.geotools.coverage.CoverageFactoryFinder;
 import org.geotools.coverage.GridSampleDimension;
@@ -196,7 +198,7 @@ public class GetCoverage {
      * @param request the {@link GetCoverageType} to be executed.
      * @return the {@link GridCoverage} produced by the chain of operations specified by the provided {@link GetCoverageType}.
      */
-    public GridCoverage run(GetCoverageType request) {
+    public GridCoverage run(final GetCoverageType request) {
 
         //
         // get the coverage info from the catalog or throw an exception if we don't find it
@@ -216,7 +218,7 @@ public class GetCoverage {
         try {
 
             // === extract all extensions for later usage
-            Map<String, ExtensionItemType> extensions = extractExtensions(request);
+            final Map<String, ExtensionItemType> extensions = extractExtensions(request);
 
             // === prepare the hints to use
             // here I find if I can use overviews and do subsampling
@@ -230,7 +232,7 @@ public class GetCoverage {
                     new DefaultProgressListener(), 
                     hints);
 
-            WCSDimensionsSubsetHelper helper = parseGridCoverageRequest(cinfo, reader, request, extensions);
+            final WCSDimensionsSubsetHelper helper = parseGridCoverageRequest(cinfo, reader, request, extensions);
             GridCoverageRequest gcr = helper.getGridCoverageRequest();
 
             //TODO consider dealing with the Format instance instead of a String parsing or check against WCSUtils.isSupportedMDOutputFormat(String).
@@ -253,9 +255,9 @@ public class GetCoverage {
                 long outputLimit = wcs.getMaxOutputMemory() * 1024;
                 long inputLimit = wcs.getMaxInputMemory() * 1024;
                 // Object value used for storing the sum of the output size of each internal coverage
-                ImageSizeRecorder incrementalOutputSize=new ImageSizeRecorder(outputLimit,false);
+                final ImageSizeRecorder incrementalOutputSize=new ImageSizeRecorder(outputLimit,false);
                 // Object used for storing the sum of the output size of each internal coverage
-                ImageSizeRecorder incrementalInputSize=new ImageSizeRecorder(inputLimit,true);
+                final ImageSizeRecorder incrementalInputSize=new ImageSizeRecorder(inputLimit,true);
                 // Image size estimation
                 final int numRequests = requests.size();
                 final Iterator<GridCoverageRequest> requestsIterator = requests.iterator();
@@ -276,11 +278,25 @@ public class GetCoverage {
                 // If the estimated size does not exceed the limit, the first coverage is added to the GranuleStack
                 stack.addCoverage(firstCoverage);
 
-                // Get a coverage for each subrequest
+                // Get a coverage for each subrequest, the reads are independent and can be
+                // performed in parallel (the size recorders are thread safe)
+                List<Callable<GridCoverage2D>> reads = new ArrayList<Callable<GridCoverage2D>>();
                 while (requestsIterator.hasNext()) {
-                    GridCoverageRequest subRequest = requestsIterator.next();
-                    GridCoverage2D singleCoverage = setupCoverage(helper, subRequest, request, reader, hints, extensions, dimensions,
-                            incrementalOutputSize, incrementalInputSize, coverageFactory);
+                    final GridCoverageRequest subRequest = requestsIterator.next();
+                    reads.add(new Callable<GridCoverage2D>() {
+
+                        @Override
+                        public GridCoverage2D call() throws Exception {
+                            // setup coverage can modify the hints, use a private copy
+                            Hints readHints = (Hints) hints.clone();
+                            return setupCoverage(helper, subRequest, request, reader, readHints,
+                                    extensions, dimensions, incrementalOutputSize,
+                                    incrementalInputSize, coverageFactory);
+                        }
+                    });
+                }
+                for (GridCoverage2D singleCoverage : ParallelReadExecutor.invokeAll(reads,
+                        getMaxReadThreads())) {
                     stack.addCoverage(singleCoverage);
                 }
                 coverage = stack;
@@ -708,17 +724,17 @@ public class GetCoverage {
      */
     private List<GridCoverage2D> readCoverage(
             WCSDimensionsSubsetHelper helper,
-            GridCoverageRequest request,
-            GridCoverage2DReader reader,
-            Hints hints,
-            ImageSizeRecorder incrementalInputSize,
+            final GridCoverageRequest request,
+            final GridCoverage2DReader reader,
+            final Hints hints,
+            final ImageSizeRecorder incrementalInputSize,
             final ScalingType scaling,
             final double[] preAppliedScale) throws Exception {
 
-        CoverageInfo cinfo = helper.getCoverageInfo();
-        WCSEnvelope requestedEnvelope = helper.getRequestedEnvelope();
+        final CoverageInfo cinfo = helper.getCoverageInfo();
+        final WCSEnvelope requestedEnvelope = helper.getRequestedEnvelope();
         // checks
-        Interpolation spatialInterpolation = request.getSpatialInterpolation();
+        final Interpolation spatialInterpolation = request.getSpatialInterpolation();
         Utilities.ensureNonNull("interpolation", spatialInterpolation);
 
         //
@@ -740,6 +756,43 @@ public class GetCoverage {
             addEnvelopes(subset, readEnvelopes, coverageCRS);
         }
 
+        // the reads are independent, run them in parallel, at the cost of possibly reading
+        // twice areas that a reader would have returned in excess in a sequential read.
+        // Multidimensional requests (tracked by the incremental size) are already reading the
+        // slices in parallel, don't go beyond the configured parallelism
+        if (readEnvelopes.size() > 1 && incrementalInputSize == null && getMaxReadThreads() > 1) {
+            List<Callable<GridCoverage2D>> reads = new ArrayList<Callable<GridCoverage2D>>();
+            // each read records the scale it applied in its own array
+            final double[][] readScales = new double[readEnvelopes.size()][];
+            for (int i = 0; i < readEnvelopes.size(); i++) {
+                final GeneralEnvelope readEnvelope = readEnvelopes.get(i);
+                final double[] readScale = new double[] { Double.NaN, Double.NaN };
+                readScales[i] = readScale;
+                reads.add(new Callable<GridCoverage2D>() {
+
+                    @Override
+                    public GridCoverage2D call() throws Exception {
+                        return readCoverage(cinfo, request, reader, hints, incrementalInputSize,
+                                spatialInterpolation, coverageCRS, readEnvelope,
+                                requestedEnvelope, scaling, readScale);
+                    }
+                });
+            }
+            List<GridCoverage2D> readCoverages = ParallelReadExecutor.invokeAll(reads,
+                    getMaxReadThreads());
+            for (double[] readScale : readScales) {
+                if (!Double.isNaN(readScale[0])) {
+                    preAppliedScale[0] = readScale[0];
+                    preAppliedScale[1] = readScale[1];
+                    break;
+                }
+            }
+            for (int i = 0; i < readCoverages.size(); i++) {
+                result.add(cropToReadEnvelope(readCoverages.get(i), readEnvelopes.get(i)));
+            }
+            return result;
+        }
+
         List<GridCoverage2D> readCoverages = new ArrayList<>();
         for (GeneralEnvelope readEnvelope : readEnvelopes) {
             // check if a previous read already covered this envelope, readers
@@ -758,20 +811,34 @@ public class GetCoverage {
                         spatialInterpolation, coverageCRS, readEnvelope, requestedEnvelope, scaling, preAppliedScale);
                 readCoverages.add(cov);
             }
-            Envelope2D covEnvelope = cov.getEnvelope2D();
-            if (covEnvelope.contains(readBoundingBox)
-                    && (covEnvelope.getWidth() > readBoundingBox.getWidth() || covEnvelope
-                            .getHeight() > readBoundingBox.getHeight())) {
-                GridCoverage2D cropped = cropOnEnvelope(cov, readEnvelope);
-                result.add(cropped);
-            } else {
-                result.add(cov);
-            }
+            result.add(cropToReadEnvelope(cov, readEnvelope));
         }
 
         return result;
     }
 
+    /**
+     * Crops the coverage on the read envelope, if the reader returned more than we asked for
+     */
+    private GridCoverage2D cropToReadEnvelope(GridCoverage2D cov, GeneralEnvelope readEnvelope) {
+        BoundingBox readBoundingBox = new Envelope2D(readEnvelope);
+        Envelope2D covEnvelope = cov.getEnvelope2D();
+        if (covEnvelope.contains(readBoundingBox)
+                && (covEnvelope.getWidth() > readBoundingBox.getWidth() || covEnvelope
+                        .getHeight() > readBoundingBox.getHeight())) {
+            return cropOnEnvelope(cov, readEnvelope);
+        } else {
+            return cov;
+        }
+    }
+
+    /**
+     * Returns the maximum number of parallel reads a single request can perform
+     */
+    private int getMaxReadThreads() {
+        return wcs.getMaxRequestReadThreads();
+    }
+
     private void addEnvelopes(Envelope envelope, List<GeneralEnvelope> readEnvelopes,
             CoordinateReferenceSystem readerCRS) throws TransformException, FactoryException {
         // leverage GeoTools projection handlers to figure out exactly which areas we should be
@@ -1471,7 +1538,8 @@ public class GetCoverage {
     }
 
     /**
-     * Helper class used for storing and checking the size of each image
+     * Helper class used for storing and checking the size of each image. Thread safe, as the
+     * coverages might be read in parallel
      * 
      * @author Nicola Lagomarsini
      * 
@@ -1494,7 +1562,7 @@ public class GetCoverage {
          * 
          * @param GridCoverage2D
          */
-        public void addSize(GridCoverage2D coverage) {
+        public synchronized void addSize(GridCoverage2D coverage) {
             incrementalSize += getCoverageSize(coverage.getGridGeometry().getGridRange2D(),
                     coverage.getRenderedImage().getSampleModel());
             isSizeExceeded();
@@ -1505,7 +1573,7 @@ public class GetCoverage {
          * 
          * @return
          */
-        public long finalSize() {
+        public synchronized long finalSize() {
             return incrementalSize;
         }
 
@@ -1521,7 +1589,7 @@ public class GetCoverage {
         /**
          * Reset the total size stored to 0
          */
-        public void reset() {
+        public synchronized void reset() {
             incrementalSize = 0;
         }
 
@@ -0,0 +1,172 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.util.PropertyLookup;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+
+/**
+ * Runs a list of independent coverage reads with a bounded, per request, level of parallelism.
+ * <p>
+ * The calling thread takes part in the reads, and at most <code>maxThreads - 1</code> additional
+ * threads are borrowed from a shared pool. The results are returned in the same order as the
+ * tasks, and the first failure stops the execution of the tasks that did not start yet and is
+ * rethrown to the caller. GeoServer thread locals (authentication, local workspace and so on) are
+ * transferred to the pooled threads.
+ * </p>
+ * <p>
+ * The shared pool is bounded, its size is controlled by the {@link #POOL_SIZE_KEY} property and
+ * defaults to twice the number of processors. When the pool is exhausted the reads that could not
+ * be handed over are performed by the calling thread, so the requests slow down instead of piling
+ * up threads. The pool is shut down when the application context is closed, the class is
+ * registered as a Spring bean for that purpose.
+ * </p>
+ */
+public class ParallelReadExecutor implements ApplicationListener<ContextClosedEvent> {
+
+    /**
+     * Property setting the maximum number of threads shared by all the parallel reads
+     */
+    public static final String POOL_SIZE_KEY = "org.geoserver.wcs.parallelReadPoolSize";
+
+    static ThreadPoolExecutor executor;
+
+    static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int size = Math.max(1, PropertyLookup.getInt(POOL_SIZE_KEY, Runtime.getRuntime()
+                    .availableProcessors() * 2));
+            executor = new ThreadPoolExecutor(0, size, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "WCS parallel read "
+                                    + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * Shuts down the shared pool, a new one will be created if more reads are performed
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(ContextClosedEvent event) {
+        shutdown();
+    }
+
+    /**
+     * Executes the tasks using at most <code>maxThreads</code> threads in parallel, and returns
+     * their results in the same order as the tasks
+     *
+     * @param tasks The tasks to be run
+     * @param maxThreads The maximum number of tasks running in parallel, values lower than 2 mean
+     *        the tasks will be run sequentially in the calling thread
+     * @return The list of results
+     * @throws Exception The first exception thrown by one of the tasks
+     */
+    public static <T> List<T> invokeAll(final List<Callable<T>> tasks, int maxThreads)
+            throws Exception {
+        final int size = tasks.size();
+        if (maxThreads < 2 || size < 2) {
+            List<T> results = new ArrayList<T>(size);
+            for (Callable<T> task : tasks) {
+                results.add(task.call());
+            }
+            return results;
+        }
+
+        final Object[] results = new Object[size];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+
+        // each worker keeps on picking up tasks until there are none left, or one failed
+        class Worker implements Callable<Void> {
+            boolean pooled;
+
+            Worker(boolean pooled) {
+                this.pooled = pooled;
+            }
+
+            public Void call() throws Exception {
+                if (pooled) {
+                    transfer.apply();
+                }
+                try {
+                    int i;
+                    while (failure.get() == null && (i = next.getAndIncrement()) < size) {
+                        try {
+                            results[i] = tasks.get(i).call();
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                } finally {
+                    if (pooled) {
+                        transfer.cleanup();
+                    }
+                }
+                return null;
+            }
+        }
+
+        int workers = Math.min(maxThreads, size);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(workers - 1);
+        ThreadPoolExecutor pool = getExecutor();
+        for (int i = 1; i < workers; i++) {
+            try {
+                futures.add(pool.submit(new Worker(true)));
+            } catch (RejectedExecutionException e) {
+                // the pool is exhausted (or shut down), the calling thread does the rest
+                break;
+            }
+        }
+        new Worker(false).call();
+        // wait for the other workers to complete before returning, even in case of failure
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                failure.compareAndSet(null, cause instanceof Exception ? (Exception) cause
+                        : new RuntimeException(cause));
+            }
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) Arrays.asList(results);
+        return new ArrayList<T>(list);
+    }
+}
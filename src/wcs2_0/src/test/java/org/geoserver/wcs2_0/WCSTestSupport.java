@@ -315,6 +315,13 @@ public abstract class WCSTestSupport extends GeoServerSystemTestSupport {
         gs.save(info);
     }
 
+    protected void setMaxRequestReadThreads(int threads) {
+        GeoServer gs = getGeoServer();
+        WCSInfo info = gs.getService(WCSInfo.class);
+        info.setMaxRequestReadThreads(threads);
+        gs.save(info);
+    }
+
     /**
      * Compares the envelopes of two coverages for equality using the smallest
      * scale factor of their "grid to world" transform as the tolerance.
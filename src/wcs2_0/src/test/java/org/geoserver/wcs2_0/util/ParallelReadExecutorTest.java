@@ -0,0 +1,118 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.junit.After;
+import org.junit.Test;
+
+public class ParallelReadExecutorTest {
+
+    @After
+    public void cleanup() {
+        GeoServerExtensionsHelper.clear();
+        ParallelReadExecutor.shutdown();
+    }
+
+    List<Callable<Integer>> buildTasks(int count, final AtomicInteger running,
+            final AtomicInteger maxRunning, final int failAt) {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < count; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    int current = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(current, maxRunning.get()));
+                    }
+                    try {
+                        Thread.sleep(20);
+                        if (value == failAt) {
+                            throw new IOException("Failed at " + value);
+                        }
+                        return value;
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            });
+        }
+        return tasks;
+    }
+
+    @Test
+    public void testOrderAndBound() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> results = ParallelReadExecutor.invokeAll(
+                buildTasks(10, running, maxRunning, -1), 3);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), results);
+        assertTrue(maxRunning.get() <= 3);
+        assertEquals(0, running.get());
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> results = ParallelReadExecutor.invokeAll(
+                buildTasks(5, running, maxRunning, -1), 1);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), results);
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        try {
+            ParallelReadExecutor.invokeAll(buildTasks(10, running, maxRunning, 4), 3);
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("Failed at 4", e.getMessage());
+        }
+        // all tasks are done when the call returns
+        assertEquals(0, running.get());
+    }
+
+    @Test
+    public void testPoolExhausted() throws Exception {
+        GeoServerExtensionsHelper.property(ParallelReadExecutor.POOL_SIZE_KEY, "1");
+        ParallelReadExecutor.shutdown();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        // a single pooled thread plus the calling one, the rest is not handed over
+        List<Integer> results = ParallelReadExecutor.invokeAll(
+                buildTasks(10, running, maxRunning, -1), 4);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), results);
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(1, ParallelReadExecutor.getExecutor().getMaximumPoolSize());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        ParallelReadExecutor.invokeAll(buildTasks(4, new AtomicInteger(), new AtomicInteger(),
+                -1), 2);
+        ThreadPoolExecutor executor = ParallelReadExecutor.getExecutor();
+        new ParallelReadExecutor().onApplicationEvent(null);
+        assertTrue(executor.isShutdown());
+        // reads still work after the shutdown, using a new pool
+        List<Integer> results = ParallelReadExecutor.invokeAll(buildTasks(4,
+                new AtomicInteger(), new AtomicInteger(), -1), 2);
+        assertEquals(Arrays.asList(0, 1, 2, 3), results);
+    }
+}
@@ -709,6 +709,17 @@ public class GetCoverageTest extends WCSTestSupport {
         checkDatelineCrossing(xml);
     }
 
+    @Test
+    public void testDatelineCrossingParallelReads() throws Exception {
+        setMaxRequestReadThreads(2);
+        try {
+            final File xml = new File("./src/test/resources/requestGetCoverageAcrossDateline.xml");
+            checkDatelineCrossing(xml);
+        } finally {
+            setMaxRequestReadThreads(1);
+        }
+    }
+
     private void checkDatelineCrossing(final File xml) throws IOException, Exception,
             DataSourceException {
         final String request = FileUtils.readFileToString(xml);
@@ -127,6 +127,18 @@ abstract class AbstractWMSStorePage extends GeoServerSecuredPage {
         form.add(new TextParamPanel("readTimeoutPanel", readTimeoutModel, new ResourceModel(
                 "AbstractWMSStorePage.readTimeout"), true, new RangeValidator<Integer>(1, 360)));
 
+        PropertyModel<Integer> cacheSizeModel = new PropertyModel<Integer>(model,
+                "responseCacheSize");
+        form.add(new TextParamPanel("responseCacheSizePanel", cacheSizeModel, new ResourceModel(
+                "AbstractWMSStorePage.responseCacheSize"), true, new RangeValidator<Integer>(0,
+                4096)));
+
+        PropertyModel<Integer> cacheTtlModel = new PropertyModel<Integer>(model,
+                "responseCacheTimeToLive");
+        form.add(new TextParamPanel("responseCacheTimeToLivePanel", cacheTtlModel,
+                new ResourceModel("AbstractWMSStorePage.responseCacheTimeToLive"), true,
+                new RangeValidator<Integer>(1, 86400)));
+
         // cancel/submit buttons
         form.add(new BookmarkablePageLink("cancel", StorePage.class));
         form.add(saveLink());
@@ -189,6 +201,8 @@ abstract class AbstractWMSStorePage extends GeoServerSecuredPage {
         target.setMaxConnections(source.getMaxConnections());
         target.setConnectTimeout(source.getConnectTimeout());
         target.setReadTimeout(source.getReadTimeout());
+        target.setResponseCacheSize(source.getResponseCacheSize());
+        target.setResponseCacheTimeToLive(source.getResponseCacheTimeToLive());
     }
 
     @Override
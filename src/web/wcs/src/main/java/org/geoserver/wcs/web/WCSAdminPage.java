@@ -58,6 +58,9 @@ public class WCSAdminPage extends BaseServiceAdminPage<WCSInfo> {
         TextField maxOutputMemory = new TextField("maxOutputMemory");
         maxOutputMemory.add(new MinimumValidator(0l));
         form.add(maxOutputMemory);
+        TextField maxRequestReadThreads = new TextField("maxRequestReadThreads");
+        maxRequestReadThreads.add(new MinimumValidator(1));
+        form.add(maxRequestReadThreads);
         
         // lat-lon VS lon-lat
         form.add(new CheckBox("latLon"));
@@ -23,6 +23,7 @@ import java.util.logging.Level;
 import java.util.zip.GZIPOutputStream;
 
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -47,6 +48,7 @@ import org.geotools.referencing.CRS;
 import org.geotools.wfs.WFS;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.xml.sax.ContentHandler;
 
 
 /**
@@ -61,7 +63,7 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
  * @author Gabriel Rold?n
  * @version $Id$
  */
-public class GML2OutputFormat extends WFSGetFeatureOutputFormat {
+public class GML2OutputFormat extends WFSGetFeatureOutputFormat implements SAXOutputFormat {
     private static final int NO_FORMATTING = -1;
     private static final int INDENT_SIZE = 2;
     public static final String formatName = "GML2";
@@ -276,6 +278,28 @@ public class GML2OutputFormat extends WFSGetFeatureOutputFormat {
         encode(output, featureCollection, request );
     }
 
+    @Override
+    public boolean canWriteSAX(FeatureCollectionResponse features) {
+        return true;
+    }
+
+    @Override
+    public void write(FeatureCollectionResponse featureCollection, ContentHandler handler,
+            Operation getFeature) throws IOException, ServiceException {
+        GetFeatureRequest request = GetFeatureRequest.adapt(getFeature.getParameters()[0]);
+        prepare(request.getOutputFormat(), featureCollection, request);
+
+        List resultsList = featureCollection.getFeature();
+        FeatureCollection[] featureResults = (FeatureCollection[]) resultsList
+                .toArray(new FeatureCollection[resultsList.size()]);
+        try {
+            transformer.transform(featureResults, new SAXResult(handler));
+        } catch (TransformerException gmlException) {
+            String msg = " error:" + gmlException.getMessage();
+            throw new ServiceException(msg, gmlException);
+        }
+    }
+
     protected FeatureTransformer createTransformer() {
         return new FeatureTransformer();
     }
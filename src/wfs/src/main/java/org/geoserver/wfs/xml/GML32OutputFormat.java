@@ -36,6 +36,8 @@ import org.geotools.wfs.v2_0.WFS;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Encoder;
 import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 
 public class GML32OutputFormat extends GML3OutputFormat {
 
@@ -123,6 +125,12 @@ public class GML32OutputFormat extends GML3OutputFormat {
             throws IOException {
         encoder.encode(results.unadapt(FeatureCollectionType.class), WFS.FeatureCollection, output);
     }
+
+    @Override
+    protected void encode(FeatureCollectionResponse results, ContentHandler handler,
+            Encoder encoder) throws IOException, SAXException {
+        encoder.encode(results.unadapt(FeatureCollectionType.class), WFS.FeatureCollection, handler);
+    }
     
     @Override
     protected String getWfsNamespace() {
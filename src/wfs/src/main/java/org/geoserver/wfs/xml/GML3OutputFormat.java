@@ -65,8 +65,10 @@ import org.geotools.xml.Encoder;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
 import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 
-public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
+public class GML3OutputFormat extends WFSGetFeatureOutputFormat implements SAXOutputFormat {
     
     GeoServer geoServer;
     Catalog catalog;
@@ -111,6 +113,36 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
 
     protected void write(FeatureCollectionResponse results, OutputStream output, Operation getFeature)
             throws ServiceException, IOException, UnsupportedEncodingException {
+        Encoder encoder = prepareEncoder(results, getFeature);
+        if (this.isComplexFeature(results)) {
+            complexFeatureStreamIntercept(results, output, encoder);
+        } else {
+            encode(results, output, encoder);
+        }
+    }
+
+    @Override
+    public boolean canWriteSAX(FeatureCollectionResponse results) {
+        // complex features need a post processing step on the textual output
+        return !isComplexFeature(results);
+    }
+
+    @Override
+    public void write(FeatureCollectionResponse results, ContentHandler handler,
+            Operation getFeature) throws IOException, ServiceException {
+        Encoder encoder = prepareEncoder(results, getFeature);
+        try {
+            encode(results, handler, encoder);
+        } catch (SAXException e) {
+            throw new ServiceException("Failed to encode the features", e);
+        }
+    }
+
+    /**
+     * Builds and configures the encoder for the specified results
+     */
+    protected Encoder prepareEncoder(FeatureCollectionResponse results, Operation getFeature)
+            throws IOException {
         List featureCollections = results.getFeature();
 
         GetFeatureRequest request = GetFeatureRequest.adapt(getFeature.getParameters()[0]);
@@ -253,12 +285,7 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         }
 
         setAdditionalSchemaLocations(encoder, request, wfs);
-        if (this.isComplexFeature(results)) {
-            complexFeatureStreamIntercept(results, output, encoder);
-        } else {
-            encode(results, output, encoder);
-        }
-        
+        return encoder;
     }
     
     protected Encoder createEncoder(Configuration configuration, 
@@ -275,6 +302,12 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         encoder.encode(results.unadapt(FeatureCollectionType.class),
                 org.geoserver.wfs.xml.v1_1_0.WFS.FEATURECOLLECTION, output);
     }
+
+    protected void encode(FeatureCollectionResponse results, ContentHandler handler,
+            Encoder encoder) throws IOException, SAXException {
+        encoder.encode(results.unadapt(FeatureCollectionType.class),
+                org.geoserver.wfs.xml.v1_1_0.WFS.FEATURECOLLECTION, handler);
+    }
     
     protected DOMSource getXSLT() {
         return GML3OutputFormat.xslt;
@@ -0,0 +1,31 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.IOException;
+
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.xml.sax.ContentHandler;
+
+/**
+ * An XML based GetFeature output format that can emit its output as a stream of SAX events, so
+ * that other components, such as XSLT transformations, can consume it directly instead of
+ * parsing back its textual output.
+ */
+public interface SAXOutputFormat {
+
+    /**
+     * Returns true if the specified features can be written out as SAX events
+     */
+    boolean canWriteSAX(FeatureCollectionResponse features);
+
+    /**
+     * Writes out the features as SAX events into the specified handler
+     */
+    void write(FeatureCollectionResponse features, ContentHandler handler, Operation getFeature)
+            throws IOException, ServiceException;
+}
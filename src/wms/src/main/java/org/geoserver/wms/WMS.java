@@ -47,6 +47,7 @@ import org.geoserver.wms.WatermarkInfo.Position;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategy;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategyFactory;
 import org.geoserver.wms.dimension.DimensionFilterBuilder;
+import org.geoserver.wms.dimension.DimensionDomainIndex;
 import org.geoserver.wms.featureinfo.GetFeatureInfoOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapResponse;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
@@ -1026,6 +1027,19 @@ public class WMS implements ApplicationContextAware {
         return WMSExtensions.findMapResponses(applicationContext);
     }
 
+    /**
+     * Returns the indexed domain of the specified vector dimension, or null if the
+     * {@link DimensionDomainIndex} is not available or not enabled
+     */
+    DimensionDomainIndex.Domain getDimensionDomain(FeatureTypeInfo typeInfo,
+            String dimensionName, DimensionInfo dimension) throws IOException {
+        DimensionDomainIndex index = GeoServerExtensions.bean(DimensionDomainIndex.class);
+        if (index == null || !index.isEnabled() || dimension.getAttribute() == null) {
+            return null;
+        }
+        return index.getDomain(typeInfo, dimensionName, dimension);
+    }
+
     /**
      * Returns the list of time values for the specified typeInfo based on the dimension
      * representation: all values for {@link DimensionPresentation#LIST}, otherwise min and max
@@ -1042,6 +1056,23 @@ public class WMS implements ApplicationContextAware {
                     + " does not have time support enabled");
         }
 
+        DimensionDomainIndex.Domain domain = getDimensionDomain(typeInfo, ResourceInfo.TIME, time);
+        if (domain != null) {
+            TreeSet<Date> result = new TreeSet<Date>();
+            if (time.getPresentation() == DimensionPresentation.LIST) {
+                if (domain.size() == 0) {
+                    return null;
+                }
+                for (Object value : domain.getValues()) {
+                    result.add((Date) value);
+                }
+            } else if (domain.size() > 0) {
+                result.add((Date) domain.getMin());
+                result.add((Date) domain.getMax());
+            }
+            return result;
+        }
+
         FeatureCollection collection = getDimensionCollection(typeInfo, time);
 
         TreeSet<Date> result = new TreeSet<Date>();
@@ -1091,6 +1122,26 @@ public class WMS implements ApplicationContextAware {
                     + " does not have elevation support enabled");
         }
 
+        DimensionDomainIndex.Domain domain = getDimensionDomain(typeInfo,
+                ResourceInfo.ELEVATION, elevation);
+        if (domain != null) {
+            TreeSet<Double> result = new TreeSet<Double>();
+            if (elevation.getPresentation() == DimensionPresentation.LIST
+                    || (elevation.getPresentation() == DimensionPresentation.DISCRETE_INTERVAL && elevation
+                            .getResolution() == null)) {
+                if (domain.size() == 0) {
+                    return null;
+                }
+                for (Object value : domain.getValues()) {
+                    result.add((Double) value);
+                }
+            } else if (domain.size() > 0) {
+                result.add((Double) domain.getMin());
+                result.add((Double) domain.getMax());
+            }
+            return result;
+        }
+
         FeatureCollection collection = getDimensionCollection(typeInfo, elevation);
 
         TreeSet<Double> result = new TreeSet<Double>();
@@ -12,6 +12,8 @@ import java.util.logging.Logger;
 
 import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -61,6 +63,33 @@ public abstract class AbstractFeatureAttributeVisitorSelectionStrategy extends A
         return retval;
     }
 
+    /**
+     * Returns the indexed domain of the given time or elevation dimension, or null if the
+     * {@link DimensionDomainIndex} is not enabled or the domain cannot be computed
+     * 
+     * @param typeInfo
+     * @param dimensionName
+     * @param dimension
+     * @return
+     */
+    protected DimensionDomainIndex.Domain getIndexedDomain(FeatureTypeInfo typeInfo,
+            String dimensionName, DimensionInfo dimension) {
+        if (!ResourceInfo.TIME.equals(dimensionName)
+                && !ResourceInfo.ELEVATION.equals(dimensionName)) {
+            return null;
+        }
+        DimensionDomainIndex index = GeoServerExtensions.bean(DimensionDomainIndex.class);
+        if (index == null || !index.isEnabled()) {
+            return null;
+        }
+        try {
+            return index.getDomain(typeInfo, dimensionName, dimension);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+            return null;
+        }
+    }
+
     private FeatureCollection<?, ?> getDimensionCollection(FeatureTypeInfo typeInfo,
             DimensionInfo dimension) throws IOException {
         // grab the feature source
@@ -0,0 +1,746 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resource.Type;
+import org.geoserver.util.PropertyLookup;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.TransactionPlugin;
+import org.geoserver.wfs.WFSException;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.GeoTools;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Keeps the domain (the sorted set of distinct values) of the time and elevation dimensions of
+ * vector layers, so that capabilities generation and default value selection do not need to scan
+ * the whole layer every time.
+ * <p>
+ * A domain is computed the first time it's needed and then persisted in the layer configuration
+ * directory. It is then kept up to date incrementally using the WFS transaction events, which are
+ * collected while the transaction runs and applied only once it's committed: inserted and updated
+ * values are added right away, while values that might have been removed by updates and deletes
+ * are checked against the layer, with a single count query each, the next time the domain is
+ * used. Changes made outside of WFS-T are picked up by the periodic refresh, which rebuilds all
+ * the loaded domains in the background.
+ * <p>
+ * The index is disabled by default, it can be enabled by setting the {@link #ENABLED_KEY}
+ * property to true, while the refresh interval, in seconds, is controlled by the
+ * {@link #REFRESH_INTERVAL_KEY} property (defaults to one hour, zero or a negative value disable
+ * the refresh). Both can be set as system properties, servlet context parameters or environment
+ * variables.
+ */
+public class DimensionDomainIndex implements TransactionPlugin, CatalogListener,
+        GeoServerLifecycleHandler, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(DimensionDomainIndex.class);
+
+    /**
+     * Property enabling the index
+     */
+    public static final String ENABLED_KEY = "org.geoserver.wms.dimensionDomainIndex";
+
+    /**
+     * Property setting the refresh interval, in seconds
+     */
+    public static final String REFRESH_INTERVAL_KEY = "org.geoserver.wms.dimensionDomainRefresh";
+
+    static final String FILE_PREFIX = "dimension-domain-";
+
+    /**
+     * Key of the changes collected during a transaction, in the request extended properties
+     */
+    static final String CHANGES_KEY = "DIMENSION_DOMAIN_CHANGES";
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    /**
+     * The domain of a single dimension
+     */
+    public static class Domain {
+        TreeSet<Object> values;
+
+        /**
+         * Values that might have been removed from the layer
+         */
+        Set<Object> suspects = new HashSet<Object>();
+
+        boolean dirty;
+
+        /**
+         * Values added while the domain is being rebuilt, null if no rebuild is running
+         */
+        Set<Object> added;
+
+        Domain(TreeSet<Object> values) {
+            this.values = values;
+        }
+
+        /**
+         * Returns a sorted copy of the distinct values
+         */
+        public synchronized SortedSet<Object> getValues() {
+            return new TreeSet<Object>(values);
+        }
+
+        /**
+         * Returns the number of distinct values
+         */
+        public synchronized int size() {
+            return values.size();
+        }
+
+        public synchronized Object getMin() {
+            return values.isEmpty() ? null : values.first();
+        }
+
+        public synchronized Object getMax() {
+            return values.isEmpty() ? null : values.last();
+        }
+
+        /**
+         * Returns the value closest to the specified one, or null if the domain is empty. In
+         * case of ties the lower value is returned.
+         */
+        public synchronized Object getNearest(Object reference) {
+            if (values.isEmpty()) {
+                return null;
+            }
+            Object floor = values.floor(reference);
+            Object ceiling = values.ceiling(reference);
+            if (floor == null) {
+                return ceiling;
+            } else if (ceiling == null) {
+                return floor;
+            }
+            return distance(floor, reference) <= distance(ceiling, reference) ? floor : ceiling;
+        }
+
+        static double distance(Object a, Object b) {
+            if (a instanceof Date) {
+                return Math.abs(((Date) a).getTime() - ((Date) b).getTime());
+            } else {
+                return Math.abs(((Number) a).doubleValue() - ((Number) b).doubleValue());
+            }
+        }
+
+        synchronized void add(Object value) {
+            if (values.add(value)) {
+                dirty = true;
+            }
+            suspects.remove(value);
+            if (added != null) {
+                added.add(value);
+            }
+        }
+
+        /**
+         * Starts tracking the values added while the domain is rebuilt
+         */
+        synchronized void beginRebuild() {
+            added = new HashSet<Object>();
+        }
+
+        /**
+         * Replaces the values with the rebuilt ones, keeping the values added in the meantime
+         */
+        synchronized void endRebuild(TreeSet<Object> rebuilt) {
+            if (added != null) {
+                rebuilt.addAll(added);
+                added = null;
+            }
+            values = rebuilt;
+            dirty = true;
+        }
+
+        synchronized void abortRebuild() {
+            added = null;
+        }
+
+        synchronized void suspect(Object value) {
+            if (values.contains(value)) {
+                suspects.add(value);
+            }
+        }
+    }
+
+    /**
+     * A domain change collected during a transaction
+     */
+    static class DomainChange {
+        DomainKey key;
+
+        Object value;
+
+        boolean added;
+
+        DomainChange(DomainKey key, Object value, boolean added) {
+            this.key = key;
+            this.value = value;
+            this.added = added;
+        }
+    }
+
+    /**
+     * Identifies a domain
+     */
+    static class DomainKey {
+        String featureTypeId;
+
+        String dimensionName;
+
+        DomainKey(String featureTypeId, String dimensionName) {
+            this.featureTypeId = featureTypeId;
+            this.dimensionName = dimensionName;
+        }
+
+        @Override
+        public int hashCode() {
+            return featureTypeId.hashCode() * 31 + dimensionName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DomainKey)) {
+                return false;
+            }
+            DomainKey other = (DomainKey) obj;
+            return featureTypeId.equals(other.featureTypeId)
+                    && dimensionName.equals(other.dimensionName);
+        }
+    }
+
+    Catalog catalog;
+
+    GeoServerDataDirectory dataDirectory;
+
+    boolean enabled;
+
+    Map<DomainKey, Domain> domains = new ConcurrentHashMap<DomainKey, Domain>();
+
+    /**
+     * The domains being loaded, so that each is read or built only once
+     */
+    ConcurrentMap<DomainKey, FutureTask<Domain>> loading =
+            new ConcurrentHashMap<DomainKey, FutureTask<Domain>>();
+
+    ScheduledExecutorService executor;
+
+    public DimensionDomainIndex(Catalog catalog, GeoServerDataDirectory dataDirectory) {
+        this(catalog, dataDirectory, PropertyLookup.getBoolean(ENABLED_KEY, false),
+                PropertyLookup.getLong(REFRESH_INTERVAL_KEY, 3600));
+    }
+
+    DimensionDomainIndex(Catalog catalog, GeoServerDataDirectory dataDirectory, boolean enabled,
+            long refreshInterval) {
+        this.catalog = catalog;
+        this.dataDirectory = dataDirectory;
+        this.enabled = enabled;
+        if (enabled) {
+            catalog.addListener(this);
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Dimension domain index");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            if (refreshInterval > 0) {
+                executor.scheduleWithFixedDelay(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        refresh();
+                    }
+                }, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the index is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the domain of the specified time or elevation dimension
+     *
+     * @param typeInfo The vector layer
+     * @param dimensionName Either {@link ResourceInfo#TIME} or {@link ResourceInfo#ELEVATION}
+     * @param dimension The dimension configuration
+     * @return The domain, or null if the index is disabled
+     */
+    public Domain getDomain(FeatureTypeInfo typeInfo, String dimensionName,
+            DimensionInfo dimension) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        DomainKey key = new DomainKey(typeInfo.getId(), dimensionName);
+        Domain domain = domains.get(key);
+        if (domain == null) {
+            domain = load(key, typeInfo, dimensionName, dimension);
+        }
+        checkSuspects(typeInfo, dimension, domain);
+        if (domain.dirty) {
+            write(typeInfo, dimensionName, domain);
+        }
+        return domain;
+    }
+
+    /**
+     * Reads or builds the domain, concurrent requests for the same domain wait for the first one
+     * to complete, while other domains can be loaded in parallel
+     */
+    Domain load(final DomainKey key, final FeatureTypeInfo typeInfo, final String dimensionName,
+            final DimensionInfo dimension) throws IOException {
+        FutureTask<Domain> task = new FutureTask<Domain>(new Callable<Domain>() {
+
+            @Override
+            public Domain call() throws Exception {
+                // might have been loaded while we were getting here
+                Domain domain = domains.get(key);
+                if (domain == null) {
+                    domain = read(typeInfo, dimensionName);
+                    if (domain == null) {
+                        domain = build(typeInfo, dimensionName, dimension);
+                        domain.dirty = true;
+                    }
+                    domains.put(key, domain);
+                }
+                return domain;
+            }
+        });
+        FutureTask<Domain> existing = loading.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(key);
+            }
+            existing = task;
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while waiting for the " + dimensionName
+                    + " domain of " + typeInfo.prefixedName(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Computes the domain from scratch
+     */
+    Domain build(FeatureTypeInfo typeInfo, String dimensionName, DimensionInfo dimension)
+            throws IOException {
+        return new Domain(buildValues(typeInfo, dimensionName, dimension));
+    }
+
+    TreeSet<Object> buildValues(FeatureTypeInfo typeInfo, String dimensionName,
+            DimensionInfo dimension) throws IOException {
+        FeatureSource<?, ?> source = typeInfo.getFeatureSource(null, GeoTools.getDefaultHints());
+        Query query = new Query(source.getSchema().getName().getLocalPart());
+        query.setPropertyNames(Arrays.asList(dimension.getAttribute()));
+        UniqueVisitor visitor = new UniqueVisitor(dimension.getAttribute());
+        source.getFeatures(query).accepts(visitor, null);
+
+        TreeSet<Object> values = new TreeSet<Object>();
+        for (Object value : visitor.getUnique()) {
+            Object normalized = normalize(dimensionName, value);
+            if (normalized != null) {
+                values.add(normalized);
+            }
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Built " + dimensionName + " domain for " + typeInfo.prefixedName()
+                    + " with " + values.size() + " values");
+        }
+        return values;
+    }
+
+    /**
+     * Removes the values that are no longer found in the layer
+     */
+    void checkSuspects(FeatureTypeInfo typeInfo, DimensionInfo dimension, Domain domain)
+            throws IOException {
+        Object[] suspects;
+        synchronized (domain) {
+            if (domain.suspects.isEmpty()) {
+                return;
+            }
+            suspects = domain.suspects.toArray();
+        }
+        FeatureSource<?, ?> source = typeInfo.getFeatureSource(null, GeoTools.getDefaultHints());
+        String typeName = source.getSchema().getName().getLocalPart();
+        for (Object value : suspects) {
+            Filter filter = FF.equals(FF.property(dimension.getAttribute()), FF.literal(value));
+            Query query = new Query(typeName, filter);
+            int count = source.getCount(query);
+            if (count < 0) {
+                count = source.getFeatures(query).size();
+            }
+            synchronized (domain) {
+                if (domain.suspects.remove(value) && count == 0) {
+                    domain.values.remove(value);
+                    domain.dirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds all the loaded domains. The domains are updated in place, keeping the values added
+     * by transactions committed while the rebuild was running.
+     */
+    void refresh() {
+        for (Map.Entry<DomainKey, Domain> entry : domains.entrySet()) {
+            DomainKey key = entry.getKey();
+            Domain domain = entry.getValue();
+            FeatureTypeInfo typeInfo = catalog.getFeatureType(key.featureTypeId);
+            DimensionInfo dimension = typeInfo == null ? null : getDimension(typeInfo,
+                    key.dimensionName);
+            if (dimension == null) {
+                domains.remove(key);
+                continue;
+            }
+            domain.beginRebuild();
+            try {
+                domain.endRebuild(buildValues(typeInfo, key.dimensionName, dimension));
+            } catch (Exception e) {
+                domain.abortRebuild();
+                LOGGER.log(Level.WARNING, "Failed to refresh the " + key.dimensionName
+                        + " domain of " + typeInfo.prefixedName(), e);
+                continue;
+            }
+            // the domain might have been dropped by a configuration change in the meantime
+            if (domains.get(key) == domain) {
+                write(typeInfo, key.dimensionName, domain);
+            }
+        }
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        if (!enabled) {
+            return;
+        }
+        QName layerName = event.getLayerName();
+        FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(layerName.getNamespaceURI(),
+                layerName.getLocalPart());
+        if (typeInfo == null) {
+            return;
+        }
+        TransactionEventType type = event.getType();
+        List<DomainChange> changes = null;
+        for (String dimensionName : new String[] { ResourceInfo.TIME, ResourceInfo.ELEVATION }) {
+            DimensionInfo dimension = getDimension(typeInfo, dimensionName);
+            if (dimension == null) {
+                continue;
+            }
+            if (changes == null) {
+                changes = getChanges(event.getRequest());
+            }
+            DomainKey key = new DomainKey(typeInfo.getId(), dimensionName);
+            boolean added = type == TransactionEventType.POST_INSERT
+                    || type == TransactionEventType.POST_UPDATE;
+            SimpleFeatureIterator fi = event.getAffectedFeatures().features();
+            try {
+                while (fi.hasNext()) {
+                    SimpleFeature feature = fi.next();
+                    Object value = normalize(dimensionName,
+                            feature.getAttribute(dimension.getAttribute()));
+                    if (value != null) {
+                        // pre update and pre delete, the value might be gone after the change
+                        changes.add(new DomainChange(key, value, added));
+                    }
+                }
+            } finally {
+                fi.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the changes collected so far in the transaction
+     */
+    @SuppressWarnings("unchecked")
+    List<DomainChange> getChanges(TransactionType request) {
+        Map<Object, Object> properties = request.getExtendedProperties();
+        List<DomainChange> changes = (List<DomainChange>) properties.get(CHANGES_KEY);
+        if (changes == null) {
+            changes = new ArrayList<DomainChange>();
+            properties.put(CHANGES_KEY, changes);
+        }
+        return changes;
+    }
+
+    @Override
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionType request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        @SuppressWarnings("unchecked")
+        List<DomainChange> changes = (List<DomainChange>) request.getExtendedProperties().remove(
+                CHANGES_KEY);
+        if (!committed || changes == null) {
+            return;
+        }
+        for (DomainChange change : changes) {
+            Domain domain = domains.get(change.key);
+            if (domain == null) {
+                // not loaded, make sure we won't use an outdated persisted copy later
+                FeatureTypeInfo typeInfo = catalog.getFeatureType(change.key.featureTypeId);
+                if (typeInfo != null) {
+                    getResource(typeInfo, change.key.dimensionName).delete();
+                }
+            } else if (change.added) {
+                domain.add(change.value);
+            } else {
+                domain.suspect(change.value);
+            }
+        }
+    }
+
+    @Override
+    public int getPriority() {
+        return 0;
+    }
+
+    DimensionInfo getDimension(FeatureTypeInfo typeInfo, String dimensionName) {
+        DimensionInfo dimension = typeInfo.getMetadata().get(dimensionName, DimensionInfo.class);
+        if (dimension == null || !dimension.isEnabled() || dimension.getAttribute() == null) {
+            return null;
+        }
+        return dimension;
+    }
+
+    /**
+     * Turns the values in the representation used by the index, dates for time, doubles for
+     * elevation
+     */
+    public static Object normalize(String dimensionName, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (ResourceInfo.TIME.equals(dimensionName)) {
+            Date date = value instanceof Date ? (Date) value : Converters.convert(value,
+                    Date.class);
+            // get rid of subclasses such as Timestamp, they do not compare well with dates
+            return date == null ? null : new Date(date.getTime());
+        } else {
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Converters.convert(value, Double.class);
+        }
+    }
+
+    Resource getResource(FeatureTypeInfo typeInfo, String dimensionName) {
+        return dataDirectory.get(typeInfo, FILE_PREFIX + dimensionName.toLowerCase()
+                + ".txt");
+    }
+
+    /**
+     * Reads a persisted domain, or returns null if not found or not readable
+     */
+    Domain read(FeatureTypeInfo typeInfo, String dimensionName) {
+        Resource resource = getResource(typeInfo, dimensionName);
+        if (resource.getType() != Type.RESOURCE) {
+            return null;
+        }
+        boolean time = ResourceInfo.TIME.equals(dimensionName);
+        TreeSet<Object> values = new TreeSet<Object>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(resource.in(),
+                    "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    values.add(time ? new Date(Long.parseLong(line)) : Double.valueOf(line));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to read the persisted " + dimensionName
+                    + " domain of " + typeInfo.prefixedName() + ", will rebuild it", e);
+            return null;
+        }
+        return new Domain(values);
+    }
+
+    void write(FeatureTypeInfo typeInfo, String dimensionName, Domain domain) {
+        Resource resource = getResource(typeInfo, dimensionName);
+        SortedSet<Object> values;
+        synchronized (domain) {
+            values = new TreeSet<Object>(domain.values);
+            domain.dirty = false;
+        }
+        try {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(resource.out(),
+                    "UTF-8"));
+            try {
+                writer.write("# " + dimensionName + " domain, one value per line");
+                writer.newLine();
+                for (Object value : values) {
+                    writer.write(value instanceof Date ? String.valueOf(((Date) value).getTime())
+                            : String.valueOf(value));
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to persist the " + dimensionName + " domain of "
+                    + typeInfo.prefixedName(), e);
+        }
+    }
+
+    /**
+     * Drops the domains of the specified feature type, both in memory and on disk
+     */
+    public void clear(FeatureTypeInfo typeInfo) {
+        for (String dimensionName : new String[] { ResourceInfo.TIME, ResourceInfo.ELEVATION }) {
+            domains.remove(new DomainKey(typeInfo.getId(), dimensionName));
+            getResource(typeInfo, dimensionName).delete();
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // nothing to do
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        if (event.getSource() instanceof FeatureTypeInfo) {
+            FeatureTypeInfo typeInfo = (FeatureTypeInfo) event.getSource();
+            for (String dimensionName : new String[] { ResourceInfo.TIME, ResourceInfo.ELEVATION }) {
+                domains.remove(new DomainKey(typeInfo.getId(), dimensionName));
+            }
+        }
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // nothing to do
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        // the dimension configuration or the data source might have changed
+        if (event.getSource() instanceof FeatureTypeInfo) {
+            clear((FeatureTypeInfo) event.getSource());
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        domains.clear();
+    }
+
+    @Override
+    public void onReset() {
+        domains.clear();
+    }
+
+    @Override
+    public void onDispose() {
+        domains.clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        domains.clear();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -13,6 +13,7 @@ import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.wms.dimension.AbstractFeatureAttributeVisitorSelectionStrategy;
+import org.geoserver.wms.dimension.DimensionDomainIndex;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.visitor.CalcResult;
 import org.geotools.feature.visitor.FeatureCalc;
@@ -67,6 +68,13 @@ public class FeatureNearestValueSelectionStrategyImpl extends
             }                       
         }
 
+        DimensionDomainIndex.Domain domain = getIndexedDomain((FeatureTypeInfo) resource,
+                dimensionName, dimension);
+        Object reference = DimensionDomainIndex.normalize(dimensionName, this.toMatch);
+        if (domain != null && reference != null) {
+            return Converters.convert(domain.getNearest(reference), clz);
+        }
+
         final FeatureCalc nearest = new NearestVisitor(ff.property(dimension.getAttribute()),
                 this.toMatch);
         
@@ -19,6 +19,7 @@ import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSErrorCode;
 import org.geoserver.wms.kvp.MapLayerInfoKvpParser;
 import org.geoserver.wms.map.GetMapKvpRequestReader;
+import org.geoserver.wms.map.RemoteSldCache;
 import org.geotools.util.Version;
 
 /**
@@ -55,6 +56,13 @@ public class GetFeatureInfoKvpReader extends KvpRequestReader {
         return wms;
     }
 
+    /**
+     * Sets the cache used for the styles referenced by the SLD parameter
+     */
+    public void setRemoteSldCache(RemoteSldCache remoteSldCache) {
+        getMapReader.setRemoteSldCache(remoteSldCache);
+    }
+
     @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
     public Object read(Object req, Map kvp, Map rawKvp) throws Exception {
@@ -22,6 +22,7 @@ import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -44,6 +45,8 @@ import org.geoserver.wms.RenderingVariables;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
+import org.geoserver.wms.utfgrid.HitGrid;
+import org.geoserver.wms.utfgrid.HitGridCache;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 import org.geotools.data.QueryCapabilities;
@@ -75,6 +78,7 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.identity.FeatureId;
 import org.opengis.filter.spatial.BBOX;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.operation.TransformException;
@@ -98,6 +102,7 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
     
     private WMS wms;
     private VectorBasicLayerIdentifier fallback;
+    private HitGridCache hitGridCache;
     private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
     
     static {
@@ -109,8 +114,18 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
     }
 
     public VectorRenderingLayerIdentifier(WMS wms, VectorBasicLayerIdentifier fallback) {
+        this(wms, fallback, null);
+    }
+
+    /**
+     * Builds an identifier that looks up the features in the {@link HitGrid} of recently rendered
+     * UTFGrid maps before falling back on rendering
+     */
+    public VectorRenderingLayerIdentifier(WMS wms, VectorBasicLayerIdentifier fallback,
+            HitGridCache hitGridCache) {
         this.wms = wms;
         this.fallback = fallback;
+        this.hitGridCache = hitGridCache;
     }
     
     @Override
@@ -134,6 +149,15 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
             return fallback.identify(params, maxFeatures);
         }
         
+        // do we have a hit grid for this area already? The grid only holds the top most
+        // feature of each cell, so it cannot list the overlapping ones
+        if (hitGridCache != null && hitGridCache.isEnabled() && maxFeatures <= 1) {
+            List<FeatureCollection> result = identifyFromHitGrid(params, maxFeatures);
+            if (result != null) {
+                return result;
+            }
+        }
+        
         final Style style = preprocessStyle(params.getStyle(), params.getLayer().getFeature().getFeatureType());
         final int userBuffer = params.getBuffer() > 0 ? params.getBuffer() : MIN_BUFFER_SIZE;
         final int buffer = Math.min(userBuffer, wms.getMaxBuffer());
@@ -236,6 +260,48 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         }
     }
 
+    /**
+     * Looks up the features in a cached hit grid, returns null if no grid is available for the
+     * request
+     */
+    private List<FeatureCollection> identifyFromHitGrid(FeatureInfoRequestParameters params,
+            int maxFeatures) throws IOException {
+        HitGrid grid = hitGridCache.get(params);
+        if (grid == null) {
+            return null;
+        }
+        LOGGER.log(Level.FINER, "Identifying features using a cached hit grid");
+
+        final int userBuffer = params.getBuffer() > 0 ? params.getBuffer() : MIN_BUFFER_SIZE;
+        final int buffer = Math.min(userBuffer, wms.getMaxBuffer());
+        ReferencedEnvelope bounds = params.getRequestedBounds();
+        double resolution = bounds.getWidth() / params.getWidth();
+        double x = bounds.getMinX() + (params.getX() + 0.5) * resolution;
+        double y = bounds.getMaxY() - (params.getY() + 0.5) * bounds.getHeight()
+                / params.getHeight();
+        Set<FeatureId> ids = new LinkedHashSet<FeatureId>();
+        for (String fid : grid.getFids(x, y, buffer * resolution)) {
+            if (ids.size() >= maxFeatures) {
+                break;
+            }
+            ids.add(FF.featureId(fid));
+        }
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        FeatureSource<? extends FeatureType, ? extends Feature> featureSource = params.getLayer()
+                .getFeatureSource(true);
+        Query query = new Query(featureSource.getSchema().getName().getLocalPart(), FF.id(ids),
+                params.getPropertyNames());
+        Map<String, String> viewParams = params.getViewParams();
+        if (viewParams != null) {
+            query.setHints(new Hints(Hints.VIRTUAL_TABLE_PARAMETERS, viewParams));
+        }
+        FeatureCollection features = featureSource.getFeatures(query);
+        return Collections.singletonList(features);
+    }
+
     private void rescaleRules(List<Rule> rules, FeatureInfoRequestParameters params) {
         Map<Object, Object> rendererParams = new HashMap<Object, Object>();
         Integer requestedDpi = ((Integer) params.getGetMapRequest().getFormatOptions().get("dpi"));
@@ -629,7 +695,7 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
      * @param <T>
      * @param <F>
      */
-    static class FeatureInfoFeatureSource extends DecoratingFeatureSource<FeatureType, Feature> {
+    public static class FeatureInfoFeatureSource extends DecoratingFeatureSource<FeatureType, Feature> {
 
         String[] propertyNames;
 
@@ -0,0 +1,414 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.PublishedType;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.config.GeoServerInitializer;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.util.BoundedCache;
+import org.geoserver.util.PropertyLookup;
+import org.geoserver.wms.GetLegendGraphicOutputFormat;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geoserver.wms.WMS;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Caches the legend graphics produced by GetLegendGraphic, so that the rules evaluation, sample
+ * shape rendering and text layout are not repeated for every request.
+ * <p>
+ * Legends are keyed by layer, style (including the last modification time of the style file),
+ * rule, size, format, scale, transparency, legend options, language and environment variables. Only requests using catalog styles are cached, the ones
+ * using the SLD and SLD_BODY parameters are always rendered. Each entry tracks the catalog
+ * objects it was built from (layers, resources, styles), and is evicted as soon as any of them is
+ * modified or removed.
+ * </p>
+ * <p>
+ * The maximum memory used by the cache, in megabytes, is controlled by the
+ * {@link #CACHE_SIZE_KEY} property (defaults to 16, zero disables the cache). Setting the
+ * {@link #PREWARM_KEY} property to true renders the default legend of every style of every
+ * enabled layer in the background at startup. Both can be set as system properties, servlet
+ * context parameters or environment variables.
+ * </p>
+ */
+public class LegendGraphicCache extends BoundedCache<String, LegendGraphicCache.CachedLegend>
+        implements CatalogListener, GeoServerInitializer {
+
+    static final Logger LOGGER = Logging.getLogger(LegendGraphicCache.class);
+
+    /**
+     * Property setting the maximum cache size, in megabytes
+     */
+    public static final String CACHE_SIZE_KEY = "org.geoserver.wms.legendCacheSize";
+
+    /**
+     * Property enabling the pre-warm of the cache at startup
+     */
+    public static final String PREWARM_KEY = "org.geoserver.wms.legendCachePrewarm";
+
+    static final int DEFAULT_CACHE_SIZE = 16;
+
+    /**
+     * The request parameters that make the legend depend on something other than the catalog
+     */
+    static final Set<String> UNCACHEABLE_PARAMS = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList("SLD", "SLD_BODY")));
+
+    /**
+     * A cached legend, along with the ids of the catalog objects it depends on
+     */
+    static class CachedLegend {
+        final BufferedImageLegendGraphic legend;
+
+        final Set<String> dependencies;
+
+        CachedLegend(BufferedImageLegendGraphic legend, Set<String> dependencies) {
+            this.legend = legend;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * The catalog objects a legend request resolves to
+     */
+    static class LegendSource {
+        /**
+         * The id of the layer or layer group
+         */
+        String id;
+
+        /**
+         * The ids of all the catalog objects the legend depends on
+         */
+        final Set<String> dependencies = new HashSet<String>();
+
+        /**
+         * The styles used to build the legend
+         */
+        final Set<StyleInfo> styles = new LinkedHashSet<StyleInfo>();
+    }
+
+    Catalog catalog;
+
+    WMS wms;
+
+    GeoServerDataDirectory dataDirectory;
+
+    boolean prewarm;
+
+    public LegendGraphicCache(Catalog catalog, WMS wms) {
+        this(catalog, wms, PropertyLookup.getLong(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE) * 1024
+                * 1024, PropertyLookup.getBoolean(PREWARM_KEY, false));
+    }
+
+    LegendGraphicCache(Catalog catalog, WMS wms, long maxSize, boolean prewarm) {
+        super(maxSize);
+        this.catalog = catalog;
+        this.wms = wms;
+        this.prewarm = prewarm;
+        if (catalog.getResourceLoader() != null) {
+            this.dataDirectory = new GeoServerDataDirectory(catalog.getResourceLoader());
+        }
+        if (cache != null) {
+            catalog.addListener(this);
+        }
+    }
+
+    @Override
+    protected int weigh(String key, CachedLegend value) {
+        BufferedImage image = value.legend.getLegend();
+        return key.length() * 2 + image.getWidth() * image.getHeight() * 4;
+    }
+
+    /**
+     * Returns the cached legend for the request, or null if not found or if the request cannot be
+     * cached
+     */
+    public BufferedImageLegendGraphic get(GetLegendGraphicRequest request) {
+        LegendSource source = resolve(request);
+        String key = getKey(request, source);
+        if (key == null) {
+            return null;
+        }
+        CachedLegend cached = getIfPresent(key);
+        return cached == null ? null : cached.legend;
+    }
+
+    /**
+     * Caches the legend produced for the request, if the request can be cached
+     */
+    public void put(GetLegendGraphicRequest request, Object legend) {
+        if (!(legend instanceof BufferedImageLegendGraphic)) {
+            return;
+        }
+        LegendSource source = resolve(request);
+        String key = getKey(request, source);
+        if (key == null) {
+            return;
+        }
+        cache.put(key, new CachedLegend((BufferedImageLegendGraphic) legend,
+                source.dependencies));
+    }
+
+    /**
+     * Builds the cache key for the request, or returns null if the request cannot be cached.
+     * <p>
+     * The key uses the ids of the layer and styles the request resolved to, rather than their
+     * names, as the same name can point to different objects in different virtual services. The
+     * last modification time of the style files is included as well, so that styles edited
+     * directly on disk are picked up.
+     * </p>
+     */
+    String getKey(GetLegendGraphicRequest request, LegendSource source) {
+        if (source == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(source.id);
+        sb.append("|").append(value(request.getRawKvp().get("STYLE")));
+        for (StyleInfo style : source.styles) {
+            sb.append("|").append(style.getId()).append("@").append(getLastModified(style));
+        }
+        sb.append("|").append(request.getRules());
+        sb.append("|").append(value(request.getFeatureType()));
+        sb.append("|").append(request.getWidth()).append("x").append(request.getHeight());
+        sb.append("|").append(request.getFormat());
+        sb.append("|").append(request.getScale());
+        sb.append("|").append(request.isTransparent());
+        sb.append("|").append(sorted(request.getLegendOptions()));
+        sb.append("|").append(request.getLocale() == null ? "" : request.getLocale());
+        sb.append("|").append(sorted(request.getEnv()));
+        return sb.toString();
+    }
+
+    long getLastModified(StyleInfo style) {
+        if (dataDirectory == null) {
+            return 0;
+        }
+        try {
+            return dataDirectory.style(style).lastmodified();
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not check the last modification time of style "
+                    + style.prefixedName(), e);
+            return 0;
+        }
+    }
+
+    static String value(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static String sorted(Map map) {
+        if (map == null || map.isEmpty()) {
+            return "";
+        }
+        Map<String, Object> result = new TreeMap<String, Object>();
+        for (Object o : map.entrySet()) {
+            Map.Entry entry = (Map.Entry) o;
+            result.put(String.valueOf(entry.getKey()).toUpperCase(), entry.getValue());
+        }
+        return result.toString();
+    }
+
+    /**
+     * Resolves the catalog objects the legend depends on, or returns null if the request cannot
+     * be cached, or its layer cannot be found
+     */
+    LegendSource resolve(GetLegendGraphicRequest request) {
+        Map<String, String> rawKvp = request.getRawKvp();
+        if (cache == null || rawKvp == null || rawKvp.get("LAYER") == null) {
+            return null;
+        }
+        for (String param : UNCACHEABLE_PARAMS) {
+            if (rawKvp.get(param) != null) {
+                return null;
+            }
+        }
+
+        LegendSource result = new LegendSource();
+        String layerName = rawKvp.get("LAYER");
+        String styles = rawKvp.get("STYLE");
+        if (styles != null) {
+            for (String styleName : KvpUtils.readFlat(styles)) {
+                if (!"".equals(styleName)) {
+                    StyleInfo style = catalog.getStyleByName(styleName);
+                    if (style != null) {
+                        addDependency(result, style);
+                    }
+                }
+            }
+        }
+
+        LayerInfo layer = catalog.getLayerByName(layerName);
+        if (layer != null) {
+            result.id = layer.getId();
+            addDependencies(result, layer);
+            return result;
+        }
+        LayerGroupInfo group = catalog.getLayerGroupByName(layerName);
+        if (group != null) {
+            result.id = group.getId();
+            result.dependencies.add(group.getId());
+            for (LayerInfo groupLayer : group.layers()) {
+                addDependencies(result, groupLayer);
+            }
+            for (StyleInfo style : group.styles()) {
+                if (style != null) {
+                    addDependency(result, style);
+                }
+            }
+            return result;
+        }
+        return null;
+    }
+
+    void addDependencies(LegendSource source, LayerInfo layer) {
+        source.dependencies.add(layer.getId());
+        if (layer.getResource() != null) {
+            source.dependencies.add(layer.getResource().getId());
+        }
+        if (layer.getDefaultStyle() != null) {
+            addDependency(source, layer.getDefaultStyle());
+        }
+    }
+
+    void addDependency(LegendSource source, StyleInfo style) {
+        source.dependencies.add(style.getId());
+        source.styles.add(style);
+    }
+
+    /**
+     * Evicts all the legends depending on the specified catalog object
+     */
+    void evict(CatalogInfo info) {
+        if (cache == null || info.getId() == null) {
+            return;
+        }
+        String id = info.getId();
+        int count = 0;
+        for (Map.Entry<String, CachedLegend> entry : cache.asMap().entrySet()) {
+            if (entry.getValue().dependencies.contains(id)) {
+                cache.invalidate(entry.getKey());
+                count++;
+            }
+        }
+        if (count > 0 && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Evicted " + count + " legends depending on " + id);
+        }
+    }
+
+    /**
+     * Renders and caches the default legend of each style of the enabled layers
+     */
+    void prewarm() {
+        GetLegendGraphicKvpReader reader = new GetLegendGraphicKvpReader(wms);
+        GetLegendGraphicOutputFormat format = wms
+                .getLegendGraphicOutputFormat(GetLegendGraphicRequest.DEFAULT_FORMAT);
+        int count = 0;
+        for (LayerInfo layer : catalog.getLayers()) {
+            if (!layer.enabled() || (layer.getType() != PublishedType.VECTOR
+                    && layer.getType() != PublishedType.RASTER)) {
+                continue;
+            }
+            Set<String> styleNames = new LinkedHashSet<String>();
+            styleNames.add("");
+            for (StyleInfo style : layer.getStyles()) {
+                styleNames.add(style.prefixedName());
+            }
+            for (String styleName : styleNames) {
+                try {
+                    Map<String, String> rawKvp = new HashMap<String, String>();
+                    rawKvp.put("LAYER", layer.prefixedName());
+                    rawKvp.put("FORMAT", GetLegendGraphicRequest.DEFAULT_FORMAT);
+                    if (!"".equals(styleName)) {
+                        rawKvp.put("STYLE", styleName);
+                    }
+                    Map<String, Object> kvp = new HashMap<String, Object>();
+                    kvp.put("FORMAT", GetLegendGraphicRequest.DEFAULT_FORMAT);
+                    GetLegendGraphicRequest request = reader.read(new GetLegendGraphicRequest(),
+                            kvp, rawKvp);
+                    if (get(request) == null) {
+                        put(request, format.produceLegendGraphic(request));
+                        count++;
+                    }
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Failed to pre-render legend for layer "
+                            + layer.prefixedName() + " and style " + styleName, e);
+                }
+            }
+        }
+        LOGGER.info("Pre-rendered " + count + " legend graphics");
+    }
+
+    @Override
+    public void initialize(GeoServer geoServer) throws Exception {
+        if (cache == null || !prewarm) {
+            return;
+        }
+        Thread t = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                prewarm();
+            }
+        }, "Legend graphic cache pre-warm");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // nothing to do
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        evict(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // nothing to do
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof StyleInfo || source instanceof LayerInfo
+                || source instanceof LayerGroupInfo || source instanceof ResourceInfo) {
+            evict(source);
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+}
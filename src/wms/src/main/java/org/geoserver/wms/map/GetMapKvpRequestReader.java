@@ -117,6 +117,11 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
      * the first style that can be applied to a given layer. This is for backwards compatibility
      */
     private boolean laxStyleMatchAllowed = true;
+
+    /**
+     * Cache for the styles referenced by the SLD parameter, may be null
+     */
+    private RemoteSldCache remoteSldCache;
     
     
     public GetMapKvpRequestReader(WMS wms) {
@@ -145,6 +150,10 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         this.filterFactory = filterFactory;
     }
 
+    public void setRemoteSldCache(RemoteSldCache remoteSldCache) {
+        this.remoteSldCache = remoteSldCache;
+    }
+
     public boolean isParseStyle() {
         return parseStyles;
     }
@@ -277,36 +286,41 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
 
             URL styleUrl = getMap.getStyleUrl();
 
-            if (getMap.getValidateSchema().booleanValue()) {
-                InputStream input = Requests.getInputStream(styleUrl);
-                List errors = null;
-
-                try {
-                    errors = validateStyle(input, getMap);
-                } finally {
-                    input.close();
-                }
-
-                if ((errors != null) && (errors.size() != 0)) {
-                    input = Requests.getInputStream(styleUrl);
+            if (remoteSldCache != null && remoteSldCache.isCacheable(styleUrl)) {
+                StyledLayerDescriptor sld = parseCachedStyle(getMap, styleUrl);
+                processSld(getMap, requestedLayerInfos, sld, styleNameList);
+            } else {
+                if (getMap.getValidateSchema().booleanValue()) {
+                    InputStream input = Requests.getInputStream(styleUrl);
+                    List errors = null;
 
                     try {
-                        throw new ServiceException(SLDValidator.getErrorMessage(input, errors));
+                        errors = validateStyle(input, getMap);
                     } finally {
                         input.close();
                     }
+
+                    if ((errors != null) && (errors.size() != 0)) {
+                        input = Requests.getInputStream(styleUrl);
+
+                        try {
+                            throw new ServiceException(SLDValidator.getErrorMessage(input, errors));
+                        } finally {
+                            input.close();
+                        }
+                    }
                 }
-            }
 
-            // JD: GEOS-420, Wrap the sldUrl in getINputStream method in order
-            // to do compression
-            InputStream input = Requests.getInputStream(styleUrl);
+                // JD: GEOS-420, Wrap the sldUrl in getINputStream method in order
+                // to do compression
+                InputStream input = Requests.getInputStream(styleUrl);
 
-            try {
-                StyledLayerDescriptor sld = parseStyle(getMap, input);
-                processSld(getMap, requestedLayerInfos, sld, styleNameList);
-            } finally {
-                input.close();
+                try {
+                    StyledLayerDescriptor sld = parseStyle(getMap, input);
+                    processSld(getMap, requestedLayerInfos, sld, styleNameList);
+                } finally {
+                    input.close();
+                }
             }
 
             // set filter in, we'll check consistency later
@@ -588,6 +602,31 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         }
     }
 
+    /**
+     * Parses a remote style document going through the {@link RemoteSldCache}, validating it
+     * first if requested
+     */
+    private StyledLayerDescriptor parseCachedStyle(final GetMapRequest getMap, URL styleUrl)
+            throws IOException {
+        if (getMap.getValidateSchema().booleanValue()) {
+            byte[] contents = remoteSldCache.getDocument(styleUrl);
+            List errors = validateStyle(new ByteArrayInputStream(contents), getMap);
+            if ((errors != null) && (errors.size() != 0)) {
+                throw new ServiceException(SLDValidator.getErrorMessage(
+                        new ByteArrayInputStream(contents), errors));
+            }
+        }
+
+        String parseKey = getStyleFormat(getMap) + "|" + getMap.styleVersion();
+        return remoteSldCache.getStyle(styleUrl, parseKey, new RemoteSldCache.StyleParser() {
+
+            @Override
+            public StyledLayerDescriptor parse(InputStream input) throws IOException {
+                return parseStyle(getMap, input);
+            }
+        });
+    }
+
     /*
      * Get style language from request, falling back on SLD as default. 
      */
@@ -0,0 +1,368 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.util.BoundedCache;
+import org.geoserver.util.PropertyLookup;
+import org.geotools.styling.StyledLayerDescriptor;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Caches the remote style documents referenced by the SLD parameter of GetMap requests, along
+ * with their parsed {@link StyledLayerDescriptor}, so that clients passing the same remote SLD on
+ * every tile do not pay an upstream round trip and a parse on each request.
+ * <p>
+ * Documents are considered fresh for a configurable time to live, after which they are
+ * revalidated with a conditional GET using the ETag and Last-Modified headers returned by the
+ * remote server. A "304 Not Modified" answer keeps the cached document and parsed styles, any
+ * other answer replaces them.
+ * </p>
+ * <p>
+ * An expired document is revalidated by the first request finding it, while the concurrent
+ * requests keep on using the stale copy instead of waiting for the remote server. If the
+ * revalidation fails the stale copy is used as well.
+ * </p>
+ * <p>
+ * The cache is configured with the following properties:
+ * <ul>
+ * <li>{@link #CACHE_SIZE_KEY}: the maximum memory used by the cache, in megabytes. The cache is
+ * disabled by default</li>
+ * <li>{@link #TTL_KEY}: the time to live of the documents, in seconds, before a revalidation is
+ * issued, {@link #DEFAULT_TTL} by default</li>
+ * <li>{@link #ALLOW_LIST_KEY}: a comma separated list of regular expressions, only the URLs
+ * matching one of them are cached. When missing all http and https URLs are cached</li>
+ * <li>{@link #TIMEOUT_KEY}: the connect and read timeout used when fetching the documents, in
+ * seconds, {@link #DEFAULT_TIMEOUT} by default</li>
+ * </ul>
+ * </p>
+ */
+public class RemoteSldCache extends BoundedCache<String, RemoteSldCache.RemoteDocument> {
+
+    static final Logger LOGGER = Logging.getLogger(RemoteSldCache.class);
+
+    /**
+     * Property setting the maximum cache size, in megabytes
+     */
+    public static final String CACHE_SIZE_KEY = "org.geoserver.wms.remoteSldCacheSize";
+
+    /**
+     * Property setting the documents time to live, in seconds
+     */
+    public static final String TTL_KEY = "org.geoserver.wms.remoteSldCacheTTL";
+
+    /**
+     * Property listing the regular expressions the cacheable URLs must match
+     */
+    public static final String ALLOW_LIST_KEY = "org.geoserver.wms.remoteSldCacheAllowList";
+
+    /**
+     * Property setting the connect and read timeout of the remote requests, in seconds
+     */
+    public static final String TIMEOUT_KEY = "org.geoserver.wms.remoteSldCacheTimeout";
+
+    public static final long DEFAULT_TTL = 300;
+
+    public static final int DEFAULT_TIMEOUT = 30;
+
+    /**
+     * Parses a style document
+     */
+    public interface StyleParser {
+        StyledLayerDescriptor parse(InputStream input) throws IOException;
+    }
+
+    /**
+     * A cached remote document, along with its parsed versions
+     */
+    static final class RemoteDocument {
+
+        final byte[] contents;
+
+        final String etag;
+
+        final String lastModified;
+
+        volatile long validated;
+
+        /**
+         * Set while a thread is revalidating the document
+         */
+        final AtomicBoolean revalidating = new AtomicBoolean();
+
+        /**
+         * The parsed styles, keyed by format and version
+         */
+        final Map<String, StyledLayerDescriptor> styles =
+                new ConcurrentHashMap<String, StyledLayerDescriptor>();
+
+        RemoteDocument(byte[] contents, String etag, String lastModified) {
+            this.contents = contents;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validated = System.currentTimeMillis();
+        }
+    }
+
+    long timeToLive;
+
+    int timeout;
+
+    List<Pattern> allowList;
+
+    AtomicLong revalidations = new AtomicLong();
+
+    AtomicLong notModified = new AtomicLong();
+
+    AtomicLong fetches = new AtomicLong();
+
+    AtomicLong fetchTime = new AtomicLong();
+
+    AtomicLong maxFetchTime = new AtomicLong();
+
+    public RemoteSldCache() {
+        this(PropertyLookup.getLong(CACHE_SIZE_KEY, 0) * 1024 * 1024, PropertyLookup.getLong(
+                TTL_KEY, DEFAULT_TTL), PropertyLookup.getString(ALLOW_LIST_KEY, null));
+        this.timeout = PropertyLookup.getInt(TIMEOUT_KEY, DEFAULT_TIMEOUT) * 1000;
+    }
+
+    RemoteSldCache(long maxSize, long timeToLiveSeconds, String allowList) {
+        super(maxSize);
+        this.timeToLive = timeToLiveSeconds * 1000;
+        this.timeout = DEFAULT_TIMEOUT * 1000;
+        this.allowList = new ArrayList<Pattern>();
+        if (allowList != null) {
+            for (String pattern : allowList.split("\\s*,\\s*")) {
+                if (pattern.trim().length() > 0) {
+                    this.allowList.add(Pattern.compile(pattern.trim()));
+                }
+            }
+        }
+    }
+
+    @Override
+    protected int weigh(String key, RemoteDocument value) {
+        // the parsed styles are not measured, assume they take a few times the size of the
+        // document
+        return key.length() * 2 + value.contents.length * 5;
+    }
+
+    /**
+     * Returns true if the specified URL contents can be cached
+     */
+    public boolean isCacheable(URL url) {
+        if (cache == null || url == null) {
+            return false;
+        }
+        String protocol = url.getProtocol();
+        if (!"http".equalsIgnoreCase(protocol) && !"https".equalsIgnoreCase(protocol)) {
+            return false;
+        }
+        if (allowList.isEmpty()) {
+            return true;
+        }
+        String spec = url.toExternalForm();
+        for (Pattern pattern : allowList) {
+            if (pattern.matcher(spec).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the contents of the remote document, fetching or revalidating it if necessary
+     */
+    public byte[] getDocument(URL url) throws IOException {
+        return lookup(url).contents;
+    }
+
+    /**
+     * Returns the parsed remote document. The result is a copy of the cached one, callers are free
+     * to modify it.
+     *
+     * @param url the document location
+     * @param parseKey identifies the parsing options, e.g., the style format and version
+     * @param parser used to parse the document when not found in the cache
+     */
+    public StyledLayerDescriptor getStyle(URL url, String parseKey, StyleParser parser)
+            throws IOException {
+        RemoteDocument document = lookup(url);
+        StyledLayerDescriptor sld = document.styles.get(parseKey);
+        if (sld == null) {
+            sld = parser.parse(new ByteArrayInputStream(document.contents));
+            document.styles.put(parseKey, sld);
+        }
+
+        DuplicatingStyleVisitor copier = new DuplicatingStyleVisitor();
+        sld.accept(copier);
+        return (StyledLayerDescriptor) copier.getCopy();
+    }
+
+    RemoteDocument lookup(final URL url) throws IOException {
+        if (!isCacheable(url)) {
+            throw new IllegalArgumentException("The url " + url + " cannot be cached");
+        }
+        requests.incrementAndGet();
+        final String key = url.toExternalForm();
+        RemoteDocument document = cache.getIfPresent(key);
+        if (document == null) {
+            // the cache loader makes sure a single thread fetches the document
+            try {
+                document = cache.get(key, new Callable<RemoteDocument>() {
+
+                    @Override
+                    public RemoteDocument call() throws Exception {
+                        return fetch(url, null);
+                    }
+                });
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to fetch " + url, e.getCause());
+            }
+        } else if (System.currentTimeMillis() - document.validated > timeToLive
+                && document.revalidating.compareAndSet(false, true)) {
+            // this thread revalidates, the others keep on using the stale copy meanwhile
+            RemoteDocument stale = document;
+            try {
+                revalidations.incrementAndGet();
+                RemoteDocument fetched = fetch(url, stale);
+                if (fetched != stale) {
+                    cache.put(key, fetched);
+                    document = fetched;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to revalidate the remote style " + url
+                        + ", using the cached copy", e);
+            } finally {
+                stale.revalidating.set(false);
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return document;
+    }
+
+    /**
+     * Fetches the remote document, issuing a conditional request if a previous version is
+     * available. Returns the previous version if the server reports it has not been modified.
+     */
+    RemoteDocument fetch(URL url, RemoteDocument previous) throws IOException {
+        long start = System.currentTimeMillis();
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try {
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            if (previous != null) {
+                if (previous.etag != null) {
+                    conn.setRequestProperty("If-None-Match", previous.etag);
+                }
+                if (previous.lastModified != null) {
+                    conn.setRequestProperty("If-Modified-Since", previous.lastModified);
+                }
+            }
+            conn.connect();
+
+            if (previous != null && conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                notModified.incrementAndGet();
+                previous.validated = System.currentTimeMillis();
+                return previous;
+            }
+
+            InputStream input = getInputStream(conn);
+            try {
+                byte[] contents = IOUtils.toByteArray(input);
+                return new RemoteDocument(contents, conn.getHeaderField("ETag"),
+                        conn.getHeaderField("Last-Modified"));
+            } finally {
+                input.close();
+            }
+        } finally {
+            conn.disconnect();
+            long elapsed = System.currentTimeMillis() - start;
+            fetches.incrementAndGet();
+            fetchTime.addAndGet(elapsed);
+            long max = maxFetchTime.get();
+            while (elapsed > max && !maxFetchTime.compareAndSet(max, elapsed)) {
+                max = maxFetchTime.get();
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Fetched remote style " + url + " in " + elapsed + "ms");
+            }
+        }
+    }
+
+    InputStream getInputStream(HttpURLConnection conn) throws IOException {
+        String encoding = conn.getContentEncoding();
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(conn.getInputStream());
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            return new InflaterInputStream(conn.getInputStream(), new Inflater(true));
+        } else {
+            return conn.getInputStream();
+        }
+    }
+
+    /**
+     * The number of conditional requests issued to revalidate expired documents
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    /**
+     * The number of revalidations that found the document unchanged
+     */
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    /**
+     * The number of requests issued to the remote servers
+     */
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    /**
+     * The average time, in milliseconds, spent fetching remote documents
+     */
+    public double getAverageFetchTime() {
+        long count = fetches.get();
+        return count == 0 ? 0 : fetchTime.get() / (double) count;
+    }
+
+    /**
+     * The maximum time, in milliseconds, spent fetching a remote document
+     */
+    public long getMaxFetchTime() {
+        return maxFetchTime.get();
+    }
+}
@@ -0,0 +1,147 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.utfgrid;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A compact per pixel index of the features rendered in a map, at a reduced resolution. Each
+ * grid cell holds the index of the top most feature painted on it, plus one (zero meaning no
+ * feature at all).
+ */
+public class HitGrid {
+
+    final Envelope bounds;
+
+    final int width;
+
+    final int height;
+
+    final int[] cells;
+
+    final String[] fids;
+
+    final double mapResolution;
+
+    /**
+     * @param bounds the area covered by the grid, in the map CRS
+     * @param width the number of grid columns
+     * @param height the number of grid rows
+     * @param cells the cell values, the feature index plus one, zero for empty cells
+     * @param fids the ids of the features referenced by the cells
+     * @param mapResolution the size of a pixel, in map units, of the map the grid was built for
+     */
+    public HitGrid(Envelope bounds, int width, int height, int[] cells, List<String> fids,
+            double mapResolution) {
+        this.bounds = bounds;
+        this.width = width;
+        this.height = height;
+        this.cells = cells;
+        this.fids = fids.toArray(new String[fids.size()]);
+        this.mapResolution = mapResolution;
+    }
+
+    public Envelope getBounds() {
+        return bounds;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The size of a pixel, in map units, of the map the grid was built for
+     */
+    public double getMapResolution() {
+        return mapResolution;
+    }
+
+    /**
+     * The id of the feature rendered in the specified cell, or null if the cell is empty
+     */
+    public String getFid(int col, int row) {
+        int value = cells[row * width + col];
+        return value == 0 ? null : fids[value - 1];
+    }
+
+    /**
+     * The cell value, the feature index plus one, or zero if the cell is empty
+     */
+    public int getValue(int col, int row) {
+        return cells[row * width + col];
+    }
+
+    /**
+     * Returns the ids of all the features referenced by the grid, the position in the array is
+     * the cell value minus one
+     */
+    public String[] getFids() {
+        return fids;
+    }
+
+    /**
+     * Returns the ids of the features rendered within the specified distance from the point, the
+     * ones closer to it first
+     */
+    public Set<String> getFids(double x, double y, double radius) {
+        Set<String> result = new LinkedHashSet<String>();
+        double cellWidth = bounds.getWidth() / width;
+        double cellHeight = bounds.getHeight() / height;
+        int col = (int) Math.floor((x - bounds.getMinX()) / cellWidth);
+        int row = (int) Math.floor((bounds.getMaxY() - y) / cellHeight);
+        int rx = (int) Math.ceil(radius / cellWidth);
+        int ry = (int) Math.ceil(radius / cellHeight);
+        int rings = Math.max(rx, ry);
+        for (int ring = 0; ring <= rings; ring++) {
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= height || Math.abs(r - row) > ry) {
+                    continue;
+                }
+                for (int c = col - ring; c <= col + ring; c++) {
+                    if (c < 0 || c >= width || Math.abs(c - col) > rx) {
+                        continue;
+                    }
+                    // only the cells on the ring border, the inner ones have already been visited
+                    if (Math.abs(r - row) != ring && Math.abs(c - col) != ring) {
+                        continue;
+                    }
+                    String fid = getFid(c, r);
+                    if (fid != null) {
+                        result.add(fid);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the grid covers the specified point and was built for a map with the
+     * specified resolution
+     */
+    public boolean covers(double x, double y, double mapResolution) {
+        return bounds.contains(x, y)
+                && Math.abs(this.mapResolution - mapResolution) <= this.mapResolution * 0.01;
+    }
+
+    /**
+     * An estimate of the memory used by the grid, in bytes
+     */
+    int getWeight() {
+        int weight = cells.length * 4 + 64;
+        for (String fid : fids) {
+            weight += fid.length() * 2 + 40;
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,334 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.utfgrid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.util.BoundedCache;
+import org.geoserver.util.PropertyLookup;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wms.FeatureInfoRequestParameters;
+import org.geoserver.wms.GetMapRequest;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.styling.Style;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Keeps the {@link HitGrid} of the recently rendered UTFGrid maps, so that GetFeatureInfo
+ * requests falling in their area can be answered with a grid lookup instead of rendering the
+ * layer again.
+ * <p>
+ * Grids are associated to a layer, style, CRS, filter, time, elevation, view parameters and
+ * environment variables, and are used only for GetFeatureInfo requests having the same ones and
+ * the same map resolution. Maps using the SLD, SLD_BODY or STYLE_BODY parameters, a rotation or
+ * rendering transformations are not cached. Any change to a layer, resource or style drops all
+ * the grids, a WFS transaction drops the grids of the layers it modifies, and grids expire after
+ * a configurable time to live, to account for changes made to the data outside of GeoServer.
+ * </p>
+ * <p>
+ * Grids are looked up by the context and area of the GetFeatureInfo request first, which finds
+ * them when the request is made against the same map or tile the grid was built for, and then
+ * among the other grids sharing the same context, which are indexed separately.
+ * </p>
+ * <p>
+ * The cache is configured with the following properties:
+ * <ul>
+ * <li>{@link #CACHE_SIZE_KEY}: the maximum memory used by the cache, in megabytes, the cache is
+ * disabled by default</li>
+ * <li>{@link #TTL_KEY}: the time to live of the grids, in seconds, {@link #DEFAULT_TTL} by
+ * default, zero disables the expiration</li>
+ * </ul>
+ * </p>
+ */
+public class HitGridCache extends BoundedCache<HitGridCache.GridKey, HitGrid> implements
+        CatalogListener, TransactionListener {
+
+    static final Logger LOGGER = Logging.getLogger(HitGridCache.class);
+
+    /**
+     * Property setting the maximum cache size, in megabytes
+     */
+    public static final String CACHE_SIZE_KEY = "org.geoserver.wms.hitGridCacheSize";
+
+    /**
+     * Property setting the grids time to live, in seconds
+     */
+    public static final String TTL_KEY = "org.geoserver.wms.hitGridCacheTTL";
+
+    public static final long DEFAULT_TTL = 600;
+
+    /**
+     * The keys of the cached grids, by context
+     */
+    final ConcurrentHashMap<String, Set<GridKey>> contexts = new ConcurrentHashMap<String, Set<GridKey>>();
+
+    final Catalog catalog;
+
+    public HitGridCache(Catalog catalog) {
+        this(catalog, PropertyLookup.getLong(CACHE_SIZE_KEY, 0) * 1024 * 1024, PropertyLookup
+                .getLong(TTL_KEY, DEFAULT_TTL));
+    }
+
+    HitGridCache(Catalog catalog, long maxSize, long timeToLiveSeconds) {
+        super(maxSize, timeToLiveSeconds);
+        this.catalog = catalog;
+        if (isEnabled()) {
+            catalog.addListener(this);
+        }
+    }
+
+    @Override
+    protected int weigh(GridKey key, HitGrid value) {
+        return key.context.length() * 2 + 64 + value.getWeight();
+    }
+
+    @Override
+    protected void onRemoval(RemovalNotification<GridKey, HitGrid> notification) {
+        if (notification.getCause() == RemovalCause.REPLACED) {
+            return;
+        }
+        GridKey key = notification.getKey();
+        Set<GridKey> keys = contexts.get(key.context);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                contexts.remove(key.context, keys);
+            }
+        }
+    }
+
+    /**
+     * Caches the hit grid of a layer of a GetMap request, if the request allows it
+     */
+    public void put(GetMapRequest request, int layerIndex, Style style, HitGrid grid) {
+        if (cache == null || !isCacheable(request, style)
+                || request.getLayers().size() <= layerIndex) {
+            return;
+        }
+        String layerName = request.getLayers().get(layerIndex).getName();
+        Filter filter = (Filter) getElement(request.getFilter(), layerIndex);
+        Map<String, String> viewParams = getElement(request.getViewParams(), layerIndex);
+        String context = getContextKey(layerName, style.getName(), filter, request.getTime(),
+                request.getElevation(), viewParams, request.getEnv(), request.getSRS(),
+                request.getMaxFeatures(), request.getStartIndex());
+        GridKey key = new GridKey(context, grid.getBounds(), grid.getMapResolution());
+        // index the key before caching, so that its eviction finds it, making sure the set was
+        // not dropped by a concurrent removal
+        Set<GridKey> keys;
+        do {
+            keys = contexts.get(context);
+            if (keys == null) {
+                keys = Collections.newSetFromMap(new ConcurrentHashMap<GridKey, Boolean>());
+                Set<GridKey> existing = contexts.putIfAbsent(context, keys);
+                if (existing != null) {
+                    keys = existing;
+                }
+            }
+            keys.add(key);
+        } while (contexts.get(context) != keys);
+        cache.put(key, grid);
+    }
+
+    /**
+     * Looks up a grid covering the clicked point of a GetFeatureInfo request, for the current
+     * layer, at the same map resolution. Returns null if none is found.
+     */
+    public HitGrid get(FeatureInfoRequestParameters params) {
+        GetMapRequest request = params.getGetMapRequest();
+        if (cache == null || !isCacheable(request, params.getStyle())) {
+            return null;
+        }
+        String context = getContextKey(params.getLayer().getName(), params.getStyle().getName(),
+                params.getFilter(), params.getTimes(), params.getElevations(),
+                params.getViewParams(), request.getEnv(), request.getSRS(),
+                request.getMaxFeatures(), request.getStartIndex());
+
+        ReferencedEnvelope bounds = params.getRequestedBounds();
+        double resolution = bounds.getWidth() / params.getWidth();
+        double x = bounds.getMinX() + (params.getX() + 0.5) * resolution;
+        double y = bounds.getMaxY() - (params.getY() + 0.5) * bounds.getHeight()
+                / params.getHeight();
+
+        // same map or tile the grid was built for
+        HitGrid grid = getIfPresent(new GridKey(context, bounds, resolution));
+        if (grid != null && grid.covers(x, y, resolution)) {
+            return grid;
+        }
+
+        // any other grid with the same context covering the point
+        Set<GridKey> keys = contexts.get(context);
+        if (keys != null) {
+            for (GridKey key : keys) {
+                grid = cache.getIfPresent(key);
+                if (grid != null && grid.covers(x, y, resolution)) {
+                    hits.incrementAndGet();
+                    return grid;
+                }
+            }
+        }
+        return null;
+    }
+
+    boolean isCacheable(GetMapRequest request, Style style) {
+        return style != null && request.getSld() == null && request.getSldBody() == null
+                && request.getStyleBody() == null && request.getAngle() == 0
+                && !HitGridRenderer.hasTransformations(style);
+    }
+
+    <T> T getElement(List<T> list, int index) {
+        if (list == null || list.size() <= index) {
+            return null;
+        }
+        return list.get(index);
+    }
+
+    static String getContextKey(String layerName, String styleName, Filter filter,
+            List<Object> times, List<Object> elevations, Map<String, String> viewParams,
+            Map env, String srs, Integer maxFeatures, Integer startIndex) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(layerName).append("|").append(styleName).append("|").append(srs);
+        sb.append("|").append(filter == null ? "" : toCQL(filter));
+        sb.append("|").append(times == null ? "" : times);
+        sb.append("|").append(elevations == null ? "" : elevations);
+        sb.append("|").append(viewParams == null ? "" : new TreeMap<String, String>(viewParams));
+        sb.append("|").append(env == null ? "" : new TreeMap(env));
+        sb.append("|").append(maxFeatures).append("|").append(startIndex);
+        return sb.toString();
+    }
+
+    static String toCQL(Filter filter) {
+        try {
+            return ECQL.toCQL(filter);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not encode filter in CQL, using toString()", e);
+            return filter.toString();
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // nothing to do
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        clear(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // nothing to do
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        clear(event.getSource());
+    }
+
+    void clear(CatalogInfo source) {
+        if (source instanceof StyleInfo || source instanceof LayerInfo
+                || source instanceof LayerGroupInfo || source instanceof ResourceInfo) {
+            clear();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        if (cache == null) {
+            return;
+        }
+        QName name = event.getLayerName();
+        FeatureTypeInfo featureType = name == null ? null : catalog.getFeatureTypeByName(
+                name.getNamespaceURI(), name.getLocalPart());
+        if (featureType == null) {
+            clear();
+        } else {
+            clearLayer(featureType.getPrefixedName());
+        }
+    }
+
+    /**
+     * Drops the grids of the specified layer
+     */
+    void clearLayer(String layerName) {
+        String prefix = layerName + "|";
+        for (Map.Entry<String, Set<GridKey>> entry : contexts.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                cache.invalidateAll(new ArrayList<GridKey>(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Identifies a grid by its context, area and map resolution
+     */
+    static class GridKey {
+
+        final String context;
+
+        final Envelope bounds;
+
+        final double resolution;
+
+        GridKey(String context, Envelope bounds, double resolution) {
+            this.context = context;
+            this.bounds = new Envelope(bounds);
+            this.resolution = resolution;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(resolution);
+            return (context.hashCode() * 31 + bounds.hashCode()) * 31
+                    + (int) (bits ^ (bits >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof GridKey)) {
+                return false;
+            }
+            GridKey other = (GridKey) obj;
+            return context.equals(other.context) && bounds.equals(other.bounds)
+                    && Double.doubleToLongBits(resolution) == Double
+                            .doubleToLongBits(other.resolution);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.utfgrid;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.RenderingHints.Key;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageTypeSpecifier;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.DefaultWebMapService;
+import org.geoserver.wms.RenderingVariables;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.featureinfo.VectorRenderingLayerIdentifier.FeatureInfoFeatureSource;
+import org.geoserver.wms.map.RenderedImageMapOutputFormat;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.referencing.CRS;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.MetaBufferEstimator;
+import org.geotools.renderer.lite.RendererUtilities;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.Displacement;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Graphic;
+import org.geotools.styling.LineSymbolizer;
+import org.geotools.styling.PointSymbolizer;
+import org.geotools.styling.PolygonSymbolizer;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.Symbolizer;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Renders the {@link HitGrid} of a vector layer.
+ * <p>
+ * The layer is painted at a reduced resolution, one pixel for each grid cell, with the DPI scaled
+ * down accordingly so that symbol sizes and scale dependencies match the full resolution map.
+ * After each feature is painted the image is scanned, the painted pixels are assigned to it, and
+ * the image is cleared, so that every cell ends up referencing the top most feature painted on
+ * it.
+ * </p>
+ * <p>
+ * Only the cells within the feature bounds, expanded by the symbol size estimated from the style,
+ * are scanned. The whole image is scanned instead when the style uses geometry functions,
+ * offsets, displacements or dynamic symbol sizes, or when the map is wrapped around the dateline.
+ * </p>
+ */
+public class HitGridRenderer {
+
+    WMS wms;
+
+    int resolution;
+
+    /**
+     * @param wms the WMS configuration
+     * @param resolution the size of a grid cell, in map pixels
+     */
+    public HitGridRenderer(WMS wms, int resolution) {
+        this.wms = wms;
+        this.resolution = resolution;
+    }
+
+    /**
+     * Renders the hit grid of the specified layer of the map
+     *
+     * @param mapContent the map the layer is part of
+     * @param layer the layer to render
+     * @param features if not null, the rendered features will be added to it, keyed by id
+     */
+    public HitGrid render(WMSMapContent mapContent, FeatureLayer layer,
+            Map<String, SimpleFeature> features) throws ServiceException {
+        // grid size, extending the area so that each cell is exactly resolution pixels wide
+        final int mapWidth = mapContent.getMapWidth();
+        final int mapHeight = mapContent.getMapHeight();
+        final int gridWidth = (int) Math.ceil(mapWidth / (double) resolution);
+        final int gridHeight = (int) Math.ceil(mapHeight / (double) resolution);
+        ReferencedEnvelope area = mapContent.getRenderingArea();
+        double maxX = area.getMinX() + area.getWidth() * gridWidth * resolution / mapWidth;
+        double minY = area.getMaxY() - area.getHeight() * gridHeight * resolution / mapHeight;
+        ReferencedEnvelope gridArea = new ReferencedEnvelope(area.getMinX(), maxX, minY,
+                area.getMaxY(), area.getCoordinateReferenceSystem());
+
+        final BufferedImage image = ImageTypeSpecifier.createFromBufferedImageType(
+                BufferedImage.TYPE_INT_ARGB).createBufferedImage(gridWidth, gridHeight);
+        image.setAccelerationPriority(0);
+        AffineTransform worldToGrid = RendererUtilities.worldToScreenTransform(gridArea,
+                new Rectangle(gridWidth, gridHeight));
+        final HitGridListener listener = new HitGridListener(image, features, worldToGrid,
+                gridArea.getCoordinateReferenceSystem(), getMargin(layer.getStyle(), gridArea));
+
+        WMSMapContent gridContent = new WMSMapContent(mapContent.getRequest());
+        try {
+            gridContent.setTransparent(true);
+            gridContent.setBuffer(mapContent.getBuffer());
+            gridContent.getViewport().setBounds(gridArea);
+            gridContent.setMapWidth(gridWidth);
+            gridContent.setMapHeight(gridHeight);
+            // make sure all attributes are loaded, and the screenmap is not used
+            FeatureLayer gridLayer = new FeatureLayer(new FeatureInfoFeatureSource(
+                    layer.getFeatureSource(), null), layer.getStyle());
+            gridLayer.setQuery(layer.getQuery());
+            gridContent.addLayer(gridLayer);
+            RenderingVariables.setupEnvironmentVariables(gridContent);
+
+            RenderedImageMapOutputFormat rim = new RenderedImageMapOutputFormat(wms) {
+
+                private Graphics2D graphics;
+
+                @Override
+                protected RenderedImage prepareImage(int width, int height,
+                        IndexColorModel palette, boolean transparent) {
+                    return image;
+                }
+
+                @Override
+                protected Graphics2D getGraphics(boolean transparent, Color bgColor,
+                        RenderedImage preparedImage, Map<Key, Object> hintsMap) {
+                    graphics = super.getGraphics(transparent, bgColor, preparedImage, hintsMap);
+                    return graphics;
+                }
+
+                @Override
+                protected void onBeforeRender(StreamingRenderer renderer) {
+                    // paint features one at a time, we need to check what each of them painted
+                    Map hints = renderer.getRendererHints();
+                    hints.put(StreamingRenderer.OPTIMIZE_FTS_RENDERING_KEY, Boolean.FALSE);
+                    // each pixel is resolution times larger than the map ones
+                    double dpi = RendererUtilities.getDpi(hints);
+                    hints.put(StreamingRenderer.DPI_KEY, dpi / resolution);
+                    // no antialiasing, we want crisp cell ownership
+                    graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                            RenderingHints.VALUE_ANTIALIAS_OFF);
+                    RenderingHints java2dHints = renderer.getJava2DHints();
+                    if (java2dHints != null) {
+                        java2dHints.put(RenderingHints.KEY_ANTIALIASING,
+                                RenderingHints.VALUE_ANTIALIAS_OFF);
+                    }
+                    renderer.addRenderListener(listener);
+                }
+            };
+            rim.produceMap(gridContent);
+        } finally {
+            gridContent.dispose();
+        }
+
+        double mapResolution = area.getWidth() / mapWidth;
+        return listener.buildGrid(gridArea, gridWidth, gridHeight, mapResolution);
+    }
+
+    /**
+     * Returns the number of cells a feature can paint beyond its bounds, or -1 if it cannot be
+     * estimated
+     */
+    int getMargin(Style style, ReferencedEnvelope gridArea) {
+        if (style == null || hasOffsets(style) || isWrapped(gridArea)) {
+            return -1;
+        }
+        MetaBufferEstimator estimator = new MetaBufferEstimator();
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule rule : fts.rules()) {
+                estimator.visit(rule);
+            }
+        }
+        if (!estimator.isEstimateAccurate()) {
+            return -1;
+        }
+        return (int) Math.ceil(estimator.getBuffer() / (double) resolution) + 1;
+    }
+
+    /**
+     * Returns true if the map extends past the CRS domain, where features might be painted
+     * multiple times
+     */
+    boolean isWrapped(ReferencedEnvelope gridArea) {
+        if (!DefaultWebMapService.isContinuousMapWrappingEnabled()) {
+            return false;
+        }
+        CoordinateReferenceSystem crs = gridArea.getCoordinateReferenceSystem();
+        org.opengis.geometry.Envelope domain = crs == null ? null : CRS.getEnvelope(crs);
+        return domain == null || !new ReferencedEnvelope(domain).contains((BoundingBox) gridArea);
+    }
+
+    /**
+     * Returns true if the style paints the features away from their geometry, by means of
+     * geometry functions, offsets or displacements
+     */
+    static boolean hasOffsets(Style style) {
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule rule : fts.rules()) {
+                for (Symbolizer symbolizer : rule.symbolizers()) {
+                    Expression geometry = symbolizer.getGeometry();
+                    if (geometry != null && !(geometry instanceof PropertyName)) {
+                        return true;
+                    }
+                    if (symbolizer instanceof LineSymbolizer
+                            && !isZero(((LineSymbolizer) symbolizer).getPerpendicularOffset())) {
+                        return true;
+                    } else if (symbolizer instanceof PolygonSymbolizer) {
+                        PolygonSymbolizer ps = (PolygonSymbolizer) symbolizer;
+                        if (!isZero(ps.getPerpendicularOffset())
+                                || !isZero(ps.getDisplacement())) {
+                            return true;
+                        }
+                    } else if (symbolizer instanceof PointSymbolizer) {
+                        Graphic graphic = ((PointSymbolizer) symbolizer).getGraphic();
+                        if (graphic != null && !isZero(graphic.getDisplacement())) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean isZero(Displacement displacement) {
+        return displacement == null
+                || (isZero(displacement.getDisplacementX()) && isZero(displacement
+                        .getDisplacementY()));
+    }
+
+    static boolean isZero(Expression expression) {
+        if (expression == null) {
+            return true;
+        }
+        if (expression instanceof Literal) {
+            Double value = expression.evaluate(null, Double.class);
+            return value != null && value == 0;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the style uses rendering transformations, in that case the rendered
+     * features are not the ones in the layer
+     */
+    public static boolean hasTransformations(Style style) {
+        if (style == null) {
+            return false;
+        }
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            if (fts.getTransformation() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Assigns the pixels painted by each feature to it
+     */
+    static final class HitGridListener implements RenderListener {
+
+        final BufferedImage image;
+
+        final int[] cells;
+
+        final List<String> fids = new ArrayList<String>();
+
+        final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        final Map<String, SimpleFeature> features;
+
+        final AffineTransform worldToGrid;
+
+        final CoordinateReferenceSystem crs;
+
+        /**
+         * The cells a feature can paint beyond its bounds, negative to scan the whole image
+         */
+        final int margin;
+
+        final Rectangle imageBounds;
+
+        HitGridListener(BufferedImage image, Map<String, SimpleFeature> features,
+                AffineTransform worldToGrid, CoordinateReferenceSystem crs, int margin) {
+            this.image = image;
+            this.cells = new int[image.getWidth() * image.getHeight()];
+            this.features = features;
+            this.worldToGrid = worldToGrid;
+            this.crs = crs;
+            this.margin = margin;
+            this.imageBounds = new Rectangle(image.getWidth(), image.getHeight());
+        }
+
+        @Override
+        public void featureRenderer(SimpleFeature feature) {
+            // note: we need to extract the raster here, caching it will make us
+            // get the old version of it if hw acceleration kicks in
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            Rectangle area = getPaintedArea(feature);
+            int width = image.getWidth();
+            int value = 0;
+            for (int y = area.y; y < area.y + area.height; y++) {
+                int row = y * width;
+                for (int i = row + area.x; i < row + area.x + area.width; i++) {
+                    int pixel = pixels[i];
+                    if (pixel != 0) {
+                        if ((pixel >>> 24) != 0) {
+                            if (value == 0) {
+                                value = getIndex(feature) + 1;
+                            }
+                            cells[i] = value;
+                        }
+                        // clean up for the next feature
+                        pixels[i] = 0;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the cells the feature might have painted
+         */
+        Rectangle getPaintedArea(SimpleFeature feature) {
+            if (margin < 0 || worldToGrid == null) {
+                return imageBounds;
+            }
+            BoundingBox bounds = feature.getBounds();
+            if (bounds == null || bounds.isEmpty()) {
+                return imageBounds;
+            }
+            ReferencedEnvelope envelope = ReferencedEnvelope.reference(bounds);
+            CoordinateReferenceSystem featureCrs = envelope.getCoordinateReferenceSystem();
+            if (featureCrs != null && crs != null && !CRS.equalsIgnoreMetadata(featureCrs, crs)) {
+                try {
+                    envelope = envelope.transform(crs, true);
+                } catch (Exception e) {
+                    return imageBounds;
+                }
+            }
+            Rectangle2D area = worldToGrid.createTransformedShape(
+                    new Rectangle2D.Double(envelope.getMinX(), envelope.getMinY(), envelope
+                            .getWidth(), envelope.getHeight())).getBounds2D();
+            int minX = (int) Math.floor(area.getMinX()) - margin;
+            int minY = (int) Math.floor(area.getMinY()) - margin;
+            int maxX = (int) Math.floor(area.getMaxX()) + margin;
+            int maxY = (int) Math.floor(area.getMaxY()) + margin;
+            Rectangle painted = new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1)
+                    .intersection(imageBounds);
+            if (painted.isEmpty()) {
+                return new Rectangle(0, 0, 0, 0);
+            }
+            return painted;
+        }
+
+        int getIndex(SimpleFeature feature) {
+            String fid = feature.getID();
+            Integer index = indexes.get(fid);
+            if (index == null) {
+                index = fids.size();
+                fids.add(fid);
+                indexes.put(fid, index);
+                if (features != null) {
+                    features.put(fid, feature);
+                }
+            }
+            return index;
+        }
+
+        @Override
+        public void errorOccurred(Exception e) {
+            // nothing to do here, there are other listeners handling this
+        }
+
+        /**
+         * Builds the grid, dropping the features that have been completely covered by others
+         */
+        HitGrid buildGrid(ReferencedEnvelope area, int width, int height, double mapResolution) {
+            int[] remap = new int[fids.size() + 1];
+            for (int value : cells) {
+                remap[value] = 1;
+            }
+            // empty cells stay empty
+            remap[0] = 0;
+            List<String> visible = new ArrayList<String>();
+            for (int i = 1; i < remap.length; i++) {
+                if (remap[i] != 0) {
+                    visible.add(fids.get(i - 1));
+                    remap[i] = visible.size();
+                } else if (features != null) {
+                    features.remove(fids.get(i - 1));
+                }
+            }
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = remap[cells[i]];
+            }
+            return new HitGrid(area, width, height, cells, visible, mapResolution);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.utfgrid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.json.util.JSONBuilder;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetMapOutputFormat;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapProducerCapabilities;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.RawMap;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.styling.Style;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Produces <a href="https://github.com/mapbox/utfgrid-spec">UTFGrid</a> maps, a JSON encoding
+ * of the features painted on each area of the map, that clients can use to implement
+ * interactivity without issuing GetFeatureInfo requests.
+ * <p>
+ * The grid resolution, in pixels, is controlled by the {@code utfresolution} format option,
+ * defaulting to {@link #DEFAULT_RESOLUTION}. Only vector layers are included in the grid, the
+ * top most feature wins when several overlap. The grids are also handed over to the
+ * {@link HitGridCache}, so that GetFeatureInfo requests on the same area can be answered without
+ * rendering.
+ * </p>
+ */
+public class UTFGridMapOutputFormat implements GetMapOutputFormat {
+
+    public static final String MIME_TYPE = "application/json;type=utfgrid";
+
+    static final Set<String> OUTPUT_FORMATS = ImmutableSet.of(MIME_TYPE, "utfgrid");
+
+    /**
+     * The format option controlling the grid resolution
+     */
+    public static final String RESOLUTION_OPTION = "utfresolution";
+
+    public static final int DEFAULT_RESOLUTION = 4;
+
+    /**
+     * Tiled, no multi value, no palette, no transparency
+     */
+    static final MapProducerCapabilities CAPABILITIES = new MapProducerCapabilities(true, false,
+            false, false, null);
+
+    WMS wms;
+
+    HitGridCache cache;
+
+    public UTFGridMapOutputFormat(WMS wms, HitGridCache cache) {
+        this.wms = wms;
+        this.cache = cache;
+    }
+
+    @Override
+    public Set<String> getOutputFormatNames() {
+        return OUTPUT_FORMATS;
+    }
+
+    @Override
+    public String getMimeType() {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public MapProducerCapabilities getCapabilities(String format) {
+        return CAPABILITIES;
+    }
+
+    @Override
+    public WebMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
+        GetMapRequest request = mapContent.getRequest();
+        HitGridRenderer renderer = new HitGridRenderer(wms, getResolution(request));
+        List<Layer> layers = mapContent.layers();
+        // the request layers and the map ones are aligned, unless some got skipped
+        boolean aligned = request.getLayers() != null
+                && request.getLayers().size() == layers.size();
+
+        List<HitGrid> grids = new ArrayList<HitGrid>();
+        Map<String, SimpleFeature> features = new HashMap<String, SimpleFeature>();
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (!(layer instanceof FeatureLayer)) {
+                continue;
+            }
+            HitGrid grid = renderer.render(mapContent, (FeatureLayer) layer, features);
+            grids.add(grid);
+            if (aligned && cache != null && request.getStyles() != null
+                    && request.getStyles().size() > i) {
+                Style style = request.getStyles().get(i);
+                cache.put(request, i, style, grid);
+            }
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(bos, "UTF-8");
+        encode(grids, features, mapContent, writer);
+        writer.flush();
+        return new RawMap(mapContent, bos.toByteArray(), MIME_TYPE);
+    }
+
+    int getResolution(GetMapRequest request) {
+        Object value = request.getFormatOptions().get(RESOLUTION_OPTION);
+        if (value == null) {
+            return DEFAULT_RESOLUTION;
+        }
+        try {
+            int resolution = Integer.parseInt(String.valueOf(value));
+            if (resolution < 1) {
+                throw new ServiceException("Invalid " + RESOLUTION_OPTION + " value " + value
+                        + ", it should be a positive integer", "InvalidParameterValue");
+            }
+            return resolution;
+        } catch (NumberFormatException e) {
+            throw new ServiceException("Invalid " + RESOLUTION_OPTION + " value " + value
+                    + ", it should be a positive integer", "InvalidParameterValue");
+        }
+    }
+
+    /**
+     * Encodes the grids, stacked in order, as a single UTFGrid
+     */
+    void encode(List<HitGrid> grids, Map<String, SimpleFeature> features,
+            WMSMapContent mapContent, Writer writer) throws IOException {
+        // the keys, in order of appearance, the first one being the empty cell
+        Map<String, Integer> keys = new LinkedHashMap<String, Integer>();
+        keys.put("", 0);
+        int width = 0;
+        int height = 0;
+        int[] cells = null;
+        for (HitGrid grid : grids) {
+            if (cells == null) {
+                width = grid.getWidth();
+                height = grid.getHeight();
+                cells = new int[width * height];
+            }
+            String[] fids = grid.getFids();
+            int[] remap = new int[fids.length + 1];
+            for (int i = 0; i < fids.length; i++) {
+                Integer key = keys.get(fids[i]);
+                if (key == null) {
+                    key = keys.size();
+                    keys.put(fids[i], key);
+                }
+                remap[i + 1] = key;
+            }
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    int value = grid.getValue(col, row);
+                    if (value != 0) {
+                        cells[row * width + col] = remap[value];
+                    }
+                }
+            }
+        }
+        if (cells == null) {
+            // no vector layers, return an empty grid of the expected size
+            int resolution = getResolution(mapContent.getRequest());
+            width = (int) Math.ceil(mapContent.getMapWidth() / (double) resolution);
+            height = (int) Math.ceil(mapContent.getMapHeight() / (double) resolution);
+            cells = new int[width * height];
+        }
+
+        JSONBuilder json = new JSONBuilder(writer);
+        json.object();
+        json.key("grid").array();
+        StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < height; row++) {
+            sb.setLength(0);
+            for (int col = 0; col < width; col++) {
+                sb.appendCodePoint(encodeKey(cells[row * width + col]));
+            }
+            json.value(sb.toString());
+        }
+        json.endArray();
+        json.key("keys").array();
+        for (String key : keys.keySet()) {
+            json.value(key);
+        }
+        json.endArray();
+        json.key("data").object();
+        for (String key : keys.keySet()) {
+            SimpleFeature feature = features.get(key);
+            if (feature == null) {
+                continue;
+            }
+            json.key(key).object();
+            for (AttributeDescriptor ad : feature.getFeatureType().getAttributeDescriptors()) {
+                if (ad instanceof GeometryDescriptor) {
+                    continue;
+                }
+                Object value = feature.getAttribute(ad.getLocalName());
+                json.key(ad.getLocalName());
+                if (value == null || value instanceof Number || value instanceof Boolean
+                        || value instanceof String) {
+                    json.value(value);
+                } else {
+                    json.value(String.valueOf(value));
+                }
+            }
+            json.endObject();
+        }
+        json.endObject();
+        json.endObject();
+    }
+
+    /**
+     * Encodes a key index in a grid character, as mandated by the UTFGrid spec, skipping the
+     * double quote and backslash characters
+     */
+    static int encodeKey(int index) {
+        int code = index + 32;
+        if (code >= 34) {
+            code++;
+        }
+        if (code >= 92) {
+            code++;
+        }
+        return code;
+    }
+}
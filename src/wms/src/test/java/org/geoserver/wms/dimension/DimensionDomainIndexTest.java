@@ -0,0 +1,178 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TreeSet;
+
+import net.opengis.wfs.TransactionType;
+import net.opengis.wfs.WfsFactory;
+
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.DimensionPresentation;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.platform.resource.Resource.Type;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wms.WMSDimensionsTestSupport;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+public class DimensionDomainIndexTest extends WMSDimensionsTestSupport {
+
+    DimensionDomainIndex index;
+
+    @Before
+    public void setupIndex() {
+        index = new DimensionDomainIndex(getCatalog(), getDataDirectory(), true, 0);
+    }
+
+    @After
+    public void disposeIndex() throws Exception {
+        getCatalog().removeListener(index);
+        index.clear(getCatalog().getFeatureTypeByName(V_TIME_ELEVATION.getLocalPart()));
+        index.destroy();
+    }
+
+    DimensionInfo getDimension(String name) {
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(V_TIME_ELEVATION.getLocalPart());
+        return info.getMetadata().get(name, DimensionInfo.class);
+    }
+
+    SimpleFeatureCollection elevations(double... values) throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("TimeElevation",
+                "geom:Polygon:srid=4326,time:java.sql.Date,elevation:double");
+        SimpleFeature[] features = new SimpleFeature[values.length];
+        for (int i = 0; i < values.length; i++) {
+            features[i] = SimpleFeatureBuilder.build(type, new Object[] { null, null, values[i] },
+                    "TimeElevation.t" + i);
+        }
+        return DataUtilities.collection(features);
+    }
+
+    @Test
+    public void testElevationDomain() throws Exception {
+        setupVectorDimension(ResourceInfo.ELEVATION, "elevation", DimensionPresentation.LIST, null,
+                UNITS, UNIT_SYMBOL);
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(V_TIME_ELEVATION.getLocalPart());
+
+        DimensionDomainIndex.Domain domain = index.getDomain(info, ResourceInfo.ELEVATION,
+                getDimension(ResourceInfo.ELEVATION));
+        assertEquals(Arrays.asList(0d, 1d, 2d, 3d), Arrays.asList(domain.getValues().toArray()));
+        assertEquals(0d, domain.getMin());
+        assertEquals(3d, domain.getMax());
+        assertEquals(2d, domain.getNearest(1.6));
+        // ties go to the lower value
+        assertEquals(1d, domain.getNearest(1.5));
+        assertEquals(3d, domain.getNearest(100d));
+
+        // the domain has been persisted, and another index can read it back
+        assertEquals(Type.RESOURCE, index.getResource(info, ResourceInfo.ELEVATION).getType());
+        DimensionDomainIndex.Domain read = index.read(info, ResourceInfo.ELEVATION);
+        assertEquals(domain.getValues(), read.getValues());
+    }
+
+    @Test
+    public void testTimeDomain() throws Exception {
+        setupVectorDimension(ResourceInfo.TIME, "time", DimensionPresentation.LIST, null, null,
+                null);
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(V_TIME_ELEVATION.getLocalPart());
+
+        DimensionDomainIndex.Domain domain = index.getDomain(info, ResourceInfo.TIME,
+                getDimension(ResourceInfo.TIME));
+        assertEquals(4, domain.size());
+        assertEquals(Date.class, domain.getMin().getClass());
+        assertTrue(((Date) domain.getMin()).before((Date) domain.getMax()));
+    }
+
+    TransactionEvent event(TransactionEventType type, TransactionType request,
+            SimpleFeatureCollection features) {
+        return new TransactionEvent(type, TransactionRequest.adapt(request), V_TIME_ELEVATION,
+                features);
+    }
+
+    @Test
+    public void testTransactionUpdates() throws Exception {
+        setupVectorDimension(ResourceInfo.ELEVATION, "elevation", DimensionPresentation.LIST, null,
+                UNITS, UNIT_SYMBOL);
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(V_TIME_ELEVATION.getLocalPart());
+        DimensionInfo dimension = getDimension(ResourceInfo.ELEVATION);
+        DimensionDomainIndex.Domain domain = index.getDomain(info, ResourceInfo.ELEVATION,
+                dimension);
+        assertEquals(4, domain.size());
+
+        // an insert adds the values once committed
+        TransactionType request = WfsFactory.eINSTANCE.createTransactionType();
+        index.dataStoreChange(event(TransactionEventType.POST_INSERT, request, elevations(7, 8)));
+        assertEquals(4, index.getDomain(info, ResourceInfo.ELEVATION, dimension).size());
+        index.afterTransaction(request, null, true);
+        domain = index.getDomain(info, ResourceInfo.ELEVATION, dimension);
+        assertEquals(8d, domain.getMax());
+        assertEquals(6, domain.size());
+
+        // deleting values that are not found in the layer anymore removes them, while values
+        // still found in the layer stay
+        request = WfsFactory.eINSTANCE.createTransactionType();
+        index.dataStoreChange(event(TransactionEventType.PRE_DELETE, request, elevations(2, 8)));
+        index.afterTransaction(request, null, true);
+        domain = index.getDomain(info, ResourceInfo.ELEVATION, dimension);
+        assertEquals(Arrays.asList(0d, 1d, 2d, 3d, 7d), Arrays.asList(domain.getValues()
+                .toArray()));
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        setupVectorDimension(ResourceInfo.ELEVATION, "elevation", DimensionPresentation.LIST, null,
+                UNITS, UNIT_SYMBOL);
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(V_TIME_ELEVATION.getLocalPart());
+        DimensionInfo dimension = getDimension(ResourceInfo.ELEVATION);
+        index.getDomain(info, ResourceInfo.ELEVATION, dimension);
+
+        TransactionType request = WfsFactory.eINSTANCE.createTransactionType();
+        index.dataStoreChange(event(TransactionEventType.POST_INSERT, request, elevations(7)));
+        index.afterTransaction(request, null, false);
+        assertEquals(3d, index.getDomain(info, ResourceInfo.ELEVATION, dimension).getMax());
+        assertFalse(request.getExtendedProperties().containsKey(
+                DimensionDomainIndex.CHANGES_KEY));
+    }
+
+    @Test
+    public void testRebuildKeepsAdditions() throws Exception {
+        DimensionDomainIndex.Domain domain = new DimensionDomainIndex.Domain(
+                new TreeSet<Object>(Arrays.<Object> asList(1d, 2d)));
+        domain.beginRebuild();
+        // committed while the rebuild scan was running, not seen by it
+        domain.add(5d);
+        domain.endRebuild(new TreeSet<Object>(Arrays.<Object> asList(1d, 3d)));
+        assertEquals(Arrays.asList(1d, 3d, 5d), Arrays.asList(domain.getValues().toArray()));
+    }
+
+    @Test
+    public void testCatalogChangeClears() throws Exception {
+        setupVectorDimension(ResourceInfo.ELEVATION, "elevation", DimensionPresentation.LIST, null,
+                UNITS, UNIT_SYMBOL);
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(V_TIME_ELEVATION.getLocalPart());
+        index.getDomain(info, ResourceInfo.ELEVATION, getDimension(ResourceInfo.ELEVATION));
+        assertFalse(index.domains.isEmpty());
+
+        info.setTitle("Modified");
+        getCatalog().save(info);
+        assertTrue(index.domains.isEmpty());
+        assertEquals(Type.UNDEFINED, index.getResource(info, ResourceInfo.ELEVATION).getType());
+    }
+}
@@ -0,0 +1,176 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.wms.GetLegendGraphic;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geoserver.wms.WMSTestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LegendGraphicCacheTest extends WMSTestSupport {
+
+    LegendGraphicCache cache;
+
+    GetLegendGraphic getLegendGraphic;
+
+    @Before
+    public void setUpCache() {
+        cache = new LegendGraphicCache(getCatalog(), getWMS(), 1024 * 1024, false);
+        getLegendGraphic = new GetLegendGraphic(getWMS(), cache);
+    }
+
+    @After
+    public void removeCache() {
+        getCatalog().removeListener(cache);
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+        String layer = getLayerId(MockData.BASIC_POLYGONS);
+        Object first = getLegendGraphic.run(request(layer, null, "20"));
+        Object second = getLegendGraphic.run(request(layer, null, "20"));
+        assertSame(first, second);
+        assertEquals(1, cache.size());
+
+        // a different size is a different legend
+        Object larger = getLegendGraphic.run(request(layer, null, "40"));
+        assertNotSame(first, larger);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testSldBodyNotCached() throws Exception {
+        String layer = getLayerId(MockData.BASIC_POLYGONS);
+        GetLegendGraphicRequest request = request(layer, null, "20");
+        request.getRawKvp().put("SLD_BODY", "<StyledLayerDescriptor/>");
+        cache.put(request, getLegendGraphic.run(request(layer, null, "20")));
+        assertNull(cache.get(request));
+    }
+
+    @Test
+    public void testStyleChangeEvicts() throws Exception {
+        Catalog catalog = getCatalog();
+        String layerName = getLayerId(MockData.BASIC_POLYGONS);
+        LayerInfo layer = catalog.getLayerByName(layerName);
+        StyleInfo style = layer.getDefaultStyle();
+        getLegendGraphic.run(request(layerName, null, "20"));
+        assertEquals(1, cache.size());
+
+        // an unrelated style does not affect the cache
+        for (StyleInfo other : catalog.getStyles()) {
+            if (!other.getId().equals(style.getId())) {
+                catalog.save(other);
+                break;
+            }
+        }
+        assertEquals(1, cache.size());
+
+        // the layer style does
+        catalog.save(style);
+        assertEquals(0, cache.size());
+
+        // and so does the layer
+        getLegendGraphic.run(request(layerName, null, "20"));
+        assertEquals(1, cache.size());
+        catalog.save(layer);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testVirtualServicesKey() throws Exception {
+        // the same layer name in two different workspaces
+        Catalog catalog = getCatalog();
+        QName sfPolygons = new QName(MockData.SF_URI, MockData.BASIC_POLYGONS.getLocalPart(),
+                MockData.SF_PREFIX);
+        getTestData().addVectorLayer(sfPolygons, catalog);
+        String localName = MockData.BASIC_POLYGONS.getLocalPart();
+        try {
+            LocalWorkspace.set(catalog.getWorkspaceByName(MockData.CITE_PREFIX));
+            GetLegendGraphicRequest citeRequest = request(localName, null, "20");
+            String citeKey = cache.getKey(citeRequest, cache.resolve(citeRequest));
+            LocalWorkspace.set(catalog.getWorkspaceByName(MockData.SF_PREFIX));
+            GetLegendGraphicRequest sfRequest = request(localName, null, "20");
+            String sfKey = cache.getKey(sfRequest, cache.resolve(sfRequest));
+            assertNotNull(citeKey);
+            assertNotNull(sfKey);
+            assertFalse(citeKey.equals(sfKey));
+
+            // the prefixed name outside of the virtual service is the same legend
+            LocalWorkspace.remove();
+            GetLegendGraphicRequest prefixed = request(getLayerId(MockData.BASIC_POLYGONS), null,
+                    "20");
+            assertEquals(citeKey, cache.getKey(prefixed, cache.resolve(prefixed)));
+        } finally {
+            LocalWorkspace.remove();
+            LayerInfo layer = catalog.getLayerByName(getLayerId(sfPolygons));
+            catalog.remove(layer);
+            catalog.remove(layer.getResource());
+        }
+    }
+
+    @Test
+    public void testStyleFileChange() throws Exception {
+        String layerName = getLayerId(MockData.BASIC_POLYGONS);
+        Object first = getLegendGraphic.run(request(layerName, null, "20"));
+        assertSame(first, cache.get(request(layerName, null, "20")));
+
+        // the style file is edited on disk, without going through the catalog
+        StyleInfo style = getCatalog().getLayerByName(layerName).getDefaultStyle();
+        File file = getDataDirectory().style(style).file();
+        assertTrue(file.setLastModified(file.lastModified() + 10000));
+        assertNull(cache.get(request(layerName, null, "20")));
+    }
+
+    @Test
+    public void testPrewarm() throws Exception {
+        cache.prewarm();
+        assertTrue(cache.size() > 0);
+
+        // a request with default parameters hits the pre-rendered legend
+        String layer = getLayerId(MockData.BASIC_POLYGONS);
+        GetLegendGraphicRequest request = request(layer, null, null);
+        assertTrue(cache.get(request) != null);
+    }
+
+    GetLegendGraphicRequest request(String layer, String style, String size) throws Exception {
+        Map<String, String> rawKvp = new HashMap<String, String>();
+        rawKvp.put("LAYER", layer);
+        rawKvp.put("FORMAT", "image/png");
+        Map<String, Object> kvp = new HashMap<String, Object>();
+        kvp.put("FORMAT", "image/png");
+        if (style != null) {
+            rawKvp.put("STYLE", style);
+        }
+        if (size != null) {
+            rawKvp.put("WIDTH", size);
+            rawKvp.put("HEIGHT", size);
+            kvp.put("WIDTH", Integer.valueOf(size));
+            kvp.put("HEIGHT", Integer.valueOf(size));
+        }
+        return new GetLegendGraphicKvpReader(getWMS()).read(new GetLegendGraphicRequest(), kvp,
+                rawKvp);
+    }
+}
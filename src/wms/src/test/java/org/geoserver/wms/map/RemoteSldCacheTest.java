@@ -0,0 +1,223 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.StyleFactory;
+import org.geotools.styling.StyledLayerDescriptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RemoteSldCacheTest {
+
+    static final StyleFactory STYLE_FACTORY = CommonFactoryFinder.getStyleFactory(null);
+
+    HttpServer server;
+
+    URL url;
+
+    volatile String etag = "\"v1\"";
+
+    volatile String contents = "<sld/>";
+
+    AtomicInteger served = new AtomicInteger();
+
+    AtomicInteger parsed = new AtomicInteger();
+
+    volatile CountDownLatch block;
+
+    RemoteSldCache.StyleParser parser = new RemoteSldCache.StyleParser() {
+
+        @Override
+        public StyledLayerDescriptor parse(InputStream input) throws IOException {
+            parsed.incrementAndGet();
+            StyledLayerDescriptor sld = STYLE_FACTORY.createStyledLayerDescriptor();
+            sld.setName(IOUtils.toString(input, "UTF-8"));
+            return sld;
+        }
+    };
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/style.sld", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                served.incrementAndGet();
+                if (block != null) {
+                    try {
+                        block.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                exchange.getResponseHeaders().add("ETag", etag);
+                if (etag.equals(ifNoneMatch)) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    byte[] bytes = contents.getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    OutputStream os = exchange.getResponseBody();
+                    os.write(bytes);
+                    os.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/style.sld");
+    }
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCacheable() throws Exception {
+        assertFalse(new RemoteSldCache(0, 300, null).isCacheable(url));
+        assertTrue(new RemoteSldCache(1024 * 1024, 300, null).isCacheable(url));
+        assertFalse(new RemoteSldCache(1024 * 1024, 300, null).isCacheable(new URL(
+                "file:///tmp/style.sld")));
+        RemoteSldCache cache = new RemoteSldCache(1024 * 1024, 300,
+                "http://www\\.geoserver\\.org/.*, http://localhost:\\d+/.*");
+        assertTrue(cache.isCacheable(url));
+        assertFalse(cache.isCacheable(new URL("http://www.google.com/style.sld")));
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        RemoteSldCache cache = new RemoteSldCache(1024 * 1024, 300, null);
+        StyledLayerDescriptor first = cache.getStyle(url, "sld", parser);
+        StyledLayerDescriptor second = cache.getStyle(url, "sld", parser);
+        assertEquals("<sld/>", first.getName());
+        assertEquals("<sld/>", second.getName());
+        // callers get their own copy
+        assertNotSame(first, second);
+
+        assertEquals(1, served.get());
+        assertEquals(1, parsed.get());
+        assertEquals(2, cache.getRequests());
+        assertEquals(1, cache.getHits());
+        assertEquals(0.5, cache.getHitRate(), 0d);
+        assertEquals(1, cache.getFetches());
+        assertArrayEquals("<sld/>".getBytes("UTF-8"), cache.getDocument(url));
+
+        // a different parse key parses again, but does not fetch
+        cache.getStyle(url, "sld|1.1.0", parser);
+        assertEquals(1, served.get());
+        assertEquals(2, parsed.get());
+    }
+
+    @Test
+    public void testRevalidation() throws Exception {
+        RemoteSldCache cache = new RemoteSldCache(1024 * 1024, 300, null);
+        cache.getStyle(url, "sld", parser);
+        // force revalidation on each lookup
+        cache.timeToLive = -1;
+
+        // not modified, the parsed style is reused
+        cache.getStyle(url, "sld", parser);
+        assertEquals(2, served.get());
+        assertEquals(1, parsed.get());
+        assertEquals(1, cache.getRevalidations());
+        assertEquals(1, cache.getNotModified());
+
+        // modified, we get the new contents
+        etag = "\"v2\"";
+        contents = "<sld version=\"2\"/>";
+        StyledLayerDescriptor sld = cache.getStyle(url, "sld", parser);
+        assertEquals("<sld version=\"2\"/>", sld.getName());
+        assertEquals(3, served.get());
+        assertEquals(2, parsed.get());
+        assertEquals(2, cache.getRevalidations());
+        assertEquals(1, cache.getNotModified());
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testStaleWhileRevalidating() throws Exception {
+        final RemoteSldCache cache = new RemoteSldCache(1024 * 1024, 300, null);
+        cache.getStyle(url, "sld", parser);
+        cache.timeToLive = -1;
+        etag = "\"v2\"";
+        contents = "<sld version=\"2\"/>";
+
+        // the remote server hangs while answering the revalidation
+        block = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<StyledLayerDescriptor> revalidated = executor
+                    .submit(new Callable<StyledLayerDescriptor>() {
+
+                        @Override
+                        public StyledLayerDescriptor call() throws Exception {
+                            return cache.getStyle(url, "sld", parser);
+                        }
+                    });
+            long limit = System.currentTimeMillis() + 10000;
+            while (cache.getRevalidations() == 0 && System.currentTimeMillis() < limit) {
+                Thread.sleep(10);
+            }
+
+            // the stale copy is returned without waiting
+            assertEquals("<sld/>", cache.getStyle(url, "sld", parser).getName());
+            assertEquals(1, cache.getRevalidations());
+
+            block.countDown();
+            assertEquals("<sld version=\"2\"/>", revalidated.get(10, TimeUnit.SECONDS)
+                    .getName());
+        } finally {
+            block.countDown();
+            executor.shutdown();
+        }
+        assertEquals(2, served.get());
+    }
+
+    @Test
+    public void testRevalidationFailure() throws Exception {
+        RemoteSldCache cache = new RemoteSldCache(1024 * 1024, 300, null);
+        cache.getStyle(url, "sld", parser);
+        cache.timeToLive = -1;
+        server.stop(0);
+        server = null;
+
+        // the remote server is gone, the cached copy is used
+        assertEquals("<sld/>", cache.getStyle(url, "sld", parser).getName());
+        assertEquals(1, cache.getRevalidations());
+    }
+}
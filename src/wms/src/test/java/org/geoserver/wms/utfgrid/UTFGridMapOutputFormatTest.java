@@ -0,0 +1,213 @@
+/* (c) 2014 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.utfgrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Set;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.geoserver.data.test.MockData;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wms.WMSTestSupport;
+import org.geoserver.wms.utfgrid.HitGridRenderer.HitGridListener;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.geometry.jts.WKTReader2;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.renderer.lite.RendererUtilities;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class UTFGridMapOutputFormatTest extends WMSTestSupport {
+
+    static final String MAP_PARAMS = "bbox=-2,-1,2,6&styles=&layers=cite:BasicPolygons"
+            + "&srs=EPSG:4326&width=160&height=280&version=1.1.1";
+
+    @BeforeClass
+    public static void enableCache() {
+        System.setProperty(HitGridCache.CACHE_SIZE_KEY, "10");
+    }
+
+    @AfterClass
+    public static void resetCacheSize() {
+        System.clearProperty(HitGridCache.CACHE_SIZE_KEY);
+    }
+
+    @After
+    public void clearCache() {
+        applicationContext.getBean(HitGridCache.class).clear();
+    }
+
+    @Test
+    public void testEncodeKey() {
+        assertEquals(32, UTFGridMapOutputFormat.encodeKey(0));
+        assertEquals(33, UTFGridMapOutputFormat.encodeKey(1));
+        // skip the double quote
+        assertEquals(35, UTFGridMapOutputFormat.encodeKey(2));
+        // and the backslash
+        assertEquals(91, UTFGridMapOutputFormat.encodeKey(57));
+        assertEquals(93, UTFGridMapOutputFormat.encodeKey(58));
+    }
+
+    @Test
+    public void testGrid() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse("wms?service=WMS&request=GetMap&"
+                + MAP_PARAMS + "&format=utfgrid");
+        assertEquals(UTFGridMapOutputFormat.MIME_TYPE, response.getContentType());
+        JSONObject json = JSONObject.fromObject(response.getOutputStreamContent());
+        // print(json);
+
+        JSONArray grid = json.getJSONArray("grid");
+        assertEquals(70, grid.size());
+        assertEquals(40, grid.getString(0).length());
+        JSONArray keys = json.getJSONArray("keys");
+        assertEquals(4, keys.size());
+        assertEquals("", keys.getString(0));
+
+        // the diamond around the origin
+        assertEquals("BasicPolygons.1107531493630", keyAt(json, 20, 60));
+        // the overlapping area, the last painted polygon wins
+        assertEquals("BasicPolygons.1107531493644", keyAt(json, 20, 20));
+        // nothing in the top right corner
+        assertEquals("", keyAt(json, 39, 0));
+
+        JSONObject data = json.getJSONObject("data").getJSONObject("BasicPolygons.1107531493630");
+        assertTrue(data.has("ID"));
+        assertTrue(!data.has("the_geom"));
+    }
+
+    @Test
+    public void testResolution() throws Exception {
+        JSONObject json = (JSONObject) getAsJSON("wms?service=WMS&request=GetMap&" + MAP_PARAMS
+                + "&format=utfgrid&format_options=utfresolution:8");
+        assertEquals(35, json.getJSONArray("grid").size());
+        assertEquals(20, json.getJSONArray("grid").getString(0).length());
+    }
+
+    @Test
+    public void testHitGridFeatureInfo() throws Exception {
+        HitGridCache cache = applicationContext.getBean(HitGridCache.class);
+        assertTrue(cache.isEnabled());
+
+        getAsServletResponse("wms?service=WMS&request=GetMap&" + MAP_PARAMS + "&format=utfgrid");
+        assertEquals(1, cache.size());
+
+        // a click in the diamond, answered by the grid
+        String url = "wms?service=WMS&request=GetFeatureInfo&" + MAP_PARAMS
+                + "&info_format=application/json&query_layers=cite:BasicPolygons"
+                + "&x=80&y=240&feature_count=1";
+        long hits = cache.getHits();
+        JSONObject result = (JSONObject) getAsJSON(url);
+        JSONArray features = result.getJSONArray("features");
+        assertEquals(1, features.size());
+        assertEquals("BasicPolygons.1107531493630", features.getJSONObject(0).getString("id"));
+        assertEquals(hits + 1, cache.getHits());
+
+        // asking for more features in the overlap area, the grid only knows the top most one,
+        // the layer is rendered and both polygons are found
+        url = url.replace("x=80&y=240&feature_count=1", "x=80&y=80&feature_count=10");
+        result = (JSONObject) getAsJSON(url);
+        assertEquals(2, result.getJSONArray("features").size());
+        assertEquals(hits + 1, cache.getHits());
+
+        // a catalog change drops the grids
+        getCatalog().save(getCatalog().getLayerByName(getLayerId(MockData.BASIC_POLYGONS)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTransactionDropsLayerGrids() throws Exception {
+        HitGridCache cache = applicationContext.getBean(HitGridCache.class);
+        getAsServletResponse("wms?service=WMS&request=GetMap&" + MAP_PARAMS + "&format=utfgrid");
+        getAsServletResponse("wms?service=WMS&request=GetMap&"
+                + MAP_PARAMS.replace("BasicPolygons", "Lakes") + "&format=utfgrid");
+        assertEquals(2, cache.size());
+
+        // only the grids of the modified layer are dropped
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                MockData.BASIC_POLYGONS, null));
+        assertEquals(1, cache.size());
+        getAsServletResponse("wms?service=WMS&request=GetMap&" + MAP_PARAMS + "&format=utfgrid");
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testPaintedArea() throws Exception {
+        // a 10x10 grid over a 0,0,10,10 map, with symbols spilling one cell past the features
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        ReferencedEnvelope area = new ReferencedEnvelope(0, 10, 0, 10,
+                DefaultGeographicCRS.WGS84);
+        AffineTransform worldToGrid = RendererUtilities.worldToScreenTransform(area,
+                new Rectangle(10, 10));
+        HitGridListener listener = new HitGridListener(image, null, worldToGrid,
+                DefaultGeographicCRS.WGS84, 1);
+
+        SimpleFeatureType type = DataUtilities.createType("test", "geom:Point");
+        SimpleFeature feature = SimpleFeatureBuilder.build(type,
+                new Object[] { new WKTReader2().read("POINT(2.5 7.5)") }, "test.1");
+        assertEquals(new Rectangle(1, 1, 3, 3), listener.getPaintedArea(feature));
+
+        // the pixels painted around the feature are assigned to it
+        image.setRGB(2, 2, 0xFF000000);
+        listener.featureRenderer(feature);
+        assertEquals(0, image.getRGB(2, 2));
+        HitGrid grid = listener.buildGrid(area, 10, 10, 1);
+        assertEquals("test.1", grid.getFid(2, 2));
+
+        // without a margin the whole image is scanned
+        listener = new HitGridListener(image, null, worldToGrid, DefaultGeographicCRS.WGS84, -1);
+        assertEquals(new Rectangle(0, 0, 10, 10), listener.getPaintedArea(feature));
+    }
+
+    @Test
+    public void testHitGridLookup() {
+        // a 2x2 grid over a 4x4 map
+        int[] cells = new int[] { 1, 0, 0, 2 };
+        HitGrid grid = new HitGrid(new Envelope(0, 4, 0, 4), 2, 2, cells, Arrays.asList("a", "b"),
+                1);
+        assertEquals("a", grid.getFid(0, 0));
+        assertEquals(null, grid.getFid(1, 0));
+        Set<String> fids = grid.getFids(1, 3, 0);
+        assertEquals(1, fids.size());
+        assertTrue(fids.contains("a"));
+        // a large radius catches both, the closest first
+        fids = grid.getFids(3, 1, 3);
+        assertEquals(Arrays.asList("b", "a"), Arrays.asList(fids.toArray()));
+
+        assertTrue(grid.covers(1, 1, 1));
+        assertTrue(!grid.covers(1, 1, 2));
+        assertTrue(!grid.covers(5, 1, 1));
+    }
+
+    String keyAt(JSONObject json, int col, int row) {
+        int code = json.getJSONArray("grid").getString(row).codePointAt(col);
+        int index = code;
+        if (index >= 93) {
+            index--;
+        }
+        if (index >= 35) {
+            index--;
+        }
+        index -= 32;
+        return json.getJSONArray("keys").getString(index);
+    }
+}